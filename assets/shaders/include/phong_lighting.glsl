@@ -0,0 +1,31 @@
+/*
+ * Phong lighting for a single directional light source. Included by the phong fragment shaders.
+ * Inspired by http://www.opengl-tutorial.org/beginners-tutorials/tutorial-8-basic-shading/
+ *
+ * @author fabmax
+ */
+
+uniform float uShininess;
+uniform vec3 uLightColor;
+
+vec3 phongLighting(vec3 fragmentColor, vec3 eyeDir, vec3 lightDir, vec3 normal, float visibility) {
+	// normalize input vectors
+	vec3 e = normalize(eyeDir);
+	vec3 l = normalize(lightDir);
+	vec3 n = normalize(normal);
+
+	// for diffuse lighting: cosine of angle between surface normal and light direction
+	float cosTheta = clamp(dot(n, l), 0.0, 1.0);
+
+	// for specular lighting: direction in which the light is reflected
+	vec3 r = reflect(-l, n);
+	// Cosine of the angle between the eye vector and the reflect vector
+	float cosAlpha = clamp(dot(e, r), 0.0, 1.0);
+
+	vec3 materialAmbientColor = vec3(0.2, 0.2, 0.2) * fragmentColor;
+	vec3 materialDiffuseColor = fragmentColor * uLightColor * cosTheta;
+	vec3 materialSpecularColor = uLightColor * pow(cosAlpha, uShininess);
+
+	// compute output color, ambient light is not affected by shadows
+	return materialAmbientColor + (materialDiffuseColor + materialSpecularColor) * visibility;
+}
@@ -0,0 +1,45 @@
+/*
+ * Shadow map lookup. Included by the phong fragment shader if SHADOW is defined. If SHADOW_PCF is
+ * defined the shadow map is sampled 4 times for smooth shadow edges, otherwise only a single
+ * sample is taken, which is faster but gives hard and jagged shadow edges.
+ * Inspired by http://www.opengl-tutorial.org/intermediate-tutorials/tutorial-16-shadow-mapping/
+ * However a standard texture is used instead of a depth texture for shadow computation, because
+ * depth textures aren't supported on many devices (e.g. my Galaxy Nexus)
+ *
+ * @author fabmax
+ */
+
+uniform sampler2D uShadowSampler;
+
+#ifdef SHADOW_PCF
+
+float shadowVisibility(vec4 coord) {
+	float visibility = 4.0;
+	float depth = clamp((coord.z - 0.01) / coord.w, 0.0, 1.0);
+	
+	vec4 shadowValue = texture2D(uShadowSampler, vec2(coord.x - 0.003768, coord.y - 0.001596));
+	visibility -= clamp((depth - (shadowValue.r + shadowValue.g / 255.0)) * 1000.0, 0.0, 1.0);
+	
+	shadowValue = texture2D(uShadowSampler, vec2(coord.x + 0.003782, coord.y - 0.003076));
+	visibility -= clamp((depth - (shadowValue.r + shadowValue.g / 255.0)) * 1000.0, 0.0, 1.0);
+	
+	shadowValue = texture2D(uShadowSampler, vec2(coord.x - 0.000377, coord.y - 0.003718));
+	visibility -= clamp((depth - (shadowValue.r + shadowValue.g / 255.0)) * 1000.0, 0.0, 1.0);
+	
+	shadowValue = texture2D(uShadowSampler, vec2(coord.x + 0.001380, coord.y + 0.001176));
+	visibility -= clamp((depth - (shadowValue.r + shadowValue.g / 255.0)) * 1000.0, 0.0, 1.0);
+	
+	return clamp(visibility / 5.0, 0.2, 1.0);
+}
+
+#else
+
+float shadowVisibility(vec4 coord) {
+	float depth = clamp((coord.z - 0.005) / coord.w, 0.0, 1.0);
+	
+	vec4 shadowValue = texture2D(uShadowSampler, coord.xy);
+	float d = shadowValue.r + shadowValue.g / 255.0;
+	return 1.0 - clamp((depth - d) * 1000.0, 0.0, 0.8);
+}
+
+#endif
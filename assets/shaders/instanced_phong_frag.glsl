@@ -0,0 +1,20 @@
+/*
+ * A phong fragment shader for pseudo-instanced rendering, objects are colored with their instance color.
+ * Inspired by http://www.opengl-tutorial.org/beginners-tutorials/tutorial-8-basic-shading/
+ *
+ * @author fabmax
+ */
+
+precision mediump float;
+
+#include "include/phong_lighting.glsl"
+
+varying vec3 vFragmentColor;
+varying vec3 vEyeDirection_cameraspace;
+varying vec3 vLightDirection_cameraspace;
+varying vec3 vNormal_cameraspace;
+
+void main() {
+	gl_FragColor.rgb = phongLighting(vFragmentColor, vEyeDirection_cameraspace,
+			vLightDirection_cameraspace, vNormal_cameraspace, 1.0);
+}
\ No newline at end of file
@@ -0,0 +1,71 @@
+/*
+ * A phong vertex shader for instanced rendering. With HW_INSTANCING the per-instance transformation
+ * and color are per-instance vertex attributes (attribute divisor 1). Otherwise pseudo-instancing is
+ * used and they are read from a uniform array indexed by the per-vertex instance ID.
+ * Inspired by http://www.opengl-tutorial.org/beginners-tutorials/tutorial-8-basic-shading/
+ *
+ * @author fabmax
+ */
+
+uniform mat4 uMvpMatrix;
+uniform mat4 uModelMatrix;
+uniform mat4 uViewMatrix;
+uniform vec3 uLightDirection_worldspace;
+
+attribute vec3 aVertexPosition_modelspace;
+attribute vec3 aVertexNormal_modelspace;
+
+#ifdef HW_INSTANCING
+// 3 rows of the affine instance transformation and the instance color
+attribute vec4 aInstanceRow0;
+attribute vec4 aInstanceRow1;
+attribute vec4 aInstanceRow2;
+attribute vec4 aInstanceColor;
+#else
+// 4 vectors per instance: 3 rows of the affine instance transformation and the instance color,
+// array size is 4 * InstancedMesh.BATCH_SIZE
+uniform vec4 uInstanceData[96];
+
+attribute float aInstanceId;
+#endif
+
+varying vec3 vFragmentColor;
+varying vec3 vEyeDirection_cameraspace;
+varying vec3 vLightDirection_cameraspace;
+varying vec3 vNormal_cameraspace;
+
+void main() {
+#ifdef HW_INSTANCING
+	vec4 row0 = aInstanceRow0;
+	vec4 row1 = aInstanceRow1;
+	vec4 row2 = aInstanceRow2;
+	vec4 color = aInstanceColor;
+#else
+	int idx = int(aInstanceId) * 4;
+	vec4 row0 = uInstanceData[idx];
+	vec4 row1 = uInstanceData[idx + 1];
+	vec4 row2 = uInstanceData[idx + 2];
+	vec4 color = uInstanceData[idx + 3];
+#endif
+	
+	// apply instance transformation to vertex position and normal
+	vec4 pos = vec4(aVertexPosition_modelspace, 1);
+	vec4 position_modelspace = vec4(dot(row0, pos), dot(row1, pos), dot(row2, pos), 1);
+	vec4 norm = vec4(aVertexNormal_modelspace, 0);
+	vec4 normal_modelspace = vec4(dot(row0, norm), dot(row1, norm), dot(row2, norm), 0);
+	
+	// interpolate instance color for usage in fragment shader
+	vFragmentColor = color.rgb;
+	
+	// Output position of the vertex in clip space : MVP * position
+    gl_Position = uMvpMatrix * position_modelspace;
+    
+	// Vector from vertex to camera, in camera space. In camera space, the camera is at the origin (0, 0, 0).
+	vEyeDirection_cameraspace = -(uViewMatrix * uModelMatrix * position_modelspace).xyz;
+
+	// Light direction, in camera space. M is left out because light position is already in world space.
+	vLightDirection_cameraspace = (uViewMatrix * vec4(uLightDirection_worldspace, 0)).xyz;
+	
+	// Normal of the the vertex, in camera space
+	vNormal_cameraspace = (uViewMatrix * uModelMatrix * normal_modelspace).xyz;
+}
\ No newline at end of file
@@ -0,0 +1,49 @@
+/*
+ * A phong fragment shader that supports a single light source. The supported features are
+ * selected by the defines inserted by the ShaderManager, see phong_vert.glsl. SHADOW_PCF enables
+ * smooth shadow edges, see include/shadow_map.glsl.
+ * Inspired by http://www.opengl-tutorial.org/beginners-tutorials/tutorial-8-basic-shading/
+ *
+ * @author fabmax
+ */
+
+precision mediump float;
+
+#include "include/phong_lighting.glsl"
+
+varying vec3 vEyeDirection_cameraspace;
+varying vec3 vLightDirection_cameraspace;
+varying vec3 vNormal_cameraspace;
+
+#ifdef TEXTURE
+uniform sampler2D uTextureSampler;
+varying vec2 vTexCoord;
+#endif
+
+#ifdef VERTEX_COLOR
+varying vec3 vFragmentColor;
+#endif
+
+#ifdef SHADOW
+#include "include/shadow_map.glsl"
+varying vec4 vShadowCoord;
+#endif
+
+void main() {
+	vec3 fragmentColor = vec3(1.0, 1.0, 1.0);
+#ifdef TEXTURE
+	fragmentColor *= texture2D(uTextureSampler, vTexCoord).rgb;
+#endif
+#ifdef VERTEX_COLOR
+	fragmentColor *= vFragmentColor;
+#endif
+
+#ifdef SHADOW
+	float visibility = shadowVisibility(vShadowCoord);
+#else
+	float visibility = 1.0;
+#endif
+
+	gl_FragColor.rgb = phongLighting(fragmentColor, vEyeDirection_cameraspace,
+			vLightDirection_cameraspace, vNormal_cameraspace, visibility);
+}
@@ -1,42 +1,64 @@
-/*
- * A phong vertex shader that supports a single light source with dynamic shadows.
- * Inspired by http://www.opengl-tutorial.org/intermediate-tutorials/tutorial-16-shadow-mapping/
- *
- * @author fabmax
- */
-
-uniform mat4 uMvpMatrix;
-uniform mat4 uModelMatrix;
-uniform mat4 uViewMatrix;
-uniform vec3 uLightDirection_worldspace;
-uniform mat4 uShadowMvpMatrix;
-
-attribute vec3 aVertexPosition_modelspace;
-attribute vec3 aVertexNormal_modelspace;
-attribute vec2 aVertexTexCoord;
-
-varying vec2 vTexCoord;
-varying vec3 vEyeDirection_cameraspace;
-varying vec3 vLightDirection_cameraspace;
-varying vec3 vNormal_cameraspace;
-varying vec4 vShadowCoord;
-
-void main() {
-	// interpolate vertex color for usage in fragment shader
-	vTexCoord = aVertexTexCoord;
-	
-	// compute vertex position in shadow map
-	vShadowCoord = uShadowMvpMatrix * vec4(aVertexPosition_modelspace, 1);
-	
-	// Output position of the vertex in clip space : MVP * position
-    gl_Position = uMvpMatrix * vec4(aVertexPosition_modelspace, 1);
-    
-	// Vector from vertex to camera, in camera space. In camera space, the camera is at the origin (0, 0, 0).
-	vEyeDirection_cameraspace = -(uViewMatrix * uModelMatrix * vec4(aVertexPosition_modelspace, 1)).xyz;
-
-	// Light direction, in camera space. M is left out because light position is already in world space.
-	vLightDirection_cameraspace = (uViewMatrix * vec4(uLightDirection_worldspace, 0)).xyz;
-	
-	// Normal of the the vertex, in camera space
-	vNormal_cameraspace = (uViewMatrix * uModelMatrix * vec4(aVertexNormal_modelspace, 0)).xyz;	
-}
\ No newline at end of file
+/*
+ * A phong vertex shader that supports a single light source. The supported features are selected
+ * by the defines inserted by the ShaderManager:
+ *   TEXTURE       the object is texture mapped
+ *   VERTEX_COLOR  the object has vertex colors, multiplied with the texture color if both are set
+ *   SHADOW        the object receives dynamic shadows
+ * Inspired by http://www.opengl-tutorial.org/beginners-tutorials/tutorial-8-basic-shading/
+ *
+ * @author fabmax
+ */
+
+uniform mat4 uMvpMatrix;
+uniform mat4 uModelMatrix;
+uniform mat4 uViewMatrix;
+uniform vec3 uLightDirection_worldspace;
+
+attribute vec3 aVertexPosition_modelspace;
+attribute vec3 aVertexNormal_modelspace;
+
+varying vec3 vEyeDirection_cameraspace;
+varying vec3 vLightDirection_cameraspace;
+varying vec3 vNormal_cameraspace;
+
+#ifdef TEXTURE
+attribute vec2 aVertexTexCoord;
+varying vec2 vTexCoord;
+#endif
+
+#ifdef VERTEX_COLOR
+attribute vec3 aVertexColor;
+varying vec3 vFragmentColor;
+#endif
+
+#ifdef SHADOW
+uniform mat4 uShadowMvpMatrix;
+varying vec4 vShadowCoord;
+#endif
+
+void main() {
+#ifdef TEXTURE
+	// interpolate texture coordinates for usage in fragment shader
+	vTexCoord = aVertexTexCoord;
+#endif
+#ifdef VERTEX_COLOR
+	// interpolate vertex color for usage in fragment shader
+	vFragmentColor = aVertexColor;
+#endif
+#ifdef SHADOW
+	// compute vertex position in shadow map
+	vShadowCoord = uShadowMvpMatrix * vec4(aVertexPosition_modelspace, 1);
+#endif
+
+	// Output position of the vertex in clip space : MVP * position
+	gl_Position = uMvpMatrix * vec4(aVertexPosition_modelspace, 1);
+	
+	// Vector from vertex to camera, in camera space. In camera space, the camera is at the origin (0, 0, 0).
+	vEyeDirection_cameraspace = -(uViewMatrix * uModelMatrix * vec4(aVertexPosition_modelspace, 1)).xyz;
+
+	// Light direction, in camera space. M is left out because light position is already in world space.
+	vLightDirection_cameraspace = (uViewMatrix * vec4(uLightDirection_worldspace, 0)).xyz;
+	
+	// Normal of the the vertex, in camera space
+	vNormal_cameraspace = (uViewMatrix * uModelMatrix * vec4(aVertexNormal_modelspace, 0)).xyz;
+}
@@ -0,0 +1,36 @@
+package android.opengl;
+
+/**
+ * Pure Java replacement of the Android GLU class for running the engine on a desktop JVM, see
+ * {@link Matrix}. Only gluUnProject() is implemented, with the same semantics as the Android
+ * version: the resulting coordinates are not divided by w.
+ * 
+ * @author fabmax
+ * 
+ */
+public class GLU {
+
+    private static final float[] sScratch = new float[32];
+
+    /**
+     * Maps window coordinates to object coordinates. Returns 1 on success and 0 if the combined
+     * projection and model-view matrix is not invertible.
+     */
+    public static int gluUnProject(float winX, float winY, float winZ, float[] model,
+            int modelOffset, float[] project, int projectOffset, int[] view, int viewOffset,
+            float[] obj, int objOffset) {
+        float[] scratch = sScratch;
+        synchronized (scratch) {
+            Matrix.multiplyMM(scratch, 0, project, projectOffset, model, modelOffset);
+            if (!Matrix.invertM(scratch, 16, scratch, 0)) {
+                return 0;
+            }
+            scratch[0] = 2.0f * (winX - view[viewOffset]) / view[viewOffset + 2] - 1.0f;
+            scratch[1] = 2.0f * (winY - view[viewOffset + 1]) / view[viewOffset + 3] - 1.0f;
+            scratch[2] = 2.0f * winZ - 1.0f;
+            scratch[3] = 1.0f;
+            Matrix.multiplyMV(obj, objOffset, scratch, 16, scratch, 0);
+        }
+        return 1;
+    }
+}
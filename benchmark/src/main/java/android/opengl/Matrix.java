@@ -0,0 +1,160 @@
+package android.opengl;
+
+/**
+ * Pure Java replacement of the Android Matrix class for running the engine on a desktop JVM. The
+ * Android framework jar only contains stubs and on devices multiplyMM() and multiplyMV() are
+ * native methods, so benchmarks need their own implementation. Only the methods used by the
+ * benchmarked code are implemented, with the same semantics as the Android versions: matrices are
+ * stored in column-major order.
+ * 
+ * Absolute timings of code using this class differ from the timings on a device, the benchmarks
+ * are meant for comparisons between commits on the same machine.
+ * 
+ * @author fabmax
+ * 
+ */
+public class Matrix {
+
+    /**
+     * Multiplies two 4x4 matrices: result = lhs * rhs. result must not overlap with lhs or rhs.
+     */
+    public static void multiplyMM(float[] result, int resultOffset, float[] lhs, int lhsOffset,
+            float[] rhs, int rhsOffset) {
+        for (int i = 0; i < 4; i++) {
+            float r0 = rhs[rhsOffset + i * 4];
+            float r1 = rhs[rhsOffset + i * 4 + 1];
+            float r2 = rhs[rhsOffset + i * 4 + 2];
+            float r3 = rhs[rhsOffset + i * 4 + 3];
+            for (int j = 0; j < 4; j++) {
+                result[resultOffset + i * 4 + j] = lhs[lhsOffset + j] * r0
+                        + lhs[lhsOffset + 4 + j] * r1 + lhs[lhsOffset + 8 + j] * r2
+                        + lhs[lhsOffset + 12 + j] * r3;
+            }
+        }
+    }
+
+    /**
+     * Multiplies a 4x4 matrix with a 4 element vector: result = lhsMat * rhsVec. result must not
+     * overlap with lhsMat or rhsVec.
+     */
+    public static void multiplyMV(float[] resultVec, int resultVecOffset, float[] lhsMat,
+            int lhsMatOffset, float[] rhsVec, int rhsVecOffset) {
+        float x = rhsVec[rhsVecOffset];
+        float y = rhsVec[rhsVecOffset + 1];
+        float z = rhsVec[rhsVecOffset + 2];
+        float w = rhsVec[rhsVecOffset + 3];
+        for (int j = 0; j < 4; j++) {
+            resultVec[resultVecOffset + j] = lhsMat[lhsMatOffset + j] * x
+                    + lhsMat[lhsMatOffset + 4 + j] * y + lhsMat[lhsMatOffset + 8 + j] * z
+                    + lhsMat[lhsMatOffset + 12 + j] * w;
+        }
+    }
+
+    /**
+     * Inverts a 4x4 matrix. Returns false if the matrix is not invertible.
+     */
+    public static boolean invertM(float[] mInv, int mInvOffset, float[] m, int mOffset) {
+        float[] a = new float[16];
+        System.arraycopy(m, mOffset, a, 0, 16);
+        float[] inv = new float[16];
+
+        inv[0] = a[5] * a[10] * a[15] - a[5] * a[11] * a[14] - a[9] * a[6] * a[15]
+                + a[9] * a[7] * a[14] + a[13] * a[6] * a[11] - a[13] * a[7] * a[10];
+        inv[4] = -a[4] * a[10] * a[15] + a[4] * a[11] * a[14] + a[8] * a[6] * a[15]
+                - a[8] * a[7] * a[14] - a[12] * a[6] * a[11] + a[12] * a[7] * a[10];
+        inv[8] = a[4] * a[9] * a[15] - a[4] * a[11] * a[13] - a[8] * a[5] * a[15]
+                + a[8] * a[7] * a[13] + a[12] * a[5] * a[11] - a[12] * a[7] * a[9];
+        inv[12] = -a[4] * a[9] * a[14] + a[4] * a[10] * a[13] + a[8] * a[5] * a[14]
+                - a[8] * a[6] * a[13] - a[12] * a[5] * a[10] + a[12] * a[6] * a[9];
+        inv[1] = -a[1] * a[10] * a[15] + a[1] * a[11] * a[14] + a[9] * a[2] * a[15]
+                - a[9] * a[3] * a[14] - a[13] * a[2] * a[11] + a[13] * a[3] * a[10];
+        inv[5] = a[0] * a[10] * a[15] - a[0] * a[11] * a[14] - a[8] * a[2] * a[15]
+                + a[8] * a[3] * a[14] + a[12] * a[2] * a[11] - a[12] * a[3] * a[10];
+        inv[9] = -a[0] * a[9] * a[15] + a[0] * a[11] * a[13] + a[8] * a[1] * a[15]
+                - a[8] * a[3] * a[13] - a[12] * a[1] * a[11] + a[12] * a[3] * a[9];
+        inv[13] = a[0] * a[9] * a[14] - a[0] * a[10] * a[13] - a[8] * a[1] * a[14]
+                + a[8] * a[2] * a[13] + a[12] * a[1] * a[10] - a[12] * a[2] * a[9];
+        inv[2] = a[1] * a[6] * a[15] - a[1] * a[7] * a[14] - a[5] * a[2] * a[15]
+                + a[5] * a[3] * a[14] + a[13] * a[2] * a[7] - a[13] * a[3] * a[6];
+        inv[6] = -a[0] * a[6] * a[15] + a[0] * a[7] * a[14] + a[4] * a[2] * a[15]
+                - a[4] * a[3] * a[14] - a[12] * a[2] * a[7] + a[12] * a[3] * a[6];
+        inv[10] = a[0] * a[5] * a[15] - a[0] * a[7] * a[13] - a[4] * a[1] * a[15]
+                + a[4] * a[3] * a[13] + a[12] * a[1] * a[7] - a[12] * a[3] * a[5];
+        inv[14] = -a[0] * a[5] * a[14] + a[0] * a[6] * a[13] + a[4] * a[1] * a[14]
+                - a[4] * a[2] * a[13] - a[12] * a[1] * a[6] + a[12] * a[2] * a[5];
+        inv[3] = -a[1] * a[6] * a[11] + a[1] * a[7] * a[10] + a[5] * a[2] * a[11]
+                - a[5] * a[3] * a[10] - a[9] * a[2] * a[7] + a[9] * a[3] * a[6];
+        inv[7] = a[0] * a[6] * a[11] - a[0] * a[7] * a[10] - a[4] * a[2] * a[11]
+                + a[4] * a[3] * a[10] + a[8] * a[2] * a[7] - a[8] * a[3] * a[6];
+        inv[11] = -a[0] * a[5] * a[11] + a[0] * a[7] * a[9] + a[4] * a[1] * a[11]
+                - a[4] * a[3] * a[9] - a[8] * a[1] * a[7] + a[8] * a[3] * a[5];
+        inv[15] = a[0] * a[5] * a[10] - a[0] * a[6] * a[9] - a[4] * a[1] * a[10]
+                + a[4] * a[2] * a[9] + a[8] * a[1] * a[6] - a[8] * a[2] * a[5];
+
+        float det = a[0] * inv[0] + a[1] * inv[4] + a[2] * inv[8] + a[3] * inv[12];
+        if (det == 0.0f) {
+            return false;
+        }
+        det = 1.0f / det;
+        for (int i = 0; i < 16; i++) {
+            mInv[mInvOffset + i] = inv[i] * det;
+        }
+        return true;
+    }
+
+    /**
+     * Sets the specified matrix to the identity matrix.
+     */
+    public static void setIdentityM(float[] sm, int smOffset) {
+        for (int i = 0; i < 16; i++) {
+            sm[smOffset + i] = (i % 5 == 0) ? 1.0f : 0.0f;
+        }
+    }
+
+    /**
+     * Computes a view matrix from an eye point, a center point and an up vector.
+     */
+    public static void setLookAtM(float[] rm, int rmOffset, float eyeX, float eyeY, float eyeZ,
+            float centerX, float centerY, float centerZ, float upX, float upY, float upZ) {
+        // forward vector
+        float fx = centerX - eyeX;
+        float fy = centerY - eyeY;
+        float fz = centerZ - eyeZ;
+        float rlf = 1.0f / (float) Math.sqrt(fx * fx + fy * fy + fz * fz);
+        fx *= rlf;
+        fy *= rlf;
+        fz *= rlf;
+
+        // side = f x up
+        float sx = fy * upZ - fz * upY;
+        float sy = fz * upX - fx * upZ;
+        float sz = fx * upY - fy * upX;
+        float rls = 1.0f / (float) Math.sqrt(sx * sx + sy * sy + sz * sz);
+        sx *= rls;
+        sy *= rls;
+        sz *= rls;
+
+        // recompute up = s x f
+        float ux = sy * fz - sz * fy;
+        float uy = sz * fx - sx * fz;
+        float uz = sx * fy - sy * fx;
+
+        rm[rmOffset] = sx;
+        rm[rmOffset + 1] = ux;
+        rm[rmOffset + 2] = -fx;
+        rm[rmOffset + 3] = 0.0f;
+        rm[rmOffset + 4] = sy;
+        rm[rmOffset + 5] = uy;
+        rm[rmOffset + 6] = -fy;
+        rm[rmOffset + 7] = 0.0f;
+        rm[rmOffset + 8] = sz;
+        rm[rmOffset + 9] = uz;
+        rm[rmOffset + 10] = -fz;
+        rm[rmOffset + 11] = 0.0f;
+        // translation by -eye
+        rm[rmOffset + 12] = -(sx * eyeX + sy * eyeY + sz * eyeZ);
+        rm[rmOffset + 13] = -(ux * eyeX + uy * eyeY + uz * eyeZ);
+        rm[rmOffset + 14] = fx * eyeX + fy * eyeY + fz * eyeZ;
+        rm[rmOffset + 15] = 1.0f;
+    }
+}
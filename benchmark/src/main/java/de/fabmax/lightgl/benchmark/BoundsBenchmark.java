@@ -0,0 +1,81 @@
+package de.fabmax.lightgl.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.fabmax.lightgl.BoundingBox;
+import de.fabmax.lightgl.Ray;
+
+/**
+ * JMH benchmark for {@link BoundingBox#computeHitDistanceSqr(Ray)}. Rays that hit the box and rays
+ * that miss it are measured separately, since a miss usually exits early. Rays are created from a
+ * fixed seed.
+ * 
+ * @author fabmax
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class BoundsBenchmark {
+
+    private static final int RAYS = 1024;
+
+    private final BoundingBox mBox = new BoundingBox(-1, 1, 0, 2, -1, 1);
+    private final Ray[] mHitRays = new Ray[RAYS];
+    private final Ray[] mMissRays = new Ray[RAYS];
+
+    @Setup
+    public void setup() {
+        Random rand = new Random(1337);
+        for (int i = 0; i < RAYS; i++) {
+            // rays from above pointing to a random point on the top face of the box
+            mHitRays[i] = createRay(rand, rand.nextFloat() * 1.8f - 0.9f,
+                    rand.nextFloat() * 1.8f - 0.9f);
+            // rays from above pointing to a random point next to the box
+            float side = rand.nextBoolean() ? 1 : -1;
+            mMissRays[i] = createRay(rand, side * (1.5f + rand.nextFloat() * 5.0f),
+                    rand.nextFloat() * 10.0f - 5.0f);
+        }
+    }
+
+    private static Ray createRay(Random rand, float targetX, float targetZ) {
+        Ray r = new Ray();
+        r.origin[0] = rand.nextFloat() * 20.0f - 10.0f;
+        r.origin[1] = 20.0f;
+        r.origin[2] = rand.nextFloat() * 20.0f - 10.0f;
+        r.direction[0] = targetX - r.origin[0];
+        r.direction[1] = 2.0f - r.origin[1];
+        r.direction[2] = targetZ - r.origin[2];
+        return r;
+    }
+
+    @Benchmark
+    public void hit(Blackhole bh) {
+        for (int i = 0; i < RAYS; i++) {
+            bh.consume(mBox.computeHitDistanceSqr(mHitRays[i]));
+        }
+    }
+
+    @Benchmark
+    public void miss(Blackhole bh) {
+        for (int i = 0; i < RAYS; i++) {
+            bh.consume(mBox.computeHitDistanceSqr(mMissRays[i]));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package de.fabmax.lightgl.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.fabmax.lightgl.util.FloatList;
+
+/**
+ * JMH benchmark for {@link FloatList#add(float)}. The list is either created with enough capacity
+ * for all elements or with the default capacity, in which case the time needed to grow the
+ * underlying buffer is included.
+ * 
+ * @author fabmax
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class FloatListBenchmark {
+
+    @Param({ "1000", "100000", "1000000" })
+    private int mSize;
+
+    @Benchmark
+    public FloatList addPresized() {
+        FloatList list = new FloatList(mSize);
+        for (int i = 0; i < mSize; i++) {
+            list.add(i);
+        }
+        return list;
+    }
+
+    @Benchmark
+    public FloatList addGrowing() {
+        FloatList list = new FloatList();
+        for (int i = 0; i < mSize; i++) {
+            list.add(i);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,109 @@
+package de.fabmax.lightgl.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.fabmax.lightgl.BoundingBox;
+import de.fabmax.lightgl.PerspectiveCamera;
+import de.fabmax.lightgl.Ray;
+import de.fabmax.lightgl.ShadowRenderPass;
+import de.fabmax.lightgl.util.GlMath;
+
+/**
+ * JMH benchmarks for the per-frame matrix math: projection matrix computation, pick ray
+ * computation and the shadow camera clip size computation. All inputs are created from a fixed
+ * seed, so results of different commits are comparable when measured on the same machine.
+ * 
+ * @author fabmax
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class MathBenchmark {
+
+    private static final int INPUTS = 1024;
+
+    private final float[] mMatrix = new float[16];
+    private final float[] mTmpVector = new float[8];
+    private final int[] mViewport = { 0, 0, 1280, 720 };
+    private final Ray mRay = new Ray();
+    private final BoundingBox mClipSize = new BoundingBox(0, 0, 0);
+
+    private float[] mFovys = new float[INPUTS];
+    private float[] mPickX = new float[INPUTS];
+    private float[] mPickY = new float[INPUTS];
+    private BenchCamera mCamera;
+    private BoundingBox mSceneBounds;
+    private float[] mShadowViewMatrix = new float[16];
+    private int mIndex = 0;
+
+    @Setup
+    public void setup() {
+        Random rand = new Random(1337);
+        for (int i = 0; i < INPUTS; i++) {
+            mFovys[i] = 30.0f + rand.nextFloat() * 60.0f;
+            mPickX[i] = rand.nextFloat() * mViewport[2];
+            mPickY[i] = rand.nextFloat() * mViewport[3];
+        }
+
+        mCamera = new BenchCamera();
+        mCamera.setPosition(0, 12, 18);
+        mCamera.setLookAt(0, 0, 0);
+        mCamera.setClipRange(0.1f, 100.0f);
+        mCamera.updateMatrices();
+
+        // same light direction and scene size as the demo scenes
+        mSceneBounds = new BoundingBox(-20, 20, 0, 10, -20, 20);
+        android.opengl.Matrix.setLookAtM(mShadowViewMatrix, 0, 10, 15, 7, 0, 0, 0, 0, 1, 0);
+    }
+
+    private int nextIndex() {
+        mIndex = (mIndex + 1) & (INPUTS - 1);
+        return mIndex;
+    }
+
+    @Benchmark
+    public float[] perspectiveM() {
+        GlMath.perspectiveM(mMatrix, mFovys[nextIndex()], 16.0f / 9.0f, 0.1f, 100.0f);
+        return mMatrix;
+    }
+
+    @Benchmark
+    public Ray getPickRay() {
+        int i = nextIndex();
+        mCamera.getPickRay(mViewport, mPickX[i], mPickY[i], mRay);
+        return mRay;
+    }
+
+    @Benchmark
+    public BoundingBox computeCamClipSize() {
+        ShadowRenderPass.computeCamClipSize(mSceneBounds, mShadowViewMatrix, mClipSize,
+                mTmpVector);
+        return mClipSize;
+    }
+
+    /**
+     * PerspectiveCamera which computes its matrices without a {@link de.fabmax.lightgl.GfxState}.
+     */
+    private static class BenchCamera extends PerspectiveCamera {
+        void updateMatrices() {
+            computeProjectionMatrix(mProjMatrix);
+            computeViewMatrix(mViewMatrix);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package de.fabmax.lightgl.benchmark;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.StringTokenizer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.fabmax.lightgl.GlException;
+import de.fabmax.lightgl.util.FloatList;
+import de.fabmax.lightgl.util.IntList;
+import de.fabmax.lightgl.util.MeshData;
+import de.fabmax.lightgl.util.ObjLoader;
+import de.fabmax.lightgl.util.ObjParser;
+
+/**
+ * JMH benchmark comparing the byte-level {@link ObjParser} against the former line-based parsing
+ * with BufferedReader, StringTokenizer and Float.parseFloat, which is measured as baseline.
+ * ObjParser is measured on a heap buffer, on a memory-mapped file and with parallel chunked
+ * parsing on all available processors. Parsing followed by the {@link MeshData} creation measures
+ * the same steps as {@link ObjLoader}, without the GL upload. The input is the bundled
+ * room_thickwalls.obj concatenated multiple times to get larger files, parallel parsing needs at
+ * least {@link ObjParser#MIN_PARALLEL_CHUNK_SIZE} bytes per chunk. Must be run from the project
+ * root directory or with the model path as parameter.
+ * 
+ * @author fabmax
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ObjParserBenchmark {
+
+    @Param({ "assets/models/room_thickwalls.obj" })
+    private String mPath;
+
+    // number of times the model is concatenated
+    @Param({ "1", "10", "50" })
+    private int mScale;
+
+    private byte[] mData;
+    private File mTmpFile;
+    private int mThreads;
+    private ExecutorService mExecutor;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        byte[] model = readFile(new File(mPath));
+        mData = new byte[model.length * mScale];
+        for (int i = 0; i < mScale; i++) {
+            System.arraycopy(model, 0, mData, i * model.length, model.length);
+        }
+
+        // the memory-mapped variant reads the data from a temporary file
+        mTmpFile = File.createTempFile("objbench", ".obj");
+        FileOutputStream out = new FileOutputStream(mTmpFile);
+        try {
+            out.write(mData);
+        } finally {
+            out.close();
+        }
+
+        mThreads = Runtime.getRuntime().availableProcessors();
+        mExecutor = Executors.newFixedThreadPool(mThreads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mExecutor.shutdown();
+        mTmpFile.delete();
+    }
+
+    @Benchmark
+    public int parseLegacy() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(mData)));
+        FloatList verts = new FloatList();
+        FloatList texCoords = new FloatList();
+        FloatList normals = new FloatList();
+        IntList indices = new IntList();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith("v ")) {
+                parseFloats(line, 3, verts);
+            } else if (line.startsWith("vt ")) {
+                parseFloats(line, 2, texCoords);
+            } else if (line.startsWith("vn ")) {
+                parseFloats(line, 3, normals);
+            } else if (line.startsWith("f ")) {
+                StringTokenizer tok = new StringTokenizer(line, " ");
+                tok.nextToken();
+                for (int i = 0; i < 3; i++) {
+                    StringTokenizer tok2 = new StringTokenizer(tok.nextToken(), "/");
+                    while (tok2.hasMoreTokens()) {
+                        indices.add(Integer.parseInt(tok2.nextToken()) - 1);
+                    }
+                }
+            }
+        }
+        return verts.size() + texCoords.size() + normals.size() + indices.size();
+    }
+
+    @Benchmark
+    public ObjParser parseBytes() throws GlException {
+        ObjParser parser = new ObjParser();
+        parser.parse(ByteBuffer.wrap(mData));
+        return parser;
+    }
+
+    @Benchmark
+    public ObjParser parseMapped() throws IOException, GlException {
+        RandomAccessFile raf = new RandomAccessFile(mTmpFile, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            ObjParser parser = new ObjParser();
+            parser.parse(mapped);
+            return parser;
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Benchmark
+    public ObjParser parseParallel() throws GlException {
+        ObjParser parser = new ObjParser();
+        parser.parse(ByteBuffer.wrap(mData), mExecutor, mThreads);
+        return parser;
+    }
+
+    @Benchmark
+    public MeshData parseAndCreateMeshData() throws GlException {
+        ObjParser parser = new ObjParser();
+        parser.parse(ByteBuffer.wrap(mData));
+        return parser.createMeshData();
+    }
+
+    private static void parseFloats(String line, int parseCnt, FloatList dstBuf) {
+        StringTokenizer tok = new StringTokenizer(line, " ");
+        tok.nextToken();
+        for (int i = 0; i < parseCnt; i++) {
+            dstBuf.add(Float.parseFloat(tok.nextToken()));
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) >= 0) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package de.fabmax.lightgl.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.fabmax.lightgl.BoundingBox;
+import de.fabmax.lightgl.BoundingVolumeHierarchy;
+import de.fabmax.lightgl.Ray;
+
+/**
+ * JMH benchmark for ray picking with a {@link BoundingVolumeHierarchy} compared to a linear scan
+ * over all boxes, as done before by BlockAnimator. The scene is a grid of blocks with random
+ * heights, picked with random rays from above. Hierarchy build and refit are measured as well.
+ * Blocks and rays are created from a fixed seed.
+ * 
+ * @author fabmax
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class PickingBenchmark {
+
+    private static final int RAYS = 1024;
+
+    // number of blocks along each grid axis
+    @Param({ "8", "32", "100", "200" })
+    private int mGridSize;
+
+    private BoundingBox[] mBlocks;
+    private BoundingVolumeHierarchy<BoundingBox> mBvh;
+    private final Ray[] mRays = new Ray[RAYS];
+
+    @Setup
+    public void setup() {
+        Random rand = new Random(1337);
+
+        // create block grid, same layout as BlockAnimator
+        mBlocks = new BoundingBox[mGridSize * mGridSize];
+        mBvh = new BoundingVolumeHierarchy<BoundingBox>();
+        for (int z = 0; z < mGridSize; z++) {
+            for (int x = 0; x < mGridSize; x++) {
+                float px = mGridSize - x * 2 - 1;
+                float pz = mGridSize - z * 2 - 1;
+                float h = 0.4f + rand.nextFloat() * 5.0f;
+                BoundingBox block = new BoundingBox(px - 1, px + 1, 0, h, pz - 1, pz + 1);
+                mBlocks[z * mGridSize + x] = block;
+                mBvh.add(block, block);
+            }
+        }
+        mBvh.build();
+
+        // create random pick rays
+        for (int i = 0; i < RAYS; i++) {
+            Ray r = new Ray();
+            r.origin[0] = (rand.nextFloat() - 0.5f) * mGridSize;
+            r.origin[1] = 20;
+            r.origin[2] = (rand.nextFloat() - 0.5f) * mGridSize + 12;
+            r.direction[0] = (rand.nextFloat() - 0.5f) * mGridSize;
+            r.direction[1] = -20;
+            r.direction[2] = (rand.nextFloat() - 0.5f) * mGridSize - 12;
+            mRays[i] = r;
+        }
+    }
+
+    @Benchmark
+    public void linearScan(Blackhole bh) {
+        for (int i = 0; i < RAYS; i++) {
+            BoundingBox hit = null;
+            float dist = Float.MAX_VALUE;
+            for (BoundingBox block : mBlocks) {
+                float d = block.computeHitDistanceSqr(mRays[i]);
+                if (d < dist) {
+                    dist = d;
+                    hit = block;
+                }
+            }
+            bh.consume(hit);
+        }
+    }
+
+    @Benchmark
+    public void bvhHit(Blackhole bh) {
+        for (int i = 0; i < RAYS; i++) {
+            bh.consume(mBvh.getHit(mRays[i]));
+        }
+    }
+
+    @Benchmark
+    public BoundingVolumeHierarchy<BoundingBox> build() {
+        mBvh.build();
+        return mBvh;
+    }
+
+    @Benchmark
+    public BoundingVolumeHierarchy<BoundingBox> refit() {
+        mBvh.refit();
+        return mBvh;
+    }
+}
@@ -0,0 +1,152 @@
+package de.fabmax.lightgl;
+
+/**
+ * An AssetHandle refers to an asset that is loaded asynchronously by the {@link AssetLoader}. The
+ * asset becomes available on the GL thread after it was uploaded; until then {@link #get()}
+ * returns null.
+ * 
+ * @param <T>
+ *            type of the loaded asset
+ * @author fabmax
+ * 
+ */
+public class AssetHandle<T> {
+
+    /**
+     * Listener interface for load completion. Listener methods are called on the GL thread.
+     * 
+     * @param <T>
+     *            type of the loaded asset
+     */
+    public interface LoadListener<T> {
+        /**
+         * Is called after the asset was uploaded successfully.
+         * 
+         * @param handle
+         *            handle of the loaded asset
+         */
+        public void onAssetLoaded(AssetHandle<T> handle);
+
+        /**
+         * Is called if the asset could not be loaded.
+         * 
+         * @param handle
+         *            handle of the failed asset, {@link AssetHandle#getError()} returns the cause
+         */
+        public void onAssetFailed(AssetHandle<T> handle);
+    }
+
+    private final String mName;
+    private volatile T mAsset = null;
+    private volatile Throwable mError = null;
+    private volatile boolean mCancelled = false;
+    private volatile boolean mDone = false;
+    private LoadListener<T> mListener;
+
+    /**
+     * Creates a new AssetHandle. Handles are created by the {@link AssetLoader}.
+     * 
+     * @param name
+     *            descriptive name of the asset, used for log messages
+     * @param listener
+     *            listener to notify on completion, can be null
+     */
+    protected AssetHandle(String name, LoadListener<T> listener) {
+        mName = name;
+        mListener = listener;
+    }
+
+    /**
+     * Returns the name of the loaded asset.
+     * 
+     * @return the name of the loaded asset
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Returns the loaded asset or null if the asset is not yet loaded or loading failed.
+     * 
+     * @return the loaded asset or null
+     */
+    public T get() {
+        return mAsset;
+    }
+
+    /**
+     * Returns true if loading is finished, either successfully, failed or cancelled.
+     * 
+     * @return true if loading is finished
+     */
+    public boolean isDone() {
+        return mDone;
+    }
+
+    /**
+     * Returns true if the asset was loaded successfully.
+     * 
+     * @return true if the asset was loaded successfully
+     */
+    public boolean isLoaded() {
+        return mDone && mAsset != null;
+    }
+
+    /**
+     * Returns the cause of a failed load or null if no error occurred.
+     * 
+     * @return the cause of a failed load or null
+     */
+    public Throwable getError() {
+        return mError;
+    }
+
+    /**
+     * Cancels loading of the asset. The asset is not uploaded if it was not uploaded yet. Assets
+     * that are already uploaded are not affected.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Returns true if loading was cancelled.
+     * 
+     * @return true if loading was cancelled
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Is called on the GL thread after the asset was uploaded.
+     */
+    void setLoaded(T asset) {
+        mAsset = asset;
+        mDone = true;
+        if (mListener != null) {
+            mListener.onAssetLoaded(this);
+            mListener = null;
+        }
+    }
+
+    /**
+     * Is called on the GL thread if loading failed.
+     */
+    void setFailed(Throwable error) {
+        mError = error;
+        mDone = true;
+        if (mListener != null) {
+            mListener.onAssetFailed(this);
+            mListener = null;
+        }
+    }
+
+    /**
+     * Is called if loading was cancelled.
+     */
+    void setCancelled() {
+        mDone = true;
+        mListener = null;
+    }
+}
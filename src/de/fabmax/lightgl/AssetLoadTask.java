@@ -0,0 +1,64 @@
+package de.fabmax.lightgl;
+
+/**
+ * An AssetLoadTask loads an asset in two steps: {@link #load()} reads and decodes the asset on a
+ * background thread without touching GL, {@link #upload(GfxEngine, Object)} creates the GL objects
+ * from the decoded data on the GL thread. Tasks are executed by the {@link AssetLoader}.
+ * 
+ * @param <D>
+ *            type of the decoded data
+ * @param <T>
+ *            type of the loaded asset
+ * @author fabmax
+ * 
+ */
+public abstract class AssetLoadTask<D, T> {
+
+    /**
+     * Is called on a loader thread. Loads and decodes the asset data. Must not call any GL
+     * functions.
+     * 
+     * @return the decoded asset data
+     * @throws Exception
+     *             if the asset could not be loaded
+     */
+    public abstract D load() throws Exception;
+
+    /**
+     * Is called on the GL thread. Creates the GL objects of the asset from the decoded data.
+     * 
+     * @param engine
+     *            the graphics engine
+     * @param data
+     *            the data returned by {@link #load()}
+     * @return the loaded asset
+     * @throws GlException
+     *             if the asset could not be created
+     */
+    public abstract T upload(GfxEngine engine, D data) throws GlException;
+
+    /**
+     * Returns the approximate number of bytes {@link #upload(GfxEngine, Object)} transfers to the
+     * GPU for the specified data. The size is used for the per-frame upload budget of the
+     * {@link AssetLoader}. The default implementation returns 0.
+     * 
+     * @param data
+     *            the data returned by {@link #load()}
+     * @return the upload size in bytes
+     */
+    public int getUploadSize(D data) {
+        return 0;
+    }
+
+    /**
+     * Is called on the GL thread if the task was cancelled or failed after {@link #load()}
+     * returned. Can be used to release the decoded data, e.g. to recycle bitmaps. The default
+     * implementation does nothing.
+     * 
+     * @param data
+     *            the data returned by {@link #load()}
+     */
+    public void discard(D data) {
+        // nothing to do by default
+    }
+}
@@ -0,0 +1,392 @@
+package de.fabmax.lightgl;
+
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.opengl.ETC1Util;
+import android.util.Log;
+
+import de.fabmax.lightgl.TextureProperties.MinFilterMethod;
+import de.fabmax.lightgl.scene.Mesh;
+import de.fabmax.lightgl.util.CompressedImage;
+import de.fabmax.lightgl.util.MeshData;
+import de.fabmax.lightgl.util.MeshFactory;
+import de.fabmax.lightgl.util.ObjLoader;
+
+/**
+ * The AssetLoader loads assets asynchronously. Assets are read and decoded on background threads,
+ * the decoded data is queued and uploaded to the GPU on the GL thread. Uploads are processed by
+ * {@link GfxEngine} at the beginning of each frame within a configurable time and byte budget,
+ * so large scenes can be streamed in without blocking rendering.
+ * 
+ * Typical usage in {@link GfxEngineListener#onLoadScene(GfxEngine)}:
+ * 
+ * <pre>
+ * engine.getAssetLoader().loadObj("models/room.obj", new AssetHandle.LoadListener&lt;Mesh&gt;() {
+ *     public void onAssetLoaded(AssetHandle&lt;Mesh&gt; handle) {
+ *         scene.addChild(handle.get());
+ *     }
+ *     public void onAssetFailed(AssetHandle&lt;Mesh&gt; handle) {
+ *         Log.e(TAG, "Loading failed", handle.getError());
+ *     }
+ * });
+ * </pre>
+ * 
+ * @author fabmax
+ * 
+ */
+public class AssetLoader {
+
+    private static final String TAG = "AssetLoader";
+
+    /** Default upload time budget per frame in milliseconds */
+    public static final float DEFAULT_UPLOAD_TIME_BUDGET = 4.0f;
+    /** Default upload byte budget per frame */
+    public static final int DEFAULT_UPLOAD_BYTE_BUDGET = 4 * 1024 * 1024;
+
+    private final Context mContext;
+    private final GfxEngine mEngine;
+
+    // background threads, created on first use
+    private ExecutorService mExecutor;
+    private final ConcurrentLinkedQueue<PendingUpload<?, ?>> mUploadQueue =
+            new ConcurrentLinkedQueue<PendingUpload<?, ?>>();
+    private final AtomicInteger mPendingCount = new AtomicInteger(0);
+
+    private long mUploadTimeBudget = (long) (DEFAULT_UPLOAD_TIME_BUDGET * 1e6f);
+    private int mUploadByteBudget = DEFAULT_UPLOAD_BYTE_BUDGET;
+
+    // ETC1 support of the current GL context, queried on the GL thread and read by the loaders
+    private volatile boolean mEtc1Supported = false;
+
+    /**
+     * Creates a new AssetLoader.
+     * 
+     * @param context
+     *            application context, needed to access assets and resources
+     * @param engine
+     *            graphics engine used for uploads
+     */
+    protected AssetLoader(Context context, GfxEngine engine) {
+        mContext = context;
+        mEngine = engine;
+    }
+
+    /**
+     * Is called by {@link GfxEngine} if the GL context was (re-)created. Queries the GL context
+     * capabilities needed by the background loaders, which have no GL context.
+     */
+    void newGlContext() {
+        mEtc1Supported = ETC1Util.isETC1Supported();
+    }
+
+    /**
+     * Sets the upload budget per frame. Uploads are processed until either the time or the byte
+     * budget is exhausted. At least one upload is processed per frame, even if it exceeds the
+     * budget.
+     * 
+     * @param millis
+     *            maximum upload time per frame in milliseconds
+     * @param bytes
+     *            maximum number of uploaded bytes per frame
+     */
+    public void setUploadBudget(float millis, int bytes) {
+        mUploadTimeBudget = (long) (millis * 1e6f);
+        mUploadByteBudget = bytes;
+    }
+
+    /**
+     * Returns the number of assets that are not yet completely loaded.
+     * 
+     * @return the number of pending assets
+     */
+    public int getPendingCount() {
+        return mPendingCount.get();
+    }
+
+    /**
+     * Loads an asset with the specified task. {@link AssetLoadTask#load()} is executed on a
+     * background thread, {@link AssetLoadTask#upload(GfxEngine, Object)} is executed on the GL
+     * thread.
+     * 
+     * @param name
+     *            descriptive name of the asset, used for log messages
+     * @param task
+     *            the task that loads the asset
+     * @param listener
+     *            listener that is notified on the GL thread when loading is finished, can be null
+     * @return handle of the loaded asset
+     */
+    public <D, T> AssetHandle<T> load(String name, final AssetLoadTask<D, T> task,
+            AssetHandle.LoadListener<T> listener) {
+        final AssetHandle<T> handle = new AssetHandle<T>(name, listener);
+        mPendingCount.incrementAndGet();
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                PendingUpload<D, T> upload = new PendingUpload<D, T>(task, handle);
+                if (!handle.isCancelled()) {
+                    try {
+                        upload.mData = task.load();
+                        upload.mSize = task.getUploadSize(upload.mData);
+                    } catch (Throwable t) {
+                        upload.mError = t;
+                    }
+                }
+                mUploadQueue.add(upload);
+            }
+        });
+        return handle;
+    }
+
+    /**
+     * Loads the specified OBJ model from the assets directory. The model is parsed on a background
+     * thread.
+     * 
+     * @param file
+     *            file name of the model file
+     * @param listener
+     *            listener that is notified on the GL thread when loading is finished, can be null
+     * @return handle of the loaded {@link Mesh}
+     */
+    public AssetHandle<Mesh> loadObj(final String file, AssetHandle.LoadListener<Mesh> listener) {
+        return load(file, new AssetLoadTask<MeshData, Mesh>() {
+            @Override
+            public MeshData load() throws Exception {
+                return ObjLoader.loadObjData(mContext, file);
+            }
+
+            @Override
+            public Mesh upload(GfxEngine engine, MeshData data) throws GlException {
+                return MeshFactory.createStaticMesh(data);
+            }
+
+            @Override
+            public int getUploadSize(MeshData data) {
+                int elems = 3;
+                elems += data.getNormals() != null ? 3 : 0;
+                elems += data.getTexCoords() != null ? 2 : 0;
+                elems += data.getColors() != null ? 3 : 0;
+                int indexSize = data.getVertexCount() < 65536 ? 2 : 4;
+                return data.getVertexCount() * elems * 4 + data.getIndices().length * indexSize;
+            }
+        }, listener);
+    }
+
+    /**
+     * Loads the specified bitmap resource as a texture. The bitmap is decoded on a background
+     * thread. If {@link TextureProperties#compress} is set and the GL context supports ETC1, the
+     * bitmap is also encoded on the background thread. The texture is cached and retained like
+     * textures loaded with {@link TextureManager#loadTexture(int, TextureProperties)}.
+     * 
+     * @param resource
+     *            bitmap resource to load
+     * @param texProps
+     *            OpenGL texture properties
+     * @param listener
+     *            listener that is notified on the GL thread when loading is finished, can be null
+     * @return handle of the loaded {@link Texture}
+     */
+    public AssetHandle<Texture> loadTexture(final int resource, final TextureProperties texProps,
+            AssetHandle.LoadListener<Texture> listener) {
+        return load("resource " + resource, new AssetLoadTask<DecodedTexture, Texture>() {
+            @Override
+            public DecodedTexture load() throws Exception {
+                Bitmap bitmap = BitmapFactory.decodeResource(mContext.getResources(), resource);
+                if (bitmap == null) {
+                    throw new GlException("Failed decoding bitmap resource " + resource);
+                }
+                DecodedTexture data = new DecodedTexture();
+                if (texProps.compress && !bitmap.hasAlpha() && mEtc1Supported) {
+                    // encode here instead of on the GL thread
+                    boolean mipmaps = texProps.minFilter == MinFilterMethod.TRILINEAR;
+                    data.mImage = CompressedImage.encodeEtc1(bitmap, mipmaps);
+                    bitmap.recycle();
+                } else {
+                    data.mBitmap = bitmap;
+                }
+                return data;
+            }
+
+            @Override
+            public Texture upload(GfxEngine engine, DecodedTexture data) throws GlException {
+                TextureManager texMgr = engine.getTextureManager();
+                if (data.mImage != null) {
+                    return texMgr.loadCompressedTexture(resource, data.mImage, texProps);
+                } else {
+                    Texture tex = texMgr.loadTexture(resource, data.mBitmap, texProps);
+                    data.mBitmap.recycle();
+                    return tex;
+                }
+            }
+
+            @Override
+            public int getUploadSize(DecodedTexture data) {
+                if (data.mImage != null) {
+                    return data.mImage.getDataSize();
+                } else {
+                    return data.mBitmap.getRowBytes() * data.mBitmap.getHeight();
+                }
+            }
+
+            @Override
+            public void discard(DecodedTexture data) {
+                if (data.mBitmap != null) {
+                    data.mBitmap.recycle();
+                }
+            }
+        }, listener);
+    }
+
+    /**
+     * Loads the specified compressed texture (PKM or KTX) from the assets directory. The file is
+     * read on a background thread. The texture is cached and retained like textures loaded with
+     * {@link TextureManager#loadCompressedTexture(String, TextureProperties)}.
+     * 
+     * @param file
+     *            file name of the texture in the assets directory
+     * @param texProps
+     *            OpenGL texture properties
+     * @param listener
+     *            listener that is notified on the GL thread when loading is finished, can be null
+     * @return handle of the loaded {@link Texture}
+     */
+    public AssetHandle<Texture> loadCompressedTexture(final String file,
+            final TextureProperties texProps, AssetHandle.LoadListener<Texture> listener) {
+        return load(file, new AssetLoadTask<CompressedImage, Texture>() {
+            @Override
+            public CompressedImage load() throws Exception {
+                InputStream in = mContext.getAssets().open(file);
+                try {
+                    return CompressedImage.read(in);
+                } finally {
+                    in.close();
+                }
+            }
+
+            @Override
+            public Texture upload(GfxEngine engine, CompressedImage data) throws GlException {
+                return engine.getTextureManager().loadCompressedTexture(file, data, texProps);
+            }
+
+            @Override
+            public int getUploadSize(CompressedImage data) {
+                return data.getDataSize();
+            }
+        }, listener);
+    }
+
+    /**
+     * Is called by {@link GfxEngine} at the beginning of every frame. Uploads finished assets
+     * within the configured time and byte budget.
+     * 
+     * @return true if any asset was uploaded
+     */
+    boolean processUploads() {
+        if (mUploadQueue.isEmpty()) {
+            return false;
+        }
+
+        long deadline = System.nanoTime() + mUploadTimeBudget;
+        int bytes = 0;
+        int count = 0;
+        PendingUpload<?, ?> upload;
+        while ((upload = mUploadQueue.peek()) != null) {
+            if (count > 0 && (bytes + upload.mSize > mUploadByteBudget ||
+                    System.nanoTime() > deadline)) {
+                // budget exhausted, continue in next frame
+                break;
+            }
+            mUploadQueue.poll();
+            upload.upload(mEngine);
+            mPendingCount.decrementAndGet();
+            bytes += upload.mSize;
+            count++;
+        }
+        return count > 0;
+    }
+
+    /**
+     * Returns the executor used for background loading. The executor uses low priority daemon
+     * threads, one per available processor.
+     */
+    private synchronized ExecutorService getExecutor() {
+        if (mExecutor == null) {
+            mExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    new ThreadFactory() {
+                        private int mThreadCount = 0;
+
+                        @Override
+                        public synchronized Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "AssetLoader-" + mThreadCount++);
+                            t.setDaemon(true);
+                            t.setPriority(Thread.MIN_PRIORITY);
+                            return t;
+                        }
+                    });
+        }
+        return mExecutor;
+    }
+
+    /**
+     * Decoded texture, either a bitmap or a compressed image.
+     */
+    private static class DecodedTexture {
+        Bitmap mBitmap = null;
+        CompressedImage mImage = null;
+    }
+
+    /**
+     * Decoded asset data waiting for upload.
+     */
+    private static class PendingUpload<D, T> {
+        final AssetLoadTask<D, T> mTask;
+        final AssetHandle<T> mHandle;
+        D mData = null;
+        int mSize = 0;
+        Throwable mError = null;
+
+        PendingUpload(AssetLoadTask<D, T> task, AssetHandle<T> handle) {
+            mTask = task;
+            mHandle = handle;
+        }
+
+        /**
+         * Uploads the decoded data and notifies the handle. Is called on the GL thread.
+         */
+        void upload(GfxEngine engine) {
+            if (mHandle.isCancelled()) {
+                if (mData != null) {
+                    mTask.discard(mData);
+                }
+                mHandle.setCancelled();
+
+            } else if (mError != null) {
+                Log.e(TAG, "Failed loading " + mHandle.getName() + ": " + mError.getMessage());
+                mHandle.setFailed(mError);
+
+            } else {
+                try {
+                    mHandle.setLoaded(mTask.upload(engine, mData));
+                } catch (GlException e) {
+                    Log.e(TAG, "Failed uploading " + mHandle.getName() + ": " + e.getMessage());
+                    mTask.discard(mData);
+                    mHandle.setFailed(e);
+                } catch (RuntimeException e) {
+                    // a failing task must neither abort the frame nor leave the handle pending
+                    Log.e(TAG, "Failed uploading " + mHandle.getName(), e);
+                    mTask.discard(mData);
+                    mHandle.setFailed(e);
+                }
+            }
+            mData = null;
+        }
+    }
+}
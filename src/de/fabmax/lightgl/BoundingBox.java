@@ -153,6 +153,77 @@ public class BoundingBox {
         }
     }
 
+    /**
+     * Adds a BoundingBox to this BoundingBox. This BoundingBox is expanded to include the
+     * specified box.
+     * 
+     * @param box
+     *            the BoundingBox to add
+     */
+    public void add(BoundingBox box) {
+        if (box.mMinX < mMinX) {
+            mMinX = box.mMinX;
+        }
+        if (box.mMinY < mMinY) {
+            mMinY = box.mMinY;
+        }
+        if (box.mMinZ < mMinZ) {
+            mMinZ = box.mMinZ;
+        }
+        if (box.mMaxX > mMaxX) {
+            mMaxX = box.mMaxX;
+        }
+        if (box.mMaxY > mMaxY) {
+            mMaxY = box.mMaxY;
+        }
+        if (box.mMaxZ > mMaxZ) {
+            mMaxZ = box.mMaxZ;
+        }
+    }
+
+    /**
+     * Transforms this BoundingBox by the specified 4x4 matrix. The result is the axis aligned box
+     * that encloses the transformed box. The matrix is expected to be an affine transformation in
+     * the column-major order used by {@link android.opengl.Matrix}.
+     * 
+     * @param m
+     *            the transformation matrix
+     */
+    public void transform(float[] m) {
+        float minX = m[12], minY = m[13], minZ = m[14];
+        float maxX = minX, maxY = minY, maxZ = minZ;
+
+        // Arvo's method: for every matrix element add the smaller product with the old min / max
+        // coordinate to the new min and the larger one to the new max
+        for (int i = 0; i < 3; i++) {
+            float oldMin = i == 0 ? mMinX : (i == 1 ? mMinY : mMinZ);
+            float oldMax = i == 0 ? mMaxX : (i == 1 ? mMaxY : mMaxZ);
+            int col = i * 4;
+
+            float a = m[col] * oldMin;
+            float b = m[col] * oldMax;
+            minX += Math.min(a, b);
+            maxX += Math.max(a, b);
+
+            a = m[col + 1] * oldMin;
+            b = m[col + 1] * oldMax;
+            minY += Math.min(a, b);
+            maxY += Math.max(a, b);
+
+            a = m[col + 2] * oldMin;
+            b = m[col + 2] * oldMax;
+            minZ += Math.min(a, b);
+            maxZ += Math.max(a, b);
+        }
+
+        mMinX = minX;
+        mMinY = minY;
+        mMinZ = minZ;
+        mMaxX = maxX;
+        mMaxY = maxY;
+        mMaxZ = maxZ;
+    }
+
     /**
      * Tests whether the specified coordinates are included by this BoundingBox.
      * 
@@ -0,0 +1,311 @@
+package de.fabmax.lightgl;
+
+import java.util.ArrayList;
+
+/**
+ * A bounding volume hierarchy (BVH) for fast ray picking. The leaves of the hierarchy are
+ * {@link BoundingBox}es, each associated with an arbitrary item. Picking with a {@link Ray} costs
+ * O(log n) instead of O(n) for a linear scan over all boxes.
+ * 
+ * The hierarchy is built by median splits along the longest axis. Leaf boxes are referenced, not
+ * copied. If leaf boxes change (e.g. because the associated items are animated),
+ * {@link BoundingVolumeHierarchy#refit()} updates the hierarchy in O(n) without rebuilding it.
+ * 
+ * This class is not thread-safe.
+ * 
+ * @author fabmax
+ * 
+ * @param <T>
+ *            type of the items associated with the leaf boxes
+ */
+public class BoundingVolumeHierarchy<T> {
+
+    private static final int MAX_LEAF_ITEMS = 4;
+
+    // leaf items and their bounds
+    private final ArrayList<T> mItems = new ArrayList<T>();
+    private final ArrayList<BoundingBox> mItemBounds = new ArrayList<BoundingBox>();
+    // item indices sorted by tree order, leaves reference consecutive ranges of this array
+    private int[] mItemOrder = new int[0];
+    // item centroids, only needed while building
+    private float[] mCentroids;
+
+    // flattened tree in depth-first order, the left child of node i is node i + 1
+    private BoundingBox[] mNodeBounds = new BoundingBox[0];
+    // index of right child node, -1 for leaf nodes
+    private int[] mNodeRight = new int[0];
+    // first item index and item count of leaf nodes
+    private int[] mNodeFirst = new int[0];
+    private int[] mNodeCount = new int[0];
+    private int mNodeCnt = 0;
+
+    // traversal stack with node indices and hit distances
+    private int[] mStack = new int[64];
+    private float[] mStackDist = new float[64];
+
+    /**
+     * Adds an item with the specified bounds. The bounds are referenced by the hierarchy, so later
+     * changes to them are reflected after {@link BoundingVolumeHierarchy#refit()} is called.
+     * {@link BoundingVolumeHierarchy#build()} must be called before the added item can be picked.
+     * 
+     * @param item
+     *            the item to add
+     * @param bounds
+     *            the bounds of the item
+     */
+    public void add(T item, BoundingBox bounds) {
+        mItems.add(item);
+        mItemBounds.add(bounds);
+    }
+
+    /**
+     * Removes all items from this hierarchy.
+     */
+    public void clear() {
+        mItems.clear();
+        mItemBounds.clear();
+        mNodeCnt = 0;
+    }
+
+    /**
+     * Returns the number of items in this hierarchy.
+     * 
+     * @return the number of items in this hierarchy
+     */
+    public int size() {
+        return mItems.size();
+    }
+
+    /**
+     * Returns the bounds of the whole hierarchy.
+     * 
+     * @return the bounds of the whole hierarchy or null if the hierarchy is empty or not built
+     */
+    public BoundingBox getBounds() {
+        return mNodeCnt > 0 ? mNodeBounds[0] : null;
+    }
+
+    /**
+     * Builds the hierarchy from all added items. Nodes are split at the median item along the
+     * longest axis of the item centroids.
+     */
+    public void build() {
+        int n = mItems.size();
+        mItemOrder = new int[n];
+        mCentroids = new float[n * 3];
+        for (int i = 0; i < n; i++) {
+            BoundingBox b = mItemBounds.get(i);
+            mItemOrder[i] = i;
+            mCentroids[i * 3] = (b.getMinX() + b.getMaxX()) * 0.5f;
+            mCentroids[i * 3 + 1] = (b.getMinY() + b.getMaxY()) * 0.5f;
+            mCentroids[i * 3 + 2] = (b.getMinZ() + b.getMaxZ()) * 0.5f;
+        }
+
+        // a binary tree with n leaf items has at most 2n - 1 nodes
+        int maxNodes = Math.max(1, 2 * n - 1);
+        if (mNodeBounds.length < maxNodes) {
+            BoundingBox[] bounds = new BoundingBox[maxNodes];
+            System.arraycopy(mNodeBounds, 0, bounds, 0, mNodeBounds.length);
+            for (int i = mNodeBounds.length; i < maxNodes; i++) {
+                bounds[i] = new BoundingBox(0, 0, 0);
+            }
+            mNodeBounds = bounds;
+            mNodeRight = new int[maxNodes];
+            mNodeFirst = new int[maxNodes];
+            mNodeCount = new int[maxNodes];
+        }
+
+        mNodeCnt = 0;
+        if (n > 0) {
+            buildNode(0, n);
+        }
+        mCentroids = null;
+    }
+
+    /**
+     * Recomputes the bounds of all hierarchy nodes from the current leaf bounds. The tree topology
+     * is not changed, hence picking performance degrades if leaves move far from their initial
+     * position. In that case call {@link BoundingVolumeHierarchy#build()} instead.
+     */
+    public void refit() {
+        // children always have larger indices than their parents
+        for (int node = mNodeCnt - 1; node >= 0; node--) {
+            int right = mNodeRight[node];
+            if (right < 0) {
+                computeLeafBounds(mNodeFirst[node], mNodeCount[node], mNodeBounds[node]);
+            } else {
+                mNodeBounds[node].set(mNodeBounds[node + 1]);
+                mNodeBounds[node].add(mNodeBounds[right]);
+            }
+        }
+    }
+
+    /**
+     * Returns the item whose bounds are closest to the origin of the specified {@link Ray} and
+     * are hit by it. Subtrees that are farther away than the closest hit found so far are skipped.
+     * 
+     * @see BoundingBox#computeHitDistanceSqr(Ray)
+     * 
+     * @param ray
+     *            Ray to test
+     * @return the closest hit item or null if no item is hit
+     */
+    public T getHit(Ray ray) {
+        if (mNodeCnt == 0) {
+            return null;
+        }
+
+        T hit = null;
+        float hitDist = Float.MAX_VALUE;
+        int sp = 0;
+        mStack[sp] = 0;
+        mStackDist[sp++] = mNodeBounds[0].computeHitDistanceSqr(ray);
+
+        while (sp > 0) {
+            int node = mStack[--sp];
+            if (mStackDist[sp] >= hitDist) {
+                // node is missed or farther away than current hit
+                continue;
+            }
+
+            int right = mNodeRight[node];
+            if (right < 0) {
+                // leaf node, test all items
+                int end = mNodeFirst[node] + mNodeCount[node];
+                for (int i = mNodeFirst[node]; i < end; i++) {
+                    int item = mItemOrder[i];
+                    float d = mItemBounds.get(item).computeHitDistanceSqr(ray);
+                    if (d < hitDist) {
+                        hitDist = d;
+                        hit = mItems.get(item);
+                    }
+                }
+            } else {
+                if (sp + 2 > mStack.length) {
+                    growStack();
+                }
+                float dLeft = mNodeBounds[node + 1].computeHitDistanceSqr(ray);
+                float dRight = mNodeBounds[right].computeHitDistanceSqr(ray);
+                // push farther child first, so that the nearer child is visited first
+                if (dLeft <= dRight) {
+                    sp = push(sp, right, dRight, hitDist);
+                    sp = push(sp, node + 1, dLeft, hitDist);
+                } else {
+                    sp = push(sp, node + 1, dLeft, hitDist);
+                    sp = push(sp, right, dRight, hitDist);
+                }
+            }
+        }
+        return hit;
+    }
+
+    /**
+     * Pushes a node onto the traversal stack if its hit distance is smaller than the current hit
+     * distance.
+     */
+    private int push(int sp, int node, float dist, float hitDist) {
+        if (dist < hitDist) {
+            mStack[sp] = node;
+            mStackDist[sp++] = dist;
+        }
+        return sp;
+    }
+
+    /**
+     * Doubles the size of the traversal stack.
+     */
+    private void growStack() {
+        int[] stack = new int[mStack.length * 2];
+        float[] stackDist = new float[mStack.length * 2];
+        System.arraycopy(mStack, 0, stack, 0, mStack.length);
+        System.arraycopy(mStackDist, 0, stackDist, 0, mStack.length);
+        mStack = stack;
+        mStackDist = stackDist;
+    }
+
+    /**
+     * Recursively builds the tree node for the specified item range.
+     * 
+     * @return index of the built node
+     */
+    private int buildNode(int first, int count) {
+        int node = mNodeCnt++;
+        computeLeafBounds(first, count, mNodeBounds[node]);
+
+        if (count <= MAX_LEAF_ITEMS) {
+            mNodeRight[node] = -1;
+            mNodeFirst[node] = first;
+            mNodeCount[node] = count;
+            return node;
+        }
+
+        // split along the longest axis of the item centroids
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, minZ = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE, maxZ = -Float.MAX_VALUE;
+        for (int i = first; i < first + count; i++) {
+            int c = mItemOrder[i] * 3;
+            minX = Math.min(minX, mCentroids[c]);
+            maxX = Math.max(maxX, mCentroids[c]);
+            minY = Math.min(minY, mCentroids[c + 1]);
+            maxY = Math.max(maxY, mCentroids[c + 1]);
+            minZ = Math.min(minZ, mCentroids[c + 2]);
+            maxZ = Math.max(maxZ, mCentroids[c + 2]);
+        }
+        int axis = 0;
+        if (maxY - minY > maxX - minX && maxY - minY >= maxZ - minZ) {
+            axis = 1;
+        } else if (maxZ - minZ > maxX - minX && maxZ - minZ > maxY - minY) {
+            axis = 2;
+        }
+
+        int mid = first + count / 2;
+        selectMedian(first, first + count - 1, mid, axis);
+
+        buildNode(first, mid - first);
+        mNodeRight[node] = buildNode(mid, first + count - mid);
+        return node;
+    }
+
+    /**
+     * Partially sorts mItemOrder[lo..hi] along the given axis, so that the item at index k is at
+     * its sorted position, all items before are smaller or equal and all items after are larger or
+     * equal (quickselect).
+     */
+    private void selectMedian(int lo, int hi, int k, int axis) {
+        while (hi > lo) {
+            float pivot = mCentroids[mItemOrder[(lo + hi) >>> 1] * 3 + axis];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (mCentroids[mItemOrder[i] * 3 + axis] < pivot) {
+                    i++;
+                }
+                while (mCentroids[mItemOrder[j] * 3 + axis] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int tmp = mItemOrder[i];
+                    mItemOrder[i++] = mItemOrder[j];
+                    mItemOrder[j--] = tmp;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Computes the union of the bounds of the specified item range.
+     */
+    private void computeLeafBounds(int first, int count, BoundingBox result) {
+        result.set(mItemBounds.get(mItemOrder[first]));
+        for (int i = first + 1; i < first + count; i++) {
+            result.add(mItemBounds.get(mItemOrder[i]));
+        }
+    }
+}
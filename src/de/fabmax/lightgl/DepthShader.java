@@ -1,7 +1,6 @@
 package de.fabmax.lightgl;
 
-import static android.opengl.GLES20.glGetUniformLocation;
-import static android.opengl.GLES20.glUniformMatrix4fv;
+import static de.fabmax.lightgl.Gl.glGetUniformLocation;
 import android.util.Log;
 
 public class DepthShader extends Shader {
@@ -48,7 +47,7 @@ public class DepthShader extends Shader {
     @Override
     public void onBind(GfxState state) {
         // pass current MVP matrix to shader
-        glUniformMatrix4fv(muMvpMatrixHandle, 1, false, state.getMvpMatrix(), 0);
+        setUniformMatrix4(muMvpMatrixHandle, state.getMvpMatrix());
     }
 
     /**
@@ -59,6 +58,6 @@ public class DepthShader extends Shader {
     @Override
     public void onMatrixUpdate(GfxState state) {
         // pass current MVP matrix to shader
-        glUniformMatrix4fv(muMvpMatrixHandle, 1, false, state.getMvpMatrix(), 0);
+        setUniformMatrix4(muMvpMatrixHandle, state.getMvpMatrix());
     }
 }
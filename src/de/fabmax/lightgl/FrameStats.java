@@ -0,0 +1,381 @@
+package de.fabmax.lightgl;
+
+import static android.opengl.GLES20.GL_TRIANGLES;
+import static android.opengl.GLES20.GL_TRIANGLE_FAN;
+import static android.opengl.GLES20.GL_TRIANGLE_STRIP;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * FrameStats collects per-frame statistics of the {@link GfxEngine}: Draw calls, triangles, shader
+ * binds, texture binds, uniform uploads and uploaded buffer bytes are counted by {@link Gl}, CPU
+ * times of the render passes and listener callbacks are measured by the engine. The values of the
+ * last completed frame are available through the getters. Additionally the frame times (intervals
+ * between two frames) of the last frames are kept in a rolling window to compute percentiles, which
+ * tell much more about frame budget violations than the average frame rate. If GPU timing is
+ * enabled in the {@link GpuTimer} of the engine, the GPU times of the passes are available next
+ * to the CPU times.
+ * 
+ * The counters are only updated on the GL thread. The getters can be called from any thread.
+ * 
+ * @author fabmax
+ * 
+ */
+public class FrameStats {
+
+    /** Default number of frames in the frame time window */
+    public static final int DEFAULT_WINDOW_SIZE = 300;
+
+    // counters of the frame currently rendered, only accessed on the GL thread
+    int mDrawCalls;
+    int mTriangles;
+    int mShaderBinds;
+    int mTextureBinds;
+    int mUniformUploads;
+    long mBufferBytes;
+    private long mFrameStart;
+    private long mCpuNanos;
+    private long mPrePassNanos;
+    private long mMainPassNanos;
+    private long mListenerNanos;
+
+    // values of the last completed frame
+    private int mLastDrawCalls;
+    private int mLastTriangles;
+    private int mLastShaderBinds;
+    private int mLastTextureBinds;
+    private int mLastUniformUploads;
+    private long mLastBufferBytes;
+    private long mLastCpuNanos;
+    private long mLastPrePassNanos;
+    private long mLastMainPassNanos;
+    private long mLastListenerNanos;
+    private long mLastFrameNanos;
+    private long mPrePassGpuNanos = -1;
+    private long mMainPassGpuNanos = -1;
+
+    // rolling window of frame times
+    private final long[] mFrameTimes;
+    private final long[] mSortedTimes;
+    private int mFrameTimeIdx = 0;
+    private int mFrameTimeCount = 0;
+    private long mFrameCount = 0;
+
+    /**
+     * Creates new FrameStats with a frame time window of {@link #DEFAULT_WINDOW_SIZE} frames.
+     */
+    public FrameStats() {
+        this(DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Creates new FrameStats with the specified frame time window size.
+     * 
+     * @param windowSize
+     *            number of frames used to compute the frame time percentiles
+     */
+    public FrameStats(int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be > 0");
+        }
+        mFrameTimes = new long[windowSize];
+        mSortedTimes = new long[windowSize];
+    }
+
+    /**
+     * Is called by {@link GfxEngine} at the beginning of a frame. Completes the previous frame and
+     * resets the counters.
+     */
+    void beginFrame(long now) {
+        if (mFrameStart != 0) {
+            synchronized (this) {
+                mLastDrawCalls = mDrawCalls;
+                mLastTriangles = mTriangles;
+                mLastShaderBinds = mShaderBinds;
+                mLastTextureBinds = mTextureBinds;
+                mLastUniformUploads = mUniformUploads;
+                mLastBufferBytes = mBufferBytes;
+                mLastCpuNanos = mCpuNanos;
+                mLastPrePassNanos = mPrePassNanos;
+                mLastMainPassNanos = mMainPassNanos;
+                mLastListenerNanos = mListenerNanos;
+                mLastFrameNanos = now - mFrameStart;
+
+                mFrameTimes[mFrameTimeIdx] = mLastFrameNanos;
+                mFrameTimeIdx = (mFrameTimeIdx + 1) % mFrameTimes.length;
+                if (mFrameTimeCount < mFrameTimes.length) {
+                    mFrameTimeCount++;
+                }
+                mFrameCount++;
+            }
+        }
+        mFrameStart = now;
+        mDrawCalls = 0;
+        mTriangles = 0;
+        mShaderBinds = 0;
+        mTextureBinds = 0;
+        mUniformUploads = 0;
+        mBufferBytes = 0;
+        mCpuNanos = 0;
+        mPrePassNanos = 0;
+        mMainPassNanos = 0;
+        mListenerNanos = 0;
+    }
+
+    /**
+     * Is called by {@link GfxEngine} after all GL commands of a frame are issued.
+     */
+    void endFrame(long now) {
+        mCpuNanos = now - mFrameStart;
+    }
+
+    /**
+     * Adds CPU time spent in the pre-pass.
+     */
+    void addPrePassTime(long nanos) {
+        mPrePassNanos += nanos;
+    }
+
+    /**
+     * Adds CPU time spent in the main-pass.
+     */
+    void addMainPassTime(long nanos) {
+        mMainPassNanos += nanos;
+    }
+
+    /**
+     * Adds CPU time spent in the {@link GfxEngineListener} callbacks.
+     */
+    void addListenerTime(long nanos) {
+        mListenerNanos += nanos;
+    }
+
+    /**
+     * Sets the latest GPU times of the passes, -1 if not available.
+     */
+    synchronized void setGpuTimes(long prePassNanos, long mainPassNanos) {
+        mPrePassGpuNanos = prePassNanos;
+        mMainPassGpuNanos = mainPassNanos;
+    }
+
+    /**
+     * Counts a draw call with the specified primitive mode and number of vertices.
+     */
+    void countDrawCall(int mode, int count) {
+        mDrawCalls++;
+        if (mode == GL_TRIANGLES) {
+            mTriangles += count / 3;
+        } else if ((mode == GL_TRIANGLE_STRIP || mode == GL_TRIANGLE_FAN) && count > 2) {
+            mTriangles += count - 2;
+        }
+    }
+
+    /**
+     * Clears the frame time window, e.g. after a scene change.
+     */
+    public synchronized void resetWindow() {
+        mFrameTimeIdx = 0;
+        mFrameTimeCount = 0;
+    }
+
+    /**
+     * Returns the number of completed frames.
+     * 
+     * @return the number of completed frames
+     */
+    public synchronized long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * Returns the number of draw calls of the last frame.
+     * 
+     * @return the number of draw calls of the last frame
+     */
+    public synchronized int getDrawCalls() {
+        return mLastDrawCalls;
+    }
+
+    /**
+     * Returns the number of triangles drawn in the last frame.
+     * 
+     * @return the number of triangles drawn in the last frame
+     */
+    public synchronized int getTriangles() {
+        return mLastTriangles;
+    }
+
+    /**
+     * Returns the number of shader program binds (glUseProgram calls) of the last frame.
+     * 
+     * @return the number of shader binds of the last frame
+     */
+    public synchronized int getShaderBinds() {
+        return mLastShaderBinds;
+    }
+
+    /**
+     * Returns the number of texture binds (glBindTexture calls) of the last frame.
+     * 
+     * @return the number of texture binds of the last frame
+     */
+    public synchronized int getTextureBinds() {
+        return mLastTextureBinds;
+    }
+
+    /**
+     * Returns the number of glUniform calls of the last frame.
+     * 
+     * @return the number of uniform uploads of the last frame
+     */
+    public synchronized int getUniformUploads() {
+        return mLastUniformUploads;
+    }
+
+    /**
+     * Returns the number of bytes uploaded with glBufferData in the last frame.
+     * 
+     * @return the number of uploaded buffer bytes of the last frame
+     */
+    public synchronized long getBufferBytes() {
+        return mLastBufferBytes;
+    }
+
+    /**
+     * Returns the CPU time of the last frame in nanoseconds. This is the time spent in
+     * {@link GfxEngine#onDrawFrame(javax.microedition.khronos.opengles.GL10)}, excluding the time
+     * spent waiting for the frame rate limit.
+     * 
+     * @return the CPU time of the last frame in nanoseconds
+     */
+    public synchronized long getCpuTime() {
+        return mLastCpuNanos;
+    }
+
+    /**
+     * Returns the CPU time spent in the pre-pass in the last frame in nanoseconds.
+     * 
+     * @return the pre-pass CPU time in nanoseconds
+     */
+    public synchronized long getPrePassTime() {
+        return mLastPrePassNanos;
+    }
+
+    /**
+     * Returns the CPU time spent in the main-pass in the last frame in nanoseconds.
+     * 
+     * @return the main-pass CPU time in nanoseconds
+     */
+    public synchronized long getMainPassTime() {
+        return mLastMainPassNanos;
+    }
+
+    /**
+     * Returns the CPU time spent in the {@link GfxEngineListener} callbacks in the last frame in
+     * nanoseconds.
+     * 
+     * @return the listener CPU time in nanoseconds
+     */
+    public synchronized long getListenerTime() {
+        return mLastListenerNanos;
+    }
+
+    /**
+     * Returns the GPU time spent in the pre-pass in nanoseconds. The value is measured by the
+     * {@link GpuTimer} and therefore a few frames old. Returns -1 if GPU timing is not enabled or
+     * not supported.
+     * 
+     * @return the pre-pass GPU time in nanoseconds or -1
+     */
+    public synchronized long getPrePassGpuTime() {
+        return mPrePassGpuNanos;
+    }
+
+    /**
+     * Returns the GPU time spent in the main-pass in nanoseconds. The value is measured by the
+     * {@link GpuTimer} and therefore a few frames old. Returns -1 if GPU timing is not enabled or
+     * not supported.
+     * 
+     * @return the main-pass GPU time in nanoseconds or -1
+     */
+    public synchronized long getMainPassGpuTime() {
+        return mMainPassGpuNanos;
+    }
+
+    /**
+     * Returns the time between the start of the last frame and the start of the frame before in
+     * nanoseconds.
+     * 
+     * @return the last frame time in nanoseconds
+     */
+    public synchronized long getFrameTime() {
+        return mLastFrameNanos;
+    }
+
+    /**
+     * Returns the specified percentile of the frame times in the rolling window in nanoseconds,
+     * e.g. getFrameTimePercentile(95) returns the frame time, which was not exceeded by 95% of the
+     * frames. Returns 0 if no frame was completed yet.
+     * 
+     * @param percentile
+     *            the percentile to compute, between 0 and 100
+     * @return the frame time percentile in nanoseconds
+     */
+    public synchronized long getFrameTimePercentile(float percentile) {
+        if (mFrameTimeCount == 0) {
+            return 0;
+        }
+        System.arraycopy(mFrameTimes, 0, mSortedTimes, 0, mFrameTimeCount);
+        Arrays.sort(mSortedTimes, 0, mFrameTimeCount);
+
+        // nearest-rank method
+        int rank = (int) Math.ceil(percentile / 100.0f * mFrameTimeCount);
+        rank = Math.max(1, Math.min(mFrameTimeCount, rank));
+        return mSortedTimes[rank - 1];
+    }
+
+    /**
+     * Returns the median frame time of the rolling window in nanoseconds.
+     * 
+     * @return the 50th frame time percentile in nanoseconds
+     */
+    public long getFrameTimeP50() {
+        return getFrameTimePercentile(50);
+    }
+
+    /**
+     * Returns the 95th frame time percentile of the rolling window in nanoseconds.
+     * 
+     * @return the 95th frame time percentile in nanoseconds
+     */
+    public long getFrameTimeP95() {
+        return getFrameTimePercentile(95);
+    }
+
+    /**
+     * Returns the 99th frame time percentile of the rolling window in nanoseconds.
+     * 
+     * @return the 99th frame time percentile in nanoseconds
+     */
+    public long getFrameTimeP99() {
+        return getFrameTimePercentile(99);
+    }
+
+    @Override
+    public synchronized String toString() {
+        String gpu = "";
+        if (mPrePassGpuNanos >= 0 || mMainPassGpuNanos >= 0) {
+            gpu = String.format(Locale.ENGLISH, ", gpu (pre-pass %.2f, main-pass %.2f)",
+                    mPrePassGpuNanos / 1e6, mMainPassGpuNanos / 1e6);
+        }
+        return String.format(Locale.ENGLISH, "frame %.2f ms (p50 %.2f, p95 %.2f, p99 %.2f), "
+                + "cpu %.2f ms (pre-pass %.2f, main-pass %.2f, listener %.2f)%s, %d draw calls, "
+                + "%d triangles, %d shader binds, %d texture binds, %d uniform uploads, "
+                + "%d buffer bytes", mLastFrameNanos / 1e6, getFrameTimeP50() / 1e6,
+                getFrameTimeP95() / 1e6, getFrameTimeP99() / 1e6, mLastCpuNanos / 1e6,
+                mLastPrePassNanos / 1e6, mLastMainPassNanos / 1e6, mLastListenerNanos / 1e6, gpu,
+                mLastDrawCalls, mLastTriangles, mLastShaderBinds, mLastTextureBinds,
+                mLastUniformUploads, mLastBufferBytes);
+    }
+}
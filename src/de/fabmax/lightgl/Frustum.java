@@ -0,0 +1,68 @@
+package de.fabmax.lightgl;
+
+/**
+ * A view frustum defined by six clip planes. The planes are extracted from a combined
+ * projection-view(-model) matrix, the resulting frustum is located in the coordinate frame the
+ * matrix transforms from. E.g. planes extracted from the view-projection matrix describe the
+ * camera frustum in world space.
+ * 
+ * @author fabmax
+ * 
+ */
+public class Frustum {
+
+    // plane equations (a, b, c, d) for left, right, bottom, top, near and far plane
+    private final float[] mPlanes = new float[24];
+
+    /**
+     * Extracts the frustum planes from the specified matrix. The matrix must be a 4x4 matrix in
+     * the column-major order used by {@link android.opengl.Matrix}.
+     * 
+     * @param m
+     *            combined projection-view(-model) matrix
+     */
+    public void set(float[] m) {
+        // the planes are computed by adding / subtracting the first three matrix rows to / from
+        // the fourth row (Gribb / Hartmann)
+        for (int i = 0; i < 3; i++) {
+            int p = i * 8;
+            // plane where clip coordinate i is -w (left, bottom, near)
+            mPlanes[p]     = m[3]  + m[i];
+            mPlanes[p + 1] = m[7]  + m[4 + i];
+            mPlanes[p + 2] = m[11] + m[8 + i];
+            mPlanes[p + 3] = m[15] + m[12 + i];
+            // plane where clip coordinate i is w (right, top, far)
+            mPlanes[p + 4] = m[3]  - m[i];
+            mPlanes[p + 5] = m[7]  - m[4 + i];
+            mPlanes[p + 6] = m[11] - m[8 + i];
+            mPlanes[p + 7] = m[15] - m[12 + i];
+        }
+    }
+
+    /**
+     * Tests whether the specified {@link BoundingBox} is at least partly inside this frustum. The
+     * test is conservative: It might return true for boxes that are close to a frustum corner but
+     * are actually outside, it never returns false for visible boxes.
+     * 
+     * @param box
+     *            the BoundingBox to test
+     * @return true if the box is (probably) inside the frustum, false if it is completely outside
+     */
+    public boolean intersects(BoundingBox box) {
+        for (int p = 0; p < 24; p += 4) {
+            float a = mPlanes[p];
+            float b = mPlanes[p + 1];
+            float c = mPlanes[p + 2];
+
+            // test the box corner that is farthest in direction of the plane normal
+            float x = a >= 0 ? box.getMaxX() : box.getMinX();
+            float y = b >= 0 ? box.getMaxY() : box.getMinY();
+            float z = c >= 0 ? box.getMaxZ() : box.getMinZ();
+            if (a * x + b * y + c * z + mPlanes[p + 3] < 0) {
+                // box is completely on the outer side of this plane
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -2,9 +2,9 @@ package de.fabmax.lightgl;
 
 import static android.opengl.GLES20.GL_CULL_FACE;
 import static android.opengl.GLES20.GL_DEPTH_TEST;
-import static android.opengl.GLES20.glClearColor;
-import static android.opengl.GLES20.glEnable;
-import static android.opengl.GLES20.glGetError;
+import static de.fabmax.lightgl.Gl.glClearColor;
+import static de.fabmax.lightgl.Gl.glEnable;
+import static de.fabmax.lightgl.Gl.glGetError;
 
 import java.util.ArrayList;
 
@@ -30,6 +30,7 @@ public class GfxEngine implements Renderer {
 
     private ShaderManager mShaderManager;
     private TextureManager mTextureManager;
+    private AssetLoader mAssetLoader;
     private GfxState mState;
 
     private ArrayList<Light> mLights = new ArrayList<Light>();
@@ -41,7 +42,10 @@ public class GfxEngine implements Renderer {
     private RenderPass mPrePass;
     private RenderPass mMainPass;
 
-    private long mLastFrameTime = System.currentTimeMillis();
+    private final Gles30 mGles30 = new Gles30();
+    private final FrameStats mFrameStats = new FrameStats();
+    private final GpuTimer mGpuTimer = new GpuTimer();
+    private long mLastFrameTime = System.nanoTime();
     private long mMaxFrameInterval = 0;
     private float mFps = 0;
 
@@ -55,9 +59,10 @@ public class GfxEngine implements Renderer {
         // ensure that we have the application context
         context = context.getApplicationContext();
 
-        mShaderManager = new ShaderManager(context);
+        mShaderManager = new ShaderManager(context, mGles30);
         mTextureManager = new TextureManager(context);
         mState = new GfxState(this, mShaderManager, mTextureManager);
+        mAssetLoader = new AssetLoader(context, this);
 
         // by default the scene is directly rendered to the screen
         mMainPass = new ScreenRenderPass();
@@ -73,16 +78,38 @@ public class GfxEngine implements Renderer {
      */
     @Override
     public void onDrawFrame(GL10 unused) {
+        // count the GL calls of this thread in the stats of this engine
+        Gl.setFrameStats(mFrameStats);
         doFpsStats();
+        mFrameStats.beginFrame(mLastFrameTime);
+        mGpuTimer.beginFrame();
+        mFrameStats.setGpuTimes(mGpuTimer.getPassTime(GpuTimer.PASS_PRE),
+                mGpuTimer.getPassTime(GpuTimer.PASS_MAIN));
         
         mState.reset();
 
+        // check status of asynchronously compiled shaders
+        mShaderManager.processPendingShaders();
+
+        // upload asynchronously loaded assets within the configured per-frame budget
+        if (mAssetLoader.processUploads()) {
+            mState.getVertexAttributeState().invalidateBufferBindings();
+        }
+
         if (mEngineListener != null) {
+            long t = System.nanoTime();
             mEngineListener.onRenderFrame(this);
+            mFrameStats.addListenerTime(System.nanoTime() - t);
+            // the listener might have created buffers
+            mState.getVertexAttributeState().invalidateBufferBindings();
         }
         
         if (mPrePass != null) {
+            long t = System.nanoTime();
+            mGpuTimer.begin(GpuTimer.PASS_PRE);
             mPrePass.onRender(this);
+            mGpuTimer.end(GpuTimer.PASS_PRE);
+            mFrameStats.addPrePassTime(System.nanoTime() - t);
         }
 
         if (mMainPass != null) {
@@ -91,22 +118,30 @@ public class GfxEngine implements Renderer {
             }
             
             if (mEngineListener != null) {
+                long t = System.nanoTime();
                 mEngineListener.onRenderMainPass(this);
+                mFrameStats.addListenerTime(System.nanoTime() - t);
+                mState.getVertexAttributeState().invalidateBufferBindings();
             }
+            long t = System.nanoTime();
+            mGpuTimer.begin(GpuTimer.PASS_MAIN);
             mMainPass.onRender(this);
+            mGpuTimer.end(GpuTimer.PASS_MAIN);
+            mFrameStats.addMainPassTime(System.nanoTime() - t);
         }
         
         int err = glGetError();
         if (err != 0) {
             Log.e(TAG, "glError " + err + ": " + GLU.gluErrorString(err));
         }
+        mFrameStats.endFrame(System.nanoTime());
     }
     
     /**
-     * Computes current frame rate and limits the frame rate if set.
+     * Computes current frame rate and limits the frame rate if set. All times are in nanoseconds.
      */
     private void doFpsStats() {
-        long t = System.currentTimeMillis();
+        long t = System.nanoTime();
         long tLast = mLastFrameTime;
         
         if (mMaxFrameInterval > 0) {
@@ -117,7 +152,7 @@ public class GfxEngine implements Renderer {
             
             if(s > 0) {
                 try {
-                    Thread.sleep(s);
+                    Thread.sleep(s / 1000000L, (int) (s % 1000000L));
                 } catch (InterruptedException e) {
                     // mmh whatever
                 }
@@ -130,7 +165,7 @@ public class GfxEngine implements Renderer {
         }
 
         // update fps
-        float fps = 1000.0f / (float) (mLastFrameTime - tLast);
+        float fps = 1e9f / (float) Math.max(1, mLastFrameTime - tLast);
         mFps = mFps * 0.95f + fps * 0.05f;
     }
 
@@ -157,8 +192,11 @@ public class GfxEngine implements Renderer {
         Log.d(TAG, "onSurfaceCreated");
         
         // drop all existing texture and shader handles
+        mGles30.newGlContext();
         mTextureManager.newGlContext();
         mShaderManager.newGlContext();
+        mGpuTimer.newGlContext();
+        mAssetLoader.newGlContext();
         
         // setup GL stuff
         glClearColor(0, 0, 0, 1);
@@ -234,6 +272,24 @@ public class GfxEngine implements Renderer {
         return mTextureManager;
     }
 
+    /**
+     * Returns the {@link Gles30} capabilities of the GL context of this GfxEngine.
+     * 
+     * @return the {@link Gles30} capabilities of this GfxEngine
+     */
+    public Gles30 getGles30() {
+        return mGles30;
+    }
+
+    /**
+     * Returns the {@link AssetLoader} of this GfxEngine.
+     * 
+     * @return the {@link AssetLoader} of this GfxEngine
+     */
+    public AssetLoader getAssetLoader() {
+        return mAssetLoader;
+    }
+
     /**
      * Returns the {@link GfxState} of this GfxEngine.
      * 
@@ -320,6 +376,26 @@ public class GfxEngine implements Renderer {
         return mFps;
     }
     
+    /**
+     * Returns the {@link FrameStats} of this GfxEngine, which contain draw call counts, CPU times
+     * per render pass and frame time percentiles.
+     * 
+     * @return the {@link FrameStats} of this GfxEngine
+     */
+    public FrameStats getFrameStats() {
+        return mFrameStats;
+    }
+    
+    /**
+     * Returns the {@link GpuTimer} of this GfxEngine. GPU timing of the render passes is disabled
+     * by default and can be enabled with {@link GpuTimer#setEnabled(boolean)}.
+     * 
+     * @return the {@link GpuTimer} of this GfxEngine
+     */
+    public GpuTimer getGpuTimer() {
+        return mGpuTimer;
+    }
+    
     /**
      * Returns the currently set maximum frame rate. If no maximum frame rate is set 0 is returned.
      * 
@@ -329,7 +405,7 @@ public class GfxEngine implements Renderer {
         if (mMaxFrameInterval == 0) {
             return 0.0f;
         } else {
-            return 1000.0f / (float) mMaxFrameInterval;
+            return 1e9f / (float) mMaxFrameInterval;
         }
     }
 
@@ -343,7 +419,7 @@ public class GfxEngine implements Renderer {
         if (fps == 0.0f) {
             mMaxFrameInterval = 0;
         } else {
-            mMaxFrameInterval = Math.round(1000.0f / fps);
+            mMaxFrameInterval = Math.round(1e9 / fps);
         }
         Log.d(TAG, "set maximum framerate:" + fps);
     }
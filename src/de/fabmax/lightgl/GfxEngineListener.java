@@ -12,7 +12,8 @@ public interface GfxEngineListener {
      * Is called on Engine initialization. This method is called from the GLThread after the GL
      * context is (re-)created. Because of the possibility of GL context recreation this callback
      * might be called more than once, so be sure to drop all your GL related objects and reload
-     * them if this method is called another time.
+     * them if this method is called another time. Large assets should be loaded with the
+     * {@link AssetLoader} to avoid blocking the first frame.
      * 
      * @param engine
      *            the graphics engine
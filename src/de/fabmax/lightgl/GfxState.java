@@ -1,10 +1,13 @@
 package de.fabmax.lightgl;
 
 import static android.opengl.GLES20.GL_TEXTURE0;
-import static android.opengl.GLES20.glClearColor;
-import static android.opengl.GLES20.glViewport;
+import static de.fabmax.lightgl.Gl.glClearColor;
+import static de.fabmax.lightgl.Gl.glViewport;
 import android.opengl.Matrix;
 
+import de.fabmax.lightgl.scene.Node;
+import de.fabmax.lightgl.util.GlMath;
+
 /**
  * Current graphics engine state.
  * 
@@ -13,7 +16,8 @@ import android.opengl.Matrix;
  */
 public class GfxState {
 
-    public static final int MODEL_MATRIX_STACK_SIZE = 10;
+    /** Initial size of the model matrix stack, the stack grows if a deeper hierarchy is rendered */
+    public static final int MODEL_MATRIX_STACK_SIZE = 16;
 
     private final GfxEngine mEngine;
     private final ShaderManager mShaderManager;
@@ -25,13 +29,30 @@ public class GfxState {
     private final float[] mProjMatrix = new float[16];
     // view matrix - holds the camera position
     private final float[] mViewMatrix = new float[16];
-    // model matrix stack - holds the geometry transformation
-    private final float[][] mModelMatrix = new float[MODEL_MATRIX_STACK_SIZE][16];
+    // model matrix stack - holds the geometry transformation, grows on demand
+    private float[][] mModelMatrix = new float[MODEL_MATRIX_STACK_SIZE][16];
     private int mModelMatrixIdx = 0;
-    // combined model view projection matrix
-    private final float[] mMvpMatrix = new float[16];
-    // temp matrix buffer for calculations
-    private final float[] mTempMatrix = new float[16];
+    // combined model view projection matrix for every model matrix stack level
+    private float[][] mMvpMatrix = new float[MODEL_MATRIX_STACK_SIZE][16];
+    // view projection version the MVP matrix of each stack level was computed with
+    private int[] mMvpVersion = new int[MODEL_MATRIX_STACK_SIZE];
+    // combined view projection matrix, updated by matrixUpdate()
+    private final float[] mViewProjMatrix = new float[16];
+    private int mViewProjVersion = 0;
+    // ID of the matrix state of every stack level, a new ID is assigned on every matrix change
+    private int[] mMatrixId = new int[MODEL_MATRIX_STACK_SIZE];
+    private int mNextMatrixId = 1;
+    // shader that was last notified about a matrix update and ID of the notified matrix state
+    private Shader mNotifiedShader = null;
+    private int mNotifiedMatrixId = 0;
+    // view frustum in current model coordinates, lazily updated from the MVP matrix
+    private final Frustum mViewFrustum = new Frustum();
+    private boolean mViewFrustumDirty = true;
+    private boolean mFrustumCulling = true;
+    // render queue, null if nodes are rendered directly in scene graph order
+    private RenderQueue mRenderQueue = null;
+    // if false, the bound shader is not notified about matrix updates
+    private boolean mNotifyMatrixUpdate = true;
     
     private final float[] mBackgroundColor;
     
@@ -48,7 +69,9 @@ public class GfxState {
         Matrix.setIdentityM(mProjMatrix, 0);
         Matrix.setIdentityM(mViewMatrix, 0);
         Matrix.setIdentityM(mModelMatrix[0], 0);
-        Matrix.setIdentityM(mMvpMatrix, 0);
+        Matrix.setIdentityM(mViewProjMatrix, 0);
+        Matrix.setIdentityM(mMvpMatrix[0], 0);
+        mMatrixId[0] = mNextMatrixId++;
         
         mBackgroundColor = new float[] { 0.0f, 0.0f, 0.0f };
     }
@@ -88,6 +111,67 @@ public class GfxState {
         mLockShader = enabled;
     }
 
+    /**
+     * Returns whether view frustum culling is enabled.
+     * 
+     * @return true if view frustum culling is enabled
+     */
+    public boolean isFrustumCulling() {
+        return mFrustumCulling;
+    }
+
+    /**
+     * Enables or disables view frustum culling. If enabled, scene nodes whose bounds are
+     * completely outside of the view frustum are not rendered. Culling is enabled by default.
+     * 
+     * @param enabled
+     *            true to enable frustum culling
+     */
+    public void setFrustumCulling(boolean enabled) {
+        mFrustumCulling = enabled;
+    }
+
+    /**
+     * Returns the {@link RenderQueue} used to render nodes.
+     * 
+     * @return the RenderQueue or null if the render queue is disabled
+     */
+    public RenderQueue getRenderQueue() {
+        return mRenderQueue;
+    }
+
+    /**
+     * Enables or disables the {@link RenderQueue}. If enabled, nodes rendered with
+     * {@link GfxState#renderNode(Node)} are not drawn in scene graph order. Instead all visible
+     * meshes are collected first and drawn sorted by shader, texture and camera distance. The
+     * render queue is disabled by default.
+     * 
+     * @param enabled
+     *            true to enable the render queue
+     */
+    public void setRenderQueueEnabled(boolean enabled) {
+        if (enabled && mRenderQueue == null) {
+            mRenderQueue = new RenderQueue();
+        } else if (!enabled) {
+            mRenderQueue = null;
+        }
+    }
+
+    /**
+     * Renders the specified node. If the render queue is enabled, the node is rendered by the
+     * {@link RenderQueue}, otherwise it is rendered directly.
+     * 
+     * @param node
+     *            the node to render
+     */
+    public void renderNode(Node node) {
+        if (mRenderQueue != null) {
+            mRenderQueue.render(this, node);
+        } else {
+            node.render(this);
+        }
+    }
+
     /**
      * Binds the specified shader that is to be used for successive rendering operations.
      * 
@@ -96,7 +180,15 @@ public class GfxState {
      */
     public void bindShader(Shader shader) {
         if (!mLockShader) {
+            Shader prevShader = mShaderManager.getBoundShader();
             mShaderManager.bindShader(this, shader);
+            // the bound shader is not the specified one if it is not yet ready
+            Shader bound = mShaderManager.getBoundShader();
+            if (bound != prevShader) {
+                // the shader loads the current matrices in onBind()
+                mNotifiedShader = bound;
+                mNotifiedMatrixId = mMatrixId[mModelMatrixIdx];
+            }
         }
     }
 
@@ -109,16 +201,31 @@ public class GfxState {
         return mShaderManager.getBoundShader();
     }
 
+    /**
+     * Returns the tracked vertex attribute state. Use it to bind vertex and index buffers during
+     * rendering.
+     * 
+     * @return the vertex attribute state
+     */
+    public VertexAttributeState getVertexAttributeState() {
+        return mShaderManager.getVertexAttributeState();
+    }
+
     /**
      * Resets the current engine state. This method is called before a new frame is rendered.
      */
     public void reset() {
+        // buffers might have been bound since the last frame, e.g. by mesh creation
+        mShaderManager.getVertexAttributeState().invalidateBufferBindings();
+
         // reset matrices
         mModelMatrixIdx = 0;
         Matrix.setIdentityM(mModelMatrix[0], 0);
         Matrix.setIdentityM(mViewMatrix, 0);
         Matrix.setIdentityM(mProjMatrix, 0);
-        Matrix.setIdentityM(mMvpMatrix, 0);
+        Matrix.setIdentityM(mViewProjMatrix, 0);
+        mViewProjVersion++;
+        updateMvpMatrix();
     }
 
     /**
@@ -179,20 +286,50 @@ public class GfxState {
     }
 
     /**
-     * Pushes the current model matrix to the matrix stack.
+     * Pushes the current model matrix to the matrix stack. The stack grows if its size is
+     * exceeded, stack slots are reused afterwards so that no memory is allocated in steady state.
      */
     public void pushModelMatrix() {
-        if (mModelMatrixIdx >= MODEL_MATRIX_STACK_SIZE) {
+        if (mModelMatrixIdx + 1 >= mModelMatrix.length) {
             // model matrix stack size is exceeded
-            throw new RuntimeException("Model matrix stack overflow");
+            growModelMatrixStack();
         }
-        // copy current model matrix to next index
-        System.arraycopy(mModelMatrix[mModelMatrixIdx], 0, mModelMatrix[mModelMatrixIdx + 1], 0, 16);
+        // copy current model matrix, MVP matrix and matrix ID to next index
+        int idx = mModelMatrixIdx;
+        System.arraycopy(mModelMatrix[idx], 0, mModelMatrix[idx + 1], 0, 16);
+        System.arraycopy(mMvpMatrix[idx], 0, mMvpMatrix[idx + 1], 0, 16);
+        mMvpVersion[idx + 1] = mMvpVersion[idx];
+        mMatrixId[idx + 1] = mMatrixId[idx];
         mModelMatrixIdx++;
     }
 
     /**
-     * Restores the previous model matrix from the matrix stack.
+     * Doubles the size of the model matrix stack. New stack slots are preallocated.
+     */
+    private void growModelMatrixStack() {
+        int size = mModelMatrix.length;
+        float[][] modelM = new float[size * 2][];
+        float[][] mvpM = new float[size * 2][];
+        System.arraycopy(mModelMatrix, 0, modelM, 0, size);
+        System.arraycopy(mMvpMatrix, 0, mvpM, 0, size);
+        for (int i = size; i < size * 2; i++) {
+            modelM[i] = new float[16];
+            mvpM[i] = new float[16];
+        }
+        int[] mvpVersion = new int[size * 2];
+        int[] matrixId = new int[size * 2];
+        System.arraycopy(mMvpVersion, 0, mvpVersion, 0, size);
+        System.arraycopy(mMatrixId, 0, matrixId, 0, size);
+
+        mModelMatrix = modelM;
+        mMvpMatrix = mvpM;
+        mMvpVersion = mvpVersion;
+        mMatrixId = matrixId;
+    }
+
+    /**
+     * Restores the previous model matrix from the matrix stack. The MVP matrix is restored as well
+     * and the bound shader is only notified if its matrices differ from the restored ones.
      */
     public void popModelMatrix() {
         if (mModelMatrixIdx <= 0) {
@@ -200,7 +337,13 @@ public class GfxState {
             throw new RuntimeException("Model matrix stack underflow");
         }
         mModelMatrixIdx--;
-        matrixUpdate();
+        if (mMvpVersion[mModelMatrixIdx] != mViewProjVersion) {
+            // view or projection matrix changed since the matrix was pushed
+            updateMvpMatrix();
+        } else {
+            mViewFrustumDirty = true;
+        }
+        notifyMatrixUpdate();
     }
 
     /**
@@ -210,7 +353,23 @@ public class GfxState {
      * @return the current MVP matrix
      */
     public float[] getMvpMatrix() {
-        return mMvpMatrix;
+        return mMvpMatrix[mModelMatrixIdx];
+    }
+
+    /**
+     * Returns the view frustum for the current MVP matrix. The frustum planes are extracted from
+     * the combined view-projection matrices and the current model matrix, hence the frustum is
+     * located in the current model coordinate frame. For the scene root, where the model matrix
+     * is the identity, this is the world-space camera frustum.
+     * 
+     * @return the view frustum for the current MVP matrix
+     */
+    public Frustum getViewFrustum() {
+        if (mViewFrustumDirty) {
+            mViewFrustumDirty = false;
+            mViewFrustum.set(mMvpMatrix[mModelMatrixIdx]);
+        }
+        return mViewFrustum;
     }
 
     /**
@@ -246,30 +405,68 @@ public class GfxState {
     }
 
     /**
-     * Sets the current model matrix to the specified buffer. {@link GfxState#matrixUpdate()} is
-     * called automatically in order to update the MVP matrix.
+     * Sets the current model matrix to the specified buffer. The MVP matrix is updated
+     * automatically. Nothing happens if the specified matrix equals the current model matrix.
      * 
      * @param modelMBuf
      *            the buffer to set as model matrix.
      */
     public void setModelMatrix(float[] modelMBuf) {
-        System.arraycopy(modelMBuf, 0, mModelMatrix[mModelMatrixIdx], 0, 16);
-        matrixUpdate();
+        float[] modelM = mModelMatrix[mModelMatrixIdx];
+        if (!GlMath.equalMatrices(modelM, modelMBuf)) {
+            System.arraycopy(modelMBuf, 0, modelM, 0, 16);
+            updateMvpMatrix();
+            notifyMatrixUpdate();
+        }
     }
 
     /**
      * Computes the MVP matrix from the individual model-, view- and projection matrices. This
-     * method must be called after an update of any of these matrices.
+     * method must be called after an update of the view or projection matrix.
      */
     public void matrixUpdate() {
-        // Combine projection, model and view matrices
-        Matrix.multiplyMM(mTempMatrix, 0, mViewMatrix, 0, mModelMatrix[mModelMatrixIdx], 0);
-        Matrix.multiplyMM(mMvpMatrix, 0, mProjMatrix, 0, mTempMatrix, 0);
+        // Combine projection and view matrices, model matrices are multiplied to this
+        Matrix.multiplyMM(mViewProjMatrix, 0, mProjMatrix, 0, mViewMatrix, 0);
+        mViewProjVersion++;
+        updateMvpMatrix();
+        notifyMatrixUpdate();
+    }
+
+    /**
+     * Computes the MVP matrix of the current stack level from the combined view projection matrix
+     * and the current model matrix.
+     */
+    private void updateMvpMatrix() {
+        int idx = mModelMatrixIdx;
+        Matrix.multiplyMM(mMvpMatrix[idx], 0, mViewProjMatrix, 0, mModelMatrix[idx], 0);
+        mMvpVersion[idx] = mViewProjVersion;
+        mMatrixId[idx] = mNextMatrixId++;
+        mViewFrustumDirty = true;
+    }
 
-        // notify current shader about matrix update
+    /**
+     * Notifies the bound shader about a matrix update, if the shader was not yet notified about
+     * the current matrices.
+     */
+    private void notifyMatrixUpdate() {
         Shader bound = mShaderManager.getBoundShader();
-        if (bound != null) {
+        int matrixId = mMatrixId[mModelMatrixIdx];
+        if (bound != null && mNotifyMatrixUpdate &&
+                (bound != mNotifiedShader || matrixId != mNotifiedMatrixId)) {
             bound.onMatrixUpdate(this);
+            mNotifiedShader = bound;
+            mNotifiedMatrixId = matrixId;
         }
     }
+
+    /**
+     * Enables or disables the notification of the bound shader on matrix updates. Is used by
+     * {@link RenderQueue} while nodes are collected but not drawn.
+     * 
+     * @param enabled
+     *            true to notify the bound shader about matrix updates
+     */
+    void setMatrixUpdateNotification(boolean enabled) {
+        mNotifyMatrixUpdate = enabled;
+    }
 }
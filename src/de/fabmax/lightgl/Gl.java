@@ -0,0 +1,324 @@
+package de.fabmax.lightgl;
+
+import java.nio.Buffer;
+
+import android.graphics.Bitmap;
+
+/**
+ * Static OpenGL ES 2.0 facade used by the engine instead of {@link android.opengl.GLES20}. All
+ * calls are forwarded to the current {@link GlBackend}. Engine classes use static imports of
+ * these methods, so the code reads exactly like plain GLES20 code. Draw calls, binds and uploads
+ * are counted in the {@link FrameStats} of the engine rendering on the calling thread.
+ * 
+ * @author fabmax
+ * 
+ */
+public final class Gl {
+
+    // all GL calls are forwarded to this backend
+    private static GlBackend sBackend = new AndroidGlBackend();
+    // frame statistics of the engine rendering on the calling GL thread, counted by the
+    // forwarding methods, null if disabled
+    private static final ThreadLocal<FrameStats> sStats = new ThreadLocal<FrameStats>();
+
+    private Gl() {
+        // static methods only
+    }
+
+    /**
+     * Sets the backend all GL calls are forwarded to. Must be set before the engine issues any GL
+     * calls, i.e. before the GL surface is created.
+     * 
+     * @param backend
+     *            the GL backend to use
+     */
+    public static void setBackend(GlBackend backend) {
+        if (backend == null) {
+            throw new NullPointerException("backend must not be null");
+        }
+        sBackend = backend;
+    }
+
+    /**
+     * Sets the {@link FrameStats} which count draw calls, binds and uploads of the calling GL
+     * thread. Is called by {@link GfxEngine} on its GL thread, null disables counting. Every
+     * engine renders on its own GL thread, hence engines don't count each other's calls.
+     */
+    static void setFrameStats(FrameStats stats) {
+        sStats.set(stats);
+    }
+
+    /**
+     * Counts a draw call which was not issued through this class, e.g. an instanced draw call of
+     * {@link Gles30}.
+     */
+    static void countDrawCall(int mode, int count) {
+        FrameStats stats = sStats.get();
+        if (stats != null) {
+            stats.countDrawCall(mode, count);
+        }
+    }
+
+    /**
+     * Returns the backend all GL calls are forwarded to.
+     * 
+     * @return the current GL backend
+     */
+    public static GlBackend getBackend() {
+        return sBackend;
+    }
+
+    public static void glActiveTexture(int texture) {
+        sBackend.glActiveTexture(texture);
+    }
+
+    public static void glAttachShader(int program, int shader) {
+        sBackend.glAttachShader(program, shader);
+    }
+
+    public static void glBindBuffer(int target, int buffer) {
+        sBackend.glBindBuffer(target, buffer);
+    }
+
+    public static void glBindFramebuffer(int target, int framebuffer) {
+        sBackend.glBindFramebuffer(target, framebuffer);
+    }
+
+    public static void glBindRenderbuffer(int target, int renderbuffer) {
+        sBackend.glBindRenderbuffer(target, renderbuffer);
+    }
+
+    public static void glBindTexture(int target, int texture) {
+        sBackend.glBindTexture(target, texture);
+        FrameStats stats = sStats.get();
+        if (stats != null) {
+            stats.mTextureBinds++;
+        }
+    }
+
+    public static void glBufferData(int target, int size, Buffer data, int usage) {
+        sBackend.glBufferData(target, size, data, usage);
+        FrameStats stats = sStats.get();
+        if (stats != null) {
+            stats.mBufferBytes += size;
+        }
+    }
+
+    public static void glClear(int mask) {
+        sBackend.glClear(mask);
+    }
+
+    public static void glClearColor(float red, float green, float blue, float alpha) {
+        sBackend.glClearColor(red, green, blue, alpha);
+    }
+
+    public static void glCompileShader(int shader) {
+        sBackend.glCompileShader(shader);
+    }
+
+    public static void glCompressedTexImage2D(int target, int level, int internalformat, int width,
+            int height, int border, int imageSize, Buffer data) {
+        sBackend.glCompressedTexImage2D(target, level, internalformat, width, height, border,
+                imageSize, data);
+    }
+
+    public static int glCreateProgram() {
+        return sBackend.glCreateProgram();
+    }
+
+    public static int glCreateShader(int type) {
+        return sBackend.glCreateShader(type);
+    }
+
+    public static void glDeleteProgram(int program) {
+        sBackend.glDeleteProgram(program);
+    }
+
+    public static void glDeleteShader(int shader) {
+        sBackend.glDeleteShader(shader);
+    }
+
+    public static void glDeleteTextures(int n, int[] textures, int offset) {
+        sBackend.glDeleteTextures(n, textures, offset);
+    }
+
+    public static void glDisable(int cap) {
+        sBackend.glDisable(cap);
+    }
+
+    public static void glDisableVertexAttribArray(int index) {
+        sBackend.glDisableVertexAttribArray(index);
+    }
+
+    public static void glDrawElements(int mode, int count, int type, int offset) {
+        sBackend.glDrawElements(mode, count, type, offset);
+        FrameStats stats = sStats.get();
+        if (stats != null) {
+            stats.countDrawCall(mode, count);
+        }
+    }
+
+    public static void glEnable(int cap) {
+        sBackend.glEnable(cap);
+    }
+
+    public static void glEnableVertexAttribArray(int index) {
+        sBackend.glEnableVertexAttribArray(index);
+    }
+
+    public static void glFramebufferRenderbuffer(int target, int attachment,
+            int renderbuffertarget, int renderbuffer) {
+        sBackend.glFramebufferRenderbuffer(target, attachment, renderbuffertarget, renderbuffer);
+    }
+
+    public static void glFramebufferTexture2D(int target, int attachment, int textarget,
+            int texture, int level) {
+        sBackend.glFramebufferTexture2D(target, attachment, textarget, texture, level);
+    }
+
+    public static void glGenBuffers(int n, int[] buffers, int offset) {
+        sBackend.glGenBuffers(n, buffers, offset);
+    }
+
+    public static void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+        sBackend.glGenFramebuffers(n, framebuffers, offset);
+    }
+
+    public static void glGenRenderbuffers(int n, int[] renderbuffers, int offset) {
+        sBackend.glGenRenderbuffers(n, renderbuffers, offset);
+    }
+
+    public static void glGenTextures(int n, int[] textures, int offset) {
+        sBackend.glGenTextures(n, textures, offset);
+    }
+
+    public static void glGenerateMipmap(int target) {
+        sBackend.glGenerateMipmap(target);
+    }
+
+    public static int glGetAttribLocation(int program, String name) {
+        return sBackend.glGetAttribLocation(program, name);
+    }
+
+    public static int glGetError() {
+        return sBackend.glGetError();
+    }
+
+    public static void glGetIntegerv(int pname, int[] params, int offset) {
+        sBackend.glGetIntegerv(pname, params, offset);
+    }
+
+    public static String glGetProgramInfoLog(int program) {
+        return sBackend.glGetProgramInfoLog(program);
+    }
+
+    public static void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        sBackend.glGetProgramiv(program, pname, params, offset);
+    }
+
+    public static String glGetShaderInfoLog(int shader) {
+        return sBackend.glGetShaderInfoLog(shader);
+    }
+
+    public static void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        sBackend.glGetShaderiv(shader, pname, params, offset);
+    }
+
+    public static String glGetString(int name) {
+        return sBackend.glGetString(name);
+    }
+
+    public static int glGetUniformLocation(int program, String name) {
+        return sBackend.glGetUniformLocation(program, name);
+    }
+
+    public static void glLinkProgram(int program) {
+        sBackend.glLinkProgram(program);
+    }
+
+    public static void glRenderbufferStorage(int target, int internalformat, int width,
+            int height) {
+        sBackend.glRenderbufferStorage(target, internalformat, width, height);
+    }
+
+    public static void glShaderSource(int shader, String string) {
+        sBackend.glShaderSource(shader, string);
+    }
+
+    public static void glTexImage2D(int target, int level, int internalformat, int width,
+            int height, int border, int format, int type, Buffer pixels) {
+        sBackend.glTexImage2D(target, level, internalformat, width, height, border, format, type,
+                pixels);
+    }
+
+    public static void glTexParameteri(int target, int pname, int param) {
+        sBackend.glTexParameteri(target, pname, param);
+    }
+
+    public static void glUniform1f(int location, float x) {
+        sBackend.glUniform1f(location, x);
+        FrameStats stats = sStats.get();
+        if (stats != null) {
+            stats.mUniformUploads++;
+        }
+    }
+
+    public static void glUniform1i(int location, int x) {
+        sBackend.glUniform1i(location, x);
+        FrameStats stats = sStats.get();
+        if (stats != null) {
+            stats.mUniformUploads++;
+        }
+    }
+
+    public static void glUniform3f(int location, float x, float y, float z) {
+        sBackend.glUniform3f(location, x, y, z);
+        FrameStats stats = sStats.get();
+        if (stats != null) {
+            stats.mUniformUploads++;
+        }
+    }
+
+    public static void glUniform4fv(int location, int count, float[] v, int offset) {
+        sBackend.glUniform4fv(location, count, v, offset);
+        FrameStats stats = sStats.get();
+        if (stats != null) {
+            stats.mUniformUploads++;
+        }
+    }
+
+    public static void glUniformMatrix4fv(int location, int count, boolean transpose,
+            float[] value, int offset) {
+        sBackend.glUniformMatrix4fv(location, count, transpose, value, offset);
+        FrameStats stats = sStats.get();
+        if (stats != null) {
+            stats.mUniformUploads++;
+        }
+    }
+
+    public static void glUseProgram(int program) {
+        sBackend.glUseProgram(program);
+        FrameStats stats = sStats.get();
+        if (stats != null) {
+            stats.mShaderBinds++;
+        }
+    }
+
+    public static void glVertexAttribPointer(int indx, int size, int type, boolean normalized,
+            int stride, Buffer ptr) {
+        sBackend.glVertexAttribPointer(indx, size, type, normalized, stride, ptr);
+    }
+
+    public static void glVertexAttribPointer(int indx, int size, int type, boolean normalized,
+            int stride, int offset) {
+        sBackend.glVertexAttribPointer(indx, size, type, normalized, stride, offset);
+    }
+
+    public static void glViewport(int x, int y, int width, int height) {
+        sBackend.glViewport(x, y, width, height);
+    }
+
+    public static void texImage2D(int target, int level, Bitmap bitmap, int border) {
+        sBackend.texImage2D(target, level, bitmap, border);
+    }
+}
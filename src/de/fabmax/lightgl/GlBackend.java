@@ -0,0 +1,81 @@
+package de.fabmax.lightgl;
+
+import java.nio.Buffer;
+
+import android.graphics.Bitmap;
+
+/**
+ * Interface for the OpenGL ES 2.0 functions used by the engine. The engine does not call
+ * {@link android.opengl.GLES20} directly but the static methods of {@link Gl}, which forward all
+ * calls to the current GlBackend. The method signatures are the same as in GLES20, except for
+ * {@link #texImage2D(int, int, Bitmap, int)}, which corresponds to
+ * {@link android.opengl.GLUtils#texImage2D(int, int, Bitmap, int)}.
+ * 
+ * By default {@link AndroidGlBackend} is used, which calls the real GLES20 functions.
+ * {@link RecordingGlBackend} does not need a GL context and records the issued calls instead,
+ * which allows to measure the cost of a frame without a device.
+ * 
+ * @author fabmax
+ * 
+ */
+public interface GlBackend {
+
+    void glActiveTexture(int texture);
+    void glAttachShader(int program, int shader);
+    void glBindBuffer(int target, int buffer);
+    void glBindFramebuffer(int target, int framebuffer);
+    void glBindRenderbuffer(int target, int renderbuffer);
+    void glBindTexture(int target, int texture);
+    void glBufferData(int target, int size, Buffer data, int usage);
+    void glClear(int mask);
+    void glClearColor(float red, float green, float blue, float alpha);
+    void glCompileShader(int shader);
+    void glCompressedTexImage2D(int target, int level, int internalformat, int width, int height,
+            int border, int imageSize, Buffer data);
+    int glCreateProgram();
+    int glCreateShader(int type);
+    void glDeleteProgram(int program);
+    void glDeleteShader(int shader);
+    void glDeleteTextures(int n, int[] textures, int offset);
+    void glDisable(int cap);
+    void glDisableVertexAttribArray(int index);
+    void glDrawElements(int mode, int count, int type, int offset);
+    void glEnable(int cap);
+    void glEnableVertexAttribArray(int index);
+    void glFramebufferRenderbuffer(int target, int attachment, int renderbuffertarget,
+            int renderbuffer);
+    void glFramebufferTexture2D(int target, int attachment, int textarget, int texture, int level);
+    void glGenBuffers(int n, int[] buffers, int offset);
+    void glGenFramebuffers(int n, int[] framebuffers, int offset);
+    void glGenRenderbuffers(int n, int[] renderbuffers, int offset);
+    void glGenTextures(int n, int[] textures, int offset);
+    void glGenerateMipmap(int target);
+    int glGetAttribLocation(int program, String name);
+    int glGetError();
+    void glGetIntegerv(int pname, int[] params, int offset);
+    String glGetProgramInfoLog(int program);
+    void glGetProgramiv(int program, int pname, int[] params, int offset);
+    String glGetShaderInfoLog(int shader);
+    void glGetShaderiv(int shader, int pname, int[] params, int offset);
+    String glGetString(int name);
+    int glGetUniformLocation(int program, String name);
+    void glLinkProgram(int program);
+    void glRenderbufferStorage(int target, int internalformat, int width, int height);
+    void glShaderSource(int shader, String string);
+    void glTexImage2D(int target, int level, int internalformat, int width, int height, int border,
+            int format, int type, Buffer pixels);
+    void glTexParameteri(int target, int pname, int param);
+    void glUniform1f(int location, float x);
+    void glUniform1i(int location, int x);
+    void glUniform3f(int location, float x, float y, float z);
+    void glUniform4fv(int location, int count, float[] v, int offset);
+    void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset);
+    void glUseProgram(int program);
+    void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride,
+            Buffer ptr);
+    void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride,
+            int offset);
+    void glViewport(int x, int y, int width, int height);
+    void texImage2D(int target, int level, Bitmap bitmap, int border);
+
+}
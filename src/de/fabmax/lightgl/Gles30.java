@@ -0,0 +1,166 @@
+package de.fabmax.lightgl;
+
+import static android.opengl.GLES20.GL_VERSION;
+import static de.fabmax.lightgl.Gl.glGetString;
+
+import java.nio.Buffer;
+import java.nio.IntBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.annotation.TargetApi;
+import android.opengl.GLES30;
+import android.os.Build;
+
+/**
+ * OpenGL ES 3.0 functions used by the engine if they are available. The functions are only used
+ * if the GL context is an OpenGL ES 3.0 context and the Android version provides the GLES30
+ * bindings (API level 18), see {@link #isGles30Context()}. The static functions call
+ * {@link GLES30} directly, the GLES30 class is only resolved when one of them is called and
+ * therefore never on older Android versions. The OES_vertex_array_object extension of OpenGL ES
+ * 2.0 has no Java binding, vertex array objects are therefore only used with OpenGL ES 3.0
+ * contexts.
+ * 
+ * Every {@link GfxEngine} has its own Gles30 instance, which holds the capabilities of the
+ * engine's GL context. Engines can render on different GL threads at the same time (e.g. the
+ * preview and the home screen instance of a live wallpaper), hence the static functions don't use
+ * any shared state. Callers must check {@link #isInstancingSupported()} and
+ * {@link #isVertexArraySupported()} of their engine before using the respective functions.
+ * 
+ * Calls are not forwarded to the {@link GlBackend}, with a backend other than
+ * {@link AndroidGlBackend} the GLES30 functions are therefore reported as not supported. Draw calls
+ * are counted in the {@link FrameStats} of the engine like all other draw calls.
+ * 
+ * @author fabmax
+ * 
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+public final class Gles30 {
+
+    private static final int API_LEVEL_GLES30 = 18;
+
+    // source of unique context IDs, shared by all engines
+    private static final AtomicInteger sContextCounter = new AtomicInteger(0);
+
+    private boolean mSupported = false;
+    // changes with every new GL context, used to detect handles of a lost context
+    private int mContextId = 0;
+
+    /**
+     * Creates a new Gles30 object. Is called by {@link GfxEngine}.
+     */
+    Gles30() {
+    }
+
+    /**
+     * Is called by {@link GfxEngine} if the GL context was (re-)created. Checks whether the
+     * GLES30 functions are available with the current context.
+     */
+    void newGlContext() {
+        mSupported = isGles30Context();
+        mContextId = sContextCounter.incrementAndGet();
+    }
+
+    /**
+     * Returns true if the GL context of the calling thread is an OpenGL ES 3.0 context, the
+     * Android version provides the GLES30 bindings and the {@link AndroidGlBackend} is used. Must
+     * be called on the GL thread.
+     * 
+     * @return true if the GLES30 functions can be used
+     */
+    public static boolean isGles30Context() {
+        if (Build.VERSION.SDK_INT < API_LEVEL_GLES30 ||
+                !(Gl.getBackend() instanceof AndroidGlBackend)) {
+            return false;
+        }
+        String version = glGetString(GL_VERSION);
+        return version != null && version.startsWith("OpenGL ES 3");
+    }
+
+    /**
+     * Returns an ID of the current GL context. The ID changes whenever the GL context is
+     * (re-)created, handles created with a different ID are no longer valid.
+     * 
+     * @return ID of the current GL context
+     */
+    public int getContextId() {
+        return mContextId;
+    }
+
+    /**
+     * Returns true if instanced drawing is supported by the GL context. The result is only valid
+     * after the GL context was created.
+     * 
+     * @return true if {@link #glDrawElementsInstanced(int, int, int, int, int)} and
+     *         {@link #glVertexAttribDivisor(int, int)} can be used
+     */
+    public boolean isInstancingSupported() {
+        return mSupported;
+    }
+
+    /**
+     * Returns true if vertex array objects are supported by the GL context. The result is only
+     * valid after the GL context was created.
+     * 
+     * @return true if {@link #glGenVertexArrays(int, int[], int)},
+     *         {@link #glDeleteVertexArrays(int, int[], int)} and {@link #glBindVertexArray(int)}
+     *         can be used
+     */
+    public boolean isVertexArraySupported() {
+        return mSupported;
+    }
+
+    public static void glGenVertexArrays(int n, int[] arrays, int offset) {
+        GLES30.glGenVertexArrays(n, arrays, offset);
+    }
+
+    public static void glDeleteVertexArrays(int n, int[] arrays, int offset) {
+        GLES30.glDeleteVertexArrays(n, arrays, offset);
+    }
+
+    public static void glBindVertexArray(int array) {
+        GLES30.glBindVertexArray(array);
+    }
+
+    public static void glVertexAttribDivisor(int index, int divisor) {
+        GLES30.glVertexAttribDivisor(index, divisor);
+    }
+
+    public static void glDrawElementsInstanced(int mode, int count, int type, int offset,
+            int instanceCount) {
+        GLES30.glDrawElementsInstanced(mode, count, type, offset, instanceCount);
+        Gl.countDrawCall(mode, count * instanceCount);
+    }
+
+    public static void glGenQueries(int n, int[] ids, int offset) {
+        GLES30.glGenQueries(n, ids, offset);
+    }
+
+    public static void glDeleteQueries(int n, int[] ids, int offset) {
+        GLES30.glDeleteQueries(n, ids, offset);
+    }
+
+    public static void glBeginQuery(int target, int id) {
+        GLES30.glBeginQuery(target, id);
+    }
+
+    public static void glEndQuery(int target) {
+        GLES30.glEndQuery(target);
+    }
+
+    public static void glGetQueryObjectuiv(int id, int pname, int[] params, int offset) {
+        GLES30.glGetQueryObjectuiv(id, pname, params, offset);
+    }
+
+    public static void glGetProgramBinary(int program, int bufSize, IntBuffer length,
+            IntBuffer binaryFormat, Buffer binary) {
+        GLES30.glGetProgramBinary(program, bufSize, length, binaryFormat, binary);
+    }
+
+    public static void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+        GLES30.glProgramBinary(program, binaryFormat, binary, length);
+    }
+
+    public static void glProgramParameteri(int program, int pname, int value) {
+        GLES30.glProgramParameteri(program, pname, value);
+    }
+}
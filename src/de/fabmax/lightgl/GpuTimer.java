@@ -0,0 +1,228 @@
+package de.fabmax.lightgl;
+
+import static android.opengl.GLES20.GL_EXTENSIONS;
+import static de.fabmax.lightgl.Gl.glGetIntegerv;
+import static de.fabmax.lightgl.Gl.glGetString;
+
+/**
+ * Measures the GPU time of the render passes with timer queries of the EXT_disjoint_timer_query
+ * extension. Reading a query result right after the pass was rendered would stall the pipeline
+ * until the GPU finished, hence every frame uses its own set of queries and the results are read
+ * back {@link #FRAME_LATENCY} frames later. The measured times are therefore a few frames old.
+ * Results of frames during which the GPU timer was disjoint (e.g. because of a frequency change)
+ * are discarded.
+ * 
+ * EXT_disjoint_timer_query has no Java binding. On OpenGL ES 3.0 contexts the extension extends
+ * the core query functions of {@link Gles30}, so these are used instead. The GpuTimer is therefore
+ * only supported if {@link Gles30#isGles30Context()} is true and the driver supports the
+ * extension. Query results are read as 32 bit values, which is sufficient for pass times below 4
+ * seconds.
+ * 
+ * GPU timing is disabled by default, use {@link #setEnabled(boolean)} to enable it.
+ * 
+ * @author fabmax
+ * 
+ */
+public class GpuTimer {
+
+    /** Index of the pre-pass timer */
+    public static final int PASS_PRE = 0;
+    /** Index of the main-pass timer */
+    public static final int PASS_MAIN = 1;
+    /** Number of frames after which query results are read back */
+    public static final int FRAME_LATENCY = 3;
+
+    private static final int PASS_COUNT = 2;
+    private static final int FRAME_COUNT = FRAME_LATENCY + 1;
+
+    private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+    private static final int GL_QUERY_RESULT_EXT = 0x8866;
+    private static final int GL_QUERY_RESULT_AVAILABLE_EXT = 0x8867;
+    private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+
+    private volatile boolean mEnabled = false;
+    private boolean mSupported = false;
+    private boolean mQueriesCreated = false;
+
+    // one query per pass for every frame in flight
+    private final int[] mQueries = new int[FRAME_COUNT * PASS_COUNT];
+    private final boolean[] mIssued = new boolean[FRAME_COUNT * PASS_COUNT];
+    private int mFrame = 0;
+
+    // latest measured pass times in nanoseconds, -1 if not available
+    private final long[] mPassTimes = new long[PASS_COUNT];
+
+    // reused buffer for query results, only used on the GL thread
+    private final int[] mResult = new int[1];
+
+    /**
+     * Creates a new GpuTimer.
+     */
+    public GpuTimer() {
+        clearResults();
+    }
+
+    /**
+     * Is called by {@link GfxEngine} if the GL context was (re-)created. Checks whether timer
+     * queries are supported by the current context. All queries of the old context are dropped.
+     */
+    void newGlContext() {
+        mSupported = false;
+        mQueriesCreated = false;
+        clearResults();
+
+        String extensions = glGetString(GL_EXTENSIONS);
+        mSupported = Gles30.isGles30Context() && extensions != null &&
+                extensions.contains("GL_EXT_disjoint_timer_query");
+    }
+
+    /**
+     * Returns true if GPU timing is supported by the current GL context.
+     * 
+     * @return true if GPU timing is supported
+     */
+    public boolean isSupported() {
+        return mSupported;
+    }
+
+    /**
+     * Returns true if GPU timing is enabled.
+     * 
+     * @return true if GPU timing is enabled
+     */
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Enables or disables GPU timing. GPU timing is only done if it is also supported by the GL
+     * context, see {@link #isSupported()}. Can be called from any thread.
+     * 
+     * @param enabled
+     *            true to enable GPU timing
+     */
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /**
+     * Returns the GPU time of the specified pass in nanoseconds. The returned time was measured
+     * {@link #FRAME_LATENCY} frames ago. If GPU timing is not enabled or supported, or if no result
+     * is available yet, -1 is returned. Must be called on the GL thread, the values are also
+     * available in the {@link FrameStats} of the engine.
+     * 
+     * @param pass
+     *            the pass index, {@link #PASS_PRE} or {@link #PASS_MAIN}
+     * @return GPU time of the specified pass in nanoseconds or -1
+     */
+    public long getPassTime(int pass) {
+        return mPassTimes[pass];
+    }
+
+    /**
+     * Is called by {@link GfxEngine} at the beginning of a frame. Reads back the results of the
+     * queries issued {@link #FRAME_LATENCY} frames ago, which are then reused for the new frame.
+     */
+    void beginFrame() {
+        if (!mSupported) {
+            return;
+        }
+        if (!mEnabled) {
+            if (mQueriesCreated) {
+                deleteQueries();
+            }
+            return;
+        }
+
+        if (!mQueriesCreated) {
+            createQueries();
+        }
+        mFrame = (mFrame + 1) % FRAME_COUNT;
+
+        // reading the disjoint state also resets it
+        glGetIntegerv(GL_GPU_DISJOINT_EXT, mResult, 0);
+        if (mResult[0] != 0) {
+            // results of all queries in flight are invalid
+            for (int i = 0; i < mIssued.length; i++) {
+                mIssued[i] = false;
+            }
+            return;
+        }
+
+        for (int pass = 0; pass < PASS_COUNT; pass++) {
+            int idx = mFrame * PASS_COUNT + pass;
+            if (mIssued[idx]) {
+                mIssued[idx] = false;
+                if (getQueryObject(idx, GL_QUERY_RESULT_AVAILABLE_EXT) != 0) {
+                    mPassTimes[pass] = getQueryObject(idx, GL_QUERY_RESULT_EXT) & 0xffffffffL;
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts the timer query of the specified pass. Only one pass can be measured at a time.
+     * 
+     * @param pass
+     *            the pass index, {@link #PASS_PRE} or {@link #PASS_MAIN}
+     */
+    void begin(int pass) {
+        if (mQueriesCreated && mEnabled) {
+            int idx = mFrame * PASS_COUNT + pass;
+            Gles30.glBeginQuery(GL_TIME_ELAPSED_EXT, mQueries[idx]);
+            mIssued[idx] = true;
+        }
+    }
+
+    /**
+     * Ends the timer query of the specified pass.
+     * 
+     * @param pass
+     *            the pass index, {@link #PASS_PRE} or {@link #PASS_MAIN}
+     */
+    void end(int pass) {
+        if (mIssued[mFrame * PASS_COUNT + pass]) {
+            Gles30.glEndQuery(GL_TIME_ELAPSED_EXT);
+        }
+    }
+
+    /**
+     * Creates the query objects for all frames in flight.
+     */
+    private void createQueries() {
+        Gles30.glGenQueries(mQueries.length, mQueries, 0);
+        for (int i = 0; i < mQueries.length; i++) {
+            mIssued[i] = false;
+        }
+        mQueriesCreated = true;
+    }
+
+    /**
+     * Deletes all query objects and clears the results.
+     */
+    private void deleteQueries() {
+        Gles30.glDeleteQueries(mQueries.length, mQueries, 0);
+        mQueriesCreated = false;
+        clearResults();
+    }
+
+    /**
+     * Returns the specified 32 bit value of the specified query.
+     */
+    private int getQueryObject(int idx, int pname) {
+        Gles30.glGetQueryObjectuiv(mQueries[idx], pname, mResult, 0);
+        return mResult[0];
+    }
+
+    /**
+     * Marks all queries as not issued and all pass times as not available.
+     */
+    private void clearResults() {
+        for (int i = 0; i < mIssued.length; i++) {
+            mIssued[i] = false;
+        }
+        for (int i = 0; i < mPassTimes.length; i++) {
+            mPassTimes[i] = -1;
+        }
+    }
+}
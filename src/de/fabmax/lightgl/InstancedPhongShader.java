@@ -0,0 +1,120 @@
+package de.fabmax.lightgl;
+
+import static de.fabmax.lightgl.Gl.glGetAttribLocation;
+import static de.fabmax.lightgl.Gl.glGetUniformLocation;
+import static de.fabmax.lightgl.Gl.glUniform4fv;
+
+import de.fabmax.lightgl.scene.InstancedMesh;
+
+/**
+ * A PhongShader for instanced rendering of {@link InstancedMesh}es. Rendered objects are colored
+ * with their instance color.
+ * 
+ * If the GL context supports instanced drawing (see {@link Gles30#isInstancingSupported()}), the
+ * per-instance transformations and colors are passed as per-instance vertex attributes and all
+ * instances are drawn with a single instanced draw call. Otherwise pseudo-instancing is used: The
+ * per-instance data is passed as a uniform array and the vertex shader selects the instance data
+ * by the per-vertex instance ID. The mode is chosen when the shader is created, hence the shader
+ * must be created after the GL context was created.
+ * 
+ * @author fabmax
+ * 
+ */
+public class InstancedPhongShader extends PhongShader {
+
+    /** Number of per-instance vertex attributes used with hardware instancing */
+    public static final int INSTANCE_ATTRIBUTE_COUNT = 4;
+
+    // shader define for hardware instancing
+    private static final String[] SHADER_DEFINES = { "HW_INSTANCING" };
+    private static final String[] INSTANCE_ATTRIBUTE_NAMES = {
+        "aInstanceRow0", "aInstanceRow1", "aInstanceRow2", "aInstanceColor"
+    };
+
+    private final boolean mHwInstancing;
+    private int muInstanceDataHandle = 0;
+    private final int[] mInstanceAttributes = new int[INSTANCE_ATTRIBUTE_COUNT];
+
+    /**
+     * Creates a new InstancedPhongShader object.
+     * 
+     * @param shaderMgr
+     *            ShaderManager used to load the shader code
+     */
+    public InstancedPhongShader(ShaderManager shaderMgr) {
+        this(shaderMgr, shaderMgr.getGles30().isInstancingSupported());
+    }
+
+    /**
+     * Creates a new InstancedPhongShader object with hardware instancing enabled or disabled.
+     */
+    private InstancedPhongShader(ShaderManager shaderMgr, boolean hwInstancing) {
+        super(shaderMgr, null, "instanced_phong", hwInstancing ? 1 : 0, SHADER_DEFINES);
+        mHwInstancing = hwInstancing;
+    }
+
+    /**
+     * Returns true if this shader uses hardware instancing. In that case instances are drawn with
+     * per-instance vertex attributes, see {@link #getInstanceAttributeLocation(int)}, otherwise
+     * with {@link #setInstanceData(float[], int, int)}.
+     * 
+     * @return true if this shader uses hardware instancing
+     */
+    public boolean isHardwareInstancing() {
+        return mHwInstancing;
+    }
+
+    /**
+     * Gets the instance data uniform location and enables the instance ID attribute, or gets the
+     * per-instance attribute locations if hardware instancing is used.
+     * 
+     * @see PhongShader#onProgramReady()
+     */
+    @Override
+    protected void onProgramReady() {
+        super.onProgramReady();
+
+        if (mHwInstancing) {
+            // per-instance attributes are bound by InstancedMesh and not part of the mesh layout
+            for (int i = 0; i < INSTANCE_ATTRIBUTE_COUNT; i++) {
+                mInstanceAttributes[i] = glGetAttribLocation(mShaderHandle,
+                        INSTANCE_ATTRIBUTE_NAMES[i]);
+            }
+        } else {
+            muInstanceDataHandle = glGetUniformLocation(mShaderHandle, "uInstanceData");
+            enableAttribute(ATTRIBUTE_INSTANCE_IDS, "aInstanceId");
+        }
+    }
+
+    /**
+     * Returns the location of the specified per-instance vertex attribute. Attribute 0 to 2 are the
+     * rows of the affine instance transformation, attribute 3 is the instance color. Only
+     * available with hardware instancing.
+     * 
+     * @param attrib
+     *            per-instance attribute index (0 .. {@link #INSTANCE_ATTRIBUTE_COUNT} - 1)
+     * @return the attribute location or -1 if the attribute is not used
+     */
+    public int getInstanceAttributeLocation(int attrib) {
+        return mHwInstancing ? mInstanceAttributes[attrib] : -1;
+    }
+
+    /**
+     * Uploads the data of the specified instances to the shader. Is called by
+     * {@link InstancedMesh} before a batch of instances is drawn with pseudo-instancing.
+     * 
+     * @param instanceData
+     *            per-instance data with {@link InstancedMesh#INSTANCE_SIZE} floats per instance
+     * @param firstInstance
+     *            index of the first instance to upload
+     * @param count
+     *            number of instances to upload, at most {@link InstancedMesh#BATCH_SIZE}
+     */
+    public void setInstanceData(float[] instanceData, int firstInstance, int count) {
+        // each instance consists of 4 vec4 values, the data changes with every batch and is
+        // therefore not cached
+        glUniform4fv(muInstanceDataHandle, count * 4, instanceData,
+                firstInstance * InstancedMesh.INSTANCE_SIZE);
+    }
+
+}
@@ -1,10 +1,6 @@
 package de.fabmax.lightgl;
 
-import static android.opengl.GLES20.glGetUniformLocation;
-import static android.opengl.GLES20.glUniform1f;
-import static android.opengl.GLES20.glUniform1i;
-import static android.opengl.GLES20.glUniform3f;
-import static android.opengl.GLES20.glUniformMatrix4fv;
+import static de.fabmax.lightgl.Gl.glGetUniformLocation;
 
 import java.util.ArrayList;
 
@@ -15,6 +11,13 @@ import android.util.Log;
  * {@link GfxEngine#getLights()} contains multiple lights only the first one is considered. Meshes
  * rendered with this shader must have defined normal and color attributes.
  * 
+ * The shader is compiled from a single source with only the features set in the feature mask
+ * (see {@link #FEATURE_TEXTURE} etc.), so that objects only pay for the features they use.
+ * Shaders with equal feature masks share the same shader program.
+ * 
+ * The shader program is compiled asynchronously, until it is linked meshes using this shader are
+ * rendered with the fallback shader of the {@link ShaderManager}.
+ * 
  * @author fabmax
  * 
  */
@@ -22,8 +25,26 @@ public class PhongShader extends Shader {
 
     private static final String TAG = "PhongShader";
 
-    // shader handle
+    /** Feature bit: object is texture mapped, meshes must provide texture coordinates */
+    public static final int FEATURE_TEXTURE = 1;
+    /** Feature bit: object has vertex colors, meshes must provide vertex colors */
+    public static final int FEATURE_VERTEX_COLOR = 2;
+    /** Feature bit: object receives dynamic shadows, used by {@link ShadowShader} */
+    public static final int FEATURE_SHADOW = 4;
+    /** Feature bit: smooth shadow edges with 4 shadow map samples instead of 1 */
+    public static final int FEATURE_SHADOW_PCF = 8;
+
+    // shader defines for the feature bits
+    private static final String[] FEATURE_DEFINES = {
+        "TEXTURE", "VERTEX_COLOR", "SHADOW", "SHADOW_PCF"
+    };
+
+    // shader handle, is 0 until the shader program is linked
     protected int mShaderHandle = 0;
+    // true if the shader program is linked and the shader was initialized
+    private boolean mReady = false;
+    // enabled features
+    protected final int mFeatures;
 
     // uniform handles
     private int muMvpMatrixHandle = 0;
@@ -32,13 +53,27 @@ public class PhongShader extends Shader {
     private int muLightDirectionHandle = 0;
     private int muShininessHandle = 0;
     private int muLightColorHandle = 0;
-    private int muTextureSamplerHandle = 0;
+    private int mTextureSlot = 0;
 
     // shininess coefficient for phong lighting model
     private float mShininess = 20.0f;
     // optional texture
     protected Texture mTexture;
 
+    // receives the shader program handle once it is linked
+    private final ShaderManager.ProgramListener mProgramListener =
+            new ShaderManager.ProgramListener() {
+        @Override
+        public void onProgramLinked(int handle) {
+            mShaderHandle = handle;
+        }
+
+        @Override
+        public void onProgramFailed(GlException error) {
+            Log.e(TAG, error.getMessage());
+        }
+    };
+
     /**
      * Creates a new PhongShader object. Rendered objects must provide vertex colors.
      * 
@@ -59,7 +94,28 @@ public class PhongShader extends Shader {
      *            Optional texture that is mapped onto the shaded object
      */
     public PhongShader(ShaderManager shaderMgr, Texture texture) {
-        this(shaderMgr, texture, texture != null ? "phong_texture" : "phong_color");
+        this(shaderMgr, texture, texture != null ? FEATURE_TEXTURE : FEATURE_VERTEX_COLOR);
+    }
+
+    /**
+     * Creates a new PhongShader object with the specified features. If {@link #FEATURE_TEXTURE}
+     * is set, a texture must be specified. If both {@link #FEATURE_TEXTURE} and
+     * {@link #FEATURE_VERTEX_COLOR} are set, the texture color is multiplied with the vertex
+     * color.
+     * 
+     * @param shaderMgr
+     *            ShaderManager used to load the shader code
+     * @param texture
+     *            Texture that is mapped onto the shaded object, only used with
+     *            {@link #FEATURE_TEXTURE}
+     * @param features
+     *            feature bit mask, a combination of the FEATURE_* constants
+     */
+    public PhongShader(ShaderManager shaderMgr, Texture texture, int features) {
+        mFeatures = features;
+        mTexture = texture;
+        // queue the shader permutation with the requested features for compilation
+        shaderMgr.loadShaderAsync("phong", features, FEATURE_DEFINES, mProgramListener);
     }
 
     /**
@@ -75,16 +131,41 @@ public class PhongShader extends Shader {
      *            shader file name to load
      */
     protected PhongShader(ShaderManager shaderMgr, Texture texture, String shaderFile) {
-        // load color shader code
-        try {
-            // load shader with texture mapping
-            mShaderHandle = shaderMgr.loadShader(shaderFile);
-        } catch (GlException e) {
-            Log.e(TAG, e.getMessage());
-        }
-        
+        this(shaderMgr, texture, shaderFile, 0, null);
+    }
+
+    /**
+     * Creates a new PhongShader object with the specified shader file name and shader defines.
+     * The defines are selected by the bits of shaderFeatures, as in
+     * {@link ShaderManager#loadShader(String, int, String[])}. They are independent of the
+     * FEATURE_* bits of PhongShader.
+     * 
+     * @param shaderMgr
+     *            ShaderManager used to load the shader code
+     * @param texture
+     *            Optional texture that is mapped onto the shaded object
+     * @param shaderFile
+     *            shader file name to load
+     * @param shaderFeatures
+     *            bit mask selecting the defines of the custom shader
+     * @param shaderDefines
+     *            define names for the bits of shaderFeatures, can be null if shaderFeatures is 0
+     */
+    protected PhongShader(ShaderManager shaderMgr, Texture texture, String shaderFile,
+            int shaderFeatures, String[] shaderDefines) {
+        mFeatures = texture != null ? FEATURE_TEXTURE : FEATURE_VERTEX_COLOR;
         mTexture = texture;
+        // queue custom shader for compilation
+        shaderMgr.loadShaderAsync(shaderFile, shaderFeatures, shaderDefines, mProgramListener);
+    }
 
+    /**
+     * Is called on the GL thread before the shader is used for the first time after its program
+     * was linked. Gets the uniform locations and enables the vertex attributes needed by the
+     * enabled features. Subclasses that need additional uniforms or attributes should override
+     * this method and call the super implementation.
+     */
+    protected void onProgramReady() {
         // get uniform locations
         muMvpMatrixHandle = glGetUniformLocation(mShaderHandle, "uMvpMatrix");
         muModelMatrixHandle = glGetUniformLocation(mShaderHandle, "uModelMatrix");
@@ -93,11 +174,12 @@ public class PhongShader extends Shader {
         muShininessHandle = glGetUniformLocation(mShaderHandle, "uShininess");
         muLightColorHandle = glGetUniformLocation(mShaderHandle, "uLightColor");
 
-        if (texture != null) {
+        if ((mFeatures & FEATURE_TEXTURE) != 0) {
             // enable texture mapping
-            muTextureSamplerHandle = glGetUniformLocation(mShaderHandle, "uTextureSampler");
+            mTextureSlot = addSampler(glGetUniformLocation(mShaderHandle, "uTextureSampler"));
             enableAttribute(ATTRIBUTE_TEXTURE_COORDS, "aVertexTexCoord");
-        } else {
+        }
+        if ((mFeatures & FEATURE_VERTEX_COLOR) != 0) {
             // enable vertex colors
             enableAttribute(ATTRIBUTE_COLORS, "aVertexColor");
         }
@@ -107,6 +189,30 @@ public class PhongShader extends Shader {
         enableAttribute(ATTRIBUTE_NORMALS, "aVertexNormal_modelspace");
     }
 
+    /**
+     * Returns true as soon as the shader program is linked.
+     * 
+     * @see Shader#isReady()
+     */
+    @Override
+    public boolean isReady() {
+        if (!mReady && mShaderHandle != 0) {
+            // program was linked since the last call, initialize the shader
+            mReady = true;
+            onProgramReady();
+        }
+        return mReady;
+    }
+
+    /**
+     * Returns the feature bit mask of this shader.
+     * 
+     * @return the feature bit mask, a combination of the FEATURE_* constants
+     */
+    public int getFeatures() {
+        return mFeatures;
+    }
+
     /**
      * Returns the phong lighting shininess coefficient.
      * 
@@ -134,6 +240,14 @@ public class PhongShader extends Shader {
         return mShaderHandle;
     }
 
+    /**
+     * @see Shader#getTexture()
+     */
+    @Override
+    public Texture getTexture() {
+        return mTexture;
+    }
+
     /**
      * Is called if this shader is bound.
      * 
@@ -145,24 +259,23 @@ public class PhongShader extends Shader {
         onMatrixUpdate(state);
 
         // set shininess
-        glUniform1f(muShininessHandle, mShininess);
+        setUniform1f(muShininessHandle, mShininess);
 
         // take first light and interpret it as directional light
         ArrayList<Light> lights = state.getEngine().getLights();
         if (lights.size() > 0) {
             Light l = lights.get(0);
-            glUniform3f(muLightDirectionHandle, l.position[0], l.position[1], l.position[2]);
-            glUniform3f(muLightColorHandle, l.color[0], l.color[1], l.color[2]);
+            setUniform3f(muLightDirectionHandle, l.position[0], l.position[1], l.position[2]);
+            setUniform3f(muLightColorHandle, l.color[0], l.color[1], l.color[2]);
         } else {
             // set some default light properties if no light is defines
-            glUniform3f(muLightDirectionHandle, 1, 1, 1);
-            glUniform3f(muLightColorHandle, 1, 1, 1);
+            setUniform3f(muLightDirectionHandle, 1, 1, 1);
+            setUniform3f(muLightColorHandle, 1, 1, 1);
         }
         
         // bind texture if enabled
-        if(mTexture != null) {
-            state.bindTexture(mTexture);
-            glUniform1i(muTextureSamplerHandle, 0);
+        if ((mFeatures & FEATURE_TEXTURE) != 0 && mTexture != null) {
+            bindSampler(state, mTextureSlot, mTexture);
         }
     }
 
@@ -173,10 +286,11 @@ public class PhongShader extends Shader {
      */
     @Override
     public void onMatrixUpdate(GfxState state) {
-        // pass current transformation matrices to shader
-        glUniformMatrix4fv(muModelMatrixHandle, 1, false, state.getModelMatrix(), 0);
-        glUniformMatrix4fv(muViewMatrixHandle, 1, false, state.getViewMatrix(), 0);
-        glUniformMatrix4fv(muMvpMatrixHandle, 1, false, state.getMvpMatrix(), 0);
+        // pass current transformation matrices to shader, unchanged matrices (e.g. the view
+        // matrix) are not uploaded again
+        setUniformMatrix4(muModelMatrixHandle, state.getModelMatrix());
+        setUniformMatrix4(muViewMatrixHandle, state.getViewMatrix());
+        setUniformMatrix4(muMvpMatrixHandle, state.getMvpMatrix());
     }
 
 }
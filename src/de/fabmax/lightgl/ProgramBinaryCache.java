@@ -0,0 +1,241 @@
+package de.fabmax.lightgl;
+
+import static android.opengl.GLES20.GL_LINK_STATUS;
+import static android.opengl.GLES20.GL_RENDERER;
+import static android.opengl.GLES20.GL_TRUE;
+import static android.opengl.GLES20.GL_VENDOR;
+import static android.opengl.GLES20.GL_VERSION;
+import static de.fabmax.lightgl.Gl.glCreateProgram;
+import static de.fabmax.lightgl.Gl.glDeleteProgram;
+import static de.fabmax.lightgl.Gl.glGetIntegerv;
+import static de.fabmax.lightgl.Gl.glGetProgramiv;
+import static de.fabmax.lightgl.Gl.glGetString;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import android.util.Log;
+
+import de.fabmax.lightgl.util.BufferHelper;
+
+/**
+ * Caches linked shader programs on disk, so that shaders don't need to be compiled again after
+ * the GL context was recreated or the App was restarted. Cached programs are stored as driver
+ * specific program binaries. Each cache file is named after a hash of the shader sources and
+ * stores the GL vendor, renderer and version strings of the driver that created it; files created
+ * by a different driver are ignored and replaced.
+ * 
+ * Program binaries are part of OpenGL ES 3.0 (and of the OES_get_program_binary extension, which
+ * has no Java binding). The cache is therefore only active if the GL context is an OpenGL ES 3.0
+ * context, which most ES 3.0 capable devices return even if an ES 2.0 context is requested, and
+ * the Android version provides the GLES30 bindings, see {@link Gles30#isGles30Context()}. In all
+ * other cases {@link #loadProgram(String, String)} returns 0 and shaders are compiled from source.
+ * 
+ * @author fabmax
+ * 
+ */
+public class ProgramBinaryCache {
+
+    private static final String TAG = "ProgramBinaryCache";
+
+    private static final int MAGIC = 0x4C475042;
+    private static final int GL_PROGRAM_BINARY_LENGTH = 0x8741;
+    private static final int GL_NUM_PROGRAM_BINARY_FORMATS = 0x87FE;
+    private static final int GL_PROGRAM_BINARY_RETRIEVABLE_HINT = 0x8257;
+
+    private final File mCacheDir;
+    private String mDriver = null;
+    private boolean mSupported = false;
+
+    /**
+     * Creates a new ProgramBinaryCache that stores its files in the specified directory.
+     * 
+     * @param cacheDir
+     *            directory for cached program binaries, e.g. a sub directory of
+     *            {@link android.content.Context#getCacheDir()}
+     */
+    public ProgramBinaryCache(File cacheDir) {
+        mCacheDir = cacheDir;
+    }
+
+    /**
+     * Is called by {@link ShaderManager} if the GL context was (re-)created. Checks whether program
+     * binaries are supported by the current context.
+     */
+    void newGlContext() {
+        mSupported = false;
+        mDriver = glGetString(GL_VENDOR) + "|" + glGetString(GL_RENDERER) + "|" +
+                glGetString(GL_VERSION);
+
+        if (!Gles30.isGles30Context()) {
+            return;
+        }
+        int[] formats = new int[1];
+        glGetIntegerv(GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+        if (formats[0] == 0) {
+            return;
+        }
+        mSupported = mCacheDir.isDirectory() || mCacheDir.mkdirs();
+    }
+
+    /**
+     * Returns true if program binaries are supported by the current GL context.
+     * 
+     * @return true if program binaries are supported
+     */
+    public boolean isSupported() {
+        return mSupported;
+    }
+
+    /**
+     * Creates a shader program from the cached binary for the specified sources.
+     * 
+     * @param vertexShaderSrc
+     *            source code of the vertex shader
+     * @param fragmentShaderSrc
+     *            source code of the fragment shader
+     * @return the GL program handle or 0 if there is no valid cached binary
+     */
+    public int loadProgram(String vertexShaderSrc, String fragmentShaderSrc) {
+        if (!mSupported) {
+            return 0;
+        }
+        File file = getCacheFile(vertexShaderSrc, fragmentShaderSrc);
+        if (!file.exists()) {
+            return 0;
+        }
+
+        int program = 0;
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                if (in.readInt() != MAGIC || !mDriver.equals(in.readUTF())) {
+                    // cache file was created by another driver version
+                    file.delete();
+                    return 0;
+                }
+                int format = in.readInt();
+                byte[] binary = new byte[in.readInt()];
+                in.readFully(binary);
+
+                program = glCreateProgram();
+                Gles30.glProgramBinary(program, format, BufferHelper.createByteBuffer(binary),
+                        binary.length);
+            } finally {
+                in.close();
+            }
+
+            int[] status = new int[1];
+            glGetProgramiv(program, GL_LINK_STATUS, status, 0);
+            if (status[0] == GL_TRUE) {
+                return program;
+            }
+            Log.w(TAG, "Cached program binary was rejected, compiling from source");
+        } catch (Exception e) {
+            Log.w(TAG, "Failed loading program binary: " + e.getMessage());
+        }
+
+        // cached binary is invalid
+        if (program != 0) {
+            glDeleteProgram(program);
+        }
+        file.delete();
+        return 0;
+    }
+
+    /**
+     * Must be called before the specified program is linked. Hints the driver that the program
+     * binary will be retrieved.
+     * 
+     * @param program
+     *            the GL program handle
+     */
+    public void prepareProgram(int program) {
+        if (mSupported) {
+            Gles30.glProgramParameteri(program, GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL_TRUE);
+        }
+    }
+
+    /**
+     * Stores the binary of the specified linked program in the cache.
+     * 
+     * @param vertexShaderSrc
+     *            source code of the vertex shader
+     * @param fragmentShaderSrc
+     *            source code of the fragment shader
+     * @param program
+     *            the linked GL program handle
+     */
+    public void storeProgram(String vertexShaderSrc, String fragmentShaderSrc, int program) {
+        if (!mSupported) {
+            return;
+        }
+        File file = getCacheFile(vertexShaderSrc, fragmentShaderSrc);
+        try {
+            int[] length = new int[1];
+            glGetProgramiv(program, GL_PROGRAM_BINARY_LENGTH, length, 0);
+            if (length[0] <= 0) {
+                return;
+            }
+            ByteBuffer binary = BufferHelper.createByteBuffer(length[0]);
+            IntBuffer outLength = BufferHelper.createIntBuffer(1);
+            IntBuffer outFormat = BufferHelper.createIntBuffer(1);
+            Gles30.glGetProgramBinary(program, length[0], outLength, outFormat, binary);
+
+            byte[] data = new byte[outLength.get(0)];
+            binary.get(data);
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+            try {
+                out.writeInt(MAGIC);
+                out.writeUTF(mDriver);
+                out.writeInt(outFormat.get(0));
+                out.writeInt(data.length);
+                out.write(data);
+            } finally {
+                out.close();
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Failed storing program binary: " + e.getMessage());
+            file.delete();
+        }
+    }
+
+    /**
+     * Returns the cache file for the specified shader sources.
+     */
+    private File getCacheFile(String vertexShaderSrc, String fragmentShaderSrc) {
+        return new File(mCacheDir, hashSources(vertexShaderSrc, fragmentShaderSrc) + ".bin");
+    }
+
+    /**
+     * Computes a SHA-1 hash of the specified shader sources. Both sources are hashed separately
+     * so that moving code from one shader to the other changes the hash.
+     */
+    private static String hashSources(String vertexShaderSrc, String fragmentShaderSrc) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(vertexShaderSrc.getBytes("UTF-8"));
+            digest.update((byte) 0);
+            digest.update(fragmentShaderSrc.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b & 0xFF));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-1 is always available
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            // UTF-8 is always available
+            throw new RuntimeException(e);
+        }
+    }
+}
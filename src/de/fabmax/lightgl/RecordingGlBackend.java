@@ -0,0 +1,656 @@
+package de.fabmax.lightgl;
+
+import static android.opengl.GLES20.GL_ARRAY_BUFFER;
+import static android.opengl.GLES20.GL_ELEMENT_ARRAY_BUFFER;
+import static android.opengl.GLES20.GL_EXTENSIONS;
+import static android.opengl.GLES20.GL_LINK_STATUS;
+import static android.opengl.GLES20.GL_LUMINANCE_ALPHA;
+import static android.opengl.GLES20.GL_MAX_TEXTURE_IMAGE_UNITS;
+import static android.opengl.GLES20.GL_MAX_VERTEX_ATTRIBS;
+import static android.opengl.GLES20.GL_NO_ERROR;
+import static android.opengl.GLES20.GL_RENDERER;
+import static android.opengl.GLES20.GL_RGB;
+import static android.opengl.GLES20.GL_RGBA;
+import static android.opengl.GLES20.GL_TEXTURE0;
+import static android.opengl.GLES20.GL_TEXTURE_CUBE_MAP;
+import static android.opengl.GLES20.GL_TRIANGLES;
+import static android.opengl.GLES20.GL_TRIANGLE_FAN;
+import static android.opengl.GLES20.GL_TRIANGLE_STRIP;
+import static android.opengl.GLES20.GL_TRUE;
+import static android.opengl.GLES20.GL_UNSIGNED_BYTE;
+import static android.opengl.GLES20.GL_VENDOR;
+import static android.opengl.GLES20.GL_VERSION;
+
+import java.nio.Buffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+
+import android.graphics.Bitmap;
+
+/**
+ * A {@link GlBackend} that does not need a GL context. Instead of rendering anything, all calls
+ * are recorded: RecordingGlBackend counts the issued calls, draw calls, rendered triangles,
+ * uploaded bytes, uniform uploads and GL state changes. State changes that set the state which is
+ * already set are counted as redundant. The counters are collected per frame, a new frame is
+ * started with {@link #newFrame()}.
+ * 
+ * Together with {@link Gl#setBackend(GlBackend)} this allows to run the engine on a plain JVM and
+ * to write deterministic regression tests for the GL cost of a frame. Object handles, uniform and
+ * attribute locations are generated, shaders always compile and link successfully and queries
+ * return plausible default values.
+ * 
+ * @author fabmax
+ * 
+ */
+public class RecordingGlBackend implements GlBackend {
+
+    // GL_COMPLETION_STATUS_KHR from GL_KHR_parallel_shader_compile
+    private static final int GL_COMPLETION_STATUS_KHR = 0x91B1;
+
+    private static final int MAX_TEXTURE_UNITS = 16;
+    private static final int MAX_VERTEX_ATTRIBS = 16;
+
+    // counters of the current and the last frame
+    private FrameRecord mCurrentFrame = new FrameRecord();
+    private FrameRecord mLastFrame = new FrameRecord();
+
+    // generated object handles and locations
+    private int mNextHandle = 1;
+    private final HashMap<String, Integer> mLocations = new HashMap<String, Integer>();
+    private final HashMap<Integer, int[]> mLocationCounts = new HashMap<Integer, int[]>();
+
+    // tracked GL state
+    private int mProgram = 0;
+    private int mArrayBuffer = 0;
+    private int mElementBuffer = 0;
+    private int mFramebuffer = 0;
+    private int mRenderbuffer = 0;
+    private int mActiveTexture = 0;
+    private final int[] mBound2d = new int[MAX_TEXTURE_UNITS];
+    private final int[] mBoundCube = new int[MAX_TEXTURE_UNITS];
+    private final boolean[] mAttribArrays = new boolean[MAX_VERTEX_ATTRIBS];
+    private final HashSet<Integer> mEnabledCaps = new HashSet<Integer>();
+    private final int[] mViewport = new int[4];
+
+    /**
+     * Finishes the current frame and starts a new one. The counters of the finished frame are
+     * available via {@link #getLastFrame()}.
+     */
+    public void newFrame() {
+        mLastFrame = mCurrentFrame;
+        mCurrentFrame = new FrameRecord();
+    }
+
+    /**
+     * Returns the counters of the current frame, i.e. all calls since the last call of
+     * {@link #newFrame()}.
+     * 
+     * @return the counters of the current frame
+     */
+    public FrameRecord getCurrentFrame() {
+        return mCurrentFrame;
+    }
+
+    /**
+     * Returns the counters of the frame finished by the last call of {@link #newFrame()}.
+     * 
+     * @return the counters of the last frame
+     */
+    public FrameRecord getLastFrame() {
+        return mLastFrame;
+    }
+
+    /**
+     * Counts a call of the specified GL function.
+     */
+    private void record(String function) {
+        FrameRecord f = mCurrentFrame;
+        f.mCalls++;
+        int[] cnt = f.mCallCounts.get(function);
+        if (cnt == null) {
+            cnt = new int[1];
+            f.mCallCounts.put(function, cnt);
+        }
+        cnt[0]++;
+    }
+
+    /**
+     * Counts a state change, which is redundant if the state did not change.
+     */
+    private void stateChange(boolean changed) {
+        mCurrentFrame.mStateChanges++;
+        if (!changed) {
+            mCurrentFrame.mRedundantStateChanges++;
+        }
+    }
+
+    /**
+     * Generates n object handles.
+     */
+    private void genHandles(int n, int[] handles, int offset) {
+        for (int i = 0; i < n; i++) {
+            handles[offset + i] = mNextHandle++;
+        }
+    }
+
+    /**
+     * Returns the location of the specified uniform or attribute. Locations are enumerated per
+     * program in the order they are queried.
+     */
+    private int getLocation(int program, String kind, String name) {
+        if (program == 0) {
+            return -1;
+        }
+        String key = program + kind + name;
+        Integer loc = mLocations.get(key);
+        if (loc == null) {
+            int[] cnt = mLocationCounts.get(program);
+            if (cnt == null) {
+                // separate counters for uniforms and attributes
+                cnt = new int[2];
+                mLocationCounts.put(program, cnt);
+            }
+            int idx = kind.equals("u") ? 0 : 1;
+            loc = cnt[idx]++;
+            mLocations.put(key, loc);
+        }
+        return loc;
+    }
+
+    /**
+     * Returns the number of bytes per pixel for the specified texture format and type.
+     */
+    private static int getBytesPerPixel(int format, int type) {
+        if (type != GL_UNSIGNED_BYTE) {
+            // GL_UNSIGNED_SHORT_5_6_5, GL_UNSIGNED_SHORT_4_4_4_4, GL_UNSIGNED_SHORT_5_5_5_1
+            return 2;
+        } else if (format == GL_RGBA) {
+            return 4;
+        } else if (format == GL_RGB) {
+            return 3;
+        } else if (format == GL_LUMINANCE_ALPHA) {
+            return 2;
+        } else {
+            return 1;
+        }
+    }
+
+    @Override
+    public void glActiveTexture(int texture) {
+        record("glActiveTexture");
+        int unit = texture - GL_TEXTURE0;
+        stateChange(unit != mActiveTexture);
+        mActiveTexture = unit;
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        record("glAttachShader");
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        record("glBindBuffer");
+        if (target == GL_ARRAY_BUFFER) {
+            stateChange(buffer != mArrayBuffer);
+            mArrayBuffer = buffer;
+        } else if (target == GL_ELEMENT_ARRAY_BUFFER) {
+            stateChange(buffer != mElementBuffer);
+            mElementBuffer = buffer;
+        }
+    }
+
+    @Override
+    public void glBindFramebuffer(int target, int framebuffer) {
+        record("glBindFramebuffer");
+        stateChange(framebuffer != mFramebuffer);
+        mFramebuffer = framebuffer;
+    }
+
+    @Override
+    public void glBindRenderbuffer(int target, int renderbuffer) {
+        record("glBindRenderbuffer");
+        stateChange(renderbuffer != mRenderbuffer);
+        mRenderbuffer = renderbuffer;
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        record("glBindTexture");
+        int[] bound = target == GL_TEXTURE_CUBE_MAP ? mBoundCube : mBound2d;
+        stateChange(bound[mActiveTexture] != texture);
+        bound[mActiveTexture] = texture;
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        record("glBufferData");
+        if (data != null) {
+            mCurrentFrame.mBufferBytes += size;
+        }
+    }
+
+    @Override
+    public void glClear(int mask) {
+        record("glClear");
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        record("glClearColor");
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        record("glCompileShader");
+    }
+
+    @Override
+    public void glCompressedTexImage2D(int target, int level, int internalformat, int width,
+            int height, int border, int imageSize, Buffer data) {
+        record("glCompressedTexImage2D");
+        mCurrentFrame.mTextureBytes += imageSize;
+    }
+
+    @Override
+    public int glCreateProgram() {
+        record("glCreateProgram");
+        return mNextHandle++;
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        record("glCreateShader");
+        return mNextHandle++;
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        record("glDeleteProgram");
+        if (program == mProgram) {
+            mProgram = 0;
+        }
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+        record("glDeleteShader");
+    }
+
+    @Override
+    public void glDeleteTextures(int n, int[] textures, int offset) {
+        record("glDeleteTextures");
+        // deleted textures are unbound from all units
+        for (int i = 0; i < n; i++) {
+            for (int u = 0; u < MAX_TEXTURE_UNITS; u++) {
+                if (mBound2d[u] == textures[offset + i]) {
+                    mBound2d[u] = 0;
+                }
+                if (mBoundCube[u] == textures[offset + i]) {
+                    mBoundCube[u] = 0;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void glDisable(int cap) {
+        record("glDisable");
+        stateChange(mEnabledCaps.remove(cap));
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        record("glDisableVertexAttribArray");
+        stateChange(mAttribArrays[index]);
+        mAttribArrays[index] = false;
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        record("glDrawElements");
+        mCurrentFrame.mDrawCalls++;
+        if (mode == GL_TRIANGLES) {
+            mCurrentFrame.mTriangles += count / 3;
+        } else if ((mode == GL_TRIANGLE_STRIP || mode == GL_TRIANGLE_FAN) && count > 2) {
+            mCurrentFrame.mTriangles += count - 2;
+        }
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        record("glEnable");
+        stateChange(mEnabledCaps.add(cap));
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        record("glEnableVertexAttribArray");
+        stateChange(!mAttribArrays[index]);
+        mAttribArrays[index] = true;
+    }
+
+    @Override
+    public void glFramebufferRenderbuffer(int target, int attachment, int renderbuffertarget,
+            int renderbuffer) {
+        record("glFramebufferRenderbuffer");
+    }
+
+    @Override
+    public void glFramebufferTexture2D(int target, int attachment, int textarget, int texture,
+            int level) {
+        record("glFramebufferTexture2D");
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        record("glGenBuffers");
+        genHandles(n, buffers, offset);
+    }
+
+    @Override
+    public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+        record("glGenFramebuffers");
+        genHandles(n, framebuffers, offset);
+    }
+
+    @Override
+    public void glGenRenderbuffers(int n, int[] renderbuffers, int offset) {
+        record("glGenRenderbuffers");
+        genHandles(n, renderbuffers, offset);
+    }
+
+    @Override
+    public void glGenTextures(int n, int[] textures, int offset) {
+        record("glGenTextures");
+        genHandles(n, textures, offset);
+    }
+
+    @Override
+    public void glGenerateMipmap(int target) {
+        record("glGenerateMipmap");
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        record("glGetAttribLocation");
+        return getLocation(program, "a", name);
+    }
+
+    @Override
+    public int glGetError() {
+        record("glGetError");
+        return GL_NO_ERROR;
+    }
+
+    @Override
+    public void glGetIntegerv(int pname, int[] params, int offset) {
+        record("glGetIntegerv");
+        if (pname == GL_MAX_TEXTURE_IMAGE_UNITS) {
+            params[offset] = MAX_TEXTURE_UNITS;
+        } else if (pname == GL_MAX_VERTEX_ATTRIBS) {
+            params[offset] = MAX_VERTEX_ATTRIBS;
+        } else {
+            params[offset] = 0;
+        }
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        record("glGetProgramInfoLog");
+        return "";
+    }
+
+    @Override
+    public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        record("glGetProgramiv");
+        if (pname == GL_LINK_STATUS || pname == GL_COMPLETION_STATUS_KHR) {
+            params[offset] = GL_TRUE;
+        } else {
+            params[offset] = 0;
+        }
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        record("glGetShaderInfoLog");
+        return "";
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        record("glGetShaderiv");
+        // compilation always succeeds
+        params[offset] = GL_TRUE;
+    }
+
+    @Override
+    public String glGetString(int name) {
+        record("glGetString");
+        if (name == GL_VENDOR) {
+            return "fabmax";
+        } else if (name == GL_RENDERER) {
+            return "RecordingGlBackend";
+        } else if (name == GL_VERSION) {
+            return "OpenGL ES 2.0 (recording)";
+        } else if (name == GL_EXTENSIONS) {
+            return "";
+        }
+        return null;
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        record("glGetUniformLocation");
+        return getLocation(program, "u", name);
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        record("glLinkProgram");
+    }
+
+    @Override
+    public void glRenderbufferStorage(int target, int internalformat, int width, int height) {
+        record("glRenderbufferStorage");
+    }
+
+    @Override
+    public void glShaderSource(int shader, String string) {
+        record("glShaderSource");
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalformat, int width, int height,
+            int border, int format, int type, Buffer pixels) {
+        record("glTexImage2D");
+        if (pixels != null) {
+            mCurrentFrame.mTextureBytes += width * height * getBytesPerPixel(format, type);
+        }
+    }
+
+    @Override
+    public void glTexParameteri(int target, int pname, int param) {
+        record("glTexParameteri");
+    }
+
+    @Override
+    public void glUniform1f(int location, float x) {
+        record("glUniform1f");
+        mCurrentFrame.mUniformUploads++;
+    }
+
+    @Override
+    public void glUniform1i(int location, int x) {
+        record("glUniform1i");
+        mCurrentFrame.mUniformUploads++;
+    }
+
+    @Override
+    public void glUniform3f(int location, float x, float y, float z) {
+        record("glUniform3f");
+        mCurrentFrame.mUniformUploads++;
+    }
+
+    @Override
+    public void glUniform4fv(int location, int count, float[] v, int offset) {
+        record("glUniform4fv");
+        mCurrentFrame.mUniformUploads++;
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value,
+            int offset) {
+        record("glUniformMatrix4fv");
+        mCurrentFrame.mUniformUploads++;
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        record("glUseProgram");
+        stateChange(program != mProgram);
+        mProgram = program;
+    }
+
+    @Override
+    public void glVertexAttribPointer(int indx, int size, int type, boolean normalized,
+            int stride, Buffer ptr) {
+        record("glVertexAttribPointer");
+        mCurrentFrame.mStateChanges++;
+    }
+
+    @Override
+    public void glVertexAttribPointer(int indx, int size, int type, boolean normalized,
+            int stride, int offset) {
+        record("glVertexAttribPointer");
+        mCurrentFrame.mStateChanges++;
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        record("glViewport");
+        boolean changed = mViewport[0] != x || mViewport[1] != y || mViewport[2] != width
+                || mViewport[3] != height;
+        stateChange(changed);
+        mViewport[0] = x;
+        mViewport[1] = y;
+        mViewport[2] = width;
+        mViewport[3] = height;
+    }
+
+    @Override
+    public void texImage2D(int target, int level, Bitmap bitmap, int border) {
+        record("texImage2D");
+        mCurrentFrame.mTextureBytes += bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * The GL calls recorded during a single frame.
+     */
+    public static class FrameRecord {
+        private int mCalls = 0;
+        private int mDrawCalls = 0;
+        private int mTriangles = 0;
+        private int mStateChanges = 0;
+        private int mRedundantStateChanges = 0;
+        private int mUniformUploads = 0;
+        private long mBufferBytes = 0;
+        private long mTextureBytes = 0;
+        private final HashMap<String, int[]> mCallCounts = new HashMap<String, int[]>();
+
+        /**
+         * Returns the total number of GL calls.
+         * 
+         * @return the total number of GL calls
+         */
+        public int getCallCount() {
+            return mCalls;
+        }
+
+        /**
+         * Returns the number of calls of the specified GL function, e.g. "glBindTexture".
+         * 
+         * @param function
+         *            name of the GL function
+         * @return the number of calls of the specified function
+         */
+        public int getCallCount(String function) {
+            int[] cnt = mCallCounts.get(function);
+            return cnt != null ? cnt[0] : 0;
+        }
+
+        /**
+         * Returns the number of draw calls.
+         * 
+         * @return the number of draw calls
+         */
+        public int getDrawCalls() {
+            return mDrawCalls;
+        }
+
+        /**
+         * Returns the number of drawn triangles.
+         * 
+         * @return the number of drawn triangles
+         */
+        public int getTriangles() {
+            return mTriangles;
+        }
+
+        /**
+         * Returns the number of state changes: binding of programs, buffers, textures, frame
+         * buffers, enabling and disabling capabilities and vertex attribute arrays, vertex
+         * attribute pointers and viewport changes.
+         * 
+         * @return the number of state changes
+         */
+        public int getStateChanges() {
+            return mStateChanges;
+        }
+
+        /**
+         * Returns the number of state changes that set the already set state.
+         * 
+         * @return the number of redundant state changes
+         */
+        public int getRedundantStateChanges() {
+            return mRedundantStateChanges;
+        }
+
+        /**
+         * Returns the number of uniform uploads.
+         * 
+         * @return the number of uniform uploads
+         */
+        public int getUniformUploads() {
+            return mUniformUploads;
+        }
+
+        /**
+         * Returns the number of bytes uploaded to buffer objects.
+         * 
+         * @return the number of bytes uploaded to buffer objects
+         */
+        public long getBufferBytes() {
+            return mBufferBytes;
+        }
+
+        /**
+         * Returns the number of bytes uploaded to textures.
+         * 
+         * @return the number of bytes uploaded to textures
+         */
+        public long getTextureBytes() {
+            return mTextureBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ENGLISH, "%d calls, %d draw calls, %d triangles, "
+                    + "%d state changes (%d redundant), %d uniform uploads, %d buffer bytes, "
+                    + "%d texture bytes", mCalls, mDrawCalls, mTriangles, mStateChanges,
+                    mRedundantStateChanges, mUniformUploads, mBufferBytes, mTextureBytes);
+        }
+    }
+}
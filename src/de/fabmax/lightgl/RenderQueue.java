@@ -0,0 +1,354 @@
+package de.fabmax.lightgl;
+
+import de.fabmax.lightgl.scene.Node;
+
+/**
+ * The RenderQueue collects all visible meshes of a scene together with their final model
+ * matrices, sorts them by a packed 64-bit key and draws them in sorted order. The key consists of
+ * (from most to least significant) the render layer, the shader handle, the texture handle and the
+ * camera distance, so that meshes sharing the same shader and texture are drawn consecutively and
+ * opaque meshes are drawn front to back.
+ * 
+ * Layers can be marked as transparent with {@link RenderQueue#setLayerTransparent(int, boolean)}.
+ * Within a transparent layer the camera distance is the most significant criterion and meshes are
+ * drawn back to front, shader and texture only break ties between meshes of equal distance.
+ * 
+ * The RenderQueue is enabled with {@link GfxState#setRenderQueueEnabled(boolean)}.
+ * 
+ * @author fabmax
+ * 
+ */
+public class RenderQueue {
+
+    // bit layout of sort keys: the sign bit is unused so that keys sort as signed longs
+    private static final int LAYER_SHIFT = 56;
+    private static final int SHADER_SHIFT = 44;
+    private static final int TEXTURE_SHIFT = 32;
+    // bit layout of transparent layers: depth (inverted) before shader and texture handles
+    private static final int TRANSPARENT_DEPTH_SHIFT = 24;
+    private static final int TRANSPARENT_SHADER_SHIFT = 12;
+    private static final long LAYER_MASK = 0x7f;
+    private static final long HANDLE_MASK = 0xfff;
+    private static final long DEPTH_MASK = 0xffffffffL;
+
+    // layers drawn back to front
+    private final boolean[] mTransparentLayers = new boolean[(int) LAYER_MASK + 1];
+
+    // ranges smaller than this are sorted by insertion sort
+    private static final int INSERTION_SORT_THRESHOLD = 12;
+
+    // pooled queue entries, only the first mSize are in use
+    private Entry[] mEntries = new Entry[64];
+    private int mSize = 0;
+
+    private final float[] mTmpVec = new float[3];
+    private final float[] mRootMatrix = new float[16];
+
+    // state change statistics of the last rendered queue
+    private int mShaderChanges = 0;
+    private int mTextureChanges = 0;
+    private int mUnsortedShaderChanges = 0;
+    private int mUnsortedTextureChanges = 0;
+
+    /**
+     * Creates a new empty RenderQueue.
+     */
+    public RenderQueue() {
+        for (int i = 0; i < mEntries.length; i++) {
+            mEntries[i] = new Entry();
+        }
+    }
+
+    /**
+     * Marks the specified render layer as transparent or opaque. Meshes of opaque layers are
+     * grouped by shader and texture and drawn front to back, meshes of transparent layers are
+     * drawn back to front regardless of their shader and texture. By default all layers are
+     * opaque.
+     * 
+     * @param layer
+     *            the render layer (0 .. 127)
+     * @param transparent
+     *            true to draw the layer back to front
+     */
+    public void setLayerTransparent(int layer, boolean transparent) {
+        if (layer < 0 || layer > LAYER_MASK) {
+            throw new IllegalArgumentException("Render layer must be in range 0 .. 127");
+        }
+        mTransparentLayers[layer] = transparent;
+    }
+
+    /**
+     * Returns true if the specified render layer is drawn back to front.
+     * 
+     * @see RenderQueue#setLayerTransparent(int, boolean)
+     * 
+     * @param layer
+     *            the render layer (0 .. 127)
+     * @return true if the layer is transparent
+     */
+    public boolean isLayerTransparent(int layer) {
+        return mTransparentLayers[layer & (int) LAYER_MASK];
+    }
+
+    /**
+     * Collects all visible meshes of the specified node, sorts and draws them.
+     * 
+     * @param state
+     *            current graphics engine state
+     * @param node
+     *            node to render
+     */
+    public void render(GfxState state, Node node) {
+        clear();
+
+        // collect visible meshes, the bound shader is not notified about the model matrix
+        // changes during collection as nothing is drawn
+        System.arraycopy(state.getModelMatrix(), 0, mRootMatrix, 0, 16);
+        state.setMatrixUpdateNotification(false);
+        node.collect(state, this);
+        state.setMatrixUpdateNotification(true);
+
+        // count state changes for traversal order and sorted order
+        mUnsortedShaderChanges = countShaderChanges();
+        mUnsortedTextureChanges = countTextureChanges();
+        sort(0, mSize - 1);
+        mShaderChanges = countShaderChanges();
+        mTextureChanges = countTextureChanges();
+
+        // draw queued nodes
+        for (int i = 0; i < mSize; i++) {
+            Entry e = mEntries[i];
+            // does nothing if the matrix equals the current model matrix
+            state.setModelMatrix(e.mModelMatrix);
+            e.mNode.render(state);
+            e.mNode = null;
+        }
+
+        // restore root model matrix
+        state.setModelMatrix(mRootMatrix);
+    }
+
+    /**
+     * Adds a node to this queue. Is called by {@link Node#collect(GfxState, RenderQueue)}. The
+     * node is queued with the current model matrix of the specified state, its camera distance is
+     * computed from the center of its bounds.
+     * 
+     * @param node
+     *            the node to add
+     * @param shader
+     *            the shader used by the node, can be null
+     * @param layer
+     *            render layer of the node (0 .. 127), lower layers are drawn first, transparent
+     *            layers are sorted back to front
+     * @param state
+     *            current graphics engine state
+     */
+    public void add(Node node, Shader shader, int layer, GfxState state) {
+        if (mSize == mEntries.length) {
+            increaseSize();
+        }
+        Entry e = mEntries[mSize++];
+        float[] modelM = state.getModelMatrix();
+        System.arraycopy(modelM, 0, e.mModelMatrix, 0, 16);
+        e.mNode = node;
+
+        // compute node center in world space
+        float[] v = mTmpVec;
+        BoundingBox bounds = node.getBounds();
+        if (bounds != null) {
+            v[0] = (bounds.getMinX() + bounds.getMaxX()) * 0.5f;
+            v[1] = (bounds.getMinY() + bounds.getMaxY()) * 0.5f;
+            v[2] = (bounds.getMinZ() + bounds.getMaxZ()) * 0.5f;
+        } else {
+            v[0] = v[1] = v[2] = 0;
+        }
+        float x = modelM[0] * v[0] + modelM[4] * v[1] + modelM[8] * v[2] + modelM[12];
+        float y = modelM[1] * v[0] + modelM[5] * v[1] + modelM[9] * v[2] + modelM[13];
+        float z = modelM[2] * v[0] + modelM[6] * v[1] + modelM[10] * v[2] + modelM[14];
+        // camera looks along negative z in view space
+        float[] viewM = state.getViewMatrix();
+        float depth = -(viewM[2] * x + viewM[6] * y + viewM[10] * z + viewM[14]);
+        if (!(depth > 0)) {
+            depth = 0;
+        }
+
+        e.mShaderHandle = 0;
+        e.mTextureHandle = 0;
+        if (shader != null) {
+            e.mShaderHandle = shader.getShaderHandle();
+            Texture tex = shader.getTexture();
+            if (tex != null) {
+                e.mTextureHandle = tex.getTextureHandle();
+            }
+        }
+
+        // for positive floats the IEEE bit representation has the same order as the value
+        long depthBits = Float.floatToIntBits(depth) & DEPTH_MASK;
+        if (mTransparentLayers[layer & (int) LAYER_MASK]) {
+            // inverted depth sorts far meshes first
+            e.mKey = ((layer & LAYER_MASK) << LAYER_SHIFT) |
+                     ((~depthBits & DEPTH_MASK) << TRANSPARENT_DEPTH_SHIFT) |
+                     ((e.mShaderHandle & HANDLE_MASK) << TRANSPARENT_SHADER_SHIFT) |
+                     (e.mTextureHandle & HANDLE_MASK);
+        } else {
+            e.mKey = ((layer & LAYER_MASK) << LAYER_SHIFT) |
+                     ((e.mShaderHandle & HANDLE_MASK) << SHADER_SHIFT) |
+                     ((e.mTextureHandle & HANDLE_MASK) << TEXTURE_SHIFT) |
+                     depthBits;
+        }
+    }
+
+    /**
+     * Removes all entries from this queue.
+     */
+    public void clear() {
+        for (int i = 0; i < mSize; i++) {
+            mEntries[i].mNode = null;
+        }
+        mSize = 0;
+    }
+
+    /**
+     * Returns the number of entries drawn with the last call of
+     * {@link RenderQueue#render(GfxState, Node)}.
+     * 
+     * @return the number of queued entries
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the number of shader changes needed to draw the last queue in sorted order.
+     * 
+     * @return the number of shader changes in sorted order
+     */
+    public int getShaderChanges() {
+        return mShaderChanges;
+    }
+
+    /**
+     * Returns the number of texture changes needed to draw the last queue in sorted order.
+     * 
+     * @return the number of texture changes in sorted order
+     */
+    public int getTextureChanges() {
+        return mTextureChanges;
+    }
+
+    /**
+     * Returns the number of shader changes saved by sorting the last queue, compared to drawing it
+     * in scene graph order.
+     * 
+     * @return the number of saved shader changes
+     */
+    public int getSavedShaderChanges() {
+        return mUnsortedShaderChanges - mShaderChanges;
+    }
+
+    /**
+     * Returns the number of texture changes saved by sorting the last queue, compared to drawing
+     * it in scene graph order.
+     * 
+     * @return the number of saved texture changes
+     */
+    public int getSavedTextureChanges() {
+        return mUnsortedTextureChanges - mTextureChanges;
+    }
+
+    /**
+     * Counts the shader changes needed to draw the queue in current order.
+     */
+    private int countShaderChanges() {
+        int changes = 0;
+        int handle = 0;
+        for (int i = 0; i < mSize; i++) {
+            if (mEntries[i].mShaderHandle != handle) {
+                handle = mEntries[i].mShaderHandle;
+                changes++;
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Counts the texture changes needed to draw the queue in current order.
+     */
+    private int countTextureChanges() {
+        int changes = 0;
+        int handle = 0;
+        for (int i = 0; i < mSize; i++) {
+            if (mEntries[i].mTextureHandle != handle) {
+                handle = mEntries[i].mTextureHandle;
+                changes++;
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Sorts the entries in the specified range by their keys. This is a plain quicksort that falls
+     * back to insertion sort for small ranges and does not allocate any memory.
+     */
+    private void sort(int lo, int hi) {
+        while (hi - lo >= INSERTION_SORT_THRESHOLD) {
+            long pivot = mEntries[(lo + hi) >>> 1].mKey;
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (mEntries[i].mKey < pivot) {
+                    i++;
+                }
+                while (mEntries[j].mKey > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    Entry tmp = mEntries[i];
+                    mEntries[i++] = mEntries[j];
+                    mEntries[j--] = tmp;
+                }
+            }
+            // recurse into smaller part, loop on larger part
+            if (j - lo < hi - i) {
+                sort(lo, j);
+                lo = i;
+            } else {
+                sort(i, hi);
+                hi = j;
+            }
+        }
+
+        for (int i = lo + 1; i <= hi; i++) {
+            Entry e = mEntries[i];
+            int j = i - 1;
+            while (j >= lo && mEntries[j].mKey > e.mKey) {
+                mEntries[j + 1] = mEntries[j];
+                j--;
+            }
+            mEntries[j + 1] = e;
+        }
+    }
+
+    /**
+     * Doubles the size of the entry pool.
+     */
+    private void increaseSize() {
+        Entry[] entries = new Entry[mEntries.length * 2];
+        System.arraycopy(mEntries, 0, entries, 0, mEntries.length);
+        for (int i = mEntries.length; i < entries.length; i++) {
+            entries[i] = new Entry();
+        }
+        mEntries = entries;
+    }
+
+    /**
+     * A queued node with its model matrix and sort key.
+     */
+    private static class Entry {
+        private final float[] mModelMatrix = new float[16];
+        private Node mNode;
+        private long mKey;
+        private int mShaderHandle;
+        private int mTextureHandle;
+    }
+}
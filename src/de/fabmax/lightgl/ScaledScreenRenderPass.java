@@ -3,11 +3,10 @@ package de.fabmax.lightgl;
 import static android.opengl.GLES20.GL_COLOR_BUFFER_BIT;
 import static android.opengl.GLES20.GL_DEPTH_BUFFER_BIT;
 import static android.opengl.GLES20.GL_DEPTH_TEST;
-import static android.opengl.GLES20.glClear;
-import static android.opengl.GLES20.glDisable;
-import static android.opengl.GLES20.glEnable;
-import static android.opengl.GLES20.glGetUniformLocation;
-import static android.opengl.GLES20.glUniform1i;
+import static de.fabmax.lightgl.Gl.glClear;
+import static de.fabmax.lightgl.Gl.glDisable;
+import static de.fabmax.lightgl.Gl.glEnable;
+import static de.fabmax.lightgl.Gl.glGetUniformLocation;
 import android.util.Log;
 
 import de.fabmax.lightgl.scene.Mesh;
@@ -74,7 +73,7 @@ public class ScaledScreenRenderPass implements RenderPass {
             glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
             Node scene = engine.getScene();
             if(scene != null) {
-                scene.render(engine.getState());
+                engine.getState().renderNode(scene);
             }
         }
     }
@@ -151,7 +150,7 @@ public class ScaledScreenRenderPass implements RenderPass {
         @Override
         public void onBind(GfxState state) {
             // set used texture sampler
-            glUniform1i(muTextureSampler, 0);
+            setUniform1i(muTextureSampler, 0);
         }
 
         /**
@@ -2,7 +2,7 @@ package de.fabmax.lightgl;
 
 import static android.opengl.GLES20.GL_COLOR_BUFFER_BIT;
 import static android.opengl.GLES20.GL_DEPTH_BUFFER_BIT;
-import static android.opengl.GLES20.glClear;
+import static de.fabmax.lightgl.Gl.glClear;
 
 import de.fabmax.lightgl.scene.Node;
 
@@ -25,7 +25,7 @@ public class ScreenRenderPass implements RenderPass {
         // render scene
         Node scene = engine.getScene();
         if(scene != null) {
-            scene.render(engine.getState());
+            engine.getState().renderNode(scene);
         }
     }
 
@@ -1,7 +1,12 @@
 package de.fabmax.lightgl;
 
-import static android.opengl.GLES20.glEnableVertexAttribArray;
-import static android.opengl.GLES20.glGetAttribLocation;
+import static android.opengl.GLES20.GL_TEXTURE0;
+import static de.fabmax.lightgl.Gl.glEnableVertexAttribArray;
+import static de.fabmax.lightgl.Gl.glGetAttribLocation;
+import static de.fabmax.lightgl.Gl.glUniform1f;
+import static de.fabmax.lightgl.Gl.glUniform1i;
+import static de.fabmax.lightgl.Gl.glUniform3f;
+import static de.fabmax.lightgl.Gl.glUniformMatrix4fv;
 
 import de.fabmax.lightgl.scene.Mesh;
 
@@ -17,15 +22,27 @@ public abstract class Shader {
     public static final int ATTRIBUTE_NORMALS = 1;
     public static final int ATTRIBUTE_TEXTURE_COORDS = 2;
     public static final int ATTRIBUTE_COLORS = 3;
+    public static final int ATTRIBUTE_INSTANCE_IDS = 4;
+    /** Number of supported vertex attributes */
+    public static final int ATTRIBUTE_COUNT = 5;
 
     /** Shader attribute pointers */
     protected int[] mVertexAttributes;
+
+    // cache of the uniform values of the shader program, set by the ShaderManager
+    private UniformCache mUniformCache;
+    // vertex attribute state, set by the ShaderManager
+    private VertexAttributeState mAttributeState;
+    // incremented whenever an attribute is enabled, invalidates cached VertexLayouts
+    private int mAttributeModCount = 0;
+    // sampler uniform locations, indexed by sampler slot
+    private int[] mSamplerLocations = new int[0];
     
     /**
      * Initializes the shader attributes.
      */
     public Shader() {
-        mVertexAttributes = new int[4];
+        mVertexAttributes = new int[ATTRIBUTE_COUNT];
         for (int i = 0; i < mVertexAttributes.length; i++) {
             mVertexAttributes[i] = -1;
         }
@@ -38,6 +55,18 @@ public abstract class Shader {
      */
     public abstract int getShaderHandle();
     
+    /**
+     * Returns true if the shader program is ready to be used. Shaders whose program is compiled
+     * asynchronously return false until the program is linked. Meshes using a shader that is not
+     * ready are rendered with the fallback shader of the {@link ShaderManager}. The default
+     * implementation returns true.
+     * 
+     * @return true if the shader program is ready to be used
+     */
+    public boolean isReady() {
+        return true;
+    }
+    
     /**
      * Is called if the shader is bound. Implementations should update all their shader uniforms
      * here.
@@ -55,7 +84,159 @@ public abstract class Shader {
      *            Current graphics engine state
      */
     public abstract void onMatrixUpdate(GfxState state);
+
+    /**
+     * Returns the texture used by this shader. The texture handle is used by the
+     * {@link RenderQueue} to sort meshes. Shaders that bind a texture in
+     * {@link Shader#onBind(GfxState)} should override this method, the default implementation
+     * returns null.
+     * 
+     * @return the texture used by this shader or null
+     */
+    public Texture getTexture() {
+        return null;
+    }
     
+    /**
+     * Sets the uniform cache of the shader program. Is called by the {@link ShaderManager} when
+     * this shader is bound.
+     * 
+     * @param cache
+     *            uniform cache of the shader program
+     */
+    void setUniformCache(UniformCache cache) {
+        mUniformCache = cache;
+    }
+
+    /**
+     * Sets the vertex attribute state used to bind meshes. Is called by the {@link ShaderManager}
+     * when this shader is bound.
+     * 
+     * @param attribState
+     *            the vertex attribute state
+     */
+    void setVertexAttributeState(VertexAttributeState attribState) {
+        mAttributeState = attribState;
+    }
+
+    /**
+     * Returns a bit mask of the attribute locations used by this shader. Locations that don't fit
+     * into the mask are ignored.
+     * 
+     * @return bit mask of used attribute locations
+     */
+    public int getAttributeMask() {
+        int mask = 0;
+        for (int i = 0; i < mVertexAttributes.length; i++) {
+            int loc = mVertexAttributes[i];
+            if (loc >= 0 && loc < 32) {
+                mask |= 1 << loc;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Adds a sampler uniform and returns its sampler slot. Slots are numbered from 0 in the order
+     * samplers are added. Each slot is mapped to its own texture unit by
+     * {@link TextureManager#getSamplerUnit(int)}, so that all textures of a shader can stay bound
+     * at the same time.
+     * 
+     * @param location
+     *            uniform location of the sampler
+     * @return the sampler slot
+     */
+    protected int addSampler(int location) {
+        int slot = mSamplerLocations.length;
+        int[] locations = new int[slot + 1];
+        System.arraycopy(mSamplerLocations, 0, locations, 0, slot);
+        locations[slot] = location;
+        mSamplerLocations = locations;
+        return slot;
+    }
+
+    /**
+     * Binds the specified texture to the texture unit of the specified sampler slot and points the
+     * sampler uniform to that unit. Must only be called while this shader is bound. The texture is
+     * only bound if it is not already bound to that unit.
+     * 
+     * @param state
+     *            Current graphics engine state
+     * @param slot
+     *            sampler slot returned by {@link #addSampler(int)}
+     * @param texture
+     *            the texture to bind
+     */
+    protected void bindSampler(GfxState state, int slot, Texture texture) {
+        int unit = state.getEngine().getTextureManager().getSamplerUnit(slot);
+        state.bindTexture(texture, GL_TEXTURE0 + unit);
+        setUniform1i(mSamplerLocations[slot], unit);
+    }
+
+    /**
+     * Sets an int (or sampler) uniform. The value is only uploaded if it differs from the value
+     * last uploaded to the shader program. Must only be called while this shader is bound.
+     * 
+     * @param location
+     *            uniform location
+     * @param value
+     *            uniform value
+     */
+    protected void setUniform1i(int location, int value) {
+        if (mUniformCache == null || mUniformCache.update(location, value)) {
+            glUniform1i(location, value);
+        }
+    }
+
+    /**
+     * Sets a float uniform. The value is only uploaded if it differs from the value last uploaded
+     * to the shader program. Must only be called while this shader is bound.
+     * 
+     * @param location
+     *            uniform location
+     * @param value
+     *            uniform value
+     */
+    protected void setUniform1f(int location, float value) {
+        if (mUniformCache == null || mUniformCache.update(location, value)) {
+            glUniform1f(location, value);
+        }
+    }
+
+    /**
+     * Sets a vec3 uniform. The value is only uploaded if it differs from the value last uploaded
+     * to the shader program. Must only be called while this shader is bound.
+     * 
+     * @param location
+     *            uniform location
+     * @param x
+     *            uniform x value
+     * @param y
+     *            uniform y value
+     * @param z
+     *            uniform z value
+     */
+    protected void setUniform3f(int location, float x, float y, float z) {
+        if (mUniformCache == null || mUniformCache.update(location, x, y, z)) {
+            glUniform3f(location, x, y, z);
+        }
+    }
+
+    /**
+     * Sets a mat4 uniform. The matrix is only uploaded if it differs from the matrix last uploaded
+     * to the shader program. Must only be called while this shader is bound.
+     * 
+     * @param location
+     *            uniform location
+     * @param matrix
+     *            4x4 matrix in column-major order
+     */
+    protected void setUniformMatrix4(int location, float[] matrix) {
+        if (mUniformCache == null || mUniformCache.update(location, matrix, 0, 16)) {
+            glUniformMatrix4fv(location, 1, false, matrix, 0);
+        }
+    }
+
     /**
      * Enables the specified attribute for this shader. This method is called by concrete Shader
      * implementations to set the vertex attributes used by the implementation.
@@ -72,43 +253,69 @@ public abstract class Shader {
         
         int handle = getShaderHandle();
         mVertexAttributes[attrib] = glGetAttribLocation(handle, attribName);
+        mAttributeModCount++;
+    }
+
+    /**
+     * Returns the location of the specified vertex attribute or -1 if the attribute is not used
+     * by this shader.
+     * 
+     * @param attrib
+     *            the attribute, e.g. {@link Shader#ATTRIBUTE_POSITIONS}
+     * @return the attribute location or -1
+     */
+    public int getAttributeLocation(int attrib) {
+        return mVertexAttributes[attrib];
+    }
+
+    /**
+     * Returns the number of attribute changes of this shader. Is used to detect outdated
+     * {@link VertexLayout}s.
+     */
+    int getAttributeModCount() {
+        return mAttributeModCount;
     }
 
     /**
      * Binds the specified Mesh as input to this shader. The mesh's ShaderAttributBinders will
-     * be bound to the Shader attributes.
+     * be bound to the Shader attributes. The attribute setup is precomputed once per mesh and
+     * shader as a {@link VertexLayout}, attributes that are already bound to the same binders are
+     * not bound again.
      * 
      * @param Mesh
      *            Mesh to use as input for shader execution
      */
     public void bindMesh(Mesh mesh) {
-        int ptr = mVertexAttributes[ATTRIBUTE_POSITIONS];
-        if (ptr != -1) {
-            ShaderAttributeBinder binder = mesh.getVertexPositionBinder();
-            if (binder != null && binder.bindAttribute(ptr)) {
-                glEnableVertexAttribArray(ptr);
-            }
-        }
-        ptr = mVertexAttributes[ATTRIBUTE_NORMALS];
-        if (ptr != -1) {
-            ShaderAttributeBinder binder = mesh.getVertexNormalBinder();
-            if (binder != null && binder.bindAttribute(ptr)) {
-                glEnableVertexAttribArray(ptr);
-            }
-        }
-        ptr = mVertexAttributes[ATTRIBUTE_TEXTURE_COORDS];
-        if (ptr != -1) {
-            ShaderAttributeBinder binder = mesh.getVertexTexCoordBinder();
-            if (binder != null && binder.bindAttribute(ptr)) {
-                glEnableVertexAttribArray(ptr);
+        if (mAttributeState != null) {
+            mAttributeState.bindLayout(mesh.getVertexLayout(this));
+        } else {
+            for (int i = 0; i < ATTRIBUTE_COUNT; i++) {
+                int location = mVertexAttributes[i];
+                ShaderAttributeBinder binder = getMeshBinder(mesh, i);
+                if (location != -1 && binder != null && binder.bindAttribute(location)) {
+                    glEnableVertexAttribArray(location);
+                }
             }
         }
-        ptr = mVertexAttributes[ATTRIBUTE_COLORS];
-        if (ptr != -1) {
-            ShaderAttributeBinder binder = mesh.getVertexColorBinder();
-            if (binder != null && binder.bindAttribute(ptr)) {
-                glEnableVertexAttribArray(ptr);
-            }
+    }
+
+    /**
+     * Returns the binder of the specified mesh for the specified vertex attribute.
+     */
+    static ShaderAttributeBinder getMeshBinder(Mesh mesh, int attrib) {
+        switch (attrib) {
+        case ATTRIBUTE_POSITIONS:
+            return mesh.getVertexPositionBinder();
+        case ATTRIBUTE_NORMALS:
+            return mesh.getVertexNormalBinder();
+        case ATTRIBUTE_TEXTURE_COORDS:
+            return mesh.getVertexTexCoordBinder();
+        case ATTRIBUTE_COLORS:
+            return mesh.getVertexColorBinder();
+        case ATTRIBUTE_INSTANCE_IDS:
+            return mesh.getVertexInstanceIdBinder();
+        default:
+            return null;
         }
     }
 }
@@ -2,8 +2,8 @@ package de.fabmax.lightgl;
 
 import static android.opengl.GLES20.GL_ARRAY_BUFFER;
 import static android.opengl.GLES20.GL_FLOAT;
-import static android.opengl.GLES20.glBindBuffer;
-import static android.opengl.GLES20.glVertexAttribPointer;
+import static de.fabmax.lightgl.Gl.glBindBuffer;
+import static de.fabmax.lightgl.Gl.glVertexAttribPointer;
 
 import java.nio.Buffer;
 import java.nio.FloatBuffer;
@@ -66,6 +66,9 @@ public abstract class ShaderAttributeBinder {
     /** Buffer offset in bytes. */
     protected int mOffset = 0;
 
+    // incremented on every modification, used by VertexAttributeState to detect pointer changes
+    private int mModCount = 0;
+
     /**
      * Returns the data type of the buffer.
      * 
@@ -83,6 +86,7 @@ public abstract class ShaderAttributeBinder {
      */
     public void setType(int type) {
         this.mType = type;
+        mModCount++;
     }
 
     /**
@@ -102,6 +106,7 @@ public abstract class ShaderAttributeBinder {
      */
     public void setStride(int stride) {
         this.mStride = stride;
+        mModCount++;
     }
 
     /**
@@ -121,6 +126,7 @@ public abstract class ShaderAttributeBinder {
      */
     public void setSize(int mSize) {
         this.mSize = mSize;
+        mModCount++;
     }
 
     /**
@@ -140,6 +146,7 @@ public abstract class ShaderAttributeBinder {
      */
     public void setOffset(int offset) {
         this.mOffset = offset;
+        mModCount++;
     }
 
     /**
@@ -150,6 +157,39 @@ public abstract class ShaderAttributeBinder {
      */
     public abstract boolean bindAttribute(int target);
 
+    /**
+     * Is called by {@link VertexAttributeState} to bind a vertex attribute buffer to the specified
+     * target. Implementations bind their buffer with the specified state to avoid redundant buffer
+     * binds. The default implementation calls {@link ShaderAttributeBinder#bindAttribute(int)}
+     * and invalidates the tracked buffer bindings afterwards.
+     * 
+     * @param attribState
+     *            vertex attribute state used to bind buffers
+     * @param target
+     *            the buffer target index as used in glVertexAttribPointer()
+     */
+    protected boolean bindAttribute(VertexAttributeState attribState, int target) {
+        boolean result = bindAttribute(target);
+        attribState.invalidateBufferBindings();
+        return result;
+    }
+
+    /**
+     * Returns the number of modifications of this binder. Is used to detect changed attribute
+     * pointers.
+     */
+    int getModCount() {
+        return mModCount;
+    }
+
+    /**
+     * Returns true if this binder sources its attribute from a GL vertex buffer object. Only such
+     * attributes can be stored in a vertex array object. The default implementation returns false.
+     */
+    boolean isBufferObject() {
+        return false;
+    }
+
     /**
      * ShaderAttributeBinder implementation for {@link java.nio.Buffer} binding.
      * 
@@ -179,6 +219,17 @@ public abstract class ShaderAttributeBinder {
             glVertexAttribPointer(target, mSize, mType, false, mStride, mBuffer);
             return true;
         }
+
+        /**
+         * Bind buffer to shader attribute. Client-side buffers require that no VBO is bound.
+         */
+        @Override
+        protected boolean bindAttribute(VertexAttributeState attribState, int target) {
+            attribState.bindArrayBuffer(0);
+            mBuffer.position(mOffset);
+            glVertexAttribPointer(target, mSize, mType, false, mStride, mBuffer);
+            return true;
+        }
     }
 
     /**
@@ -212,5 +263,23 @@ public abstract class ShaderAttributeBinder {
             return true;
         }
 
+        /**
+         * Bind buffer to shader attribute. The buffer stays bound for the next attribute.
+         */
+        @Override
+        protected boolean bindAttribute(VertexAttributeState attribState, int target) {
+            attribState.bindArrayBuffer(mBuffer);
+            glVertexAttribPointer(target, mSize, mType, false, mStride, mOffset * 4);
+            return true;
+        }
+
+        /**
+         * VBO attributes can be stored in vertex array objects.
+         */
+        @Override
+        boolean isBufferObject() {
+            return true;
+        }
+
     }
 }
@@ -1,31 +1,34 @@
 package de.fabmax.lightgl;
 
 import static android.opengl.GLES20.GL_COMPILE_STATUS;
+import static android.opengl.GLES20.GL_EXTENSIONS;
 import static android.opengl.GLES20.GL_FRAGMENT_SHADER;
 import static android.opengl.GLES20.GL_LINK_STATUS;
 import static android.opengl.GLES20.GL_TRUE;
 import static android.opengl.GLES20.GL_VERTEX_SHADER;
-import static android.opengl.GLES20.glAttachShader;
-import static android.opengl.GLES20.glCompileShader;
-import static android.opengl.GLES20.glCreateProgram;
-import static android.opengl.GLES20.glCreateShader;
-import static android.opengl.GLES20.glDeleteProgram;
-import static android.opengl.GLES20.glDeleteShader;
-import static android.opengl.GLES20.glGetProgramInfoLog;
-import static android.opengl.GLES20.glGetProgramiv;
-import static android.opengl.GLES20.glGetShaderInfoLog;
-import static android.opengl.GLES20.glGetShaderiv;
-import static android.opengl.GLES20.glLinkProgram;
-import static android.opengl.GLES20.glShaderSource;
-import static android.opengl.GLES20.glUseProgram;
-
-import java.io.BufferedReader;
+import static de.fabmax.lightgl.Gl.glAttachShader;
+import static de.fabmax.lightgl.Gl.glCompileShader;
+import static de.fabmax.lightgl.Gl.glCreateProgram;
+import static de.fabmax.lightgl.Gl.glCreateShader;
+import static de.fabmax.lightgl.Gl.glDeleteProgram;
+import static de.fabmax.lightgl.Gl.glDeleteShader;
+import static de.fabmax.lightgl.Gl.glGetProgramInfoLog;
+import static de.fabmax.lightgl.Gl.glGetProgramiv;
+import static de.fabmax.lightgl.Gl.glGetShaderInfoLog;
+import static de.fabmax.lightgl.Gl.glGetShaderiv;
+import static de.fabmax.lightgl.Gl.glGetString;
+import static de.fabmax.lightgl.Gl.glLinkProgram;
+import static de.fabmax.lightgl.Gl.glShaderSource;
+import static de.fabmax.lightgl.Gl.glUseProgram;
+
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
 
 import android.content.Context;
 import android.util.Log;
+import android.util.SparseArray;
 import android.util.SparseIntArray;
 
 /**
@@ -37,22 +40,48 @@ import android.util.SparseIntArray;
 public class ShaderManager {
     private static final String TAG = "ShaderManager";
 
-    // context is needed to load assets
-    private Context mContext;
+    // GL_COMPLETION_STATUS_KHR from GL_KHR_parallel_shader_compile
+    private static final int GL_COMPLETION_STATUS_KHR = 0x91B1;
+
+    // loads shader sources and resolves includes and defines
+    private final ShaderPreprocessor mPreprocessor;
 
     // map that holds all generated shader handles
     private SparseIntArray mShaderHandles = new SparseIntArray();
+    // shader handles of loaded shader permutations, keyed by shader name and feature mask
+    private HashMap<String, Integer> mPermutations = new HashMap<String, Integer>();
+    // asynchronously compiled programs whose status was not yet checked
+    private final ArrayList<PendingProgram> mPendingPrograms = new ArrayList<PendingProgram>();
+    // true if GL_KHR_parallel_shader_compile is supported
+    private boolean mParallelCompile = false;
+    // shader used for meshes whose shader is not yet ready
+    private Shader mFallbackShader;
+    // temp array for status queries
+    private final int[] mStatus = new int[1];
+    // uniform caches for all shader programs
+    private SparseArray<UniformCache> mUniformCaches = new SparseArray<UniformCache>();
     // currently bound shader
     private Shader mBoundShader;
+    // GLES30 capabilities of the GL context
+    private final Gles30 mGles30;
+    // tracked vertex attribute state
+    private final VertexAttributeState mAttributeState;
+    // on-disk cache of linked programs, null if disabled
+    private ProgramBinaryCache mBinaryCache;
 
     /**
      * Creates a new ShaderManager object.
      * 
      * @param context
      *            Application context, is needed to load files from assets directory
+     * @param gles30
+     *            GLES30 capabilities of the GL context
      */
-    protected ShaderManager(Context context) {
-        mContext = context;
+    protected ShaderManager(Context context, Gles30 gles30) {
+        mGles30 = gles30;
+        mAttributeState = new VertexAttributeState(gles30);
+        mPreprocessor = new ShaderPreprocessor(context);
+        mBinaryCache = new ProgramBinaryCache(new File(context.getCacheDir(), "shaders"));
     }
 
     /**
@@ -60,10 +89,61 @@ public class ShaderManager {
      */
     public void newGlContext() {
         mShaderHandles.clear();
+        mPermutations.clear();
+        mPendingPrograms.clear();
+        mFallbackShader = null;
+        mUniformCaches.clear();
+        mBoundShader = null;
+        mAttributeState.newGlContext();
+        if (mBinaryCache != null) {
+            mBinaryCache.newGlContext();
+        }
+        String extensions = glGetString(GL_EXTENSIONS);
+        mParallelCompile = extensions != null
+                && extensions.contains("GL_KHR_parallel_shader_compile");
+    }
+
+    /**
+     * Sets the program binary cache used to skip shader compilation. By default a cache in the
+     * App's cache directory is used. Set null to always compile shaders from source.
+     * 
+     * @param cache
+     *            the program binary cache to use or null
+     */
+    public void setProgramBinaryCache(ProgramBinaryCache cache) {
+        mBinaryCache = cache;
+    }
+
+    /**
+     * Returns the program binary cache or null if the cache is disabled.
+     * 
+     * @return the program binary cache or null
+     */
+    public ProgramBinaryCache getProgramBinaryCache() {
+        return mBinaryCache;
+    }
+
+    /**
+     * Returns the tracked vertex attribute state.
+     * 
+     * @return the vertex attribute state
+     */
+    public VertexAttributeState getVertexAttributeState() {
+        return mAttributeState;
+    }
+
+    /**
+     * Returns the GLES30 capabilities of the GL context.
+     * 
+     * @return the GLES30 capabilities
+     */
+    public Gles30 getGles30() {
+        return mGles30;
     }
 
     /**
      * Binds the specified shader. If the shader is not already bound its onBind() method is called.
+     * If the shader is not yet ready, the fallback shader is bound instead.
      * 
      * @param state
      *            current graphics engine state
@@ -71,12 +151,21 @@ public class ShaderManager {
      *            shader to be bound
      */
     public void bindShader(GfxState state, Shader shader) {
+        if (shader != null && !shader.isReady()) {
+            // shader program is still compiling, use the fallback shader meanwhile
+            shader = getFallbackShader();
+        }
         if (shader != mBoundShader) {
             mBoundShader = shader;
 
             if (shader != null) {
                 // bind shader program
-                glUseProgram(shader.getShaderHandle());
+                int handle = shader.getShaderHandle();
+                glUseProgram(handle);
+                shader.setUniformCache(getUniformCache(handle));
+                shader.setVertexAttributeState(mAttributeState);
+                // disable attribute arrays that are not used by the new shader
+                mAttributeState.disableAttributes(~shader.getAttributeMask());
                 // notify shader that it was bound
                 shader.onBind(state);
             } else {
@@ -86,6 +175,56 @@ public class ShaderManager {
         }
     }
 
+    /**
+     * Returns the uniform cache for the specified shader program. The cache is created if it does
+     * not yet exist.
+     */
+    private UniformCache getUniformCache(int shaderHandle) {
+        UniformCache cache = mUniformCaches.get(shaderHandle);
+        if (cache == null) {
+            cache = new UniformCache();
+            mUniformCaches.put(shaderHandle, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Returns the number of uniform values uploaded to any shader program since the last call of
+     * {@link ShaderManager#resetUniformStatistics()}.
+     * 
+     * @return the number of uploaded uniform values
+     */
+    public int getUniformUploadCount() {
+        int count = 0;
+        for (int i = 0; i < mUniformCaches.size(); i++) {
+            count += mUniformCaches.valueAt(i).getUploadCount();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of uniform uploads that were skipped since the uniform already had the
+     * same value, counted since the last call of {@link ShaderManager#resetUniformStatistics()}.
+     * 
+     * @return the number of skipped uniform uploads
+     */
+    public int getSkippedUniformUploadCount() {
+        int count = 0;
+        for (int i = 0; i < mUniformCaches.size(); i++) {
+            count += mUniformCaches.valueAt(i).getSkippedCount();
+        }
+        return count;
+    }
+
+    /**
+     * Resets the uniform upload statistics.
+     */
+    public void resetUniformStatistics() {
+        for (int i = 0; i < mUniformCaches.size(); i++) {
+            mUniformCaches.valueAt(i).resetStatistics();
+        }
+    }
+
     /**
      * Returns the currently bound shader.
      * 
@@ -95,10 +234,20 @@ public class ShaderManager {
         return mBoundShader;
     }
 
+    /**
+     * Returns the ShaderPreprocessor used to load shader source files.
+     * 
+     * @return the shader preprocessor
+     */
+    public ShaderPreprocessor getPreprocessor() {
+        return mPreprocessor;
+    }
+
     /**
      * Loads the shader from the App's assets/shaders directory. The shader consists of 2 source
      * files for the vertex and the fragment shader. The source files must be named name +
-     * "_vert.glsl" for the vertex shader and name + "_frag.glsl" for the fragment shader.
+     * "_vert.glsl" for the vertex shader and name + "_frag.glsl" for the fragment shader. The
+     * source files can include other files with #include "file", see {@link ShaderPreprocessor}.
      * 
      * @param name
      *            Shader name used to load the source files. The source files must be named name +
@@ -109,21 +258,199 @@ public class ShaderManager {
      *             if shader compilation failed
      */
     public int loadShader(String name) throws GlException {
+        return loadShader(name, 0, null);
+    }
+
+    /**
+     * Loads a permutation of the specified shader. Every bit set in the features mask selects the
+     * define with the same index from featureDefines, the selected defines are inserted into the
+     * vertex and the fragment shader source. This way a single shader source can be compiled into
+     * specialized versions that only contain the code for the features that are actually used.
+     * Loaded permutations are cached by shader name and feature mask, so loading the same
+     * permutation again is cheap.
+     * 
+     * @param name
+     *            Shader name used to load the source files, see {@link #loadShader(String)}
+     * @param features
+     *            feature bit mask, bit i selects featureDefines[i]
+     * @param featureDefines
+     *            define names for the feature bits, can be null if features is 0
+     * @return the GL shader handle; is 0 if there was an error while loading the shader
+     * @throws GlException
+     *             if shader compilation failed
+     */
+    public int loadShader(String name, int features, String[] featureDefines) throws GlException {
+        String key = name + "#" + Integer.toHexString(features);
+        Integer handle = mPermutations.get(key);
+        if (handle != null) {
+            // this permutation was already loaded
+            return handle;
+        }
+        for (int i = 0; i < mPendingPrograms.size(); i++) {
+            if (key.equals(mPendingPrograms.get(i).mKey)) {
+                // this permutation is being compiled asynchronously, wait for it
+                int shaderHandle = finishPendingProgram(i);
+                if (shaderHandle == 0) {
+                    throw new GlException("Failed loading shader " + name);
+                }
+                return shaderHandle;
+            }
+        }
+
+        String[] defs = getDefines(name, features, featureDefines);
         try {
-            // load vertex shader source code from assets
-            String vertShaderSrc = loadSource("shaders/" + name + "_vert.glsl", mContext);
-            String fragShaderSrc = loadSource("shaders/" + name + "_frag.glsl", mContext);
+            // load and preprocess shader sources from assets
+            String vertShaderSrc = mPreprocessor.process(name + "_vert.glsl", defs);
+            String fragShaderSrc = mPreprocessor.process(name + "_frag.glsl", defs);
 
             // load shader from sources
-            int handle = loadShader(vertShaderSrc, fragShaderSrc);
-            Log.i(TAG, "Successfully loaded shader \"" + name + "\", handle: " + handle);
-            return handle;
+            int shaderHandle = loadShader(vertShaderSrc, fragShaderSrc);
+            mPermutations.put(key, shaderHandle);
+            Log.i(TAG, "Successfully loaded shader \"" + name + "\", handle: " + shaderHandle);
+            return shaderHandle;
 
         } catch (IOException e) {
             throw new GlException("Failed loading shader source", e);
         }
     }
 
+    /**
+     * Queues a permutation of the specified shader for asynchronous compilation. The vertex and
+     * fragment shaders are compiled and the program is linked right away, but the compile and link
+     * status is only queried by {@link #processPendingShaders()} in a later frame. This way the
+     * driver can compile multiple programs in parallel instead of blocking on every single status
+     * query. The listener is notified on the GL thread as soon as the program is linked; if the
+     * permutation was already loaded the listener is notified immediately.
+     * 
+     * @param name
+     *            Shader name used to load the source files, see {@link #loadShader(String)}
+     * @param features
+     *            feature bit mask, bit i selects featureDefines[i]
+     * @param featureDefines
+     *            define names for the feature bits, can be null if features is 0
+     * @param listener
+     *            listener that is notified when the program is linked or failed
+     */
+    public void loadShaderAsync(String name, int features, String[] featureDefines,
+            ProgramListener listener) {
+        String key = name + "#" + Integer.toHexString(features);
+        Integer handle = mPermutations.get(key);
+        if (handle != null) {
+            // this permutation was already loaded
+            listener.onProgramLinked(handle);
+            return;
+        }
+        for (int i = 0; i < mPendingPrograms.size(); i++) {
+            PendingProgram pending = mPendingPrograms.get(i);
+            if (key.equals(pending.mKey)) {
+                // this permutation is already being compiled
+                pending.mListeners.add(listener);
+                return;
+            }
+        }
+
+        try {
+            String[] defs = getDefines(name, features, featureDefines);
+            String vertShaderSrc = mPreprocessor.process(name + "_vert.glsl", defs);
+            String fragShaderSrc = mPreprocessor.process(name + "_frag.glsl", defs);
+
+            PendingProgram pending = startProgram(vertShaderSrc, fragShaderSrc);
+            if (pending.mProgram != 0) {
+                // program was already loaded from other sources or from the program binary cache
+                mPermutations.put(key, pending.mProgram);
+                listener.onProgramLinked(pending.mProgram);
+            } else {
+                pending.mKey = key;
+                pending.mName = name;
+                pending.mListeners.add(listener);
+                mPendingPrograms.add(pending);
+            }
+        } catch (IOException e) {
+            listener.onProgramFailed(new GlException("Failed loading shader source", e));
+        } catch (GlException e) {
+            listener.onProgramFailed(e);
+        }
+    }
+
+    /**
+     * Returns the number of shader programs that were queued with
+     * {@link #loadShaderAsync(String, int, String[], ProgramListener)} and are not yet linked.
+     * 
+     * @return the number of pending shader programs
+     */
+    public int getPendingShaderCount() {
+        return mPendingPrograms.size();
+    }
+
+    /**
+     * Queries the status of all pending shader programs and notifies their listeners. If the
+     * driver supports GL_KHR_parallel_shader_compile, programs that are still compiling stay
+     * pending; otherwise the status query waits for the compilation to finish. Is called by
+     * {@link GfxEngine} once per frame.
+     */
+    void processPendingShaders() {
+        for (int i = 0; i < mPendingPrograms.size(); i++) {
+            PendingProgram pending = mPendingPrograms.get(i);
+            if (mParallelCompile) {
+                glGetProgramiv(pending.mLinkingProgram, GL_COMPLETION_STATUS_KHR, mStatus, 0);
+                if (mStatus[0] != GL_TRUE) {
+                    // still compiling, check again next frame
+                    continue;
+                }
+            }
+            finishPendingProgram(i--);
+        }
+    }
+
+    /**
+     * Removes the pending program with the specified index from the pending list, checks its
+     * status and notifies its listeners. Returns the program handle or 0 if the program failed.
+     */
+    private int finishPendingProgram(int index) {
+        PendingProgram pending = mPendingPrograms.remove(index);
+        try {
+            int handle = finishProgram(pending);
+            mPermutations.put(pending.mKey, handle);
+            Log.i(TAG, "Successfully loaded shader \"" + pending.mName + "\", handle: " + handle);
+            for (int i = 0; i < pending.mListeners.size(); i++) {
+                pending.mListeners.get(i).onProgramLinked(handle);
+            }
+            return handle;
+        } catch (GlException e) {
+            Log.e(TAG, "Failed loading shader \"" + pending.mName + "\": " + e.getMessage());
+            for (int i = 0; i < pending.mListeners.size(); i++) {
+                pending.mListeners.get(i).onProgramFailed(e);
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the fallback shader. Meshes whose shader is not yet ready (see
+     * {@link Shader#isReady()}) are rendered with this shader instead. By default a
+     * {@link ColorShader} is used.
+     * 
+     * @return the fallback shader
+     */
+    public Shader getFallbackShader() {
+        if (mFallbackShader == null) {
+            mFallbackShader = new ColorShader(this);
+        }
+        return mFallbackShader;
+    }
+
+    /**
+     * Sets the fallback shader used for meshes whose shader is not yet ready. The fallback shader
+     * itself must always be ready. Set null to use the default {@link ColorShader}. The fallback
+     * shader is reset to the default if the GL context is recreated.
+     * 
+     * @param fallback
+     *            the fallback shader
+     */
+    public void setFallbackShader(Shader fallback) {
+        mFallbackShader = fallback;
+    }
+
     /**
      * Compiles the shader from the specified source code strings.
      * 
@@ -136,96 +463,161 @@ public class ShaderManager {
      *             if shader compilation failed
      */
     public int loadShader(String vertexShaderSrc, String fragmentShaderSrc) throws GlException {
+        PendingProgram program = startProgram(vertexShaderSrc, fragmentShaderSrc);
+        if (program.mProgram != 0) {
+            return program.mProgram;
+        }
+        return finishProgram(program);
+    }
+
+    /**
+     * Returns the defines selected by the specified feature mask.
+     */
+    private static String[] getDefines(String name, int features, String[] featureDefines)
+            throws GlException {
+        ArrayList<String> defines = new ArrayList<String>();
+        for (int i = 0; i < 32; i++) {
+            if ((features & (1 << i)) != 0) {
+                if (featureDefines == null || i >= featureDefines.length) {
+                    throw new GlException("No define for feature bit " + i + " of shader " + name);
+                }
+                defines.add(featureDefines[i]);
+            }
+        }
+        return defines.toArray(new String[defines.size()]);
+    }
+
+    /**
+     * Issues compilation and linkage of the specified shader sources without querying any status.
+     * If the program was already loaded or is found in the program binary cache, mProgram of the
+     * returned PendingProgram is set.
+     */
+    private PendingProgram startProgram(String vertexShaderSrc, String fragmentShaderSrc) {
+        PendingProgram program = new PendingProgram(vertexShaderSrc, fragmentShaderSrc);
+
         // check if this shader code was already loaded
-        int hashcode = (vertexShaderSrc + fragmentShaderSrc).hashCode();
-        int shaderHandle = mShaderHandles.get(hashcode);
-        if (shaderHandle != 0) {
+        program.mProgram = mShaderHandles.get(program.mHashCode);
+        if (program.mProgram != 0) {
             // this shader was already loaded, just return its handle
-            return shaderHandle;
+            return program;
         }
 
-        int shaderResult[] = new int[1];
+        if (mBinaryCache != null) {
+            // try to load the linked program from the program binary cache
+            program.mProgram = mBinaryCache.loadProgram(vertexShaderSrc, fragmentShaderSrc);
+            if (program.mProgram != 0) {
+                mShaderHandles.put(program.mHashCode, program.mProgram);
+                return program;
+            }
+        }
 
-        // create vertex shader object
-        int vertShader = glCreateShader(GL_VERTEX_SHADER);
-        glShaderSource(vertShader, vertexShaderSrc);
-        glCompileShader(vertShader);
+        // create and compile vertex and fragment shader objects
+        program.mVertShader = glCreateShader(GL_VERTEX_SHADER);
+        glShaderSource(program.mVertShader, vertexShaderSrc);
+        glCompileShader(program.mVertShader);
+        program.mFragShader = glCreateShader(GL_FRAGMENT_SHADER);
+        glShaderSource(program.mFragShader, fragmentShaderSrc);
+        glCompileShader(program.mFragShader);
 
-        // check compilation result
-        glGetShaderiv(vertShader, GL_COMPILE_STATUS, shaderResult, 0);
-        if (shaderResult[0] != GL_TRUE) {
-            // vertex shader compilation failed
-            String log = glGetShaderInfoLog(vertShader);
-            // delete allocated shader objects
-            glDeleteShader(vertShader);
-            throw new GlException("Vertex shader compilation failed: " + log);
+        // link shader program, the compile status is checked after linkage
+        program.mLinkingProgram = glCreateProgram();
+        glAttachShader(program.mLinkingProgram, program.mVertShader);
+        glAttachShader(program.mLinkingProgram, program.mFragShader);
+        if (mBinaryCache != null) {
+            mBinaryCache.prepareProgram(program.mLinkingProgram);
         }
+        glLinkProgram(program.mLinkingProgram);
+        return program;
+    }
 
-        // create fragment shader object
-        int fragShader = glCreateShader(GL_FRAGMENT_SHADER);
-        glShaderSource(fragShader, fragmentShaderSrc);
-        glCompileShader(fragShader);
+    /**
+     * Checks the compile and link status of a program started with
+     * {@link #startProgram(String, String)}. Blocks until the driver finished compilation.
+     */
+    private int finishProgram(PendingProgram program) throws GlException {
+        int shaderHandle = program.mLinkingProgram;
+        int vertShader = program.mVertShader;
+        int fragShader = program.mFragShader;
 
-        // check compilation result
-        glGetShaderiv(fragShader, GL_COMPILE_STATUS, shaderResult, 0);
-        if (shaderResult[0] != GL_TRUE) {
-            // fragment shader compilation failed
-            String log = glGetShaderInfoLog(fragShader);
+        // check linker result
+        glGetProgramiv(shaderHandle, GL_LINK_STATUS, mStatus, 0);
+        if (mStatus[0] != GL_TRUE) {
+            // find out what went wrong, compilation errors are more helpful than the link log
+            String msg;
+            glGetShaderiv(vertShader, GL_COMPILE_STATUS, mStatus, 0);
+            if (mStatus[0] != GL_TRUE) {
+                msg = "Vertex shader compilation failed: " + glGetShaderInfoLog(vertShader);
+            } else {
+                glGetShaderiv(fragShader, GL_COMPILE_STATUS, mStatus, 0);
+                if (mStatus[0] != GL_TRUE) {
+                    msg = "Fragment shader compilation failed: " + glGetShaderInfoLog(fragShader);
+                } else {
+                    msg = "Shader linkage failed: " + glGetProgramInfoLog(shaderHandle);
+                }
+            }
             // delete allocated shader objects
             glDeleteShader(vertShader);
             glDeleteShader(fragShader);
+            glDeleteProgram(shaderHandle);
             // throw exception with error message
-            throw new GlException("Fragment shader compilation failed: " + log);
+            throw new GlException(msg);
         }
 
-        // link shader program
-        shaderHandle = glCreateProgram();
-        glAttachShader(shaderHandle, vertShader);
-        glAttachShader(shaderHandle, fragShader);
-        glLinkProgram(shaderHandle);
         // after linkage fragment and vertex shader are no longer needed
         glDeleteShader(vertShader);
         glDeleteShader(fragShader);
 
-        // check linker result
-        glGetProgramiv(shaderHandle, GL_LINK_STATUS, shaderResult, 0);
-        if (shaderResult[0] != GL_TRUE) {
-            // shader linkage failed
-            String log = glGetProgramInfoLog(shaderHandle);
-            // delete allocated shader object
-            glDeleteProgram(shaderHandle);
-            // throw exception with error message
-            throw new GlException("Shader linkage failed failed: " + log);
-        }
-
         // if everything went well put the shader handle into the handle map
-        if (shaderHandle != 0) {
-            mShaderHandles.put(hashcode, shaderHandle);
+        mShaderHandles.put(program.mHashCode, shaderHandle);
+        if (mBinaryCache != null) {
+            mBinaryCache.storeProgram(program.mVertSrc, program.mFragSrc, shaderHandle);
         }
 
         // return shader program handle
         return shaderHandle;
     }
 
-    /*
-     * Helper method that reads a asset file with shader source code into a String.
+    /**
+     * Listener interface for asynchronously loaded shader programs.
      */
-    private static String loadSource(String assetName, Context context) throws IOException {
-        StringBuffer sBuf = new StringBuffer();
+    public interface ProgramListener {
+        /**
+         * Is called on the GL thread if the shader program was successfully linked.
+         * 
+         * @param handle
+         *            the GL shader program handle
+         */
+        public void onProgramLinked(int handle);
 
-        // open asset
-        InputStream in = context.getAssets().open(assetName);
-        BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+        /**
+         * Is called on the GL thread if the shader program could not be loaded.
+         * 
+         * @param error
+         *            the error that occurred
+         */
+        public void onProgramFailed(GlException error);
+    }
 
-        // read shader source line by line
-        String line = reader.readLine();
-        while (line != null) {
-            sBuf.append(line);
-            sBuf.append('\n');
-            line = reader.readLine();
-        }
+    /**
+     * A shader program whose compilation was issued but whose status was not yet checked.
+     */
+    private static class PendingProgram {
+        final String mVertSrc;
+        final String mFragSrc;
+        final int mHashCode;
+        String mKey;
+        String mName;
+        int mVertShader;
+        int mFragShader;
+        int mLinkingProgram;
+        // set if the program was loaded without compilation
+        int mProgram;
+        final ArrayList<ProgramListener> mListeners = new ArrayList<ProgramListener>();
 
-        // return read source
-        return sBuf.toString();
+        PendingProgram(String vertSrc, String fragSrc) {
+            mVertSrc = vertSrc;
+            mFragSrc = fragSrc;
+            mHashCode = (vertSrc + fragSrc).hashCode();
+        }
     }
 }
@@ -0,0 +1,183 @@
+package de.fabmax.lightgl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import android.content.Context;
+
+/**
+ * ShaderPreprocessor loads GLSL source files from the App's assets/shaders directory and resolves
+ * the directives that are not supported by GLSL ES itself:
+ * 
+ * <ul>
+ * <li><code>#include "file"</code> is replaced by the content of the specified file. The file
+ * name is relative to the assets/shaders directory. Every file is included only once per
+ * shader source, further includes of the same file (and include cycles) are ignored.</li>
+ * <li>Feature defines passed to {@link #process(String, String[])} are inserted as
+ * <code>#define</code> directives, so that a single source file can be compiled into multiple
+ * shader permutations selected by <code>#ifdef</code>.</li>
+ * </ul>
+ * 
+ * Loaded source files are cached, hence includes used by many shaders are read only once.
+ * 
+ * @author fabmax
+ * 
+ */
+public class ShaderPreprocessor {
+
+    private static final String SHADER_DIR = "shaders/";
+    private static final String INCLUDE = "#include";
+    private static final String VERSION = "#version";
+
+    // context is needed to load assets
+    private final Context mContext;
+    // cache of loaded source files
+    private final HashMap<String, String> mSourceCache = new HashMap<String, String>();
+
+    /**
+     * Creates a new ShaderPreprocessor.
+     * 
+     * @param context
+     *            Application context, is needed to load files from assets directory
+     */
+    public ShaderPreprocessor(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Loads the specified source file from the assets/shaders directory and resolves all includes.
+     * The specified defines are inserted at the beginning of the source, or after the #version
+     * directive if there is one. A define is either a plain name (e.g. "TEXTURE") or a name
+     * followed by a value (e.g. "PCF_TAPS 4").
+     * 
+     * @param fileName
+     *            source file name relative to the assets/shaders directory
+     * @param defines
+     *            defines to insert, can be null
+     * @return the processed source code
+     * @throws IOException
+     *             if a source file could not be read
+     * @throws GlException
+     *             if an #include directive is malformed
+     */
+    public String process(String fileName, String[] defines) throws IOException, GlException {
+        StringBuilder src = new StringBuilder();
+        appendSource(fileName, src, new HashSet<String>());
+
+        if (defines != null && defines.length > 0) {
+            StringBuilder defs = new StringBuilder();
+            for (String define : defines) {
+                defs.append("#define ").append(define).append('\n');
+            }
+            src.insert(getDefinesOffset(src), defs);
+        }
+        return src.toString();
+    }
+
+    /**
+     * Clears the source file cache. Must be called if source files are changed at runtime.
+     */
+    public void clearCache() {
+        synchronized (mSourceCache) {
+            mSourceCache.clear();
+        }
+    }
+
+    /**
+     * Appends the content of the specified file to the specified source buffer and recursively
+     * resolves the included files.
+     */
+    private void appendSource(String fileName, StringBuilder src, HashSet<String> included)
+            throws IOException, GlException {
+        if (!included.add(fileName)) {
+            // file was already included
+            return;
+        }
+
+        String source = loadSource(fileName);
+        int pos = 0;
+        while (pos < source.length()) {
+            int end = source.indexOf('\n', pos);
+            if (end < 0) {
+                end = source.length();
+            }
+            String line = source.substring(pos, end).trim();
+            if (line.startsWith(INCLUDE)) {
+                appendSource(getIncludeName(line, fileName), src, included);
+            } else {
+                src.append(source, pos, end).append('\n');
+            }
+            pos = end + 1;
+        }
+    }
+
+    /**
+     * Returns the file name of an #include "file" directive.
+     */
+    private static String getIncludeName(String line, String fileName) throws GlException {
+        int start = line.indexOf('"', INCLUDE.length());
+        int end = line.lastIndexOf('"');
+        if (start < 0 || end <= start + 1) {
+            throw new GlException("Malformed include in " + fileName + ": " + line);
+        }
+        return line.substring(start + 1, end);
+    }
+
+    /**
+     * Returns the position after the #version directive or 0 if the source has no #version
+     * directive.
+     */
+    private static int getDefinesOffset(StringBuilder src) {
+        int pos = 0;
+        while (pos < src.length()) {
+            int end = src.indexOf("\n", pos);
+            if (end < 0) {
+                end = src.length();
+            }
+            if (src.substring(pos, end).trim().startsWith(VERSION)) {
+                return Math.min(end + 1, src.length());
+            }
+            pos = end + 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Reads the specified source file from the assets/shaders directory or returns the cached
+     * source if the file was already loaded.
+     */
+    private String loadSource(String fileName) throws IOException {
+        synchronized (mSourceCache) {
+            String source = mSourceCache.get(fileName);
+            if (source != null) {
+                return source;
+            }
+        }
+
+        StringBuilder sBuf = new StringBuilder();
+        InputStream in = mContext.getAssets().open(SHADER_DIR + fileName);
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+
+            // read shader source line by line
+            String line = reader.readLine();
+            while (line != null) {
+                sBuf.append(line);
+                sBuf.append('\n');
+                line = reader.readLine();
+            }
+        } finally {
+            in.close();
+        }
+
+        String source = sBuf.toString();
+        synchronized (mSourceCache) {
+            mSourceCache.put(fileName, source);
+        }
+        return source;
+    }
+}
@@ -1,8 +1,7 @@
 package de.fabmax.lightgl;
 
 import static android.opengl.GLES20.GL_TEXTURE0;
-import static android.opengl.GLES20.GL_TEXTURE1;
-import static android.opengl.GLES20.glClearColor;
+import static de.fabmax.lightgl.Gl.glClearColor;
 import android.opengl.Matrix;
 
 /**
@@ -18,7 +17,11 @@ public class ShadowRenderPass implements RenderPass {
     private OrthograpicCamera mShadowCamera = new OrthograpicCamera();
     private TextureRenderer mRenderer;
     private Shader mDepthShader;
-    private int mTextureUnit = GL_TEXTURE1;
+    private TextureManager mTextureManager;
+    // texture unit the depth texture is bound to, as GL_TEXTUREn
+    private int mTextureUnit;
+    // true if mTextureUnit was reserved from the texture manager
+    private boolean mReservedUnit = false;
 
     private BoundingBox mSceneBounds = new BoundingBox(-10, 10, -10, 10, -10, 10);
     private BoundingBox mClipSize = new BoundingBox(-10, 10, -10, 10, -10, 10);
@@ -33,6 +36,12 @@ public class ShadowRenderPass implements RenderPass {
      *            the graphics engine
      */
     public ShadowRenderPass(GfxEngine engine) {
+        // the depth texture stays bound on its own texture unit
+        mTextureManager = engine.getTextureManager();
+        int unit = mTextureManager.reserveTextureUnit();
+        mReservedUnit = unit >= 0;
+        mTextureUnit = GL_TEXTURE0 + (mReservedUnit ? unit : 1);
+
         mDepthShader = new DepthShader(engine.getShaderManager());
         mRenderer = new TextureRenderer(engine);
         mRenderer.setTextureSize(MAP_SIZE, MAP_SIZE);
@@ -86,7 +95,7 @@ public class ShadowRenderPass implements RenderPass {
 
         // cleanup
         state.setLockShader(false);
-        engine.getTextureManager().bindTexture(mRenderer.getTexture(), mTextureUnit);
+        mTextureManager.bindTexture(mRenderer.getTexture(), mTextureUnit);
         engine.getState().resetBackgroundColor();
     }
     
@@ -111,11 +120,16 @@ public class ShadowRenderPass implements RenderPass {
     
     /**
      * Sets the texture unit the depth texture is bound to. Do not use GL_TEXTUREn but just the
-     * index.
+     * index. By default a texture unit is reserved with
+     * {@link TextureManager#reserveTextureUnit()}.
      * 
      * @param texUnit the texture unit to use
      */
     public void setTextureUnit(int texUnit) {
+        if (mReservedUnit) {
+            mTextureManager.releaseTextureUnit(mTextureUnit - GL_TEXTURE0);
+            mReservedUnit = false;
+        }
         mTextureUnit = texUnit + GL_TEXTURE0;
     }
     
@@ -141,54 +155,73 @@ public class ShadowRenderPass implements RenderPass {
      * Computes the camera clip size for current mShadowViewMatrix and mSceneBounds.
      */
     private void computeCamClipSize() {
+        computeCamClipSize(mSceneBounds, mShadowViewMatrix, mClipSize, mTmpVector);
+    }
+
+    /**
+     * Computes the clip size of an orthographic camera with the specified view matrix, so that
+     * the camera covers the complete scene. The corners of the scene bounds are transformed to
+     * camera space and a margin of 5 units is added on all sides.
+     * 
+     * @param sceneBounds
+     *            bounds of the scene to be covered
+     * @param viewMatrix
+     *            view matrix of the camera
+     * @param result
+     *            the computed clip size
+     * @param tmpVector
+     *            temporary array with at least 8 elements
+     */
+    public static void computeCamClipSize(BoundingBox sceneBounds, float[] viewMatrix,
+            BoundingBox result, float[] tmpVector) {
         // compute clip size for camera to cover the complete scene
-        mTmpVector[3] = 1;
+        tmpVector[3] = 1;
         
         // (minX, minY, minZ)
-        mSceneBounds.getMin(mTmpVector);
-        Matrix.multiplyMV(mTmpVector, 4, mShadowViewMatrix, 0, mTmpVector, 0);
-        mClipSize.reset(mTmpVector[4], mTmpVector[5], mTmpVector[6]);
+        sceneBounds.getMin(tmpVector);
+        Matrix.multiplyMV(tmpVector, 4, viewMatrix, 0, tmpVector, 0);
+        result.reset(tmpVector[4], tmpVector[5], tmpVector[6]);
 
         // (minX, minY, maxZ)
-        mTmpVector[2] = mSceneBounds.getMaxZ();
-        Matrix.multiplyMV(mTmpVector, 4, mShadowViewMatrix, 0, mTmpVector, 0);
-        mClipSize.addPoint(mTmpVector[4], mTmpVector[5], mTmpVector[6]);
+        tmpVector[2] = sceneBounds.getMaxZ();
+        Matrix.multiplyMV(tmpVector, 4, viewMatrix, 0, tmpVector, 0);
+        result.addPoint(tmpVector[4], tmpVector[5], tmpVector[6]);
 
         // (minX, maxY, maxZ)
-        mTmpVector[1] = mSceneBounds.getMaxY();
-        Matrix.multiplyMV(mTmpVector, 4, mShadowViewMatrix, 0, mTmpVector, 0);
-        mClipSize.addPoint(mTmpVector[4], mTmpVector[5], mTmpVector[6]);
+        tmpVector[1] = sceneBounds.getMaxY();
+        Matrix.multiplyMV(tmpVector, 4, viewMatrix, 0, tmpVector, 0);
+        result.addPoint(tmpVector[4], tmpVector[5], tmpVector[6]);
 
         // (minX, maxY, minZ)
-        mTmpVector[2] = mSceneBounds.getMinZ();
-        Matrix.multiplyMV(mTmpVector, 4, mShadowViewMatrix, 0, mTmpVector, 0);
-        mClipSize.addPoint(mTmpVector[4], mTmpVector[5], mTmpVector[6]);
+        tmpVector[2] = sceneBounds.getMinZ();
+        Matrix.multiplyMV(tmpVector, 4, viewMatrix, 0, tmpVector, 0);
+        result.addPoint(tmpVector[4], tmpVector[5], tmpVector[6]);
 
         // (maxX, maxY, minZ)
-        mTmpVector[0] = mSceneBounds.getMaxX();
-        Matrix.multiplyMV(mTmpVector, 4, mShadowViewMatrix, 0, mTmpVector, 0);
-        mClipSize.addPoint(mTmpVector[4], mTmpVector[5], mTmpVector[6]);
+        tmpVector[0] = sceneBounds.getMaxX();
+        Matrix.multiplyMV(tmpVector, 4, viewMatrix, 0, tmpVector, 0);
+        result.addPoint(tmpVector[4], tmpVector[5], tmpVector[6]);
 
         // (maxX, maxY, maxZ)
-        mTmpVector[2] = mSceneBounds.getMaxZ();
-        Matrix.multiplyMV(mTmpVector, 4, mShadowViewMatrix, 0, mTmpVector, 0);
-        mClipSize.addPoint(mTmpVector[4], mTmpVector[5], mTmpVector[6]);
+        tmpVector[2] = sceneBounds.getMaxZ();
+        Matrix.multiplyMV(tmpVector, 4, viewMatrix, 0, tmpVector, 0);
+        result.addPoint(tmpVector[4], tmpVector[5], tmpVector[6]);
 
         // (maxX, minY, maxZ)
-        mTmpVector[1] = mSceneBounds.getMinY();
-        Matrix.multiplyMV(mTmpVector, 4, mShadowViewMatrix, 0, mTmpVector, 0);
-        mClipSize.addPoint(mTmpVector[4], mTmpVector[5], mTmpVector[6]);
+        tmpVector[1] = sceneBounds.getMinY();
+        Matrix.multiplyMV(tmpVector, 4, viewMatrix, 0, tmpVector, 0);
+        result.addPoint(tmpVector[4], tmpVector[5], tmpVector[6]);
 
         // (maxX, minY, minZ)
-        mTmpVector[2] = mSceneBounds.getMinZ();
-        Matrix.multiplyMV(mTmpVector, 4, mShadowViewMatrix, 0, mTmpVector, 0);
-        mClipSize.addPoint(mTmpVector[4], mTmpVector[5], mTmpVector[6]);
-
-        mClipSize.setMinX(mClipSize.getMinX() - 5f);
-        mClipSize.setMinY(mClipSize.getMinY() - 5f);
-        mClipSize.setMinZ(mClipSize.getMinZ() - 5f);
-        mClipSize.setMaxX(mClipSize.getMaxX() + 5f);
-        mClipSize.setMaxY(mClipSize.getMaxY() + 5f);
-        mClipSize.setMaxZ(mClipSize.getMaxZ() + 5f);
+        tmpVector[2] = sceneBounds.getMinZ();
+        Matrix.multiplyMV(tmpVector, 4, viewMatrix, 0, tmpVector, 0);
+        result.addPoint(tmpVector[4], tmpVector[5], tmpVector[6]);
+
+        result.setMinX(result.getMinX() - 5f);
+        result.setMinY(result.getMinY() - 5f);
+        result.setMinZ(result.getMinZ() - 5f);
+        result.setMaxX(result.getMaxX() + 5f);
+        result.setMaxY(result.getMaxY() + 5f);
+        result.setMaxZ(result.getMaxZ() + 5f);
     }
 }
@@ -1,8 +1,6 @@
 package de.fabmax.lightgl;
 
-import static android.opengl.GLES20.glGetUniformLocation;
-import static android.opengl.GLES20.glUniform1i;
-import static android.opengl.GLES20.glUniformMatrix4fv;
+import static de.fabmax.lightgl.Gl.glGetUniformLocation;
 import android.opengl.Matrix;
 
 /**
@@ -10,6 +8,10 @@ import android.opengl.Matrix;
  * shadow depth map a {@link ShadowRenderPass} must be set as pre-render pass with
  * {@link GfxEngine#setPreRenderPass(RenderPass)}.
  * 
+ * By default shadow edges are smoothed by taking 4 samples of the shadow map (percentage closer
+ * filtering). Shaders for objects where shadow quality is less important can use a single sample
+ * instead, which is considerably cheaper.
+ * 
  * @author fabmax
  * 
  */
@@ -25,7 +27,7 @@ public class ShadowShader extends PhongShader {
     private float[] mShadowBiasMatrix;
 
     /**
-     * Creates a ShadowShader.
+     * Creates a ShadowShader with smooth shadow edges.
      * 
      * @param shaderMgr
      *            the shader manager
@@ -35,7 +37,26 @@ public class ShadowShader extends PhongShader {
      *            the ShadowRenderPass used to compute the depth texture
      */
     public ShadowShader(ShaderManager shaderMgr, Texture texture, ShadowRenderPass shadowPass) {
-        super(shaderMgr, texture, "shadow");
+        this(shaderMgr, texture, shadowPass, true);
+    }
+
+    /**
+     * Creates a ShadowShader.
+     * 
+     * @param shaderMgr
+     *            the shader manager
+     * @param texture
+     *            the texture to map on drawn objects, if null vertex colors are used
+     * @param shadowPass
+     *            the ShadowRenderPass used to compute the depth texture
+     * @param smoothShadows
+     *            true to sample the shadow map 4 times for smooth shadow edges, false for a
+     *            single sample
+     */
+    public ShadowShader(ShaderManager shaderMgr, Texture texture, ShadowRenderPass shadowPass,
+            boolean smoothShadows) {
+        super(shaderMgr, texture, (texture != null ? FEATURE_TEXTURE : FEATURE_VERTEX_COLOR)
+                | FEATURE_SHADOW | (smoothShadows ? FEATURE_SHADOW_PCF : 0));
 
         mShadowPass = shadowPass;
         mShadowBiasMatrix = new float[] {
@@ -44,6 +65,16 @@ public class ShadowShader extends PhongShader {
                 0.0f, 0.0f, 0.5f, 0.0f,
                 0.5f, 0.5f, 0.5f, 1.0f
         };
+    }
+
+    /**
+     * Gets the shadow uniform locations.
+     * 
+     * @see PhongShader#onProgramReady()
+     */
+    @Override
+    protected void onProgramReady() {
+        super.onProgramReady();
 
         muShadowSamplerHandle = glGetUniformLocation(mShaderHandle, "uShadowSampler");
         muShadowMvpMatrixHandle = glGetUniformLocation(mShaderHandle, "uShadowMvpMatrix");
@@ -67,7 +98,7 @@ public class ShadowShader extends PhongShader {
         Matrix.multiplyMM(mShadowMvpMatrix, 0, shadowProj, 0, mTempMatrix, 0);
         Matrix.multiplyMM(mTempMatrix, 0, mShadowBiasMatrix, 0, mShadowMvpMatrix, 0);
 
-        glUniformMatrix4fv(muShadowMvpMatrixHandle, 1, false, mTempMatrix, 0);
+        setUniformMatrix4(muShadowMvpMatrixHandle, mTempMatrix);
     }
 
     /**
@@ -79,6 +110,6 @@ public class ShadowShader extends PhongShader {
     public void onBind(GfxState state) {
         super.onBind(state);
 
-        glUniform1i(muShadowSamplerHandle, mShadowPass.getTextureUnit());
+        setUniform1i(muShadowSamplerHandle, mShadowPass.getTextureUnit());
     }
 }
@@ -5,8 +5,8 @@ import static android.opengl.GLES20.GL_TEXTURE_MAG_FILTER;
 import static android.opengl.GLES20.GL_TEXTURE_MIN_FILTER;
 import static android.opengl.GLES20.GL_TEXTURE_WRAP_S;
 import static android.opengl.GLES20.GL_TEXTURE_WRAP_T;
-import static android.opengl.GLES20.glGenerateMipmap;
-import static android.opengl.GLES20.glTexParameteri;
+import static de.fabmax.lightgl.Gl.glGenerateMipmap;
+import static de.fabmax.lightgl.Gl.glTexParameteri;
 
 import de.fabmax.lightgl.TextureProperties.MinFilterMethod;
 
@@ -21,6 +21,15 @@ public class Texture {
 
     // handle to GL texture object
     private int mTextureHandle;
+    // texture target, GL_TEXTURE_2D or GL_TEXTURE_CUBE_MAP
+    private final int mTarget;
+
+    // estimated GPU memory used by this texture in bytes
+    private int mMemorySize = 0;
+    // number of users, cached textures are only evicted if this is 0
+    private int mRefCount = 0;
+    // key of this texture in the texture cache, null if the texture is not cached
+    private Object mCacheKey = null;
 
     /**
      * Creates a texture with the specified openGL texture handle.
@@ -29,7 +38,20 @@ public class Texture {
      *            OpenGL texture handle
      */
     protected Texture(int handle) {
+        this(handle, GL_TEXTURE_2D);
+    }
+
+    /**
+     * Creates a texture with the specified openGL texture handle and target.
+     * 
+     * @param handle
+     *            OpenGL texture handle
+     * @param target
+     *            OpenGL texture target, GL_TEXTURE_2D or GL_TEXTURE_CUBE_MAP
+     */
+    protected Texture(int handle, int target) {
         mTextureHandle = handle;
+        mTarget = target;
     }
 
     /**
@@ -40,6 +62,96 @@ public class Texture {
     public int getTextureHandle() {
         return mTextureHandle;
     }
+
+    /**
+     * Returns the OpenGL texture target of this texture.
+     * 
+     * @return the texture target, GL_TEXTURE_2D or GL_TEXTURE_CUBE_MAP
+     */
+    public int getTarget() {
+        return mTarget;
+    }
+
+    /**
+     * Returns the estimated GPU memory used by this texture in bytes, including the mipmap chain.
+     * 
+     * @return the estimated GPU memory size in bytes
+     */
+    public int getMemorySize() {
+        return mMemorySize;
+    }
+
+    /**
+     * Sets the estimated GPU memory size. Is called by {@link TextureManager}.
+     */
+    void setMemorySize(int size) {
+        mMemorySize = size;
+    }
+
+    /**
+     * Returns the number of references to this texture, see
+     * {@link TextureManager#retainTexture(Texture)}.
+     * 
+     * @return the number of references to this texture
+     */
+    public int getRefCount() {
+        return mRefCount;
+    }
+
+    /**
+     * Changes the reference count by the specified amount and returns the new count.
+     */
+    int addRef(int delta) {
+        mRefCount = Math.max(0, mRefCount + delta);
+        return mRefCount;
+    }
+
+    /**
+     * Returns the key of this texture in the texture cache or null if the texture is not cached.
+     */
+    Object getCacheKey() {
+        return mCacheKey;
+    }
+
+    /**
+     * Sets the key of this texture in the texture cache.
+     */
+    void setCacheKey(Object key) {
+        mCacheKey = key;
+    }
+
+    /**
+     * Is called by {@link TextureManager} after the GL texture was deleted.
+     */
+    void invalidate() {
+        mTextureHandle = 0;
+        mMemorySize = 0;
+        mRefCount = 0;
+    }
+
+    /**
+     * Estimates the GPU memory needed by a texture with the specified size.
+     * 
+     * @param width
+     *            texture width in pixels
+     * @param height
+     *            texture height in pixels
+     * @param bytesPerPixel
+     *            number of bytes per pixel of the texture format
+     * @param mipmapped
+     *            true if the texture has a full mipmap chain
+     * @return the estimated GPU memory size in bytes
+     */
+    public static int estimateMemorySize(int width, int height, int bytesPerPixel,
+            boolean mipmapped) {
+        int size = width * height * bytesPerPixel;
+        while (mipmapped && (width > 1 || height > 1)) {
+            width = Math.max(1, width / 2);
+            height = Math.max(1, height / 2);
+            size += width * height * bytesPerPixel;
+        }
+        return size;
+    }
     
     /**
      * Sets the specified texture properties for this texture. This texture must be bound before
@@ -49,15 +161,23 @@ public class Texture {
      *            texture properties to set
      */
     public void setTextureProperties(TextureProperties props) {
+        setTextureProperties(props, true);
+    }
+
+    /**
+     * Sets the specified texture properties for this texture. If generateMipmaps is false, the
+     * texture must already have a complete mip chain if trilinear filtering is selected.
+     */
+    void setTextureProperties(TextureProperties props, boolean generateMipmaps) {
         // set texture properties
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, props.minFilter.getGlMethod());
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, props.magFilter.getGlMethod());
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, props.xWrapping.getGlMethod());
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, props.yWrapping.getGlMethod());
+        glTexParameteri(mTarget, GL_TEXTURE_MIN_FILTER, props.minFilter.getGlMethod());
+        glTexParameteri(mTarget, GL_TEXTURE_MAG_FILTER, props.magFilter.getGlMethod());
+        glTexParameteri(mTarget, GL_TEXTURE_WRAP_S, props.xWrapping.getGlMethod());
+        glTexParameteri(mTarget, GL_TEXTURE_WRAP_T, props.yWrapping.getGlMethod());
 
-        if (props.minFilter == MinFilterMethod.TRILINEAR) {
+        if (generateMipmaps && props.minFilter == MinFilterMethod.TRILINEAR) {
             // build mipmaps if trilinear filtering is selected
-            glGenerateMipmap(GL_TEXTURE_2D);
+            glGenerateMipmap(mTarget);
         }
     }
 }
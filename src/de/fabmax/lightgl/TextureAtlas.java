@@ -0,0 +1,430 @@
+package de.fabmax.lightgl;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+
+import de.fabmax.lightgl.util.MeshData;
+import de.fabmax.lightgl.util.SkylinePacker;
+
+/**
+ * A TextureAtlas packs many small bitmaps into few large textures. Meshes that use different
+ * images of the same atlas page can share one texture and one shader, which saves texture binds
+ * and allows batching. After {@link #build(TextureManager, TextureProperties)}, every added bitmap
+ * is described by a {@link Region}, which rewrites the texture coordinates of a mesh into atlas
+ * space.
+ * 
+ * Bitmaps are packed with a {@link SkylinePacker}. Each bitmap is surrounded by a padding border
+ * filled with its edge pixels, so that linear filtering does not bleed in neighboring images.
+ * Texture coordinates outside of 0..1 (i.e. repeated textures) can not be used with an atlas.
+ * Mipmapped atlases might still bleed at lower mip levels.
+ * 
+ * @author fabmax
+ * 
+ */
+public class TextureAtlas {
+
+    private final int mPageWidth;
+    private final int mPageHeight;
+    private int mPadding = 2;
+
+    private final ArrayList<Region> mRegions = new ArrayList<Region>();
+    private final HashMap<Object, Region> mRegionMap = new HashMap<Object, Region>();
+    private final ArrayList<Texture> mPages = new ArrayList<Texture>();
+
+    /**
+     * Creates a new TextureAtlas with the specified page size.
+     * 
+     * @param pageWidth
+     *            width of the atlas textures in pixels
+     * @param pageHeight
+     *            height of the atlas textures in pixels
+     */
+    public TextureAtlas(int pageWidth, int pageHeight) {
+        mPageWidth = pageWidth;
+        mPageHeight = pageHeight;
+    }
+
+    /**
+     * Sets the padding in pixels around each bitmap. The default padding is 2 pixels. Must be set
+     * before bitmaps are added.
+     * 
+     * @param padding
+     *            the padding in pixels
+     */
+    public void setPadding(int padding) {
+        mPadding = padding;
+    }
+
+    /**
+     * Adds a bitmap to this atlas. The returned region becomes valid after
+     * {@link #build(TextureManager, TextureProperties)} was called. The bitmap must not be
+     * recycled before the atlas is built.
+     * 
+     * @param key
+     *            key to look up the region with {@link #getRegion(Object)}
+     * @param bitmap
+     *            the bitmap to add
+     * @return the region of the bitmap in the atlas
+     */
+    public Region addBitmap(Object key, Bitmap bitmap) {
+        int w = bitmap.getWidth() + mPadding * 2;
+        int h = bitmap.getHeight() + mPadding * 2;
+        if (w > mPageWidth || h > mPageHeight) {
+            throw new IllegalArgumentException("Bitmap is larger than the atlas page size");
+        }
+        Region region = new Region(bitmap);
+        mRegions.add(region);
+        mRegionMap.put(key, region);
+        return region;
+    }
+
+    /**
+     * Returns the region of the bitmap added with the specified key or null if there is no such
+     * bitmap.
+     * 
+     * @param key
+     *            key of the bitmap
+     * @return the region of the bitmap or null
+     */
+    public Region getRegion(Object key) {
+        return mRegionMap.get(key);
+    }
+
+    /**
+     * Returns the number of atlas pages. Every page is a separate texture.
+     * 
+     * @return the number of atlas pages
+     */
+    public int getPageCount() {
+        return mPages.size();
+    }
+
+    /**
+     * Returns the texture of the specified atlas page.
+     * 
+     * @param page
+     *            the page index
+     * @return the texture of the page
+     */
+    public Texture getPageTexture(int page) {
+        return mPages.get(page);
+    }
+
+    /**
+     * Packs all added bitmaps and creates the atlas textures. Must be called from the GL thread.
+     * The added bitmaps are not recycled.
+     * 
+     * @param texMgr
+     *            the texture manager used to create the atlas textures
+     * @param texProps
+     *            OpenGL texture properties of the atlas textures
+     */
+    public void build(TextureManager texMgr, TextureProperties texProps) {
+        // packing is more efficient if large bitmaps are inserted first
+        ArrayList<Region> sorted = new ArrayList<Region>(mRegions);
+        Collections.sort(sorted, new Comparator<Region>() {
+            @Override
+            public int compare(Region a, Region b) {
+                if (a.mHeight != b.mHeight) {
+                    return b.mHeight - a.mHeight;
+                }
+                return b.mWidth - a.mWidth;
+            }
+        });
+
+        ArrayList<SkylinePacker> packers = new ArrayList<SkylinePacker>();
+        int[] pos = new int[2];
+        for (Region region : sorted) {
+            int w = region.mWidth + mPadding * 2;
+            int h = region.mHeight + mPadding * 2;
+            int page = 0;
+            while (page < packers.size() && !packers.get(page).insert(w, h, pos)) {
+                page++;
+            }
+            if (page == packers.size()) {
+                SkylinePacker packer = new SkylinePacker(mPageWidth, mPageHeight);
+                packer.insert(w, h, pos);
+                packers.add(packer);
+            }
+            region.setPosition(page, pos[0] + mPadding, pos[1] + mPadding);
+        }
+
+        // bitmaps are copied instead of blended, translucent pixels must not be blended with the
+        // shifted copies drawn before
+        Paint paint = new Paint();
+        paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+        for (int i = 0; i < packers.size(); i++) {
+            Bitmap pageBitmap = Bitmap.createBitmap(mPageWidth, mPageHeight,
+                    Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(pageBitmap);
+            for (Region region : mRegions) {
+                if (region.mPage == i) {
+                    drawPadded(canvas, paint, region);
+                }
+            }
+            Texture tex = texMgr.createTexture(pageBitmap, texProps);
+            pageBitmap.recycle();
+            mPages.add(tex);
+        }
+        for (Region region : mRegions) {
+            region.mTexture = mPages.get(region.mPage);
+            region.mBitmap = null;
+        }
+    }
+
+    /**
+     * Deletes the atlas textures.
+     * 
+     * @param texMgr
+     *            the texture manager that created the atlas textures
+     */
+    public void delete(TextureManager texMgr) {
+        for (Texture tex : mPages) {
+            texMgr.deleteTexture(tex);
+        }
+        mPages.clear();
+    }
+
+    /**
+     * Draws the bitmap of the specified region and extrudes its edge pixels into the padding
+     * border. The bitmap is drawn shifted in all directions, from the outermost offset inwards,
+     * and finally unshifted so that only the border keeps the shifted edge pixels. The specified
+     * paint must use {@link PorterDuff.Mode#SRC}, so that every copy replaces the pixels below it.
+     */
+    private void drawPadded(Canvas canvas, Paint paint, Region region) {
+        Bitmap bmp = region.mBitmap;
+        for (int d = mPadding; d > 0; d--) {
+            for (int dy = -d; dy <= d; dy += d) {
+                for (int dx = -d; dx <= d; dx += d) {
+                    // diagonals first, straight shifts override them
+                    if (dx != 0 && dy != 0) {
+                        canvas.drawBitmap(bmp, region.mX + dx, region.mY + dy, paint);
+                    }
+                }
+            }
+            canvas.drawBitmap(bmp, region.mX - d, region.mY, paint);
+            canvas.drawBitmap(bmp, region.mX + d, region.mY, paint);
+            canvas.drawBitmap(bmp, region.mX, region.mY - d, paint);
+            canvas.drawBitmap(bmp, region.mX, region.mY + d, paint);
+        }
+        canvas.drawBitmap(bmp, region.mX, region.mY, paint);
+    }
+
+    /**
+     * A Region describes the position of a bitmap within a {@link TextureAtlas}.
+     */
+    public class Region {
+        private Bitmap mBitmap;
+        private final int mWidth;
+        private final int mHeight;
+        private int mPage = -1;
+        private int mX = 0;
+        private int mY = 0;
+        private Texture mTexture = null;
+
+        private Region(Bitmap bitmap) {
+            mBitmap = bitmap;
+            mWidth = bitmap.getWidth();
+            mHeight = bitmap.getHeight();
+        }
+
+        private void setPosition(int page, int x, int y) {
+            mPage = page;
+            mX = x;
+            mY = y;
+        }
+
+        /**
+         * Returns the texture of the atlas page that contains this region or null if the atlas is
+         * not built yet.
+         * 
+         * @return the texture of the atlas page
+         */
+        public Texture getTexture() {
+            return mTexture;
+        }
+
+        /**
+         * Returns the index of the atlas page that contains this region.
+         * 
+         * @return the index of the atlas page
+         */
+        public int getPage() {
+            return mPage;
+        }
+
+        /**
+         * Returns the x position of this region in the atlas page in pixels.
+         * 
+         * @return the x position in pixels
+         */
+        public int getX() {
+            return mX;
+        }
+
+        /**
+         * Returns the y position of this region in the atlas page in pixels.
+         * 
+         * @return the y position in pixels
+         */
+        public int getY() {
+            return mY;
+        }
+
+        /**
+         * Returns the width of this region in pixels.
+         * 
+         * @return the width in pixels
+         */
+        public int getWidth() {
+            return mWidth;
+        }
+
+        /**
+         * Returns the height of this region in pixels.
+         * 
+         * @return the height in pixels
+         */
+        public int getHeight() {
+            return mHeight;
+        }
+
+        /**
+         * Returns the minimum u texture coordinate of this region in atlas space.
+         * 
+         * @return the minimum u texture coordinate
+         */
+        public float getU0() {
+            return (float) mX / mPageWidth;
+        }
+
+        /**
+         * Returns the minimum v texture coordinate of this region in atlas space.
+         * 
+         * @return the minimum v texture coordinate
+         */
+        public float getV0() {
+            return (float) mY / mPageHeight;
+        }
+
+        /**
+         * Returns the maximum u texture coordinate of this region in atlas space.
+         * 
+         * @return the maximum u texture coordinate
+         */
+        public float getU1() {
+            return (float) (mX + mWidth) / mPageWidth;
+        }
+
+        /**
+         * Returns the maximum v texture coordinate of this region in atlas space.
+         * 
+         * @return the maximum v texture coordinate
+         */
+        public float getV1() {
+            return (float) (mY + mHeight) / mPageHeight;
+        }
+
+        /**
+         * Rewrites the specified texture coordinates (u, v pairs) from image space into atlas
+         * space.
+         * 
+         * @param uvs
+         *            texture coordinates to rewrite
+         */
+        public void remapTexCoords(float[] uvs) {
+            remapTexCoords(uvs, 0, 2, uvs.length / 2);
+        }
+
+        /**
+         * Rewrites interleaved texture coordinates from image space into atlas space.
+         * 
+         * @param data
+         *            vertex data with texture coordinates to rewrite
+         * @param offset
+         *            index of the first u coordinate
+         * @param stride
+         *            number of floats between consecutive u coordinates
+         * @param count
+         *            number of texture coordinates to rewrite
+         */
+        public void remapTexCoords(float[] data, int offset, int stride, int count) {
+            float u0 = getU0();
+            float v0 = getV0();
+            float du = getU1() - u0;
+            float dv = getV1() - v0;
+            for (int i = 0, j = offset; i < count; i++, j += stride) {
+                data[j] = u0 + data[j] * du;
+                data[j + 1] = v0 + data[j + 1] * dv;
+            }
+        }
+
+        /**
+         * Rewrites interleaved texture coordinates in the specified buffer from image space into
+         * atlas space. The buffer position is not changed.
+         * 
+         * @param data
+         *            vertex data with texture coordinates to rewrite
+         * @param offset
+         *            index of the first u coordinate
+         * @param stride
+         *            number of floats between consecutive u coordinates
+         * @param count
+         *            number of texture coordinates to rewrite
+         */
+        public void remapTexCoords(FloatBuffer data, int offset, int stride, int count) {
+            float u0 = getU0();
+            float v0 = getV0();
+            float du = getU1() - u0;
+            float dv = getV1() - v0;
+            for (int i = 0, j = offset; i < count; i++, j += stride) {
+                data.put(j, u0 + data.get(j) * du);
+                data.put(j + 1, v0 + data.get(j + 1) * dv);
+            }
+        }
+
+        /**
+         * Rewrites the texture coordinates of vertex data created by
+         * {@link de.fabmax.lightgl.util.MeshFactory#createInterleavedVertexData(float[], float[],
+         * float[], float[])} from image space into atlas space. Offset and stride of the texture
+         * coordinates are derived from the vertex layout, the vertex data must contain texture
+         * coordinates. The buffer position is not changed.
+         * 
+         * @param data
+         *            interleaved vertex data with texture coordinates to rewrite
+         * @param hasNormals
+         *            true if the vertex data contains normals
+         * @param hasColors
+         *            true if the vertex data contains colors
+         */
+        public void remapInterleavedTexCoords(FloatBuffer data, boolean hasNormals,
+                boolean hasColors) {
+            // position, optional normal, texture coordinate and optional color
+            int offset = hasNormals ? 6 : 3;
+            int stride = offset + (hasColors ? 5 : 2);
+            remapTexCoords(data, offset, stride, data.limit() / stride);
+        }
+
+        /**
+         * Rewrites the texture coordinates of the specified mesh data from image space into atlas
+         * space. The mesh data must be uploaded afterwards.
+         * 
+         * @param data
+         *            mesh data with texture coordinates to rewrite
+         */
+        public void remapTexCoords(MeshData data) {
+            if (data.getTexCoords() != null) {
+                remapTexCoords(data.getTexCoords());
+            }
+        }
+    }
+}
@@ -1,33 +1,84 @@
 package de.fabmax.lightgl;
 
+import static android.opengl.GLES20.GL_MAX_TEXTURE_IMAGE_UNITS;
+import static android.opengl.GLES20.GL_RGB;
 import static android.opengl.GLES20.GL_TEXTURE0;
 import static android.opengl.GLES20.GL_TEXTURE_2D;
-import static android.opengl.GLES20.glActiveTexture;
-import static android.opengl.GLES20.glBindTexture;
-import static android.opengl.GLES20.glGenTextures;
+import static android.opengl.GLES20.GL_TEXTURE_CUBE_MAP;
+import static android.opengl.GLES20.GL_UNSIGNED_SHORT_5_6_5;
+import static de.fabmax.lightgl.Gl.glActiveTexture;
+import static de.fabmax.lightgl.Gl.glBindTexture;
+import static de.fabmax.lightgl.Gl.glCompressedTexImage2D;
+import static de.fabmax.lightgl.Gl.glDeleteTextures;
+import static de.fabmax.lightgl.Gl.glGenTextures;
+import static de.fabmax.lightgl.Gl.glGetIntegerv;
+import static de.fabmax.lightgl.Gl.glTexImage2D;
+import static de.fabmax.lightgl.Gl.texImage2D;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.opengl.GLUtils;
-import android.util.SparseIntArray;
+import android.opengl.ETC1Util;
+import android.util.Log;
+
+import de.fabmax.lightgl.TextureProperties.MinFilterMethod;
+import de.fabmax.lightgl.util.CompressedImage;
 
 /**
- * The TextureManager handles loading and binding of textures.
+ * The TextureManager handles loading and binding of textures. Textures loaded from resources are
+ * cached and reference counted: {@link #loadTexture(int, TextureProperties)} returns the cached
+ * texture if the resource was loaded before with equal properties and increments its reference
+ * count, loading the same resource with different properties creates a separate texture.
+ * {@link #releaseTexture(Texture)} decrements it. If the estimated GPU memory of all cached
+ * textures exceeds the cache budget, unreferenced textures are deleted in least-recently-used
+ * order.
+ * 
+ * Besides bitmaps, compressed textures in PKM and KTX containers can be loaded with
+ * {@link #loadCompressedTexture(String, TextureProperties)}. Bitmaps can be encoded to ETC1 on
+ * loading by setting {@link TextureProperties#compress}.
  * 
  * @author fabmax
  * 
  */
 public class TextureManager {
 
+    private static final String TAG = "TextureManager";
+
+    /** Default texture cache budget in bytes */
+    public static final int DEFAULT_CACHE_BUDGET = 32 * 1024 * 1024;
+
+    // texture units assumed before the GL context is created, the minimum required by GLES 2.0
+    private static final int DEFAULT_TEXTURE_UNITS = 8;
+    // maximum number of tracked texture units
+    private static final int MAX_TEXTURE_UNITS = 32;
+
     // context is needed to load assets
     private Context mContext;
 
-    // Map of loaded bitmaps / textures
-    private SparseIntArray mResourceMap = new SparseIntArray();
-    // Currently bound texture
-    private Texture mBoundTexture;
-    // Active texture unit
-    private int mActiveTextureUnit;
+    // Map of loaded resource and asset textures in least-recently-used order
+    private LinkedHashMap<CacheKey, Texture> mResourceMap =
+            new LinkedHashMap<CacheKey, Texture>(16, 0.75f, true);
+    // Estimated GPU memory of all cached textures
+    private long mCacheMemory = 0;
+    // Maximum GPU memory of cached textures before unreferenced textures are evicted
+    private long mCacheBudget = DEFAULT_CACHE_BUDGET;
+    // Number of texture units available for fragment shader samplers
+    private int mTextureUnitCount = DEFAULT_TEXTURE_UNITS;
+    // Currently bound texture handles per texture unit, for GL_TEXTURE_2D and GL_TEXTURE_CUBE_MAP
+    private int[] mBound2d = new int[MAX_TEXTURE_UNITS];
+    private int[] mBoundCube = new int[MAX_TEXTURE_UNITS];
+    // Active texture unit, as GL_TEXTUREn
+    private int mActiveTextureUnit = GL_TEXTURE0;
+    // Bit mask of texture units reserved with reserveTextureUnit()
+    private int mReservedUnits = 0;
+    // Texture units available for shader samplers, i.e. all units that are not reserved
+    private int[] mSamplerUnits;
 
     /**
      * Creates a new TextureManager object.
@@ -37,57 +88,276 @@ public class TextureManager {
      */
     protected TextureManager(Context context) {
         mContext = context;
+        updateSamplerUnits();
     }
     
     /**
      * Is called by {@link GfxEngine} if the GL context was (re-)created. Drops all texture handles.
      */
     protected void newGlContext() {
+        for (Texture tex : mResourceMap.values()) {
+            tex.invalidate();
+        }
         mResourceMap.clear();
+        mCacheMemory = 0;
+
+        // a new context has texture unit 0 active and no textures bound
+        int[] units = new int[1];
+        glGetIntegerv(GL_MAX_TEXTURE_IMAGE_UNITS, units, 0);
+        mTextureUnitCount = Math.max(1, Math.min(units[0], MAX_TEXTURE_UNITS));
+        mActiveTextureUnit = GL_TEXTURE0;
+        for (int i = 0; i < MAX_TEXTURE_UNITS; i++) {
+            mBound2d[i] = 0;
+            mBoundCube[i] = 0;
+        }
+        mReservedUnits = 0;
+        updateSamplerUnits();
     }
-    
+
+    /**
+     * Returns the number of texture units available for fragment shader samplers.
+     * 
+     * @return the number of texture units
+     */
+    public int getTextureUnitCount() {
+        return mTextureUnitCount;
+    }
+
+    /**
+     * Reserves a texture unit for a texture that stays bound while different shaders are used,
+     * e.g. a shadow map. Reserved units are excluded from the units returned by
+     * {@link #getSamplerUnit(int)}. Units are reserved from the highest unit downwards.
+     * Reservations are dropped if the GL context is recreated.
+     * 
+     * @return index of the reserved texture unit (not GL_TEXTUREn), -1 if no unit is available
+     */
+    public int reserveTextureUnit() {
+        for (int i = mTextureUnitCount - 1; i > 0; i--) {
+            if ((mReservedUnits & (1 << i)) == 0) {
+                mReservedUnits |= 1 << i;
+                updateSamplerUnits();
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Releases a texture unit reserved with {@link #reserveTextureUnit()}.
+     * 
+     * @param unit
+     *            index of the texture unit to release (not GL_TEXTUREn)
+     */
+    public void releaseTextureUnit(int unit) {
+        mReservedUnits &= ~(1 << unit);
+        updateSamplerUnits();
+    }
+
+    /**
+     * Returns the texture unit to use for the specified sampler slot of a shader. Slots are
+     * numbered from 0 for every shader and mapped to the lowest units that are not reserved,
+     * hence shader samplers never collide with reserved units.
+     * 
+     * @param slot
+     *            the sampler slot of a shader
+     * @return index of the texture unit (not GL_TEXTUREn)
+     */
+    public int getSamplerUnit(int slot) {
+        if (slot < mSamplerUnits.length) {
+            return mSamplerUnits[slot];
+        }
+        Log.w(TAG, "Sampler slot " + slot + " exceeds the number of free texture units");
+        return mSamplerUnits[mSamplerUnits.length - 1];
+    }
+
+    /**
+     * Updates the list of texture units that are not reserved.
+     */
+    private void updateSamplerUnits() {
+        int count = mTextureUnitCount - Integer.bitCount(mReservedUnits);
+        mSamplerUnits = new int[Math.max(1, count)];
+        for (int i = 0, j = 0; i < mTextureUnitCount && j < count; i++) {
+            if ((mReservedUnits & (1 << i)) == 0) {
+                mSamplerUnits[j++] = i;
+            }
+        }
+    }
+
+    /**
+     * Sets the texture cache budget. If the estimated GPU memory of all cached textures exceeds
+     * the budget, unreferenced textures are deleted until the budget is met. Referenced textures
+     * are never deleted, so the budget might still be exceeded.
+     * 
+     * @param bytes
+     *            cache budget in bytes
+     */
+    public void setCacheBudget(long bytes) {
+        mCacheBudget = bytes;
+        trimCache();
+    }
+
+    /**
+     * Returns the texture cache budget in bytes.
+     * 
+     * @return the texture cache budget in bytes
+     */
+    public long getCacheBudget() {
+        return mCacheBudget;
+    }
+
+    /**
+     * Returns the estimated GPU memory used by all cached textures in bytes.
+     * 
+     * @return the estimated GPU memory of cached textures in bytes
+     */
+    public long getCacheMemory() {
+        return mCacheMemory;
+    }
+
+    /**
+     * Increments the reference count of the specified texture. Textures returned by
+     * {@link #loadTexture(int, TextureProperties)} are already retained.
+     * 
+     * @param texture
+     *            texture to retain
+     */
+    public void retainTexture(Texture texture) {
+        texture.addRef(1);
+    }
+
+    /**
+     * Decrements the reference count of the specified texture. Cached textures with a reference
+     * count of 0 stay in the cache until they are evicted because the cache budget is exceeded.
+     * 
+     * @param texture
+     *            texture to release
+     */
+    public void releaseTexture(Texture texture) {
+        if (texture.addRef(-1) == 0 && texture.getCacheKey() != null) {
+            // mark as recently used, unreferenced textures are evicted in LRU order
+            mResourceMap.get(texture.getCacheKey());
+            trimCache();
+        }
+    }
+
+    /**
+     * Deletes the specified texture regardless of its reference count. The texture must not be
+     * used afterwards.
+     * 
+     * @param texture
+     *            texture to delete
+     */
+    public void deleteTexture(Texture texture) {
+        if (texture.getCacheKey() != null && mResourceMap.remove(texture.getCacheKey()) != null) {
+            mCacheMemory -= texture.getMemorySize();
+        }
+        deleteTextureHandle(texture);
+    }
+
+    /**
+     * Deletes all unreferenced textures from the cache.
+     */
+    public void evictUnreferencedTextures() {
+        long budget = mCacheBudget;
+        mCacheBudget = 0;
+        trimCache();
+        mCacheBudget = budget;
+    }
+
+    /**
+     * Deletes unreferenced textures in least-recently-used order until the cache memory is within
+     * the budget.
+     */
+    private void trimCache() {
+        Iterator<Texture> it = mResourceMap.values().iterator();
+        while (mCacheMemory > mCacheBudget && it.hasNext()) {
+            Texture tex = it.next();
+            if (tex.getRefCount() == 0) {
+                Log.d(TAG, "Evicting texture " + tex.getCacheKey() + ", " + tex.getMemorySize() +
+                        " bytes");
+                it.remove();
+                mCacheMemory -= tex.getMemorySize();
+                deleteTextureHandle(tex);
+            }
+        }
+    }
+
+    /**
+     * Deletes the GL texture of the specified texture.
+     */
+    private void deleteTextureHandle(Texture texture) {
+        int handle = texture.getTextureHandle();
+        if (handle != 0) {
+            glDeleteTextures(1, new int[] { handle }, 0);
+
+            // deleted textures are unbound from all units
+            for (int i = 0; i < MAX_TEXTURE_UNITS; i++) {
+                if (mBound2d[i] == handle) {
+                    mBound2d[i] = 0;
+                }
+                if (mBoundCube[i] == handle) {
+                    mBoundCube[i] = 0;
+                }
+            }
+        }
+        texture.invalidate();
+    }
+
     /**
      * Binds the given texture to the specified texture unit. Use GL_TEXTURE_0 if you only need one
-     * texture.
+     * texture. Bound textures are tracked per texture unit and target, the texture unit is only
+     * activated if the texture is not already bound to it.
      * 
      * @param texture
-     *            texture to be bound
+     *            texture to be bound, null to unbind the 2D texture of the unit
      * @param texUnit
      *            texture unit to be used.
      */
     public void bindTexture(Texture texture, int texUnit) {
-        if(mActiveTextureUnit != texUnit) {
+        if (texture != null) {
+            bindTexture(texture.getTarget(), texture.getTextureHandle(), texUnit);
+        } else {
+            bindTexture(GL_TEXTURE_2D, 0, texUnit);
+        }
+    }
+
+    /**
+     * Binds the specified texture handle to the specified target and texture unit.
+     */
+    private void bindTexture(int target, int handle, int texUnit) {
+        int unit = texUnit - GL_TEXTURE0;
+        int[] bound = target == GL_TEXTURE_CUBE_MAP ? mBoundCube : mBound2d;
+        if (unit >= 0 && unit < MAX_TEXTURE_UNITS && bound[unit] == handle) {
+            // texture is already bound
+            return;
+        }
+
+        if (mActiveTextureUnit != texUnit) {
             glActiveTexture(texUnit);
             mActiveTextureUnit = texUnit;
         }
-        
-        if (texture != mBoundTexture) {
-            mBoundTexture = texture;
-            
-            if(texture != null) {
-                // bind texture
-                glBindTexture(GL_TEXTURE_2D, texture.getTextureHandle());
-            } else {
-                // clear bound texture
-                glBindTexture(GL_TEXTURE_2D, 0);
-            }
+        glBindTexture(target, handle);
+        if (unit >= 0 && unit < MAX_TEXTURE_UNITS) {
+            bound[unit] = handle;
         }
     }
 
     /**
-     * Generates an OpenGL texture object and binds it.
+     * Generates an OpenGL texture object.
      * 
      * @return handle to the generated texture
      */
     private int genTextureHandle() {
         int[] handle = new int[1];
         glGenTextures(1, handle, 0);
-        glBindTexture(GL_TEXTURE_2D, handle[0]);
         return handle[0];
     }
 
     /**
-     * Loads the specified bitmap resource as a texture.
+     * Loads the specified bitmap resource as a texture. If the resource was already loaded with
+     * equal texture properties, the cached texture is returned. In both cases the reference count
+     * of the returned texture is incremented, call {@link #releaseTexture(Texture)} if the texture
+     * is not used anymore.
      * 
      * @param resource
      *            bitmap resource to load
@@ -96,22 +366,197 @@ public class TextureManager {
      * @return the loaded texture
      */
     public Texture loadTexture(int resource, TextureProperties texProps) {
-        int handle = mResourceMap.get(resource);
-        if (handle != 0) {
-            // this resource was already loaded, return the texture handle
-            return new Texture(handle);
+        Texture tex = getCachedTexture(resource, texProps);
+        if (tex == null) {
+            // load bitmap from resources
+            Bitmap bitmap = BitmapFactory.decodeResource(mContext.getResources(), resource);
+            tex = loadTexture(resource, bitmap, texProps);
+            bitmap.recycle();
+        }
+        return tex;
+    }
+
+    /**
+     * Creates a cached texture for the specified resource from an already decoded bitmap. If the
+     * resource is already cached with equal properties, the cached texture is returned. The
+     * returned texture is retained. The bitmap is not recycled.
+     */
+    Texture loadTexture(int resource, Bitmap bitmap, TextureProperties texProps) {
+        Texture tex = getCachedTexture(resource, texProps);
+        if (tex == null) {
+            tex = putCachedTexture(resource, texProps, createTexture(bitmap, texProps));
+        }
+        return tex;
+    }
+
+    /**
+     * Loads the specified compressed texture from the assets directory. Supported containers are
+     * PKM (single ETC1 level) and KTX (compressed formats with optional mip chain). If the file
+     * was already loaded with equal properties, the cached texture is returned. In both cases the
+     * reference count of the returned texture is incremented, call
+     * {@link #releaseTexture(Texture)} if the texture is not used anymore.
+     * 
+     * @param file
+     *            file name of the texture in the assets directory
+     * @param texProps
+     *            OpenGL texture properties
+     * @return the loaded texture
+     * @throws GlException
+     *             if the file could not be read or has an unsupported format
+     */
+    public Texture loadCompressedTexture(String file, TextureProperties texProps)
+            throws GlException {
+        Texture tex = getCachedTexture(file, texProps);
+        if (tex == null) {
+            CompressedImage image;
+            try {
+                InputStream in = mContext.getAssets().open(file);
+                try {
+                    image = CompressedImage.read(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                throw new GlException("Failed reading texture " + file + ": " + e.getMessage(), e);
+            }
+            tex = loadCompressedTexture(file, image, texProps);
+        }
+        return tex;
+    }
+
+    /**
+     * Creates a cached texture for the specified cache key (asset file name or resource id) from
+     * an already read compressed image. If the key is already cached with equal properties, the
+     * cached texture is returned. The returned texture is retained.
+     */
+    Texture loadCompressedTexture(Object key, CompressedImage image, TextureProperties texProps) {
+        Texture tex = getCachedTexture(key, texProps);
+        if (tex == null) {
+            tex = putCachedTexture(key, texProps, createTexture(image, texProps));
+        }
+        return tex;
+    }
+
+    /**
+     * Returns the cached texture for the specified source and properties and retains it or returns
+     * null if no such texture is cached.
+     */
+    private Texture getCachedTexture(Object source, TextureProperties texProps) {
+        Texture tex = mResourceMap.get(new CacheKey(source, texProps));
+        if (tex != null) {
+            tex.addRef(1);
+        }
+        return tex;
+    }
+
+    /**
+     * Adds the specified texture to the cache, retains it and evicts unreferenced textures if the
+     * cache budget is exceeded.
+     */
+    private Texture putCachedTexture(Object source, TextureProperties texProps, Texture tex) {
+        CacheKey key = new CacheKey(source, new TextureProperties(texProps));
+        tex.setCacheKey(key);
+        tex.addRef(1);
+        mResourceMap.put(key, tex);
+        mCacheMemory += tex.getMemorySize();
+        trimCache();
+        return tex;
+    }
+
+    /**
+     * Creates a texture from the specified bitmap. The bitmap is not recycled. The texture is not
+     * cached, use {@link #deleteTexture(Texture)} to delete it.
+     * 
+     * @param bitmap
+     *            bitmap with the texture image
+     * @param texProps
+     *            OpenGL texture properties
+     * @return the created texture
+     */
+    public Texture createTexture(Bitmap bitmap, TextureProperties texProps) {
+        if (texProps.compress && !bitmap.hasAlpha() && ETC1Util.isETC1Supported()) {
+            boolean mipmapped = texProps.minFilter == MinFilterMethod.TRILINEAR;
+            return createTexture(CompressedImage.encodeEtc1(bitmap, mipmapped), texProps);
         }
-        // load bitmap from resources
-        Bitmap bitmap = BitmapFactory.decodeResource(mContext.getResources(), resource);
-        
-        // create texture from bitmap
+
         Texture tex = createTexture();
-        GLUtils.texImage2D(GL_TEXTURE_2D, 0, bitmap, 0);
+        texImage2D(GL_TEXTURE_2D, 0, bitmap, 0);
         tex.setTextureProperties(texProps);
+        boolean mipmapped = texProps.minFilter == MinFilterMethod.TRILINEAR;
+        tex.setMemorySize(Texture.estimateMemorySize(bitmap.getWidth(), bitmap.getHeight(),
+                getBytesPerPixel(bitmap.getConfig()), mipmapped));
+        return tex;
+    }
+
+    /**
+     * Creates a texture from the specified compressed image. All mip levels of the image are
+     * uploaded. Compressed textures can't generate mipmaps, if the image has no complete mip chain
+     * and trilinear filtering is selected, linear filtering is used instead. ETC1 images are
+     * decoded to RGB565 on devices without ETC1 support. The texture is not cached, use
+     * {@link #deleteTexture(Texture)} to delete it.
+     * 
+     * @param image
+     *            the compressed image
+     * @param texProps
+     *            OpenGL texture properties
+     * @return the created texture
+     */
+    public Texture createTexture(CompressedImage image, TextureProperties texProps) {
+        Texture tex = createTexture();
+        boolean decode = image.getFormat() == CompressedImage.FORMAT_ETC1 &&
+                !ETC1Util.isETC1Supported();
+        int size = 0;
+        for (int i = 0; i < image.getLevelCount(); i++) {
+            int w = image.getLevelWidth(i);
+            int h = image.getLevelHeight(i);
+            if (decode) {
+                glTexImage2D(GL_TEXTURE_2D, i, GL_RGB, w, h, 0, GL_RGB, GL_UNSIGNED_SHORT_5_6_5,
+                        image.decodeEtc1Level(i));
+                size += w * h * 2;
+            } else {
+                ByteBuffer data = image.getLevelData(i);
+                glCompressedTexImage2D(GL_TEXTURE_2D, i, image.getFormat(), w, h, 0,
+                        data.capacity(), data);
+                size += data.capacity();
+            }
+        }
 
+        boolean generateMipmaps = false;
+        if (texProps.minFilter == MinFilterMethod.TRILINEAR && !image.hasMipmaps()) {
+            if (decode) {
+                generateMipmaps = true;
+                size += size / 3;
+            } else {
+                Log.w(TAG, "Compressed texture has no mipmaps, using linear filtering");
+                TextureProperties linearProps = new TextureProperties(texProps);
+                linearProps.minFilter = MinFilterMethod.LINEAR;
+                texProps = linearProps;
+            }
+        }
+        tex.setTextureProperties(texProps, generateMipmaps);
+        tex.setMemorySize(size);
         return tex;
     }
 
+    /**
+     * Returns the number of bytes per pixel of a texture uploaded from a bitmap with the specified
+     * config.
+     */
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == null) {
+            return 4;
+        }
+        switch (config) {
+        case ALPHA_8:
+            return 1;
+        case RGB_565:
+        case ARGB_4444:
+            return 2;
+        default:
+            return 4;
+        }
+    }
+
     /**
      * Generates and binds an empty texture handle.
      * 
@@ -123,4 +568,37 @@ public class TextureManager {
         bindTexture(tex, GL_TEXTURE0);
         return tex;
     }
+
+    /**
+     * Texture cache key consisting of the texture source (resource id or asset file name) and the
+     * texture properties the texture was created with.
+     */
+    private static final class CacheKey {
+        private final Object mSource;
+        private final TextureProperties mTexProps;
+
+        CacheKey(Object source, TextureProperties texProps) {
+            mSource = source;
+            mTexProps = texProps;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) o;
+            return mSource.equals(other.mSource) && mTexProps.equals(other.mTexProps);
+        }
+
+        @Override
+        public int hashCode() {
+            return mSource.hashCode() * 31 + mTexProps.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return mSource.toString();
+        }
+    }
 }
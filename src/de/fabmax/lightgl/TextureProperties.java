@@ -28,6 +28,56 @@ public class TextureProperties {
      * Texture wrapping in Y direction.
      */
     public WrappingMethod yWrapping = WrappingMethod.REPEAT;
+
+    /**
+     * If true, bitmap textures without alpha channel are encoded to ETC1 on loading. ETC1 textures
+     * need 1/6 of the memory and bandwidth of RGB textures, but encoding is slow, so textures
+     * should be loaded with the {@link AssetLoader} or converted to PKM / KTX files in advance.
+     */
+    public boolean compress = false;
+
+    /**
+     * Creates TextureProperties with default settings.
+     */
+    public TextureProperties() {
+        // default settings
+    }
+
+    /**
+     * Creates a copy of the specified TextureProperties.
+     * 
+     * @param other
+     *            the TextureProperties to copy
+     */
+    public TextureProperties(TextureProperties other) {
+        minFilter = other.minFilter;
+        magFilter = other.magFilter;
+        xWrapping = other.xWrapping;
+        yWrapping = other.yWrapping;
+        compress = other.compress;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        } else if (!(o instanceof TextureProperties)) {
+            return false;
+        }
+        TextureProperties other = (TextureProperties) o;
+        return minFilter == other.minFilter && magFilter == other.magFilter &&
+                xWrapping == other.xWrapping && yWrapping == other.yWrapping &&
+                compress == other.compress;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = minFilter.hashCode();
+        hash = hash * 31 + magFilter.hashCode();
+        hash = hash * 31 + xWrapping.hashCode();
+        hash = hash * 31 + yWrapping.hashCode();
+        return hash * 31 + (compress ? 1 : 0);
+    }
     
     /**
      * Enumeration of texture filter methods for minification filters.
@@ -7,17 +7,19 @@ import static android.opengl.GLES20.GL_DEPTH_BUFFER_BIT;
 import static android.opengl.GLES20.GL_DEPTH_COMPONENT16;
 import static android.opengl.GLES20.GL_FRAMEBUFFER;
 import static android.opengl.GLES20.GL_RENDERBUFFER;
+import static android.opengl.GLES20.GL_RGB;
 import static android.opengl.GLES20.GL_TEXTURE_2D;
-import static android.opengl.GLES20.glBindFramebuffer;
-import static android.opengl.GLES20.glBindRenderbuffer;
-import static android.opengl.GLES20.glClear;
-import static android.opengl.GLES20.glFramebufferRenderbuffer;
-import static android.opengl.GLES20.glFramebufferTexture2D;
-import static android.opengl.GLES20.glGenFramebuffers;
-import static android.opengl.GLES20.glGenRenderbuffers;
-import static android.opengl.GLES20.glRenderbufferStorage;
-import static android.opengl.GLES20.glViewport;
-import android.opengl.GLES20;
+import static android.opengl.GLES20.GL_UNSIGNED_BYTE;
+import static de.fabmax.lightgl.Gl.glBindFramebuffer;
+import static de.fabmax.lightgl.Gl.glBindRenderbuffer;
+import static de.fabmax.lightgl.Gl.glClear;
+import static de.fabmax.lightgl.Gl.glFramebufferRenderbuffer;
+import static de.fabmax.lightgl.Gl.glFramebufferTexture2D;
+import static de.fabmax.lightgl.Gl.glGenFramebuffers;
+import static de.fabmax.lightgl.Gl.glGenRenderbuffers;
+import static de.fabmax.lightgl.Gl.glRenderbufferStorage;
+import static de.fabmax.lightgl.Gl.glTexImage2D;
+import static de.fabmax.lightgl.Gl.glViewport;
 
 import de.fabmax.lightgl.TextureProperties.MagFilterMethod;
 import de.fabmax.lightgl.TextureProperties.MinFilterMethod;
@@ -141,7 +143,7 @@ public class TextureRenderer {
 
         // draw scene
         if (nodeToRender != null) {
-            nodeToRender.render(state);
+            state.renderNode(nodeToRender);
         }
 
         // restore normal state
@@ -167,8 +169,9 @@ public class TextureRenderer {
 
             // create / resize target texture
             engine.getState().bindTexture(mTargetTex);
-            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGB, mWidth, mHeight, 0,
-                    GLES20.GL_RGB, GLES20.GL_UNSIGNED_BYTE, null);
+            glTexImage2D(GL_TEXTURE_2D, 0, GL_RGB, mWidth, mHeight, 0, GL_RGB, GL_UNSIGNED_BYTE,
+                    null);
+            mTargetTex.setMemorySize(Texture.estimateMemorySize(mWidth, mHeight, 3, false));
 
             // create / resize the render buffer needed for depth testing
             glRenderbufferStorage(GL_RENDERBUFFER, GL_DEPTH_COMPONENT16, mWidth, mHeight);
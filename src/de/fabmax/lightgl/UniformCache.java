@@ -0,0 +1,206 @@
+package de.fabmax.lightgl;
+
+import android.util.SparseIntArray;
+
+/**
+ * Caches the last uploaded uniform values of a shader program. Uniform values are stored in the
+ * program object, hence there is one cache per program handle, shared by all {@link Shader}s that
+ * use the same program. Caches are managed by the {@link ShaderManager}.
+ * 
+ * Uniform locations are chosen by the driver and can be large or sparse, hence each location is
+ * mapped to a compact slot when it is used for the first time. Values are stored per slot.
+ * 
+ * @author fabmax
+ * 
+ */
+class UniformCache {
+
+    // maps uniform locations to slots
+    private final SparseIntArray mSlots = new SparseIntArray();
+    private int mSlotCount = 0;
+
+    // cached values indexed by slot, int uniforms are stored separately
+    private float[][] mValues = new float[16][];
+    private int[] mIntValues = new int[16];
+    private boolean[] mValid = new boolean[16];
+
+    // upload statistics
+    private int mUploads = 0;
+    private int mSkipped = 0;
+
+    /**
+     * Updates the cached value of an int (or sampler) uniform.
+     * 
+     * @param location
+     *            uniform location
+     * @param x
+     *            uniform value
+     * @return true if the value changed and must be uploaded
+     */
+    boolean update(int location, int x) {
+        if (location < 0) {
+            return false;
+        }
+        int slot = getSlot(location);
+        if (mValid[slot] && mIntValues[slot] == x) {
+            mSkipped++;
+            return false;
+        }
+        mIntValues[slot] = x;
+        mValid[slot] = true;
+        mUploads++;
+        return true;
+    }
+
+    /**
+     * Updates the cached value of a scalar float uniform.
+     * 
+     * @param location
+     *            uniform location
+     * @param x
+     *            uniform value
+     * @return true if the value changed and must be uploaded
+     */
+    boolean update(int location, float x) {
+        if (location < 0) {
+            return false;
+        }
+        int slot = getSlot(location);
+        float[] v = getValues(slot, 1);
+        if (mValid[slot] && v[0] == x) {
+            mSkipped++;
+            return false;
+        }
+        v[0] = x;
+        mValid[slot] = true;
+        mUploads++;
+        return true;
+    }
+
+    /**
+     * Updates the cached value of a vec3 uniform.
+     * 
+     * @param location
+     *            uniform location
+     * @param x
+     *            uniform x value
+     * @param y
+     *            uniform y value
+     * @param z
+     *            uniform z value
+     * @return true if the value changed and must be uploaded
+     */
+    boolean update(int location, float x, float y, float z) {
+        if (location < 0) {
+            return false;
+        }
+        int slot = getSlot(location);
+        float[] v = getValues(slot, 3);
+        if (mValid[slot] && v[0] == x && v[1] == y && v[2] == z) {
+            mSkipped++;
+            return false;
+        }
+        v[0] = x;
+        v[1] = y;
+        v[2] = z;
+        mValid[slot] = true;
+        mUploads++;
+        return true;
+    }
+
+    /**
+     * Updates the cached value of an arbitrary sized uniform, e.g. a matrix.
+     * 
+     * @param location
+     *            uniform location
+     * @param values
+     *            array with the uniform values
+     * @param offset
+     *            offset of the first value in the array
+     * @param len
+     *            number of values
+     * @return true if the value changed and must be uploaded
+     */
+    boolean update(int location, float[] values, int offset, int len) {
+        if (location < 0) {
+            return false;
+        }
+        int slot = getSlot(location);
+        float[] v = getValues(slot, len);
+        if (mValid[slot]) {
+            boolean equal = true;
+            for (int i = 0; i < len && equal; i++) {
+                equal = v[i] == values[offset + i];
+            }
+            if (equal) {
+                mSkipped++;
+                return false;
+            }
+        }
+        System.arraycopy(values, offset, v, 0, len);
+        mValid[slot] = true;
+        mUploads++;
+        return true;
+    }
+
+    /**
+     * Returns the number of uniform uploads since the last reset.
+     */
+    int getUploadCount() {
+        return mUploads;
+    }
+
+    /**
+     * Returns the number of skipped uniform uploads since the last reset.
+     */
+    int getSkippedCount() {
+        return mSkipped;
+    }
+
+    /**
+     * Resets the upload statistics.
+     */
+    void resetStatistics() {
+        mUploads = 0;
+        mSkipped = 0;
+    }
+
+    /**
+     * Returns the slot of the specified uniform location. A new slot is assigned if the location
+     * is used for the first time.
+     */
+    private int getSlot(int location) {
+        int slot = mSlots.get(location, -1);
+        if (slot < 0) {
+            slot = mSlotCount++;
+            mSlots.put(location, slot);
+            if (slot >= mValid.length) {
+                int size = mValid.length * 2;
+                float[][] values = new float[size][];
+                int[] intValues = new int[size];
+                boolean[] valid = new boolean[size];
+                System.arraycopy(mValues, 0, values, 0, mValues.length);
+                System.arraycopy(mIntValues, 0, intValues, 0, mIntValues.length);
+                System.arraycopy(mValid, 0, valid, 0, mValid.length);
+                mValues = values;
+                mIntValues = intValues;
+                mValid = valid;
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Returns the float value array of the specified slot, the array is (re-)allocated if it does
+     * not exist yet or has a different size. This happens only once per uniform.
+     */
+    private float[] getValues(int slot, int len) {
+        float[] v = mValues[slot];
+        if (v == null || v.length != len) {
+            v = new float[len];
+            mValues[slot] = v;
+            mValid[slot] = false;
+        }
+        return v;
+    }
+}
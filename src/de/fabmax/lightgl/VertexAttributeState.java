@@ -0,0 +1,283 @@
+package de.fabmax.lightgl;
+
+import static android.opengl.GLES20.GL_ARRAY_BUFFER;
+import static android.opengl.GLES20.GL_ELEMENT_ARRAY_BUFFER;
+import static de.fabmax.lightgl.Gl.glBindBuffer;
+import static de.fabmax.lightgl.Gl.glDisableVertexAttribArray;
+import static de.fabmax.lightgl.Gl.glEnableVertexAttribArray;
+
+/**
+ * Tracks the GL vertex attribute state: the bound array and element array buffers, the set of
+ * enabled vertex attribute arrays and the attribute pointer last set for each attribute location.
+ * Binding the same mesh twice with the same shader therefore does not cause any GL calls.
+ * 
+ * The tracked buffer bindings become invalid if GL_ARRAY_BUFFER or GL_ELEMENT_ARRAY_BUFFER are
+ * bound without this class, e.g. when a vertex buffer object is created. The {@link GfxEngine}
+ * invalidates the buffer bindings before every frame and after each engine listener callback.
+ * Code that binds buffers directly during rendering must call
+ * {@link VertexAttributeState#invalidateBufferBindings()} afterwards.
+ * 
+ * If vertex array objects are supported (see {@link Gles30#isVertexArraySupported()}), layouts
+ * whose attributes are all sourced from vertex buffer objects are bound with their own vertex
+ * array object, see {@link VertexLayout}. The enabled arrays and attribute pointers tracked by this
+ * class always refer to the default vertex array object, which is bound again before any other
+ * attribute is bound or disabled outside of a layout. The element array buffer binding is part of
+ * the vertex array object state and tracked per layout.
+ * 
+ * @author fabmax
+ * 
+ */
+public class VertexAttributeState {
+
+    // attribute locations are tracked in an int bit mask
+    static final int MAX_ATTRIBUTES = 32;
+
+    // buffer bindings, -1 means unknown
+    private int mArrayBuffer = -1;
+    private int mElementArrayBuffer = -1;
+
+    // bit mask of enabled vertex attribute arrays
+    private int mEnabledMask = 0;
+
+    // pointer signature per attribute location: binder and its modification count
+    private final ShaderAttributeBinder[] mPointerBinders = new ShaderAttributeBinder[MAX_ATTRIBUTES];
+    private final int[] mPointerModCounts = new int[MAX_ATTRIBUTES];
+
+    // GLES30 capabilities of the GL context
+    private final Gles30 mGles30;
+
+    // currently bound vertex layout, null if the attribute setup was changed otherwise
+    private VertexLayout mBoundLayout;
+
+    // layout whose vertex array object is bound, null if the default vertex array is bound
+    private VertexLayout mVaoLayout;
+    // element array buffer of the default vertex array while a vertex array object is bound
+    private int mDefaultElementArrayBuffer = -1;
+
+    /**
+     * Creates a new VertexAttributeState. Is called by the {@link ShaderManager}.
+     */
+    VertexAttributeState(Gles30 gles30) {
+        mGles30 = gles30;
+    }
+
+    /**
+     * Binds the specified buffer to GL_ARRAY_BUFFER if it is not already bound.
+     * 
+     * @param buffer
+     *            GL buffer handle, 0 unbinds the current buffer
+     */
+    public void bindArrayBuffer(int buffer) {
+        if (buffer != mArrayBuffer) {
+            glBindBuffer(GL_ARRAY_BUFFER, buffer);
+            mArrayBuffer = buffer;
+        }
+    }
+
+    /**
+     * Binds the specified buffer to GL_ELEMENT_ARRAY_BUFFER if it is not already bound.
+     * 
+     * @param buffer
+     *            GL buffer handle, 0 unbinds the current buffer
+     */
+    public void bindElementArrayBuffer(int buffer) {
+        if (buffer != mElementArrayBuffer) {
+            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, buffer);
+            mElementArrayBuffer = buffer;
+            if (mVaoLayout != null) {
+                // element array buffer binding is stored in the vertex array object
+                mVaoLayout.mVaoElementBuffer = buffer;
+            }
+        }
+    }
+
+    /**
+     * Binds the specified vertex attribute binder to the specified attribute location and enables
+     * the attribute array. The attribute pointer is only set if the location was last bound to a
+     * different binder or if the binder was modified since. If binder is null the attribute array
+     * is disabled.
+     * 
+     * If the vertex array object of a layout is bound, the attribute is added to that vertex array
+     * object without tracking, e.g. for per-instance attributes which are bound after the mesh.
+     * 
+     * @param location
+     *            attribute location
+     * @param binder
+     *            vertex attribute binder, can be null
+     */
+    public void bindAttribute(int location, ShaderAttributeBinder binder) {
+        if (location < 0) {
+            return;
+        }
+        if (mVaoLayout != null && mVaoLayout.hasVertexArray(mGles30)) {
+            // attributes of vertex array objects are not tracked
+            if (binder == null) {
+                glDisableVertexAttribArray(location);
+            } else if (binder.bindAttribute(this, location)) {
+                glEnableVertexAttribArray(location);
+            }
+            return;
+        }
+        bindDefaultVertexArray();
+        mBoundLayout = null;
+        if (location >= MAX_ATTRIBUTES) {
+            // location can't be tracked, bind it unconditionally
+            invalidateBufferBindings();
+            if (binder != null && binder.bindAttribute(location)) {
+                glEnableVertexAttribArray(location);
+            }
+            return;
+        }
+
+        if (binder == null) {
+            disableAttributes(1 << location);
+            return;
+        }
+        if (mPointerBinders[location] != binder || mPointerModCounts[location] != binder.getModCount()) {
+            if (!binder.bindAttribute(this, location)) {
+                return;
+            }
+            mPointerBinders[location] = binder;
+            mPointerModCounts[location] = binder.getModCount();
+        }
+        int bit = 1 << location;
+        if ((mEnabledMask & bit) == 0) {
+            glEnableVertexAttribArray(location);
+            mEnabledMask |= bit;
+        }
+    }
+
+    /**
+     * Binds the specified vertex layout. Does nothing if the layout is already bound and none of
+     * its binders was modified. If vertex array objects are supported and the layout is
+     * compatible, the vertex array object of the layout is bound and its attributes are only set
+     * up if it was newly created or a binder was modified. Otherwise all attributes of the layout
+     * are bound with {@link VertexAttributeState#bindAttribute(int, ShaderAttributeBinder)}.
+     * 
+     * @param layout
+     *            the vertex layout to bind
+     */
+    public void bindLayout(VertexLayout layout) {
+        boolean modified = layout.updateModCounts();
+        if (layout == mBoundLayout && !modified) {
+            return;
+        }
+        if (layout.isVaoCompatible() && mGles30.isVertexArraySupported()) {
+            bindVertexArray(layout, modified);
+            return;
+        }
+        for (int i = 0; i < layout.getAttributeCount(); i++) {
+            bindAttribute(layout.getLocation(i), layout.getBinder(i));
+        }
+        if (layout.isTrackable()) {
+            mBoundLayout = layout;
+        }
+    }
+
+    /**
+     * Binds the vertex array object of the specified layout. The attributes are set up if the
+     * vertex array object was newly created or if the layout was modified.
+     */
+    private void bindVertexArray(VertexLayout layout, boolean modified) {
+        boolean setup = modified || !layout.hasVertexArray(mGles30);
+        int vao = layout.getVertexArray(mGles30);
+        if (layout != mVaoLayout) {
+            if (mVaoLayout == null) {
+                mDefaultElementArrayBuffer = mElementArrayBuffer;
+            }
+            Gles30.glBindVertexArray(vao);
+            mVaoLayout = layout;
+            mElementArrayBuffer = layout.mVaoElementBuffer;
+        }
+        if (setup) {
+            for (int i = 0; i < layout.getAttributeCount(); i++) {
+                int location = layout.getLocation(i);
+                ShaderAttributeBinder binder = layout.getBinder(i);
+                if (binder != null && binder.bindAttribute(this, location)) {
+                    glEnableVertexAttribArray(location);
+                } else {
+                    glDisableVertexAttribArray(location);
+                }
+            }
+        }
+        mBoundLayout = layout;
+    }
+
+    /**
+     * Binds the default vertex array if the vertex array object of a layout is bound.
+     */
+    private void bindDefaultVertexArray() {
+        if (mVaoLayout != null) {
+            Gles30.glBindVertexArray(0);
+            mVaoLayout = null;
+            mElementArrayBuffer = mDefaultElementArrayBuffer;
+            mBoundLayout = null;
+        }
+    }
+
+    /**
+     * Disables all enabled vertex attribute arrays whose locations are set in the specified bit
+     * mask.
+     * 
+     * @param mask
+     *            bit mask of attribute locations to disable
+     */
+    public void disableAttributes(int mask) {
+        int disable = mEnabledMask & mask;
+        if (disable != 0) {
+            // the enabled mask refers to the default vertex array
+            bindDefaultVertexArray();
+            mBoundLayout = null;
+        }
+        for (int i = 0; disable != 0; i++, disable >>>= 1) {
+            if ((disable & 1) != 0) {
+                glDisableVertexAttribArray(i);
+            }
+        }
+        mEnabledMask &= ~mask;
+    }
+
+    /**
+     * Returns the bit mask of enabled vertex attribute arrays.
+     * 
+     * @return bit mask of enabled vertex attribute arrays
+     */
+    public int getEnabledAttributes() {
+        return mEnabledMask;
+    }
+
+    /**
+     * Marks the tracked buffer bindings as unknown. Must be called if GL_ARRAY_BUFFER or
+     * GL_ELEMENT_ARRAY_BUFFER were bound without this class.
+     */
+    public void invalidateBufferBindings() {
+        mArrayBuffer = -1;
+        mElementArrayBuffer = -1;
+        mDefaultElementArrayBuffer = -1;
+        if (mVaoLayout != null) {
+            mVaoLayout.mVaoElementBuffer = -1;
+        }
+    }
+
+    /**
+     * Marks all tracked vertex attribute pointers as unknown. Must be called if an attribute
+     * pointer was set without this class.
+     */
+    public void invalidateAttributePointers() {
+        for (int i = 0; i < MAX_ATTRIBUTES; i++) {
+            mPointerBinders[i] = null;
+        }
+        mBoundLayout = null;
+    }
+
+    /**
+     * Resets the tracked state to the initial state of a new GL context. Is called by the
+     * {@link ShaderManager} if the GL context was (re-)created.
+     */
+    void newGlContext() {
+        mVaoLayout = null;
+        invalidateBufferBindings();
+        mEnabledMask = 0;
+        invalidateAttributePointers();
+    }
+}
@@ -0,0 +1,217 @@
+package de.fabmax.lightgl;
+
+import de.fabmax.lightgl.scene.Mesh;
+
+/**
+ * A VertexLayout holds the precomputed vertex attribute setup of a {@link Mesh} for a specific
+ * {@link Shader}: The attribute locations used by the shader together with the mesh's
+ * {@link ShaderAttributeBinder}s. Layouts are created once per mesh and shader and cached by the
+ * mesh. Binding the layout that is already bound is a single comparison, otherwise only the
+ * attributes that differ from the current {@link VertexAttributeState} are bound.
+ * 
+ * If vertex array objects are supported (see {@link Gles30#isVertexArraySupported()}) and all
+ * attributes of the layout are sourced from vertex buffer objects, the attribute setup is stored
+ * in a vertex array object once and binding the layout is a single glBindVertexArray() call.
+ * 
+ * @author fabmax
+ * 
+ */
+public class VertexLayout {
+
+    // shader and mesh this layout was created for
+    private final Shader mShader;
+    private final Mesh mMesh;
+    private final int mShaderAttributeModCount;
+
+    // attribute setup
+    private final int mCount;
+    private final int[] mLocations;
+    private final ShaderAttributeBinder[] mBinders;
+    private final int[] mBinderModCounts;
+
+    // false if an attribute location can't be tracked by VertexAttributeState
+    private final boolean mTrackable;
+    // true if all attributes are sourced from VBOs and can be stored in a vertex array object
+    private final boolean mVaoCompatible;
+
+    // vertex array object, managed by VertexAttributeState
+    private final int[] mVao = new int[1];
+    private Gles30 mVaoContext = null;
+    private int mVaoContextId = 0;
+    // element array buffer bound in the vertex array object, -1 means unknown
+    int mVaoElementBuffer = -1;
+
+    /**
+     * Creates the vertex layout of the specified mesh for the specified shader.
+     * 
+     * @param shader
+     *            the shader the mesh is drawn with
+     * @param mesh
+     *            the mesh to draw
+     */
+    public VertexLayout(Shader shader, Mesh mesh) {
+        mShader = shader;
+        mMesh = mesh;
+        mShaderAttributeModCount = shader.getAttributeModCount();
+
+        int[] locations = new int[Shader.ATTRIBUTE_COUNT];
+        ShaderAttributeBinder[] binders = new ShaderAttributeBinder[Shader.ATTRIBUTE_COUNT];
+        int count = 0;
+        boolean trackable = true;
+        boolean vaoCompatible = true;
+        for (int i = 0; i < Shader.ATTRIBUTE_COUNT; i++) {
+            int loc = shader.getAttributeLocation(i);
+            if (loc >= 0) {
+                locations[count] = loc;
+                binders[count] = Shader.getMeshBinder(mesh, i);
+                trackable &= loc < VertexAttributeState.MAX_ATTRIBUTES;
+                vaoCompatible &= binders[count] == null || binders[count].isBufferObject();
+                count++;
+            }
+        }
+        mCount = count;
+        mLocations = locations;
+        mBinders = binders;
+        mBinderModCounts = new int[count];
+        mTrackable = trackable;
+        mVaoCompatible = vaoCompatible;
+        updateModCounts();
+    }
+
+    /**
+     * Returns the shader this layout was created for.
+     * 
+     * @return the shader this layout was created for
+     */
+    public Shader getShader() {
+        return mShader;
+    }
+
+    /**
+     * Returns the mesh this layout was created for.
+     * 
+     * @return the mesh this layout was created for
+     */
+    public Mesh getMesh() {
+        return mMesh;
+    }
+
+    /**
+     * Returns true if this layout still matches the attribute configuration of its shader. The
+     * mesh invalidates its layouts itself if one of its binders is replaced.
+     * 
+     * @return true if this layout is still valid
+     */
+    public boolean isValid() {
+        return mShaderAttributeModCount == mShader.getAttributeModCount();
+    }
+
+    /**
+     * Returns the number of attributes in this layout.
+     * 
+     * @return the number of attributes in this layout
+     */
+    public int getAttributeCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns the attribute location of the specified layout entry.
+     * 
+     * @param idx
+     *            entry index
+     * @return the attribute location
+     */
+    public int getLocation(int idx) {
+        return mLocations[idx];
+    }
+
+    /**
+     * Returns the binder of the specified layout entry. The binder is null if the mesh does not
+     * provide the attribute.
+     * 
+     * @param idx
+     *            entry index
+     * @return the binder, can be null
+     */
+    public ShaderAttributeBinder getBinder(int idx) {
+        return mBinders[idx];
+    }
+
+    /**
+     * Binds this layout with the specified attribute state.
+     * 
+     * @param attribState
+     *            the vertex attribute state
+     */
+    public void bind(VertexAttributeState attribState) {
+        attribState.bindLayout(this);
+    }
+
+    /**
+     * Returns true if all attribute locations of this layout can be tracked by
+     * {@link VertexAttributeState}.
+     */
+    boolean isTrackable() {
+        return mTrackable;
+    }
+
+    /**
+     * Returns true if this layout can be stored in a vertex array object.
+     */
+    boolean isVaoCompatible() {
+        return mVaoCompatible;
+    }
+
+    /**
+     * Returns the vertex array object of this layout. The vertex array object is created if it
+     * does not exist yet in the specified GL context, in that case its element array buffer is
+     * unknown and all attributes must be set up.
+     */
+    int getVertexArray(Gles30 context) {
+        if (!hasVertexArray(context)) {
+            Gles30.glGenVertexArrays(1, mVao, 0);
+            mVaoContext = context;
+            mVaoContextId = context.getContextId();
+            mVaoElementBuffer = -1;
+        }
+        return mVao[0];
+    }
+
+    /**
+     * Returns true if the vertex array object of this layout exists in the specified GL context
+     * and its attributes are set up.
+     */
+    boolean hasVertexArray(Gles30 context) {
+        return mVao[0] != 0 && mVaoContext == context && mVaoContextId == context.getContextId();
+    }
+
+    /**
+     * Deletes the vertex array object of this layout. Is called by the mesh if the layout is
+     * dropped. Must be called on the GL thread.
+     */
+    public void release() {
+        if (mVaoContext != null && hasVertexArray(mVaoContext)) {
+            Gles30.glDeleteVertexArrays(1, mVao, 0);
+        }
+        mVao[0] = 0;
+        mVaoContext = null;
+    }
+
+    /**
+     * Stores the current modification counts of the binders. Returns true if any binder was
+     * modified since the last call.
+     */
+    boolean updateModCounts() {
+        boolean modified = false;
+        for (int i = 0; i < mCount; i++) {
+            ShaderAttributeBinder binder = mBinders[i];
+            int modCount = binder != null ? binder.getModCount() : 0;
+            if (modCount != mBinderModCounts[i]) {
+                mBinderModCounts[i] = modCount;
+                modified = true;
+            }
+        }
+        return modified;
+    }
+}
@@ -77,6 +77,16 @@ public class Block {
         return mBlockBounds.computeHitDistanceSqr(r);
     }
 
+    /**
+     * Returns the bounds of this block. The bounds are updated on every call of
+     * {@link Block#interpolateHeight(long)}.
+     * 
+     * @return the bounds of this block
+     */
+    public BoundingBox getBounds() {
+        return mBlockBounds;
+    }
+
     /**
      * Interpolates the height of this block for the specified timestamp and returns the
      * corresponding color.
@@ -14,6 +14,8 @@ import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
 
+import de.fabmax.lightgl.BoundingBox;
+import de.fabmax.lightgl.BoundingVolumeHierarchy;
 import de.fabmax.lightgl.GfxEngine;
 import de.fabmax.lightgl.GfxEngineListener;
 import de.fabmax.lightgl.GfxState;
@@ -45,6 +47,8 @@ public class BlockAnimator {
     private int mSizeX;
     private int mSizeZ;
     private Block[] mBlocks;
+    private BoundingVolumeHierarchy<Block> mBlockBvh;
+    private boolean mBvhDirty = false;
     private FloatBuffer mPositionBuffer;
     private Mesh mBlockMesh;
     
@@ -126,6 +130,9 @@ public class BlockAnimator {
         
         // create Mesh
         mBlockMesh = new Mesh(idxBuf, posBinder, normalBinder, uvBinder, null);
+        // block heights are animated, mesh bounds must include the maximum block height
+        mBlockMesh.setMeshBounds(new BoundingBox(-mSizeX, mSizeX, 0,
+                Block.MIN_HEIGHT + Block.HEIGHT_RANGE, -mSizeZ, mSizeZ));
         if(shadow != null) {
             mBlockMesh.setShader(new ShadowShader(engine.getShaderManager(), mTexture, shadow));
         } else {
@@ -134,9 +141,12 @@ public class BlockAnimator {
 
         // create block array
         mBlocks = new Block[mSizeX * mSizeZ];
+        mBlockBvh = new BoundingVolumeHierarchy<Block>();
         for (int i = 0; i < mBlocks.length; i++) {
             mBlocks[i] = new Block(this, i * 60);
+            mBlockBvh.add(mBlocks[i], mBlocks[i].getBounds());
         }
+        mBlockBvh.build();
     }
     
     /**
@@ -169,16 +179,12 @@ public class BlockAnimator {
      * @return the hit block or null
      */
     public Block getHitBlock(Ray pickRay) {
-        Block hit = null;
-        float dist = Float.MAX_VALUE;
-        for (Block block : mBlocks) {
-            float d = block.computeHitDistanceSqr(pickRay);
-            if (d < dist) {
-                dist = d;
-                hit = block;
-            }
+        if (mBvhDirty) {
+            // block heights changed since last pick, update the hierarchy
+            mBlockBvh.refit();
+            mBvhDirty = false;
         }
-        return hit;
+        return mBlockBvh.getHit(pickRay);
     }
     
     /**
@@ -202,6 +208,7 @@ public class BlockAnimator {
         for (int i = 0; i < mBlocks.length; i++) {
             setBlockColor(i, mBlocks[i].interpolateHeight(t));
         }
+        mBvhDirty = true;
         // update block colors
         updateTexture(state);
     }
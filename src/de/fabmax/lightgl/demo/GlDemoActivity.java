@@ -116,6 +116,7 @@ public class GlDemoActivity extends Activity implements GfxEngineListener {
         if(t > mLastFpsOut + 1000) {
             mLastFpsOut = t;
             Log.d(TAG, "Fps: " + engine.getFps());
+            Log.d(TAG, "Frame stats: " + engine.getFrameStats());
         }
     }
 
@@ -137,6 +138,8 @@ public class GlDemoActivity extends Activity implements GfxEngineListener {
      */
     @Override
     public void onLoadScene(GfxEngine engine) {
+        // measure GPU time of the render passes if supported, shows up in the frame stats
+        engine.getGpuTimer().setEnabled(true);
         setCubeScene(engine);
         //setObjModelScene(engine);
     }
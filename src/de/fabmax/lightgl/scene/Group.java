@@ -2,7 +2,9 @@ package de.fabmax.lightgl.scene;
 
 import java.util.ArrayList;
 
+import de.fabmax.lightgl.BoundingBox;
 import de.fabmax.lightgl.GfxState;
+import de.fabmax.lightgl.RenderQueue;
 
 /**
  * A scene element that groups multiple child nodes.
@@ -22,13 +24,23 @@ public class Group extends Node {
     }
     
     /**
-     * Adds a child node to this group.
+     * Adds a child node to this group. A node can only be part of a single group at a time, since
+     * bounds changes are only propagated to its one parent. To move a node to another group,
+     * remove it from its current group first.
      * 
      * @param child
      *            the child to add to this group
+     * @throws IllegalArgumentException
+     *             if the child is already part of a group
      */
     public void addChild(Node child) {
+        if (child.getParent() != null) {
+            throw new IllegalArgumentException("Node is already part of a group");
+        }
         mChildren.add(child);
+        child.setParent(this);
+        child.invalidateWorldTransform();
+        invalidateBounds();
     }
 
     /**
@@ -38,14 +50,21 @@ public class Group extends Node {
      *            the child to remove from this group
      */
     public void removeChild(Node child) {
-        mChildren.remove(child);
+        if (mChildren.remove(child)) {
+            child.setParent(null);
+            invalidateBounds();
+        }
     }
 
     /**
      * Removes all children from this group.
      */
     public void removeAllChildren() {
+        for (Node child : mChildren) {
+            child.setParent(null);
+        }
         mChildren.clear();
+        invalidateBounds();
     }
 
     /**
@@ -58,14 +77,69 @@ public class Group extends Node {
     }
 
     /**
-     * Renders this group by calling the render methods of all children.
+     * Invalidates the world transformations of all children.
+     * 
+     * @see Node#invalidateWorldTransform()
+     */
+    @Override
+    void invalidateWorldTransform() {
+        for (int i = 0; i < mChildren.size(); i++) {
+            mChildren.get(i).invalidateWorldTransform();
+        }
+    }
+
+    /**
+     * Computes the bounds of this group, that is the union of all child bounds. If any child is
+     * unbounded the group is unbounded as well.
+     * 
+     * @see Node#computeBounds(BoundingBox)
+     */
+    @Override
+    protected boolean computeBounds(BoundingBox result) {
+        if (mChildren.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < mChildren.size(); i++) {
+            BoundingBox childBounds = mChildren.get(i).getBounds();
+            if (childBounds == null) {
+                return false;
+            } else if (i == 0) {
+                result.set(childBounds);
+            } else {
+                result.add(childBounds);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Renders this group by calling the render methods of all children. Children that are
+     * completely outside of the current view frustum are skipped.
      * 
      * @see Node#render(GfxState)
      */
     @Override
     public void render(GfxState state) {
-        for (Node child : mChildren) {
-            child.render(state);
+        for (int i = 0; i < mChildren.size(); i++) {
+            Node child = mChildren.get(i);
+            if (child.isVisible(state)) {
+                child.render(state);
+            }
+        }
+    }
+
+    /**
+     * Collects all children that are at least partly inside the current view frustum.
+     * 
+     * @see Node#collect(GfxState, RenderQueue)
+     */
+    @Override
+    public void collect(GfxState state, RenderQueue queue) {
+        for (int i = 0; i < mChildren.size(); i++) {
+            Node child = mChildren.get(i);
+            if (child.isVisible(state)) {
+                child.collect(state, queue);
+            }
         }
     }
 
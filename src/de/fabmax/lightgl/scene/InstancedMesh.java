@@ -0,0 +1,450 @@
+package de.fabmax.lightgl.scene;
+
+import static android.opengl.GLES20.GL_ARRAY_BUFFER;
+import static android.opengl.GLES20.GL_DYNAMIC_DRAW;
+import static android.opengl.GLES20.GL_STATIC_DRAW;
+import static de.fabmax.lightgl.Gl.glBindBuffer;
+import static de.fabmax.lightgl.Gl.glBufferData;
+import static de.fabmax.lightgl.Gl.glGenBuffers;
+
+import java.nio.FloatBuffer;
+
+import android.opengl.Matrix;
+
+import de.fabmax.lightgl.BoundingBox;
+import de.fabmax.lightgl.GfxState;
+import de.fabmax.lightgl.Gles30;
+import de.fabmax.lightgl.InstancedPhongShader;
+import de.fabmax.lightgl.RenderQueue;
+import de.fabmax.lightgl.Shader;
+import de.fabmax.lightgl.ShaderAttributeBinder;
+import de.fabmax.lightgl.VertexAttributeState;
+import de.fabmax.lightgl.util.BufferHelper;
+import de.fabmax.lightgl.util.MeshFactory;
+
+/**
+ * An InstancedMesh draws the same geometry many times with different transformations and colors.
+ * If the GL context supports instanced drawing (OpenGL ES 3.0, see {@link Gles30}), the
+ * per-instance data is uploaded to a vertex buffer object and all instances are drawn with a
+ * single glDrawElementsInstanced() call, the transformations and colors are per-instance vertex
+ * attributes.
+ * 
+ * GLES 2.0 has no instancing support, in that case pseudo-instancing is used: The geometry is
+ * stored {@link InstancedMesh#BATCH_SIZE} times in a single {@link Mesh}, each copy is tagged with
+ * a per-vertex instance ID. The transformations and colors of a whole batch of instances are
+ * uploaded as a uniform array, which is indexed by the instance ID in the vertex shader. Thus
+ * geometry memory is constant and only the compact per-instance data grows with the number of
+ * instances. The replicated geometry is only created when it is first drawn with
+ * pseudo-instancing, until then the source geometry arrays are kept.
+ * 
+ * Instanced drawing requires an {@link InstancedPhongShader}, which selects one of both modes. With
+ * any other shader (e.g. the depth shader of a shadow pass) the instances are drawn one by one with
+ * their transformation applied to the model matrix.
+ * 
+ * @author fabmax
+ * 
+ */
+public class InstancedMesh extends Node {
+
+    /** Number of instances drawn with one draw call, must match the instanced shader sources */
+    public static final int BATCH_SIZE = 24;
+
+    /** Number of floats per instance: a 3x4 affine transformation (row-major) and an RGBA color */
+    public static final int INSTANCE_SIZE = 16;
+
+    // geometry of a single instance
+    private final Mesh mMesh;
+    private final int mIndicesPerInstance;
+
+    // geometry replicated BATCH_SIZE times for pseudo-instancing, created on first use from the
+    // source geometry, which is dropped afterwards
+    private Mesh mBatchMesh = null;
+    private float[] mSrcPos;
+    private float[] mSrcNorms;
+    private float[] mSrcUvs;
+    private int[] mSrcIndcs;
+
+    // shader used to render the instances
+    private Shader mShader;
+
+    // per-instance data, layout matches the uniform array of the instanced shaders
+    private float[] mInstanceData = new float[INSTANCE_SIZE * 16];
+    private int mInstanceCount = 0;
+
+    // per-instance data VBO for hardware instancing, created on first use
+    private int mInstanceBuffer = 0;
+    private FloatBuffer mInstanceBufferData;
+    private boolean mInstanceBufferDirty = true;
+    private final ShaderAttributeBinder[] mInstanceBinders =
+            new ShaderAttributeBinder[InstancedPhongShader.INSTANCE_ATTRIBUTE_COUNT];
+
+    // temp buffers for matrix and bounds computations
+    private final float[] mTmpInstanceM = new float[16];
+    private final float[] mTmpModelM = new float[16];
+    private final float[] mTmpResultM = new float[16];
+    private final BoundingBox mTmpBounds = new BoundingBox(0, 0, 0);
+
+    /**
+     * Creates an InstancedMesh with the specified geometry. The geometry is stored in a GL vertex
+     * buffer object, hence an InstancedMesh can only be created with a valid GL context. The
+     * arrays are kept for pseudo-instancing and must not be modified afterwards.
+     * 
+     * @param pos
+     *            vertex positions (x, y, z)
+     * @param norms
+     *            vertex normals (x, y, z), can be null if normals are not needed
+     * @param uvs
+     *            vertex texture (u, v), coordinates, can be null if texture coordinates are not
+     *            needed
+     * @param indcs
+     *            vertex indices
+     */
+    public InstancedMesh(float[] pos, float[] norms, float[] uvs, int[] indcs) {
+        mMesh = MeshFactory.createStaticMesh(pos, norms, uvs, null, indcs);
+        mIndicesPerInstance = indcs.length;
+        mSrcPos = pos;
+        mSrcNorms = norms;
+        mSrcUvs = uvs;
+        mSrcIndcs = indcs;
+    }
+
+    /**
+     * Returns the shader used to render the instances.
+     * 
+     * @return the shader used to render the instances
+     */
+    public Shader getShader() {
+        return mShader;
+    }
+
+    /**
+     * Sets the shader used to render the instances. Instanced drawing is only used with an
+     * {@link InstancedPhongShader}.
+     * 
+     * @param shader
+     *            the shader used to render the instances
+     */
+    public void setShader(Shader shader) {
+        mShader = shader;
+    }
+
+    /**
+     * Returns the number of instances.
+     * 
+     * @return the number of instances
+     */
+    public int getInstanceCount() {
+        return mInstanceCount;
+    }
+
+    /**
+     * Adds an instance with the specified transformation and color.
+     * 
+     * @param transform
+     *            4x4 transformation matrix of the instance, only the affine part is used
+     * @param r
+     *            red color component (0 .. 1)
+     * @param g
+     *            green color component (0 .. 1)
+     * @param b
+     *            blue color component (0 .. 1)
+     * @param a
+     *            alpha color component (0 .. 1)
+     * @return the index of the added instance
+     */
+    public int addInstance(float[] transform, float r, float g, float b, float a) {
+        if ((mInstanceCount + 1) * INSTANCE_SIZE > mInstanceData.length) {
+            float[] data = new float[mInstanceData.length * 2];
+            System.arraycopy(mInstanceData, 0, data, 0, mInstanceData.length);
+            mInstanceData = data;
+        }
+        int idx = mInstanceCount++;
+        setInstanceTransform(idx, transform);
+        setInstanceColor(idx, r, g, b, a);
+        return idx;
+    }
+
+    /**
+     * Removes all instances.
+     */
+    public void clearInstances() {
+        mInstanceCount = 0;
+        mInstanceBufferDirty = true;
+        invalidateBounds();
+    }
+
+    /**
+     * Sets the transformation of the specified instance.
+     * 
+     * @param idx
+     *            index of the instance
+     * @param transform
+     *            4x4 transformation matrix of the instance, only the affine part is used
+     */
+    public void setInstanceTransform(int idx, float[] transform) {
+        checkIndex(idx);
+        int off = idx * INSTANCE_SIZE;
+        // store the first 3 rows of the column-major matrix
+        for (int row = 0; row < 3; row++) {
+            mInstanceData[off++] = transform[row];
+            mInstanceData[off++] = transform[4 + row];
+            mInstanceData[off++] = transform[8 + row];
+            mInstanceData[off++] = transform[12 + row];
+        }
+        mInstanceBufferDirty = true;
+        invalidateBounds();
+    }
+
+    /**
+     * Sets the color of the specified instance.
+     * 
+     * @param idx
+     *            index of the instance
+     * @param r
+     *            red color component (0 .. 1)
+     * @param g
+     *            green color component (0 .. 1)
+     * @param b
+     *            blue color component (0 .. 1)
+     * @param a
+     *            alpha color component (0 .. 1)
+     */
+    public void setInstanceColor(int idx, float r, float g, float b, float a) {
+        checkIndex(idx);
+        int off = idx * INSTANCE_SIZE + 12;
+        mInstanceData[off] = r;
+        mInstanceData[off + 1] = g;
+        mInstanceData[off + 2] = b;
+        mInstanceData[off + 3] = a;
+        mInstanceBufferDirty = true;
+    }
+
+    /**
+     * Returns the per-instance data array. Each instance occupies {@link InstancedMesh#INSTANCE_SIZE}
+     * floats: 3 rows of the affine transformation followed by the RGBA color. The array must not be
+     * modified directly.
+     * 
+     * @return the per-instance data array
+     */
+    public float[] getInstanceData() {
+        return mInstanceData;
+    }
+
+    /**
+     * Computes the bounds of this mesh, which is the union of the geometry bounds transformed by
+     * all instance transformations.
+     * 
+     * @see Node#computeBounds(BoundingBox)
+     */
+    @Override
+    protected boolean computeBounds(BoundingBox result) {
+        BoundingBox meshBounds = mMesh.getMeshBounds();
+        if (meshBounds == null || mInstanceCount == 0) {
+            return false;
+        }
+        for (int i = 0; i < mInstanceCount; i++) {
+            getInstanceMatrix(i, mTmpInstanceM);
+            mTmpBounds.set(meshBounds);
+            mTmpBounds.transform(mTmpInstanceM);
+            if (i == 0) {
+                result.set(mTmpBounds);
+            } else {
+                result.add(mTmpBounds);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds this mesh to the specified {@link RenderQueue}. All instances are queued as a whole.
+     * 
+     * @see Node#collect(GfxState, RenderQueue)
+     */
+    @Override
+    public void collect(GfxState state, RenderQueue queue) {
+        queue.add(this, mShader, 0, state);
+    }
+
+    /**
+     * Draws all instances of this mesh.
+     * 
+     * @see Node#render(GfxState)
+     */
+    @Override
+    public void render(GfxState state) {
+        if (mInstanceCount == 0) {
+            return;
+        }
+        state.bindShader(mShader);
+
+        // the active shader is not necessarily mShader
+        Shader shader = state.getBoundShader();
+        if (shader instanceof InstancedPhongShader &&
+                ((InstancedPhongShader) shader).isHardwareInstancing()) {
+            // hardware instancing: draw all instances with one draw call
+            drawInstanced(state, (InstancedPhongShader) shader);
+        } else if (shader instanceof InstancedPhongShader) {
+            // pseudo-instancing: draw BATCH_SIZE instances with one draw call
+            InstancedPhongShader instShader = (InstancedPhongShader) shader;
+            Mesh batchMesh = getBatchMesh(state);
+            for (int first = 0; first < mInstanceCount; first += BATCH_SIZE) {
+                int count = Math.min(BATCH_SIZE, mInstanceCount - first);
+                instShader.setInstanceData(mInstanceData, first, count);
+                batchMesh.drawElements(state, count * mIndicesPerInstance);
+            }
+        } else {
+            // fallback: draw instances one by one with their transformation in the model matrix
+            state.pushModelMatrix();
+            System.arraycopy(state.getModelMatrix(), 0, mTmpModelM, 0, 16);
+            for (int i = 0; i < mInstanceCount; i++) {
+                getInstanceMatrix(i, mTmpInstanceM);
+                Matrix.multiplyMM(mTmpResultM, 0, mTmpModelM, 0, mTmpInstanceM, 0);
+                state.setModelMatrix(mTmpResultM);
+                mMesh.drawElements(state, mIndicesPerInstance);
+            }
+            state.popModelMatrix();
+        }
+    }
+
+    /**
+     * Draws all instances with a single instanced draw call. The per-instance data is passed as
+     * per-instance vertex attributes from the instance data VBO.
+     */
+    private void drawInstanced(GfxState state, InstancedPhongShader shader) {
+        VertexAttributeState attribState = state.getVertexAttributeState();
+        if (mInstanceBufferDirty) {
+            uploadInstanceData(attribState);
+        }
+        // bind the mesh first, so that the instance attributes are added to its vertex array
+        // object if vertex array objects are used
+        shader.bindMesh(mMesh);
+        for (int i = 0; i < mInstanceBinders.length; i++) {
+            int location = shader.getInstanceAttributeLocation(i);
+            if (location >= 0) {
+                attribState.bindAttribute(location, mInstanceBinders[i]);
+                Gles30.glVertexAttribDivisor(location, 1);
+            }
+        }
+
+        mMesh.drawElementsInstanced(state, mIndicesPerInstance, mInstanceCount);
+
+        // attribute divisors are not tracked by VertexAttributeState, reset them for other meshes
+        for (int i = 0; i < mInstanceBinders.length; i++) {
+            int location = shader.getInstanceAttributeLocation(i);
+            if (location >= 0) {
+                Gles30.glVertexAttribDivisor(location, 0);
+            }
+        }
+    }
+
+    /**
+     * Uploads the per-instance data to the instance data VBO. The VBO is created on first use.
+     */
+    private void uploadInstanceData(VertexAttributeState attribState) {
+        if (mInstanceBuffer == 0) {
+            int[] buf = new int[1];
+            glGenBuffers(1, buf, 0);
+            mInstanceBuffer = buf[0];
+            for (int i = 0; i < mInstanceBinders.length; i++) {
+                // each attribute is one vec4 of the instance data
+                mInstanceBinders[i] = ShaderAttributeBinder.createVboBufferBinder(mInstanceBuffer,
+                        4, INSTANCE_SIZE * 4);
+                mInstanceBinders[i].setOffset(i * 4);
+            }
+        }
+        int floats = mInstanceCount * INSTANCE_SIZE;
+        if (mInstanceBufferData == null || mInstanceBufferData.capacity() < floats) {
+            mInstanceBufferData = BufferHelper.createFloatBuffer(mInstanceData.length);
+        }
+        mInstanceBufferData.clear();
+        mInstanceBufferData.put(mInstanceData, 0, floats);
+        mInstanceBufferData.rewind();
+        attribState.bindArrayBuffer(mInstanceBuffer);
+        glBufferData(GL_ARRAY_BUFFER, floats * 4, mInstanceBufferData, GL_DYNAMIC_DRAW);
+        mInstanceBufferDirty = false;
+    }
+
+    /**
+     * Returns the geometry replicated {@link #BATCH_SIZE} times, which is needed for
+     * pseudo-instancing. The mesh is created on first use.
+     */
+    private Mesh getBatchMesh(GfxState state) {
+        if (mBatchMesh != null) {
+            return mBatchMesh;
+        }
+        float[] pos = mSrcPos;
+        float[] norms = mSrcNorms;
+        float[] uvs = mSrcUvs;
+        int[] indcs = mSrcIndcs;
+        int vertCnt = pos.length / 3;
+
+        // replicate geometry for one batch of instances
+        float[] batchPos = new float[pos.length * BATCH_SIZE];
+        float[] batchNorms = norms != null ? new float[norms.length * BATCH_SIZE] : null;
+        float[] batchUvs = uvs != null ? new float[uvs.length * BATCH_SIZE] : null;
+        int[] batchIndcs = new int[indcs.length * BATCH_SIZE];
+        FloatBuffer instanceIds = BufferHelper.createFloatBuffer(vertCnt * BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            System.arraycopy(pos, 0, batchPos, i * pos.length, pos.length);
+            if (norms != null) {
+                System.arraycopy(norms, 0, batchNorms, i * norms.length, norms.length);
+            }
+            if (uvs != null) {
+                System.arraycopy(uvs, 0, batchUvs, i * uvs.length, uvs.length);
+            }
+            for (int j = 0; j < indcs.length; j++) {
+                batchIndcs[i * indcs.length + j] = indcs[j] + i * vertCnt;
+            }
+            for (int j = 0; j < vertCnt; j++) {
+                instanceIds.put(i);
+            }
+        }
+        instanceIds.rewind();
+        mBatchMesh = MeshFactory.createStaticMesh(batchPos, batchNorms, batchUvs, null, batchIndcs);
+
+        // put instance IDs in a separate VBO
+        int[] buf = new int[1];
+        glGenBuffers(1, buf, 0);
+        glBindBuffer(GL_ARRAY_BUFFER, buf[0]);
+        glBufferData(GL_ARRAY_BUFFER, instanceIds.capacity() * 4, instanceIds, GL_STATIC_DRAW);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        mBatchMesh.setVertexInstanceIdBinder(
+                ShaderAttributeBinder.createVboBufferBinder(buf[0], 1, 4));
+        // buffers were bound without the vertex attribute state
+        state.getVertexAttributeState().invalidateBufferBindings();
+
+        // source geometry is not needed anymore
+        mSrcPos = null;
+        mSrcNorms = null;
+        mSrcUvs = null;
+        mSrcIndcs = null;
+        return mBatchMesh;
+    }
+
+    /**
+     * Expands the stored affine transformation of the specified instance to a column-major 4x4
+     * matrix.
+     */
+    private void getInstanceMatrix(int idx, float[] result) {
+        int off = idx * INSTANCE_SIZE;
+        for (int row = 0; row < 3; row++) {
+            result[row] = mInstanceData[off++];
+            result[4 + row] = mInstanceData[off++];
+            result[8 + row] = mInstanceData[off++];
+            result[12 + row] = mInstanceData[off++];
+        }
+        result[3] = 0;
+        result[7] = 0;
+        result[11] = 0;
+        result[15] = 1;
+    }
+
+    /**
+     * Throws an IndexOutOfBoundsException if the specified instance index is invalid.
+     */
+    private void checkIndex(int idx) {
+        if (idx < 0 || idx >= mInstanceCount) {
+            throw new IndexOutOfBoundsException("Invalid instance index: " + idx);
+        }
+    }
+}
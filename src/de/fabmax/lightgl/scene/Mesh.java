@@ -5,10 +5,10 @@ import static android.opengl.GLES20.GL_STATIC_DRAW;
 import static android.opengl.GLES20.GL_TRIANGLES;
 import static android.opengl.GLES20.GL_UNSIGNED_INT;
 import static android.opengl.GLES20.GL_UNSIGNED_SHORT;
-import static android.opengl.GLES20.glBindBuffer;
-import static android.opengl.GLES20.glBufferData;
-import static android.opengl.GLES20.glDrawElements;
-import static android.opengl.GLES20.glGenBuffers;
+import static de.fabmax.lightgl.Gl.glBindBuffer;
+import static de.fabmax.lightgl.Gl.glBufferData;
+import static de.fabmax.lightgl.Gl.glDrawElements;
+import static de.fabmax.lightgl.Gl.glGenBuffers;
 
 import java.nio.Buffer;
 import java.nio.IntBuffer;
@@ -16,9 +16,13 @@ import java.nio.ShortBuffer;
 
 import android.util.Log;
 
+import de.fabmax.lightgl.BoundingBox;
 import de.fabmax.lightgl.GfxState;
+import de.fabmax.lightgl.Gles30;
+import de.fabmax.lightgl.RenderQueue;
 import de.fabmax.lightgl.Shader;
 import de.fabmax.lightgl.ShaderAttributeBinder;
+import de.fabmax.lightgl.VertexLayout;
 import de.fabmax.lightgl.util.MeshFactory;
 
 /**
@@ -37,6 +41,10 @@ public class Mesh extends Node {
     private ShaderAttributeBinder mNormalBinder;
     private ShaderAttributeBinder mTexCoordBinder;
     private ShaderAttributeBinder mColorBinder;
+    private ShaderAttributeBinder mInstanceIdBinder;
+
+    // cached vertex layouts for the shaders this mesh was drawn with
+    private VertexLayout[] mLayouts = new VertexLayout[2];
 
     // index buffer
     private int mIndexBufferHandle;
@@ -46,6 +54,12 @@ public class Mesh extends Node {
     // mesh material
     private Shader mMeshShader;
 
+    // render layer used to sort this mesh in the RenderQueue
+    private int mRenderLayer = 0;
+
+    // bounds of the vertex positions, null if unknown
+    private BoundingBox mMeshBounds;
+
     /**
      * Constructs a Mesh with the specified indices and attribute binders. A Mesh can only be
      * created with a valid GL context.
@@ -126,6 +140,62 @@ public class Mesh extends Node {
         this.mMeshShader = shader;
     }
 
+    /**
+     * Returns the render layer of this mesh.
+     * 
+     * @return the render layer of this mesh
+     */
+    public int getRenderLayer() {
+        return mRenderLayer;
+    }
+
+    /**
+     * Sets the render layer of this mesh. The render layer is the most significant sort criterion
+     * of the {@link RenderQueue}: All meshes of a lower layer are drawn before any mesh of a higher
+     * layer. This can be used to draw transparent meshes after opaque ones. Layers containing
+     * transparent meshes should be marked with
+     * {@link RenderQueue#setLayerTransparent(int, boolean)}, so that they are drawn back to front.
+     * Default is 0.
+     * 
+     * @param layer
+     *            the render layer, must be in the range 0 .. 127
+     */
+    public void setRenderLayer(int layer) {
+        if (layer < 0 || layer > 127) {
+            throw new IllegalArgumentException("Render layer must be in range 0 .. 127");
+        }
+        mRenderLayer = layer;
+    }
+
+    /**
+     * Returns the bounds of the vertex positions of this mesh.
+     * 
+     * @return the bounds of this mesh or null if they are not set
+     */
+    public BoundingBox getMeshBounds() {
+        return mMeshBounds;
+    }
+
+    /**
+     * Sets the bounds of the vertex positions of this mesh. The bounds are used for view frustum
+     * culling, a mesh without bounds is never culled. If the vertex positions are modified later
+     * on the bounds must include all possible positions or have to be updated.
+     * 
+     * @param bounds
+     *            the bounds of the vertex positions, can be null
+     */
+    public void setMeshBounds(BoundingBox bounds) {
+        if (bounds == null) {
+            mMeshBounds = null;
+        } else if (mMeshBounds == null) {
+            mMeshBounds = new BoundingBox(bounds.getMinX(), bounds.getMaxX(), bounds.getMinY(),
+                    bounds.getMaxY(), bounds.getMinZ(), bounds.getMaxZ());
+        } else {
+            mMeshBounds.set(bounds);
+        }
+        invalidateBounds();
+    }
+
     /**
      * Returns the binder for vertex positions.
      * 
@@ -143,6 +213,7 @@ public class Mesh extends Node {
      */
     public void setVertexPositionBinder(ShaderAttributeBinder positionBinder) {
         mPositionBinder = positionBinder;
+        clearVertexLayouts();
     }
 
     /**
@@ -162,6 +233,7 @@ public class Mesh extends Node {
      */
     public void setVertexNormalBinder(ShaderAttributeBinder normalBinder) {
         mNormalBinder = normalBinder;
+        clearVertexLayouts();
     }
 
     /**
@@ -181,6 +253,7 @@ public class Mesh extends Node {
      */
     public void setVertexTexCoordBinder(ShaderAttributeBinder texCoordBinder) {
         mTexCoordBinder = texCoordBinder;
+        clearVertexLayouts();
     }
 
     /**
@@ -200,29 +273,169 @@ public class Mesh extends Node {
      */
     public void setVertexColorBinder(ShaderAttributeBinder colorBinder) {
         mColorBinder = colorBinder;
+        clearVertexLayouts();
     }
 
     /**
-     * Draws this mesh.
+     * Returns the binder for vertex instance IDs.
      * 
-     * @see Node#render(GfxState)
+     * @see InstancedMesh
+     * 
+     * @return the binder for vertex instance IDs
      */
-    @Override
-    public void render(GfxState state) {
-        // bind shader for this mesh
-        state.bindShader(mMeshShader);
+    public ShaderAttributeBinder getVertexInstanceIdBinder() {
+        return mInstanceIdBinder;
+    }
 
-        // setup shader for mesh rendering, the active shader is not necessarily mMeshShader
+    /**
+     * Sets the binder for vertex instance IDs. Instance IDs are only needed for meshes whose
+     * geometry is replicated for pseudo-instancing.
+     * 
+     * @see InstancedMesh
+     * 
+     * @param instanceIdBinder
+     *            the binder for vertex instance IDs
+     */
+    public void setVertexInstanceIdBinder(ShaderAttributeBinder instanceIdBinder) {
+        mInstanceIdBinder = instanceIdBinder;
+        clearVertexLayouts();
+    }
+
+    /**
+     * Returns the number of vertex indices of this mesh.
+     * 
+     * @return the number of vertex indices
+     */
+    public int getIndexCount() {
+        return mIndexBufferSize;
+    }
+
+    /**
+     * Returns the {@link VertexLayout} of this mesh for the specified shader. Layouts are created
+     * once per shader and cached.
+     * 
+     * @param shader
+     *            the shader this mesh is drawn with
+     * @return the vertex layout for the specified shader
+     */
+    public VertexLayout getVertexLayout(Shader shader) {
+        int i = 0;
+        for (; i < mLayouts.length && mLayouts[i] != null; i++) {
+            if (mLayouts[i].getShader() == shader) {
+                if (!mLayouts[i].isValid()) {
+                    mLayouts[i].release();
+                    mLayouts[i] = new VertexLayout(shader, this);
+                }
+                return mLayouts[i];
+            }
+        }
+        if (i == mLayouts.length) {
+            VertexLayout[] layouts = new VertexLayout[mLayouts.length * 2];
+            System.arraycopy(mLayouts, 0, layouts, 0, mLayouts.length);
+            mLayouts = layouts;
+        }
+        mLayouts[i] = new VertexLayout(shader, this);
+        return mLayouts[i];
+    }
+
+    /**
+     * Drops all cached vertex layouts and deletes their vertex array objects. Is called if a
+     * binder is replaced.
+     */
+    private void clearVertexLayouts() {
+        for (int i = 0; i < mLayouts.length; i++) {
+            if (mLayouts[i] != null) {
+                mLayouts[i].release();
+                mLayouts[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Draws the first indexCount vertex indices of this mesh with the currently bound shader. The
+     * shader is not changed by this method.
+     * 
+     * @param state
+     *            the current graphics engine state
+     * @param indexCount
+     *            number of vertex indices to draw
+     */
+    public void drawElements(GfxState state, int indexCount) {
         Shader shader = state.getBoundShader();
         if (shader != null) {
             // bind this mesh as input to the used shader
             shader.bindMesh(this);
             // draw triangles
-            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, mIndexBufferHandle);
-            glDrawElements(GL_TRIANGLES, mIndexBufferSize, mIndexBufferType, 0);
+            state.getVertexAttributeState().bindElementArrayBuffer(mIndexBufferHandle);
+            glDrawElements(GL_TRIANGLES, indexCount, mIndexBufferType, 0);
         } else {
             Log.w(TAG, "Failed rendering mesh: null material");
         }
     }
 
+    /**
+     * Draws the first indexCount vertex indices of this mesh instanceCount times with a single
+     * instanced draw call and the currently bound shader. Per-instance attributes must be bound
+     * before. Must only be called if {@link Gles30#isInstancingSupported()} returns true.
+     * 
+     * @param state
+     *            the current graphics engine state
+     * @param indexCount
+     *            number of vertex indices to draw per instance
+     * @param instanceCount
+     *            number of instances to draw
+     */
+    public void drawElementsInstanced(GfxState state, int indexCount, int instanceCount) {
+        Shader shader = state.getBoundShader();
+        if (shader != null) {
+            // bind this mesh as input to the used shader
+            shader.bindMesh(this);
+            // draw triangles
+            state.getVertexAttributeState().bindElementArrayBuffer(mIndexBufferHandle);
+            Gles30.glDrawElementsInstanced(GL_TRIANGLES, indexCount, mIndexBufferType, 0,
+                    instanceCount);
+        } else {
+            Log.w(TAG, "Failed rendering mesh: null material");
+        }
+    }
+
+    /**
+     * Computes the bounds of this mesh, which are simply the mesh bounds.
+     * 
+     * @see Node#computeBounds(BoundingBox)
+     */
+    @Override
+    protected boolean computeBounds(BoundingBox result) {
+        if (mMeshBounds != null) {
+            result.set(mMeshBounds);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds this mesh to the specified {@link RenderQueue}. The mesh is sorted by its render
+     * layer, shader, texture and camera distance.
+     * 
+     * @see Node#collect(GfxState, RenderQueue)
+     */
+    @Override
+    public void collect(GfxState state, RenderQueue queue) {
+        queue.add(this, mMeshShader, mRenderLayer, state);
+    }
+
+    /**
+     * Draws this mesh.
+     * 
+     * @see Node#render(GfxState)
+     */
+    @Override
+    public void render(GfxState state) {
+        // bind shader for this mesh
+        state.bindShader(mMeshShader);
+
+        // draw the whole mesh, the active shader is not necessarily mMeshShader
+        drawElements(state, mIndexBufferSize);
+    }
+
 }
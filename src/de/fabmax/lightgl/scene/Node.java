@@ -1,6 +1,8 @@
 package de.fabmax.lightgl.scene;
 
+import de.fabmax.lightgl.BoundingBox;
 import de.fabmax.lightgl.GfxState;
+import de.fabmax.lightgl.RenderQueue;
 
 /**
  * A scene node. This is the base class for all scene objects.
@@ -10,6 +12,14 @@ import de.fabmax.lightgl.GfxState;
  */
 public abstract class Node {
 
+    // parent group, null if this node is not part of a group
+    private Group mParent;
+
+    // node bounds, computed lazily by computeBounds()
+    private final BoundingBox mBounds = new BoundingBox(0, 0, 0);
+    private boolean mBoundsValid = false;
+    private boolean mBoundsDirty = true;
+
     /**
      * Renders this node using the specified graphics engine state.
      * 
@@ -18,4 +28,108 @@ public abstract class Node {
      */
     public abstract void render(GfxState state);
 
+    /**
+     * Adds this node to the specified {@link RenderQueue} instead of rendering it directly. The
+     * default implementation queues the whole node, it is rendered with the model matrix that is
+     * current when this method is called. Implementations that contain multiple meshes should
+     * collect them separately.
+     * 
+     * @param state
+     *            the current graphics engine state
+     * @param queue
+     *            the RenderQueue to add this node to
+     */
+    public void collect(GfxState state, RenderQueue queue) {
+        queue.add(this, null, 0, state);
+    }
+
+    /**
+     * Returns the {@link Group} this node was added to or null if this node has no parent.
+     * 
+     * @return the parent group of this node
+     */
+    public Group getParent() {
+        return mParent;
+    }
+
+    /**
+     * Sets the parent group of this node. Is called by {@link Group} if this node is added to or
+     * removed from a group.
+     * 
+     * @param parent
+     *            the new parent group, can be null
+     */
+    void setParent(Group parent) {
+        mParent = parent;
+    }
+
+    /**
+     * Returns the bounds of this node. The bounds are given in the coordinate frame of the parent
+     * node, i.e. they include the transformation of this node (if any) but not the transformation
+     * of any parent. For the scene root this means the returned bounds are in world space. The
+     * bounds are updated lazily after they were invalidated by a transform or geometry change.
+     * 
+     * @return the bounds of this node or null if this node is unbounded
+     */
+    public BoundingBox getBounds() {
+        if (mBoundsDirty) {
+            mBoundsValid = computeBounds(mBounds);
+            mBoundsDirty = false;
+        }
+        return mBoundsValid ? mBounds : null;
+    }
+
+    /**
+     * Marks the bounds of this node and of all its parents as invalid. The bounds are recomputed
+     * on the next call of {@link Node#getBounds()}. Must be called by implementations if anything
+     * changed that affects the node bounds.
+     */
+    public void invalidateBounds() {
+        // if a node is already dirty all its parents are dirty as well
+        Node node = this;
+        while (node != null && !node.mBoundsDirty) {
+            node.mBoundsDirty = true;
+            node = node.mParent;
+        }
+    }
+
+    /**
+     * Marks cached world transformations of this node and all its children as invalid. Is called
+     * by {@link TransformGroup} if its transformation changed. The default implementation does
+     * nothing.
+     */
+    void invalidateWorldTransform() {
+        // nothing to do for plain nodes
+    }
+
+    /**
+     * Computes the bounds of this node in the coordinate frame of the parent node. The default
+     * implementation returns false, i.e. the node is unbounded and therefore never culled.
+     * 
+     * @param result
+     *            BoundingBox to store the computed bounds in
+     * @return true if the node has valid bounds, false if it is unbounded
+     */
+    protected boolean computeBounds(BoundingBox result) {
+        return false;
+    }
+
+    /**
+     * Tests whether this node is at least partly inside the current view frustum. Nodes without
+     * bounds are always considered visible, as are all nodes if frustum culling is disabled.
+     * 
+     * @see GfxState#setFrustumCulling(boolean)
+     * 
+     * @param state
+     *            the current graphics engine state
+     * @return true if this node needs to be rendered, false if it can be culled
+     */
+    public boolean isVisible(GfxState state) {
+        if (!state.isFrustumCulling()) {
+            return true;
+        }
+        BoundingBox bounds = getBounds();
+        return bounds == null || state.getViewFrustum().intersects(bounds);
+    }
+
 }
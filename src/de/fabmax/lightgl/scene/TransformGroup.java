@@ -2,10 +2,15 @@ package de.fabmax.lightgl.scene;
 
 import android.opengl.Matrix;
 
+import de.fabmax.lightgl.BoundingBox;
 import de.fabmax.lightgl.GfxState;
+import de.fabmax.lightgl.RenderQueue;
+import de.fabmax.lightgl.util.GlMath;
 
 /**
- * A TransformGroup is a {@link Group} that applies a transformation to its children.
+ * A TransformGroup is a {@link Group} that applies a transformation to its children. The world
+ * transformation, i.e. the parent model matrix multiplied with the transformation of this group, is
+ * cached and only recomputed if the transformation of this group or of any parent group changed.
  * 
  * @author fabmax
  * 
@@ -15,6 +20,11 @@ public class TransformGroup extends Group {
     // transformation matrix
     private float[] mTransformationM = new float[16];
 
+    // cached world transformation and the parent model matrix it was computed with
+    private final float[] mWorldM = new float[16];
+    private final float[] mParentM = new float[16];
+    private boolean mWorldDirty = true;
+
     // temp matrices needed for matrix computations
     private float[] mTemp1 = new float[16];
 
@@ -26,7 +36,8 @@ public class TransformGroup extends Group {
     }
 
     /**
-     * Returns the transformation matrix of this group.
+     * Returns the transformation matrix of this group. If the returned matrix is modified
+     * directly, {@link TransformGroup#invalidateTransform()} must be called afterwards.
      * 
      * @return the transformation matrix of this group
      */
@@ -42,6 +53,7 @@ public class TransformGroup extends Group {
      */
     public void setTransformation(float[] transformation) {
         System.arraycopy(transformation, 0, mTransformationM, 0, 16);
+        invalidateTransform();
     }
 
     /**
@@ -53,6 +65,7 @@ public class TransformGroup extends Group {
     public void applyTransformation(float[] transformation) {
         System.arraycopy(mTransformationM, 0, mTemp1, 0, 16);
         Matrix.multiplyMM(mTransformationM, 0, mTemp1, 0, transformation, 0);
+        invalidateTransform();
     }
     
     /**
@@ -60,6 +73,7 @@ public class TransformGroup extends Group {
      */
     public void resetTransform() {
         Matrix.setIdentityM(mTransformationM, 0);
+        invalidateTransform();
     }
 
     /**
@@ -77,6 +91,7 @@ public class TransformGroup extends Group {
     public void rotate(float angle, float x, float y, float z) {
         System.arraycopy(mTransformationM, 0, mTemp1, 0, 16);
         Matrix.rotateM(mTransformationM, 0, mTemp1, 0, angle, x, y, z);
+        invalidateTransform();
     }
 
     /**
@@ -92,6 +107,7 @@ public class TransformGroup extends Group {
     public void translate(float x, float y, float z) {
         System.arraycopy(mTransformationM, 0, mTemp1, 0, 16);
         Matrix.translateM(mTransformationM, 0, mTemp1, 0, x, y, z);
+        invalidateTransform();
     }
 
     /**
@@ -107,6 +123,46 @@ public class TransformGroup extends Group {
     public void scale(float sX, float sY, float sZ) {
         System.arraycopy(mTransformationM, 0, mTemp1, 0, 16);
         Matrix.scaleM(mTransformationM, 0, mTemp1, 0, sX, sY, sZ);
+        invalidateTransform();
+    }
+
+    /**
+     * Marks the cached world transformation of this group and of all child groups as invalid and
+     * invalidates the bounds of this group. Must be called after the matrix returned by
+     * {@link TransformGroup#getTransformation()} was modified directly.
+     */
+    public void invalidateTransform() {
+        invalidateWorldTransform();
+        invalidateBounds();
+    }
+
+    /**
+     * Marks the cached world transformation of this group and of all children as invalid.
+     * 
+     * @see Node#invalidateWorldTransform()
+     */
+    @Override
+    void invalidateWorldTransform() {
+        // if this group is already dirty all child groups are dirty as well
+        if (!mWorldDirty) {
+            mWorldDirty = true;
+            super.invalidateWorldTransform();
+        }
+    }
+
+    /**
+     * Computes the bounds of all children and transforms them with the transformation of this
+     * group.
+     * 
+     * @see Group#computeBounds(BoundingBox)
+     */
+    @Override
+    protected boolean computeBounds(BoundingBox result) {
+        if (super.computeBounds(result)) {
+            result.transform(mTransformationM);
+            return true;
+        }
+        return false;
     }
 
     /**
@@ -114,12 +170,8 @@ public class TransformGroup extends Group {
      */
     @Override
     public void render(GfxState state) {
-        // push current model matrix
-        state.pushModelMatrix();
-        
-        // apply transformation
-        Matrix.multiplyMM(mTemp1, 0, state.getModelMatrix(), 0, mTransformationM, 0);
-        state.setModelMatrix(mTemp1);
+        // push current model matrix and apply transformation
+        pushTransform(state);
         
         // render children
         super.render(state);
@@ -128,4 +180,35 @@ public class TransformGroup extends Group {
         state.popModelMatrix();
     }
 
+    /**
+     * @see Group#collect(GfxState, RenderQueue)
+     */
+    @Override
+    public void collect(GfxState state, RenderQueue queue) {
+        // push current model matrix and apply transformation
+        pushTransform(state);
+
+        // collect children, they are queued with the transformed model matrix
+        super.collect(state, queue);
+
+        // restore previous model matrix
+        state.popModelMatrix();
+    }
+
+    /**
+     * Pushes the current model matrix and sets the world transformation of this group as new
+     * model matrix. The world transformation is only recomputed if it was invalidated or if the
+     * parent model matrix changed, e.g. because the scene is rendered with another root matrix.
+     */
+    private void pushTransform(GfxState state) {
+        float[] parentM = state.getModelMatrix();
+        if (mWorldDirty || !GlMath.equalMatrices(parentM, mParentM)) {
+            System.arraycopy(parentM, 0, mParentM, 0, 16);
+            Matrix.multiplyMM(mWorldM, 0, parentM, 0, mTransformationM, 0);
+            mWorldDirty = false;
+        }
+        state.pushModelMatrix();
+        state.setModelMatrix(mWorldM);
+    }
+
 }
@@ -0,0 +1,287 @@
+package de.fabmax.lightgl.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+
+import de.fabmax.lightgl.BoundingBox;
+import de.fabmax.lightgl.GlException;
+import de.fabmax.lightgl.scene.Mesh;
+
+/**
+ * Reads and writes meshes in a compact binary format. Loading a binary mesh does not need any
+ * parsing: The file is memory-mapped and the vertex and index data are uploaded directly from the
+ * mapped file. Binary meshes are created from OBJ files with {@link MeshConverter} or by
+ * {@link ObjLoader#loadObj(Context, String, File)}.
+ *
+ * All values are stored in little-endian byte order. The file consists of a 48 byte header
+ * followed by the vertex and the index data:
+ *
+ * <pre>
+ * offset  type       content
+ *      0  int        magic number, the ASCII characters "LGLM"
+ *      4  int        format version
+ *      8  int        flags: 1 = normals, 2 = texture coordinates, 4 = colors, 8 = int indices
+ *     12  int        vertex count
+ *     16  int        index count
+ *     20  float[6]   bounds: min x, max x, min y, max y, min z, max z
+ *     44  int        reserved, 0
+ *     48  float[]    interleaved vertex data as created by
+ *                    {@link MeshFactory#createInterleavedVertexData(float[], float[], float[], float[])}
+ *      -  short[] or int[] vertex indices
+ * </pre>
+ *
+ * Binary meshes stored in the assets directory can only be memory-mapped if they are stored
+ * uncompressed in the APK, otherwise they are read into memory first.
+ *
+ * @author fabmax
+ *
+ */
+public class BinaryMeshFile {
+
+    /** Magic number at the beginning of each binary mesh file, "LGLM" in little-endian order */
+    public static final int MAGIC = 0x4D4C474C;
+    /** Current format version */
+    public static final int VERSION = 1;
+    /** File extension used for binary mesh files */
+    public static final String FILE_EXTENSION = ".lglm";
+
+    private static final int HEADER_SIZE = 48;
+
+    private static final int FLAG_NORMALS = 1;
+    private static final int FLAG_TEX_COORDS = 2;
+    private static final int FLAG_COLORS = 4;
+    private static final int FLAG_INT_INDICES = 8;
+
+    /**
+     * Writes the specified mesh data to the specified file.
+     *
+     * @param data
+     *            mesh data to write
+     * @param file
+     *            destination file
+     * @throws IOException
+     *             if the file could not be written
+     */
+    public static void write(MeshData data, File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            write(data, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the specified mesh data to the specified stream. The stream is not closed.
+     *
+     * @param data
+     *            mesh data to write
+     * @param out
+     *            destination stream
+     * @throws IOException
+     *             if the data could not be written
+     */
+    public static void write(MeshData data, OutputStream out) throws IOException {
+        FloatBuffer vertData = MeshFactory.createInterleavedVertexData(data.getPositions(),
+                data.getNormals(), data.getTexCoords(), data.getColors());
+        Buffer indexBuffer = MeshFactory.createIndexBuffer(data.getIndices(), data.getVertexCount());
+        boolean intIndices = indexBuffer instanceof IntBuffer;
+
+        int flags = 0;
+        flags |= data.getNormals() != null ? FLAG_NORMALS : 0;
+        flags |= data.getTexCoords() != null ? FLAG_TEX_COORDS : 0;
+        flags |= data.getColors() != null ? FLAG_COLORS : 0;
+        flags |= intIndices ? FLAG_INT_INDICES : 0;
+
+        int indexBytes = indexBuffer.capacity() * (intIndices ? 4 : 2);
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + vertData.capacity() * 4 + indexBytes);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+
+        // header
+        buf.putInt(MAGIC);
+        buf.putInt(VERSION);
+        buf.putInt(flags);
+        buf.putInt(data.getVertexCount());
+        buf.putInt(indexBuffer.capacity());
+        BoundingBox bounds = data.getBounds();
+        if (bounds != null) {
+            buf.putFloat(bounds.getMinX()).putFloat(bounds.getMaxX());
+            buf.putFloat(bounds.getMinY()).putFloat(bounds.getMaxY());
+            buf.putFloat(bounds.getMinZ()).putFloat(bounds.getMaxZ());
+        } else {
+            for (int i = 0; i < 6; i++) {
+                buf.putFloat(0);
+            }
+        }
+        buf.putInt(0);
+
+        // vertex and index data
+        buf.asFloatBuffer().put(vertData);
+        buf.position(buf.position() + vertData.capacity() * 4);
+        if (intIndices) {
+            buf.asIntBuffer().put((IntBuffer) indexBuffer);
+        } else {
+            buf.asShortBuffer().put((ShortBuffer) indexBuffer);
+        }
+        out.write(buf.array());
+    }
+
+    /**
+     * Loads a binary mesh from the specified file. The file is memory-mapped and uploaded directly
+     * from the mapped memory.
+     *
+     * @param file
+     *            the binary mesh file
+     * @return the loaded {@link Mesh}
+     * @throws GlException
+     *             if the file could not be read or is not a valid binary mesh
+     */
+    public static Mesh load(File file) throws GlException {
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                return load(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            throw new GlException("Failed reading binary mesh: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Loads a binary mesh from the assets directory. If the asset is stored uncompressed it is
+     * memory-mapped, otherwise it is read into memory.
+     *
+     * @param context
+     *            application context, needed to access the assets directory
+     * @param file
+     *            file name of the binary mesh
+     * @return the loaded {@link Mesh}
+     * @throws GlException
+     *             if the file could not be read or is not a valid binary mesh
+     */
+    public static Mesh load(Context context, String file) throws GlException {
+        ByteBuffer data = null;
+        try {
+            // openFd() only works for uncompressed assets
+            AssetFileDescriptor fd = context.getAssets().openFd(file);
+            try {
+                FileInputStream in = fd.createInputStream();
+                try {
+                    data = in.getChannel().map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(),
+                            fd.getLength());
+                } finally {
+                    in.close();
+                }
+            } finally {
+                fd.close();
+            }
+        } catch (IOException e) {
+            // asset is compressed, read it instead
+        }
+
+        try {
+            if (data == null) {
+                InputStream in = context.getAssets().open(file);
+                try {
+                    data = ObjLoader.readFully(in);
+                } finally {
+                    in.close();
+                }
+            }
+        } catch (IOException e) {
+            throw new GlException("Failed reading binary mesh: " + e.getMessage(), e);
+        }
+        return load(data);
+    }
+
+    /**
+     * Loads a binary mesh from the data between position and limit of the specified buffer. The
+     * buffer content is uploaded as it is, if the buffer is direct no copies are made.
+     *
+     * @param data
+     *            buffer with binary mesh data
+     * @return the loaded {@link Mesh}
+     * @throws GlException
+     *             if the data is not a valid binary mesh
+     */
+    public static Mesh load(ByteBuffer data) throws GlException {
+        ByteBuffer buf = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (buf.remaining() < HEADER_SIZE || buf.getInt(0) != MAGIC) {
+            throw new GlException("Not a binary mesh file");
+        }
+        int version = buf.getInt(4);
+        if (version != VERSION) {
+            throw new GlException("Unsupported binary mesh version: " + version);
+        }
+        int flags = buf.getInt(8);
+        int vertCount = buf.getInt(12);
+        int indexCount = buf.getInt(16);
+        boolean hasNormals = (flags & FLAG_NORMALS) != 0;
+        boolean hasUvs = (flags & FLAG_TEX_COORDS) != 0;
+        boolean hasColors = (flags & FLAG_COLORS) != 0;
+        boolean intIndices = (flags & FLAG_INT_INDICES) != 0;
+
+        int elems = 3 + (hasNormals ? 3 : 0) + (hasUvs ? 2 : 0) + (hasColors ? 3 : 0);
+        long vertBytes = (long) vertCount * elems * 4;
+        long indexBytes = (long) indexCount * (intIndices ? 4 : 2);
+        if (vertCount < 0 || indexCount < 0 || HEADER_SIZE + vertBytes + indexBytes > buf.remaining()) {
+            throw new GlException("Truncated binary mesh file");
+        }
+
+        BoundingBox bounds = null;
+        if (vertCount > 0) {
+            bounds = new BoundingBox(buf.getFloat(20), buf.getFloat(24), buf.getFloat(28),
+                    buf.getFloat(32), buf.getFloat(36), buf.getFloat(40));
+        }
+
+        // slice vertex and index data
+        buf.position(HEADER_SIZE);
+        buf.limit(HEADER_SIZE + (int) vertBytes);
+        ByteBuffer vertData = buf.slice();
+        buf.limit(HEADER_SIZE + (int) (vertBytes + indexBytes));
+        buf.position(HEADER_SIZE + (int) vertBytes);
+        ByteBuffer indexData = buf.slice();
+
+        if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) {
+            // GL expects native byte order, convert data (only needed on big-endian machines)
+            vertData = swapBytes(vertData, 4);
+            indexData = swapBytes(indexData, intIndices ? 4 : 2);
+        }
+        indexData.order(ByteOrder.nativeOrder());
+        Buffer indexBuffer = intIndices ? indexData.asIntBuffer() : indexData.asShortBuffer();
+
+        return MeshFactory.createStaticMesh(vertData, (int) vertBytes, indexBuffer, hasNormals,
+                hasUvs, hasColors, bounds);
+    }
+
+    /**
+     * Copies the specified little-endian buffer to a new direct buffer in native byte order.
+     */
+    private static ByteBuffer swapBytes(ByteBuffer src, int elemSize) {
+        ByteBuffer dst = BufferHelper.createByteBuffer(src.remaining());
+        for (int i = 0; i < src.remaining(); i += elemSize) {
+            for (int j = 0; j < elemSize; j++) {
+                dst.put(i + j, src.get(i + elemSize - 1 - j));
+            }
+        }
+        return dst;
+    }
+}
@@ -0,0 +1,350 @@
+package de.fabmax.lightgl.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import android.graphics.Bitmap;
+import android.opengl.ETC1;
+import android.opengl.ETC1Util;
+
+import de.fabmax.lightgl.GlException;
+
+/**
+ * A CompressedImage holds the mip levels of a compressed texture image in main memory. Images are
+ * read from PKM or KTX containers or encoded from bitmaps. Reading and encoding does not need a GL
+ * context, hence it can be done on a background thread. Compressed images are uploaded with
+ * {@link de.fabmax.lightgl.TextureManager#createTexture(CompressedImage,
+ * de.fabmax.lightgl.TextureProperties)}.
+ * 
+ * PKM files contain a single ETC1 level, KTX files can contain a complete mip chain in any
+ * compressed format.
+ * 
+ * @author fabmax
+ * 
+ */
+public class CompressedImage {
+
+    /** GL internal format of ETC1 compressed textures (GL_ETC1_RGB8_OES) */
+    public static final int FORMAT_ETC1 = ETC1.ETC1_RGB8_OES;
+
+    private static final int PKM_HEADER_SIZE = 16;
+    private static final int KTX_HEADER_SIZE = 64;
+    private static final int KTX_ENDIANNESS = 0x04030201;
+    private static final byte[] KTX_IDENTIFIER = {
+            (byte) 0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n' };
+
+    private final int mFormat;
+    private final int mWidth;
+    private final int mHeight;
+    private final ByteBuffer[] mLevels;
+
+    /**
+     * Creates a new CompressedImage.
+     * 
+     * @param format
+     *            GL internal format of the compressed data
+     * @param width
+     *            width of the first mip level in pixels
+     * @param height
+     *            height of the first mip level in pixels
+     * @param levels
+     *            compressed data of all mip levels, direct buffers
+     */
+    public CompressedImage(int format, int width, int height, ByteBuffer[] levels) {
+        mFormat = format;
+        mWidth = width;
+        mHeight = height;
+        mLevels = levels;
+    }
+
+    /**
+     * Returns the GL internal format of the compressed data.
+     * 
+     * @return the GL internal format
+     */
+    public int getFormat() {
+        return mFormat;
+    }
+
+    /**
+     * Returns the width of the first mip level in pixels.
+     * 
+     * @return the image width in pixels
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * Returns the height of the first mip level in pixels.
+     * 
+     * @return the image height in pixels
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Returns the number of mip levels.
+     * 
+     * @return the number of mip levels
+     */
+    public int getLevelCount() {
+        return mLevels.length;
+    }
+
+    /**
+     * Returns the width of the specified mip level in pixels.
+     * 
+     * @param level
+     *            the mip level
+     * @return the width of the mip level in pixels
+     */
+    public int getLevelWidth(int level) {
+        return Math.max(1, mWidth >> level);
+    }
+
+    /**
+     * Returns the height of the specified mip level in pixels.
+     * 
+     * @param level
+     *            the mip level
+     * @return the height of the mip level in pixels
+     */
+    public int getLevelHeight(int level) {
+        return Math.max(1, mHeight >> level);
+    }
+
+    /**
+     * Returns the compressed data of the specified mip level.
+     * 
+     * @param level
+     *            the mip level
+     * @return the compressed data of the mip level
+     */
+    public ByteBuffer getLevelData(int level) {
+        mLevels[level].rewind();
+        return mLevels[level];
+    }
+
+    /**
+     * Returns true if this image contains a complete mip chain down to 1x1 pixels.
+     * 
+     * @return true if this image contains a complete mip chain
+     */
+    public boolean hasMipmaps() {
+        int lastLevel = mLevels.length - 1;
+        return lastLevel > 0 && getLevelWidth(lastLevel) == 1 && getLevelHeight(lastLevel) == 1;
+    }
+
+    /**
+     * Returns the total size of the compressed data of all mip levels in bytes.
+     * 
+     * @return the total size of the compressed data
+     */
+    public int getDataSize() {
+        int size = 0;
+        for (ByteBuffer level : mLevels) {
+            size += level.capacity();
+        }
+        return size;
+    }
+
+    /**
+     * Reads a compressed image from a PKM or KTX container. The container type is determined by
+     * the file header. The stream is not closed.
+     * 
+     * @param in
+     *            stream with the container data
+     * @return the read image
+     * @throws IOException
+     *             if the stream could not be read
+     * @throws GlException
+     *             if the data is not a supported container
+     */
+    public static CompressedImage read(InputStream in) throws IOException, GlException {
+        ByteBuffer data = ObjLoader.readFully(in);
+        if (isKtx(data)) {
+            return readKtx(data);
+        } else {
+            return readPkm(data);
+        }
+    }
+
+    /**
+     * Parses a PKM container with a single ETC1 image.
+     */
+    private static CompressedImage readPkm(ByteBuffer data) throws GlException {
+        data.order(ByteOrder.BIG_ENDIAN);
+        int p = data.position();
+        if (data.remaining() < PKM_HEADER_SIZE || data.get(p) != 'P' || data.get(p + 1) != 'K' ||
+                data.get(p + 2) != 'M' || data.get(p + 3) != ' ') {
+            throw new GlException("Not a PKM or KTX file");
+        }
+        if (data.getShort(p + 6) != 0) {
+            throw new GlException("Unsupported PKM format: " + data.getShort(p + 6));
+        }
+        int extWidth = data.getShort(p + 8) & 0xFFFF;
+        int extHeight = data.getShort(p + 10) & 0xFFFF;
+        int width = data.getShort(p + 12) & 0xFFFF;
+        int height = data.getShort(p + 14) & 0xFFFF;
+        int size = (extWidth / 4) * (extHeight / 4) * ETC1.ENCODED_BLOCK_SIZE;
+        if (data.remaining() < PKM_HEADER_SIZE + size) {
+            throw new GlException("Truncated PKM file");
+        }
+        ByteBuffer level = copyLevel(data, p + PKM_HEADER_SIZE, size);
+        return new CompressedImage(FORMAT_ETC1, width, height, new ByteBuffer[] { level });
+    }
+
+    /**
+     * Parses a KTX container with a compressed 2D texture.
+     */
+    private static CompressedImage readKtx(ByteBuffer data) throws GlException {
+        int p = data.position();
+        data.order(ByteOrder.LITTLE_ENDIAN);
+        if (data.getInt(p + 12) != KTX_ENDIANNESS) {
+            data.order(ByteOrder.BIG_ENDIAN);
+        }
+        int glType = data.getInt(p + 16);
+        int glInternalFormat = data.getInt(p + 28);
+        int width = data.getInt(p + 36);
+        int height = data.getInt(p + 40);
+        int depth = data.getInt(p + 44);
+        int arrayElements = data.getInt(p + 48);
+        int faces = data.getInt(p + 52);
+        int levelCount = Math.max(1, data.getInt(p + 56));
+        int keyValueBytes = data.getInt(p + 60);
+        if (glType != 0) {
+            throw new GlException("Only compressed KTX textures are supported");
+        }
+        if (depth > 0 || arrayElements > 0 || faces != 1) {
+            throw new GlException("Only 2D KTX textures are supported");
+        }
+
+        ByteBuffer[] levels = new ByteBuffer[levelCount];
+        int pos = p + KTX_HEADER_SIZE + keyValueBytes;
+        for (int i = 0; i < levelCount; i++) {
+            if (pos + 4 > data.limit()) {
+                throw new GlException("Truncated KTX file");
+            }
+            int size = data.getInt(pos);
+            pos += 4;
+            if (size < 0 || pos + size > data.limit()) {
+                throw new GlException("Truncated KTX file");
+            }
+            levels[i] = copyLevel(data, pos, size);
+            // levels are padded to 4 bytes
+            pos += (size + 3) & ~3;
+        }
+        return new CompressedImage(glInternalFormat, width, height, levels);
+    }
+
+    /**
+     * Checks whether the specified data starts with the KTX identifier.
+     */
+    private static boolean isKtx(ByteBuffer data) {
+        if (data.remaining() < KTX_HEADER_SIZE) {
+            return false;
+        }
+        for (int i = 0; i < KTX_IDENTIFIER.length; i++) {
+            if (data.get(data.position() + i) != KTX_IDENTIFIER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the specified range of the source buffer into a new direct buffer.
+     */
+    private static ByteBuffer copyLevel(ByteBuffer src, int offset, int size) {
+        ByteBuffer level = BufferHelper.createByteBuffer(size);
+        ByteBuffer range = src.duplicate();
+        range.limit(offset + size);
+        range.position(offset);
+        level.put(range);
+        level.rewind();
+        return level;
+    }
+
+    /**
+     * Encodes the specified bitmap to ETC1. ETC1 has no alpha channel, the alpha channel of the
+     * bitmap is dropped. Encoding is slow and should be done on a background thread.
+     * 
+     * @param bitmap
+     *            bitmap to encode
+     * @param mipmaps
+     *            true to encode a complete mip chain
+     * @return the encoded image
+     */
+    public static CompressedImage encodeEtc1(Bitmap bitmap, boolean mipmaps) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int levelCount = 1;
+        if (mipmaps) {
+            for (int sz = Math.max(width, height); sz > 1; sz >>= 1) {
+                levelCount++;
+            }
+        }
+
+        ByteBuffer[] levels = new ByteBuffer[levelCount];
+        Bitmap levelBitmap = bitmap;
+        for (int i = 0; i < levelCount; i++) {
+            int w = Math.max(1, width >> i);
+            int h = Math.max(1, height >> i);
+            if (i > 0) {
+                Bitmap scaled = Bitmap.createScaledBitmap(levelBitmap, w, h, true);
+                if (levelBitmap != bitmap) {
+                    levelBitmap.recycle();
+                }
+                levelBitmap = scaled;
+            }
+            levels[i] = encodeEtc1Level(levelBitmap);
+        }
+        if (levelBitmap != bitmap) {
+            levelBitmap.recycle();
+        }
+        return new CompressedImage(FORMAT_ETC1, width, height, levels);
+    }
+
+    /**
+     * Encodes a single image to ETC1.
+     */
+    private static ByteBuffer encodeEtc1Level(Bitmap bitmap) {
+        int w = bitmap.getWidth();
+        int h = bitmap.getHeight();
+        int[] pixels = new int[w * h];
+        bitmap.getPixels(pixels, 0, w, 0, 0, w, h);
+
+        // ETC1 encoder expects packed RGB888 input
+        ByteBuffer rgb = BufferHelper.createByteBuffer(w * h * 3);
+        for (int i = 0; i < pixels.length; i++) {
+            int c = pixels[i];
+            rgb.put((byte) (c >> 16));
+            rgb.put((byte) (c >> 8));
+            rgb.put((byte) c);
+        }
+        rgb.rewind();
+
+        ETC1Util.ETC1Texture tex = ETC1Util.compressTexture(rgb, w, h, 3, w * 3);
+        return tex.getData();
+    }
+
+    /**
+     * Decodes the specified mip level of an ETC1 image to RGB565. Used as fallback on devices
+     * without ETC1 support.
+     * 
+     * @param level
+     *            the mip level to decode
+     * @return the decoded RGB565 pixels in a direct buffer
+     */
+    public ByteBuffer decodeEtc1Level(int level) {
+        int w = getLevelWidth(level);
+        int h = getLevelHeight(level);
+        ByteBuffer decoded = BufferHelper.createByteBuffer(w * h * 2);
+        ETC1.decodeImage(getLevelData(level), decoded, w, h, 2, w * 2);
+        return decoded;
+    }
+}
@@ -71,6 +71,17 @@ public class FloatList implements Iterable<Float> {
         fb.rewind();
     }
 
+    /**
+     * Creates a new float array and copies the content of this list to it.
+     * 
+     * @return a newly created array with the same content as this list
+     */
+    public float[] toArray() {
+        float[] array = new float[mSize];
+        System.arraycopy(mBuffer, 0, array, 0, mSize);
+        return array;
+    }
+
     /**
      * Adds a value to the end of the list.
      * 
@@ -97,6 +108,33 @@ public class FloatList implements Iterable<Float> {
         }
     }
 
+    /**
+     * Adds all values of the specified list to the end of this list.
+     * 
+     * @param list
+     *            the list to add
+     */
+    public void add(FloatList list) {
+        ensureCapacity(mSize + list.mSize);
+        System.arraycopy(list.mBuffer, 0, mBuffer, mSize, list.mSize);
+        mSize += list.mSize;
+    }
+
+    /**
+     * Increases the capacity of the underlying array, if necessary, to hold at least the specified
+     * number of elements.
+     * 
+     * @param capacity
+     *            the desired minimum capacity
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity > mBuffer.length) {
+            float[] newBuffer = new float[Math.max(capacity, mBuffer.length * 2)];
+            System.arraycopy(mBuffer, 0, newBuffer, 0, mSize);
+            mBuffer = newBuffer;
+        }
+    }
+
     /**
      * Removes the element at the specified position.
      * 
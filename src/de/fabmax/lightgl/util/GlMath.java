@@ -79,6 +79,24 @@ public class GlMath {
         m[15] = 0;
     }
 
+    /**
+     * Compares two 4x4 matrices element-wise.
+     * 
+     * @param a
+     *            first matrix
+     * @param b
+     *            second matrix
+     * @return true if both matrices are equal
+     */
+    public static boolean equalMatrices(float[] a, float[] b) {
+        for (int i = 0; i < 16; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Returns the maximum value of the specified values.
      * 
@@ -49,6 +49,21 @@ public class IntList implements Iterable<Integer> {
         }
         return mBuffer[index];
     }
+
+    /**
+     * Sets the list value at the specified index.
+     * 
+     * @param index
+     *            index of the value to set
+     * @param value
+     *            the value to set
+     */
+    public void set(int index, int value) {
+        if (index < 0 || index >= mSize) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        mBuffer[index] = value;
+    }
     
     /**
      * Creates a new IntBuffer and copies the content of this list to it.
@@ -99,6 +114,33 @@ public class IntList implements Iterable<Integer> {
         mBuffer[mSize++] = i;
     }
 
+    /**
+     * Adds all values of the specified list to the end of this list.
+     * 
+     * @param list
+     *            the list to add
+     */
+    public void add(IntList list) {
+        ensureCapacity(mSize + list.mSize);
+        System.arraycopy(list.mBuffer, 0, mBuffer, mSize, list.mSize);
+        mSize += list.mSize;
+    }
+
+    /**
+     * Increases the capacity of the underlying array, if necessary, to hold at least the specified
+     * number of elements.
+     * 
+     * @param capacity
+     *            the desired minimum capacity
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity > mBuffer.length) {
+            int[] newBuffer = new int[Math.max(capacity, mBuffer.length * 2)];
+            System.arraycopy(mBuffer, 0, newBuffer, 0, mSize);
+            mBuffer = newBuffer;
+        }
+    }
+
     /**
      * Removes the element at the specified position.
      * 
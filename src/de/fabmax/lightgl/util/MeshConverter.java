@@ -0,0 +1,81 @@
+package de.fabmax.lightgl.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+
+import de.fabmax.lightgl.GlException;
+
+/**
+ * Command line tool that converts OBJ models into the binary mesh format read by
+ * {@link BinaryMeshFile}. Converted models can be put into the assets directory instead of the OBJ
+ * files to avoid parsing on the device. The converter does not need Android and runs on a desktop
+ * JVM:
+ * 
+ * <pre>
+ * java de.fabmax.lightgl.util.MeshConverter &lt;input.obj&gt; [output.lglm]
+ * </pre>
+ * 
+ * @author fabmax
+ * 
+ */
+public class MeshConverter {
+
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: MeshConverter <input.obj> [output"
+                    + BinaryMeshFile.FILE_EXTENSION + "]");
+            System.exit(1);
+        }
+        File in = new File(args[0]);
+        File out;
+        if (args.length > 1) {
+            out = new File(args[1]);
+        } else {
+            String name = args[0];
+            int dot = name.lastIndexOf('.');
+            if (dot > name.lastIndexOf(File.separatorChar)) {
+                name = name.substring(0, dot);
+            }
+            out = new File(name + BinaryMeshFile.FILE_EXTENSION);
+        }
+
+        try {
+            MeshData data = convert(in, out);
+            System.out.println(String.format(Locale.ENGLISH, "%s: %d vertices, %d faces, %d bytes",
+                    out, data.getVertexCount(), data.getIndices().length / 3, out.length()));
+        } catch (Exception e) {
+            System.err.println("Conversion failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Converts the specified OBJ file into a binary mesh file.
+     * 
+     * @param objFile
+     *            the OBJ file to convert
+     * @param outFile
+     *            the binary mesh file to write
+     * @return the converted mesh data
+     * @throws IOException
+     *             if a file could not be read or written
+     * @throws GlException
+     *             if the OBJ file is malformed
+     */
+    public static MeshData convert(File objFile, File outFile) throws IOException, GlException {
+        MeshData data;
+        RandomAccessFile raf = new RandomAccessFile(objFile, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            data = ObjLoader.parseObj(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size())).createMeshData();
+        } finally {
+            raf.close();
+        }
+        BinaryMeshFile.write(data, outFile);
+        return data;
+    }
+}
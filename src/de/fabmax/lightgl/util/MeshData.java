@@ -0,0 +1,109 @@
+package de.fabmax.lightgl.util;
+
+import de.fabmax.lightgl.BoundingBox;
+
+/**
+ * MeshData holds the vertex attributes and indices of a mesh in main memory. It is the output of
+ * model loaders before the data is uploaded to the GPU with
+ * {@link MeshFactory#createStaticMesh(MeshData)}. MeshData does not need a GL context, hence
+ * models can be loaded and converted off the GL thread or outside of Android.
+ *
+ * @author fabmax
+ *
+ */
+public class MeshData {
+
+    private final float[] mPositions;
+    private final float[] mNormals;
+    private final float[] mTexCoords;
+    private final float[] mColors;
+    private final int[] mIndices;
+    private final BoundingBox mBounds;
+
+    /**
+     * Creates a new MeshData object. The bounds are computed from the vertex positions.
+     *
+     * @param pos
+     *            vertex positions (x, y, z)
+     * @param norms
+     *            vertex normals (x, y, z), can be null
+     * @param uvs
+     *            vertex texture coordinates (u, v), can be null
+     * @param colors
+     *            vertex colors (r, g, b), can be null
+     * @param indcs
+     *            vertex indices
+     */
+    public MeshData(float[] pos, float[] norms, float[] uvs, float[] colors, int[] indcs) {
+        mPositions = pos;
+        mNormals = norms;
+        mTexCoords = uvs;
+        mColors = colors;
+        mIndices = indcs;
+        mBounds = MeshFactory.computeBounds(pos);
+    }
+
+    /**
+     * Returns the vertex positions (x, y, z).
+     *
+     * @return the vertex positions
+     */
+    public float[] getPositions() {
+        return mPositions;
+    }
+
+    /**
+     * Returns the vertex normals (x, y, z) or null if the mesh has no normals.
+     *
+     * @return the vertex normals or null
+     */
+    public float[] getNormals() {
+        return mNormals;
+    }
+
+    /**
+     * Returns the vertex texture coordinates (u, v) or null if the mesh has no texture
+     * coordinates.
+     *
+     * @return the vertex texture coordinates or null
+     */
+    public float[] getTexCoords() {
+        return mTexCoords;
+    }
+
+    /**
+     * Returns the vertex colors (r, g, b) or null if the mesh has no vertex colors.
+     *
+     * @return the vertex colors or null
+     */
+    public float[] getColors() {
+        return mColors;
+    }
+
+    /**
+     * Returns the vertex indices.
+     *
+     * @return the vertex indices
+     */
+    public int[] getIndices() {
+        return mIndices;
+    }
+
+    /**
+     * Returns the number of vertices.
+     *
+     * @return the number of vertices
+     */
+    public int getVertexCount() {
+        return mPositions.length / 3;
+    }
+
+    /**
+     * Returns the bounds of the vertex positions or null if the mesh has no vertices.
+     *
+     * @return the bounds of the vertex positions
+     */
+    public BoundingBox getBounds() {
+        return mBounds;
+    }
+}
@@ -2,14 +2,15 @@ package de.fabmax.lightgl.util;
 
 import static android.opengl.GLES20.GL_ARRAY_BUFFER;
 import static android.opengl.GLES20.GL_STATIC_DRAW;
-import static android.opengl.GLES20.glBindBuffer;
-import static android.opengl.GLES20.glBufferData;
-import static android.opengl.GLES20.glGenBuffers;
+import static de.fabmax.lightgl.Gl.glBindBuffer;
+import static de.fabmax.lightgl.Gl.glBufferData;
+import static de.fabmax.lightgl.Gl.glGenBuffers;
 
 import java.nio.Buffer;
 import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
 
+import de.fabmax.lightgl.BoundingBox;
 import de.fabmax.lightgl.ShaderAttributeBinder;
 import de.fabmax.lightgl.scene.Mesh;
 
@@ -38,27 +39,127 @@ public class MeshFactory {
      * @return the created mesh
      */
     public static Mesh createStaticMesh(float[] pos, float[] norms, float[] uvs, float[] colors, int[] indcs) {
+        FloatBuffer vertData = createInterleavedVertexData(pos, norms, uvs, colors);
+        Buffer indexBuffer = createIndexBuffer(indcs, pos.length / 3);
+        return createStaticMesh(vertData, vertData.capacity() * 4, indexBuffer, norms != null,
+                uvs != null, colors != null, computeBounds(pos));
+    }
+
+    /**
+     * Creates a static mesh from the specified {@link MeshData}.
+     * 
+     * @param data
+     *            vertex attributes and indices of the mesh
+     * @return the created mesh
+     */
+    public static Mesh createStaticMesh(MeshData data) {
+        return createStaticMesh(data.getPositions(), data.getNormals(), data.getTexCoords(),
+                data.getColors(), data.getIndices());
+    }
+
+    /**
+     * Creates a static mesh from already interleaved vertex data. The vertex data must have the
+     * layout created by
+     * {@link MeshFactory#createInterleavedVertexData(float[], float[], float[], float[])} and the
+     * index buffer must either be a ShortBuffer or an IntBuffer. The buffers are uploaded as they
+     * are, hence they can be slices of a memory-mapped file.
+     * 
+     * @param vertData
+     *            interleaved vertex data
+     * @param vertDataSize
+     *            size of the vertex data in bytes
+     * @param indexBuffer
+     *            vertex indices, must be a ShortBuffer or an IntBuffer
+     * @param hasNormals
+     *            true if the vertex data contains normals
+     * @param hasUvs
+     *            true if the vertex data contains texture coordinates
+     * @param hasColors
+     *            true if the vertex data contains colors
+     * @param bounds
+     *            mesh bounds, can be null
+     * @return the created mesh
+     */
+    public static Mesh createStaticMesh(Buffer vertData, int vertDataSize, Buffer indexBuffer,
+            boolean hasNormals, boolean hasUvs, boolean hasColors, BoundingBox bounds) {
         int normOffset = 0;
         int uvOffset = 0;
         int colorOffset = 0;
-        
+
         // determine elements per vertex, 3 elements needed for vertex position
         int elems = 3;
-        if (norms != null) {
-            // add normals to buffer
+        if (hasNormals) {
             normOffset = elems;
             elems += 3;
         }
-        if (uvs != null) {
-            // add texture coordinates to buffer
+        if (hasUvs) {
             uvOffset = elems;
             elems += 2;
         }
-        if (colors != null) {
-            // add colors to buffer
+        if (hasColors) {
             colorOffset = elems;
             elems += 3;
         }
+
+        // put vertex data in a VBO
+        int[] buf = new int[1];
+        glGenBuffers(1, buf, 0);
+        glBindBuffer(GL_ARRAY_BUFFER, buf[0]);
+        glBufferData(GL_ARRAY_BUFFER, vertDataSize, vertData, GL_STATIC_DRAW);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+
+        // create mesh
+        ShaderAttributeBinder posBinder = ShaderAttributeBinder.createVboBufferBinder(buf[0], 3, elems * 4);
+        ShaderAttributeBinder normalBinder = null;
+        ShaderAttributeBinder uvBinder = null;
+        ShaderAttributeBinder colorBinder = null;
+        if (hasNormals) {
+            // set attribute binder for vertex normals
+            normalBinder = ShaderAttributeBinder.createVboBufferBinder(buf[0], 3, elems * 4);
+            normalBinder.setOffset(normOffset);
+        }
+        if (hasUvs) {
+            // set attribute binder for vertex texture coordinates
+            uvBinder = ShaderAttributeBinder.createVboBufferBinder(buf[0], 2, elems * 4);
+            uvBinder.setOffset(uvOffset);
+        }
+        if (hasColors) {
+            // set attribute binder for vertex colors
+            colorBinder = ShaderAttributeBinder.createVboBufferBinder(buf[0], 3, elems * 4);
+            colorBinder.setOffset(colorOffset);
+        }
+        Mesh mesh = new Mesh(indexBuffer, posBinder, normalBinder, uvBinder, colorBinder);
+        mesh.setMeshBounds(bounds);
+        return mesh;
+    }
+
+    /**
+     * Interleaves the specified vertex attributes into a single buffer. Each vertex consists of
+     * its position followed by its normal, texture coordinate and color, if present.
+     * 
+     * @param pos
+     *            vertex positions (x, y, z)
+     * @param norms
+     *            vertex normals (x, y, z), can be null if normals are not needed
+     * @param uvs
+     *            vertex texture (u, v), coordinates, can be null if texture coordinates are not needed
+     * @param colors
+     *            vertex colors (r, g, b), can be null if vertex colors are not needed
+     * @return buffer with interleaved vertex data
+     */
+    public static FloatBuffer createInterleavedVertexData(float[] pos, float[] norms, float[] uvs,
+            float[] colors) {
+        // determine elements per vertex, 3 elements needed for vertex position
+        int elems = 3;
+        if (norms != null) {
+            elems += 3;
+        }
+        if (uvs != null) {
+            elems += 2;
+        }
+        if (colors != null) {
+            elems += 3;
+        }
         
         // determine vertex buffer size
         int vertCnt = pos.length / 3;
@@ -72,25 +173,31 @@ public class MeshFactory {
                 vertData.put(norms, j, 3);
             }
             if (uvs != null) {
-                // vertex normal
+                // vertex texture coordinate
                 vertData.put(uvs, k, 2);
             }
             if (colors != null) {
-                // vertex normal
+                // vertex color
                 vertData.put(colors, j, 3);
             }
         }
         vertData.rewind();
-        // put vertex data in a VBO
-        int[] buf = new int[1];
-        glGenBuffers(1, buf, 0);
-        glBindBuffer(GL_ARRAY_BUFFER, buf[0]);
-        glBufferData(GL_ARRAY_BUFFER, vertData.capacity() * 4, vertData, GL_STATIC_DRAW);
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
-        
-        // create and fill index buffer
+        return vertData;
+    }
+
+    /**
+     * Creates an index buffer with the specified indices. A ShortBuffer is used if all indices fit
+     * into 16 bits, otherwise an IntBuffer.
+     * 
+     * @param indcs
+     *            vertex indices
+     * @param vertCnt
+     *            number of vertices
+     * @return a ShortBuffer or IntBuffer containing the indices
+     */
+    public static Buffer createIndexBuffer(int[] indcs, int vertCnt) {
         Buffer indexBuffer;
-        if(pos.length / 3 < 65536) {
+        if(vertCnt < 65536) {
             indexBuffer = BufferHelper.createShortBuffer(indcs.length);
             for (int i = 0; i < indcs.length; i++) {
                 ((ShortBuffer) indexBuffer).put((short) indcs[i]);
@@ -99,28 +206,25 @@ public class MeshFactory {
         } else {
             indexBuffer = BufferHelper.createIntBuffer(indcs);
         }
-        
-        // create mesh
-        ShaderAttributeBinder posBinder = ShaderAttributeBinder.createVboBufferBinder(buf[0], 3, elems * 4);
-        ShaderAttributeBinder normalBinder = null;
-        ShaderAttributeBinder uvBinder = null;
-        ShaderAttributeBinder colorBinder = null;
-        if (norms != null) {
-            // set attribute binder for vertex normals
-            normalBinder = ShaderAttributeBinder.createVboBufferBinder(buf[0], 3, elems * 4);
-            normalBinder.setOffset(normOffset);
-        }
-        if (uvs != null) {
-            // set attribute binder for vertex normals
-            uvBinder = ShaderAttributeBinder.createVboBufferBinder(buf[0], 2, elems * 4);
-            uvBinder.setOffset(uvOffset);
+        return indexBuffer;
+    }
+
+    /**
+     * Computes the bounds of the specified vertex positions.
+     * 
+     * @param pos
+     *            vertex positions (x, y, z)
+     * @return the bounds of the vertex positions or null if there are no vertices
+     */
+    public static BoundingBox computeBounds(float[] pos) {
+        if (pos.length < 3) {
+            return null;
         }
-        if (colors != null) {
-            // set attribute binder for vertex normals
-            colorBinder = ShaderAttributeBinder.createVboBufferBinder(buf[0], 3, elems * 4);
-            colorBinder.setOffset(colorOffset);
+        BoundingBox bounds = new BoundingBox(pos[0], pos[1], pos[2]);
+        for (int i = 3; i < pos.length - 2; i += 3) {
+            bounds.addPoint(pos[i], pos[i + 1], pos[i + 2]);
         }
-        return new Mesh(indexBuffer, posBinder, normalBinder, uvBinder, colorBinder);
+        return bounds;
     }
     
     /**
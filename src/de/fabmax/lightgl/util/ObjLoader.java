@@ -1,25 +1,20 @@
 package de.fabmax.lightgl.util;
 
-import static android.opengl.GLES20.GL_ARRAY_BUFFER;
-import static android.opengl.GLES20.GL_STATIC_DRAW;
-import static android.opengl.GLES20.glBindBuffer;
-import static android.opengl.GLES20.glBufferData;
-import static android.opengl.GLES20.glGenBuffers;
-
-import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Locale;
-import java.util.StringTokenizer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import android.content.Context;
 import android.util.Log;
-import android.util.SparseIntArray;
 
 import de.fabmax.lightgl.GlException;
-import de.fabmax.lightgl.ShaderAttributeBinder;
 import de.fabmax.lightgl.scene.Mesh;
 
 /**
@@ -34,6 +29,9 @@ public class ObjLoader {
 
     private static final String TAG = "ObjLoader";
 
+    // executor for parallel parsing of large files, created on first use
+    private static ExecutorService sParseExecutor;
+
     /**
      * Loads the specified file from the assets directory.
      * 
@@ -46,209 +44,186 @@ public class ObjLoader {
      *             if an error occurred during model loading
      */
     public static Mesh loadObj(Context context, String file) throws GlException {
-        try {
-            // open specified OBJ file
-            InputStream in = context.getAssets().open(file);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(in));
-
-            FloatList verts = new FloatList();
-            FloatList texCoords = new FloatList();
-            FloatList normals = new FloatList();
-            IntList indices = new IntList();
-
-            // parse elements from OBJ file
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.startsWith("v ")) {
-                    // parse vertex position
-                    parseFloats(line, 3, verts);
-
-                } else if (line.startsWith("vt ")) {
-                    // parse texture coordinate
-                    parseFloats(line, 2, texCoords);
-
-                } else if (line.startsWith("vn ")) {
-                    // parse vertex normal
-                    parseFloats(line, 3, normals);
-
-                } else if (line.startsWith("f ")) {
-                    // parse face vertex indices
-                    parseFaceIndices(line, indices);
-
-                }
-                // all other lines are ignored
-            }
+        return MeshFactory.createStaticMesh(loadObjData(context, file));
+    }
 
-            Log.d(TAG, String.format(Locale.ENGLISH, "Parsed OBJ file: vp:%d, vt:%d, vn:%d, f:%d",
-                    verts.size() / 3, texCoords.size() / 2, normals.size() / 3, indices.size() / 3));
-
-            // determine number of indices per face vertex
-            int idxPerVertex = 1;
-            int vertElements = 3;
-            int normalOffset = 0;
-            int texCoordOffset = 0;
-            if (!texCoords.isEmpty()) {
-                idxPerVertex++;
-                texCoordOffset = vertElements;
-                vertElements += 2;
-            }
-            if (!normals.isEmpty()) {
-                idxPerVertex++;
-                normalOffset = vertElements;
-                vertElements += 3;
-            }
+    /**
+     * Loads the specified file from the assets directory without creating a mesh. This method
+     * does not need a GL context and can be called from any thread, the returned data can be
+     * uploaded later with {@link MeshFactory#createStaticMesh(MeshData)}.
+     * 
+     * @param context
+     *            application context, needed to access the assets directory
+     * @param file
+     *            file name of model file
+     * @return the loaded {@link MeshData}
+     * @throws GlException
+     *             if an error occurred during model loading
+     */
+    public static MeshData loadObjData(Context context, String file) throws GlException {
+        return createMeshData(parseObj(readAsset(context, file)));
+    }
 
-            // OBJ supports different indices for attributes per vertex, OpenGL not - we need to
-            // rebuild the vertex list
-            int capa = GlMath.max3(verts.size(), normals.size(), texCoords.size()) * vertElements;
-            FloatList vertexData = new FloatList(capa);
-            IntList glIndices = new IntList();
-            SparseIntArray glIndexMap = new SparseIntArray();
-            float[] vertex = new float[vertElements];
-            for (int i = 0; i < indices.size(); i += idxPerVertex) {
-                int ii = i;
-                int vi = 0;
-                int vtIdx = 0;
-                int vnIdx = 0;
-
-                // get vertex position
-                int idx = indices.get(ii++) * 3;
-                vertex[vi++] = verts.get(idx);
-                vertex[vi++] = verts.get(idx + 1);
-                vertex[vi++] = verts.get(idx + 2);
-
-                // get vertex texture coordinate (if present)
-                if (!texCoords.isEmpty()) {
-                    vtIdx = indices.get(ii++) * 2;
-                    vertex[vi++] = texCoords.get(vtIdx);
-                    vertex[vi++] = texCoords.get(vtIdx + 1);
-                }
-
-                // get vertex normal (if present)
-                if (!normals.isEmpty()) {
-                    vnIdx = indices.get(ii++) * 3;
-                    vertex[vi++] = normals.get(vnIdx);
-                    vertex[vi++] = normals.get(vnIdx + 1);
-                    vertex[vi++] = normals.get(vnIdx + 2);
-                }
-
-                int hash = getIndexHash(idx, vtIdx, vnIdx);
-                int glIdx = glIndexMap.get(hash);
-                if (glIdx != 0) {
-                    // this vertex is already in vertex data list, add its index
-                    glIndices.add(glIdx - 1);
-                } else {
-                    // this vertex is not yet in vertex data list, add it
-                    vertexData.add(vertex);
-                    // add new index
-                    glIdx = vertexData.size() / vertElements;
-                    glIndices.add(glIdx - 1);
-                    glIndexMap.put(hash, glIdx);
-                }
+    /**
+     * Loads the specified file from the file system. The file is memory-mapped and parsed
+     * directly from the mapped memory.
+     * 
+     * @param file
+     *            model file
+     * @return the loaded {@link Mesh}
+     * @throws GlException
+     *             if an error occurred during model loading
+     */
+    public static Mesh loadObj(File file) throws GlException {
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                return loadObj(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } finally {
+                raf.close();
             }
+        } catch (IOException e) {
+            throw new GlException("Failed reading OBJ file: " + e.getMessage(), e);
+        }
+    }
 
-            // create Mesh
-            IntBuffer meshIndices = glIndices.asBuffer();
-
-            // put vertex data in a VBO
-            int[] buf = new int[1];
-            FloatBuffer meshData = vertexData.asBuffer();
-            glGenBuffers(1, buf, 0);
-            glBindBuffer(GL_ARRAY_BUFFER, buf[0]);
-            glBufferData(GL_ARRAY_BUFFER, meshData.capacity() * 4, meshData, GL_STATIC_DRAW);
-            glBindBuffer(GL_ARRAY_BUFFER, 0);
-            
-            // create attribute binders
-            ShaderAttributeBinder posBinder = ShaderAttributeBinder.createVboBufferBinder(buf[0], 3, vertElements * 4);
-            ShaderAttributeBinder normalBinder = null;
-            ShaderAttributeBinder uvBinder = null;
-            if (!normals.isEmpty()) {
-                normalBinder = ShaderAttributeBinder.createVboBufferBinder(buf[0], 3, vertElements * 4);
-                normalBinder.setOffset(normalOffset);
-            }
-            if (!texCoords.isEmpty()) {
-                uvBinder = ShaderAttributeBinder.createVboBufferBinder(buf[0], 2, vertElements * 4);
-                uvBinder.setOffset(texCoordOffset);
+    /**
+     * Parses the OBJ data between position and limit of the specified buffer and creates a mesh
+     * from it. Large inputs are split into chunks that are parsed in parallel on all available
+     * processors.
+     * 
+     * @param data
+     *            buffer with OBJ file content
+     * @return the loaded {@link Mesh}
+     * @throws GlException
+     *             if an error occurred during model loading
+     */
+    public static Mesh loadObj(ByteBuffer data) throws GlException {
+        return MeshFactory.createStaticMesh(createMeshData(parseObj(data)));
+    }
+
+    /**
+     * Loads the specified file from the assets directory and caches the loaded model in the binary
+     * mesh format in the specified cache directory. Subsequent calls load the cached binary mesh,
+     * which is memory-mapped and needs no parsing. The cached file is recreated if the APK is newer
+     * than the cached file.
+     * 
+     * @param context
+     *            application context, needed to access the assets directory
+     * @param file
+     *            file name of model file
+     * @param cacheDir
+     *            directory for cached binary meshes, e.g. {@link Context#getCacheDir()}
+     * @return the loaded {@link Mesh}
+     * @throws GlException
+     *             if an error occurred during model loading
+     */
+    public static Mesh loadObj(Context context, String file, File cacheDir) throws GlException {
+        File cacheFile = new File(cacheDir, file.replace('/', '_') + BinaryMeshFile.FILE_EXTENSION);
+        long apkModified = new File(context.getApplicationInfo().sourceDir).lastModified();
+        if (cacheFile.exists() && cacheFile.lastModified() >= apkModified) {
+            try {
+                return BinaryMeshFile.load(cacheFile);
+            } catch (GlException e) {
+                Log.w(TAG, "Failed loading cached mesh " + cacheFile + ": " + e.getMessage());
             }
+        }
 
-            Log.d(TAG, String.format(Locale.ENGLISH, "Created Mesh: %d vertices, %d faces",
-                            vertexData.size() / vertElements, glIndices.size() / 3));
+        MeshData meshData = loadObjData(context, file);
+        try {
+            BinaryMeshFile.write(meshData, cacheFile);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed writing cached mesh " + cacheFile + ": " + e.getMessage());
+            cacheFile.delete();
+        }
+        return MeshFactory.createStaticMesh(meshData);
+    }
 
-            return new Mesh(meshIndices, posBinder, normalBinder, uvBinder, null);
+    /**
+     * Parses the OBJ data between position and limit of the specified buffer. Large inputs are
+     * parsed in parallel.
+     */
+    static ObjParser parseObj(ByteBuffer data) throws GlException {
+        ObjParser parser = new ObjParser();
+        int cpus = Runtime.getRuntime().availableProcessors();
+        if (cpus > 1 && data.remaining() >= ObjParser.MIN_PARALLEL_CHUNK_SIZE * 2) {
+            parser.parse(data, getParseExecutor(), cpus);
+        } else {
+            parser.parse(data);
+        }
+        return parser;
+    }
 
-        } catch (Exception e) {
-            throw new GlException("Failed parsing OBJ file: " + e.getMessage(), e);
+    /**
+     * Returns the executor used for parallel parsing. The executor uses daemon threads, one per
+     * available processor.
+     */
+    private static synchronized ExecutorService getParseExecutor() {
+        if (sParseExecutor == null) {
+            sParseExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    new ThreadFactory() {
+                        private int mThreadCount = 0;
+
+                        @Override
+                        public synchronized Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "ObjParser-" + mThreadCount++);
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
         }
+        return sParseExecutor;
     }
 
     /**
-     * Computes a hash from the specified position, normal and texture coordinate indices.
-     * 
-     * @param ip
-     *            vertex position index
-     * @param in
-     *            vertex normal index
-     * @param it
-     *            vertex texture coordinate index
-     * @return computed hash value
+     * Creates the mesh data from the elements parsed by the specified {@link ObjParser}.
      */
-    private static int getIndexHash(int ip, int it, int in) {
-        return ip ^ (in << 16) ^ (it << 8);
+    private static MeshData createMeshData(ObjParser parser) throws GlException {
+        Log.d(TAG, String.format(Locale.ENGLISH, "Parsed OBJ file: vp:%d, vt:%d, vn:%d, f:%d",
+                parser.getPositions().size() / 3, parser.getTexCoords().size() / 2,
+                parser.getNormals().size() / 3, parser.getIndices().size() / 3 /
+                Math.max(1, parser.getIndicesPerVertex())));
+
+        MeshData data = parser.createMeshData();
+        Log.d(TAG, String.format(Locale.ENGLISH, "Created Mesh: %d vertices, %d faces",
+                data.getVertexCount(), data.getIndices().length / 3));
+        return data;
     }
 
     /**
-     * Parses the specified number of floats from line. line is a line read from the obj file and
-     * contains an type prefix which is ignored. The parsed float values are stored in the
-     * destination buffer.
-     * 
-     * @param line
-     *            line to parse the values from
-     * @param parseCnt
-     *            number of values to parse
-     * @param dstBuf
-     *            destination buffer
+     * Reads the specified file from the assets directory. Assets are usually compressed and can't
+     * be memory-mapped, hence the whole file is read.
      */
-    private static void parseFloats(String line, int parseCnt, FloatList dstBuf) {
-        StringTokenizer tok = new StringTokenizer(line, " ");
-        // skip first token (line prefix)
-        tok.nextToken();
-        // parse specified number of floats
-        for (int i = 0; i < parseCnt; i++) {
-            String s = tok.nextToken();
-            dstBuf.add(Float.parseFloat(s));
+    private static ByteBuffer readAsset(Context context, String file) throws GlException {
+        try {
+            InputStream in = context.getAssets().open(file);
+            try {
+                return readFully(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new GlException("Failed reading OBJ file: " + e.getMessage(), e);
         }
     }
 
     /**
-     * Parses position, normal and texture coordinate indices from the given face index line. Only
-     * triangle faces are supported.
-     * 
-     * @param line
-     *            line to parse indices from
-     * @param dstBuf
-     *            destination buffer
-     * @throws GlException
-     *             if the face has more than 3 vertices
+     * Reads the whole content of the specified stream into a ByteBuffer.
      */
-    private static void parseFaceIndices(String line, IntList dstBuf) throws GlException {
-        StringTokenizer tok = new StringTokenizer(line, " ");
-        // skip first token (line prefix)
-        tok.nextToken();
-        // parse face indices
-        for (int i = 0; i < 3; i++) {
-            // retrieve vertex index string can have following formats:
-            // [v], [v]/[vt], [v]/[vt]/[vn] or [v]//[vn]
-            String vi = tok.nextToken();
-            // parse element indices
-            StringTokenizer tok2 = new StringTokenizer(vi, "/");
-            while (tok2.hasMoreTokens()) {
-                // add element index, OBJ element indices count from 1
-                dstBuf.add(Integer.parseInt(tok2.nextToken()) - 1);
+    static ByteBuffer readFully(InputStream in) throws IOException {
+        byte[] buf = new byte[Math.max(in.available() + 1, 64 * 1024)];
+        int len = 0;
+        int n;
+        while ((n = in.read(buf, len, buf.length - len)) >= 0) {
+            len += n;
+            if (len == buf.length) {
+                byte[] newBuf = new byte[buf.length * 2];
+                System.arraycopy(buf, 0, newBuf, 0, len);
+                buf = newBuf;
             }
         }
-        if (tok.hasMoreTokens()) {
-            throw new GlException("No support for more than 3 vertex indices per face");
-        }
+        return ByteBuffer.wrap(buf, 0, len);
     }
 
 }
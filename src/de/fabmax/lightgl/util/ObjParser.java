@@ -0,0 +1,644 @@
+package de.fabmax.lightgl.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import de.fabmax.lightgl.GlException;
+
+/**
+ * Fast parser for the geometry elements of .obj files. The parser works directly on the bytes of
+ * the file and uses hand-written number scanners, hence it does not allocate any objects per line
+ * or token. Vertex positions, texture coordinates and normals as well as triangle face indices are
+ * parsed, all other elements are ignored.
+ * 
+ * @see ObjLoader
+ * @author fabmax
+ * 
+ */
+public class ObjParser {
+
+    // powers of ten that are exactly representable as doubles
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // max number of mantissa digits that fit into a long without overflow
+    private static final int MAX_MANTISSA_DIGITS = 18;
+
+    // size of the window direct buffers (e.g. memory-mapped files) are copied to
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /** Minimum number of bytes per chunk for parallel parsing */
+    public static final int MIN_PARALLEL_CHUNK_SIZE = 256 * 1024;
+
+    // element types of relative face indices
+    private static final int ELEM_POSITION = 0;
+    private static final int ELEM_TEX_COORD = 1;
+    private static final int ELEM_NORMAL = 2;
+
+    private final FloatList mPositions;
+    private final FloatList mTexCoords;
+    private final FloatList mNormals;
+    private final IntList mIndices;
+    // positions of face indices that were relative (negative) in the file, encoded as
+    // index position * 3 + element type; needed to offset them when chunks are merged
+    private final IntList mRelativeIndices;
+
+    // number of indices per face vertex, determined by the first face
+    private int mIndicesPerVertex = 0;
+
+    // input data and current read position, only complete lines are between mPos and mEnd
+    private byte[] mData;
+    private int mPos;
+    private int mEnd;
+    private int mLine;
+
+    /**
+     * Creates a new ObjParser.
+     */
+    public ObjParser() {
+        mPositions = new FloatList();
+        mTexCoords = new FloatList();
+        mNormals = new FloatList();
+        mIndices = new IntList();
+        mRelativeIndices = new IntList(16);
+    }
+
+    /**
+     * Parses the OBJ data between position and limit of the specified buffer. The buffer's
+     * position is not changed. Heap buffers are parsed directly, direct buffers (e.g. memory-mapped
+     * files) are copied in chunks. Parsed elements are appended to the elements of previous calls.
+     * 
+     * @param data
+     *            buffer with OBJ file content
+     * @throws GlException
+     *             if the data contains a malformed element or a non-triangle face
+     */
+    public void parse(ByteBuffer data) throws GlException {
+        mLine = 1;
+        try {
+            if (data.hasArray()) {
+                // parse backing array directly
+                mData = data.array();
+                mPos = data.arrayOffset() + data.position();
+                mEnd = data.arrayOffset() + data.limit();
+                parseLines();
+            } else {
+                parseChunked(data.duplicate());
+            }
+        } finally {
+            mData = null;
+        }
+    }
+
+    /**
+     * Parses the OBJ data between position and limit of the specified buffer in parallel. The data
+     * is split into line-aligned chunks, which are parsed by separate ObjParsers on the specified
+     * executor. Afterwards the parsed chunks are appended to this parser in file order. Data
+     * smaller than two chunks of {@link ObjParser#MIN_PARALLEL_CHUNK_SIZE} is parsed on the
+     * calling thread.
+     * 
+     * @param data
+     *            buffer with OBJ file content
+     * @param executor
+     *            executor used to parse the chunks
+     * @param chunkCount
+     *            max number of chunks, usually the number of available processors
+     * @throws GlException
+     *             if the data contains a malformed element or a non-triangle face
+     */
+    public void parse(ByteBuffer data, ExecutorService executor, int chunkCount) throws GlException {
+        int start = data.position();
+        int end = data.limit();
+        chunkCount = Math.min(chunkCount, (end - start) / MIN_PARALLEL_CHUNK_SIZE);
+        if (chunkCount < 2) {
+            parse(data);
+            return;
+        }
+
+        // split data into line-aligned chunks and parse them
+        List<Future<ObjParser>> chunks = new ArrayList<Future<ObjParser>>(chunkCount);
+        int chunkStart = start;
+        for (int i = 1; i <= chunkCount && chunkStart < end; i++) {
+            int chunkEnd = end;
+            if (i < chunkCount) {
+                chunkEnd = Math.max(chunkStart, start + (int) ((long) (end - start) * i / chunkCount));
+                while (chunkEnd < end && data.get(chunkEnd - 1) != '\n') {
+                    chunkEnd++;
+                }
+            }
+            final ByteBuffer chunk = data.duplicate();
+            chunk.limit(chunkEnd);
+            chunk.position(chunkStart);
+            chunks.add(executor.submit(new Callable<ObjParser>() {
+                @Override
+                public ObjParser call() throws GlException {
+                    ObjParser parser = new ObjParser();
+                    parser.parse(chunk);
+                    return parser;
+                }
+            }));
+            chunkStart = chunkEnd;
+        }
+
+        // wait for all chunks before merging to avoid multiple array resizes
+        List<ObjParser> parsers = new ArrayList<ObjParser>(chunks.size());
+        try {
+            for (int i = 0; i < chunks.size(); i++) {
+                parsers.add(chunks.get(i).get());
+            }
+        } catch (InterruptedException e) {
+            cancelAll(chunks);
+            throw new GlException("Interrupted while parsing OBJ data", e);
+        } catch (ExecutionException e) {
+            cancelAll(chunks);
+            throw new GlException("Failed parsing OBJ chunk: " + e.getCause().getMessage(),
+                    e.getCause());
+        }
+        append(parsers);
+    }
+
+    /**
+     * Appends the elements of the specified parsers to the elements of this parser. Face indices
+     * that were relative in the file are offset by the number of preceding elements.
+     */
+    private void append(List<ObjParser> parsers) throws GlException {
+        int positions = mPositions.size();
+        int texCoords = mTexCoords.size();
+        int normals = mNormals.size();
+        int indices = mIndices.size();
+        for (int i = 0; i < parsers.size(); i++) {
+            ObjParser p = parsers.get(i);
+            positions += p.mPositions.size();
+            texCoords += p.mTexCoords.size();
+            normals += p.mNormals.size();
+            indices += p.mIndices.size();
+        }
+        mPositions.ensureCapacity(positions);
+        mTexCoords.ensureCapacity(texCoords);
+        mNormals.ensureCapacity(normals);
+        mIndices.ensureCapacity(indices);
+
+        for (int i = 0; i < parsers.size(); i++) {
+            ObjParser p = parsers.get(i);
+            if (p.mIndicesPerVertex != 0) {
+                if (mIndicesPerVertex == 0) {
+                    mIndicesPerVertex = p.mIndicesPerVertex;
+                } else if (p.mIndicesPerVertex != mIndicesPerVertex) {
+                    throw new GlException("Inconsistent face vertex format");
+                }
+            }
+
+            // prefix sums of the elements of all preceding chunks
+            int positionOffset = mPositions.size() / 3;
+            int texCoordOffset = mTexCoords.size() / 2;
+            int normalOffset = mNormals.size() / 3;
+            int indexOffset = mIndices.size();
+
+            mPositions.add(p.mPositions);
+            mTexCoords.add(p.mTexCoords);
+            mNormals.add(p.mNormals);
+            mIndices.add(p.mIndices);
+            for (int j = 0; j < p.mRelativeIndices.size(); j++) {
+                int rel = p.mRelativeIndices.get(j);
+                int idx = indexOffset + rel / 3;
+                int offset = normalOffset;
+                if (rel % 3 == ELEM_POSITION) {
+                    offset = positionOffset;
+                } else if (rel % 3 == ELEM_TEX_COORD) {
+                    offset = texCoordOffset;
+                }
+                mIndices.set(idx, mIndices.get(idx) + offset);
+            }
+        }
+    }
+
+    /**
+     * Cancels all specified futures.
+     */
+    private static void cancelAll(List<Future<ObjParser>> futures) {
+        for (int i = 0; i < futures.size(); i++) {
+            futures.get(i).cancel(true);
+        }
+    }
+
+    /**
+     * Copies the content of the specified buffer to a byte array window in chunks of whole lines
+     * and parses them. Reading single bytes from a direct buffer is considerably slower than from an
+     * array.
+     */
+    private void parseChunked(ByteBuffer data) throws GlException {
+        byte[] window = new byte[CHUNK_SIZE];
+        int len = 0;
+        while (data.hasRemaining() || len > 0) {
+            int n = Math.min(window.length - len, data.remaining());
+            data.get(window, len, n);
+            len += n;
+
+            // parse complete lines only, the remainder is moved to the beginning of the window
+            int end = len;
+            if (data.hasRemaining()) {
+                while (end > 0 && window[end - 1] != '\n') {
+                    end--;
+                }
+                if (end == 0) {
+                    // line longer than window, increase window size
+                    byte[] newWindow = new byte[window.length * 2];
+                    System.arraycopy(window, 0, newWindow, 0, len);
+                    window = newWindow;
+                    continue;
+                }
+            }
+            mData = window;
+            mPos = 0;
+            mEnd = end;
+            parseLines();
+            System.arraycopy(window, end, window, 0, len - end);
+            len -= end;
+        }
+    }
+
+    /**
+     * Parses all lines between mPos and mEnd.
+     */
+    private void parseLines() throws GlException {
+        while (mPos < mEnd) {
+            parseLine();
+        }
+    }
+
+    /**
+     * Returns the parsed vertex positions (x, y, z).
+     * 
+     * @return the parsed vertex positions
+     */
+    public FloatList getPositions() {
+        return mPositions;
+    }
+
+    /**
+     * Returns the parsed texture coordinates (u, v).
+     * 
+     * @return the parsed texture coordinates
+     */
+    public FloatList getTexCoords() {
+        return mTexCoords;
+    }
+
+    /**
+     * Returns the parsed vertex normals (x, y, z).
+     * 
+     * @return the parsed vertex normals
+     */
+    public FloatList getNormals() {
+        return mNormals;
+    }
+
+    /**
+     * Returns the parsed face indices. Indices count from 0, each face vertex has
+     * {@link ObjParser#getIndicesPerVertex()} indices in the order position, texture coordinate,
+     * normal.
+     * 
+     * @return the parsed face indices
+     */
+    public IntList getIndices() {
+        return mIndices;
+    }
+
+    /**
+     * Returns the number of indices per face vertex, which is 1 to 3 depending on whether texture
+     * coordinates and normals are present. Returns 0 if no face was parsed.
+     * 
+     * @return the number of indices per face vertex
+     */
+    public int getIndicesPerVertex() {
+        return mIndicesPerVertex;
+    }
+
+    /**
+     * Creates a {@link MeshData} object from the parsed elements. OBJ supports different indices
+     * for the attributes of a face vertex, OpenGL does not. Hence the vertex list is rebuilt with
+     * one vertex for every distinct combination of position, texture coordinate and normal index.
+     * 
+     * @return the mesh data created from the parsed elements
+     * @throws GlException
+     *             if the face vertex format does not match the parsed elements or a face
+     *             references a non-existing element
+     */
+    public MeshData createMeshData() throws GlException {
+        boolean hasUvs = !mTexCoords.isEmpty();
+        boolean hasNormals = !mNormals.isEmpty();
+        int idxPerVertex = 1 + (hasUvs ? 1 : 0) + (hasNormals ? 1 : 0);
+        if (!mIndices.isEmpty() && mIndicesPerVertex != idxPerVertex) {
+            throw new GlException("Face vertex format does not match the vertex elements");
+        }
+
+        int faceVerts = mIndices.size() / idxPerVertex;
+        FloatList positions = new FloatList(Math.max(1, mPositions.size()));
+        FloatList texCoords = new FloatList(Math.max(1, mTexCoords.size()));
+        FloatList normals = new FloatList(Math.max(1, mNormals.size()));
+        int[] indices = new int[faceVerts];
+
+        // face vertices are deduplicated by their full index triple
+        VertexIndexMap indexMap = new VertexIndexMap(faceVerts);
+        try {
+            for (int i = 0, ii = 0; i < faceVerts; i++) {
+                int vpIdx = mIndices.get(ii++);
+                int vtIdx = hasUvs ? mIndices.get(ii++) : 0;
+                int vnIdx = hasNormals ? mIndices.get(ii++) : 0;
+
+                int nextIdx = indexMap.size();
+                int glIdx = indexMap.getOrPut(vpIdx, vtIdx, vnIdx, nextIdx);
+                indices[i] = glIdx;
+                if (glIdx == nextIdx) {
+                    // this vertex is not yet in vertex data list, add it
+                    positions.add(mPositions.get(vpIdx * 3));
+                    positions.add(mPositions.get(vpIdx * 3 + 1));
+                    positions.add(mPositions.get(vpIdx * 3 + 2));
+                    if (hasUvs) {
+                        texCoords.add(mTexCoords.get(vtIdx * 2));
+                        texCoords.add(mTexCoords.get(vtIdx * 2 + 1));
+                    }
+                    if (hasNormals) {
+                        normals.add(mNormals.get(vnIdx * 3));
+                        normals.add(mNormals.get(vnIdx * 3 + 1));
+                        normals.add(mNormals.get(vnIdx * 3 + 2));
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new GlException("Face references non-existing element: " + e.getMessage(), e);
+        }
+
+        return new MeshData(positions.toArray(), hasNormals ? normals.toArray() : null,
+                hasUvs ? texCoords.toArray() : null, null, indices);
+    }
+
+    /**
+     * Parses a single line, the read position is moved to the beginning of the next line.
+     */
+    private void parseLine() throws GlException {
+        skipBlanks();
+        if (mPos + 1 < mEnd) {
+            byte c0 = mData[mPos];
+            byte c1 = mData[mPos + 1];
+            if (c0 == 'v') {
+                if (isBlank(c1)) {
+                    // vertex position
+                    mPos++;
+                    parseFloats(3, mPositions);
+                } else if (c1 == 't' && mPos + 2 < mEnd && isBlank(mData[mPos + 2])) {
+                    // texture coordinate
+                    mPos += 2;
+                    parseFloats(2, mTexCoords);
+                } else if (c1 == 'n' && mPos + 2 < mEnd && isBlank(mData[mPos + 2])) {
+                    // vertex normal
+                    mPos += 2;
+                    parseFloats(3, mNormals);
+                }
+            } else if (c0 == 'f' && isBlank(c1)) {
+                // face indices
+                mPos++;
+                parseFace();
+            }
+        }
+        // all other lines are ignored
+        skipLine();
+    }
+
+    /**
+     * Parses the specified number of floats and adds them to the destination list. Additional
+     * values (e.g. the optional w coordinate) are ignored.
+     */
+    private void parseFloats(int count, FloatList dst) throws GlException {
+        for (int i = 0; i < count; i++) {
+            skipBlanks();
+            dst.add(parseFloat());
+        }
+    }
+
+    /**
+     * Parses the three vertices of a triangle face.
+     */
+    private void parseFace() throws GlException {
+        for (int i = 0; i < 3; i++) {
+            skipBlanks();
+            // vertex indices can have the following formats:
+            // [v], [v]/[vt], [v]/[vt]/[vn] or [v]//[vn]
+            addIndex(parseInt(), ELEM_POSITION, mPositions.size() / 3);
+            int cnt = 1;
+            int field = 0;
+            while (mPos < mEnd && mData[mPos] == '/') {
+                mPos++;
+                field++;
+                if (mPos < mEnd && mData[mPos] == '/') {
+                    // empty field, i.e. no texture coordinate index
+                    continue;
+                }
+                if (field == 1) {
+                    addIndex(parseInt(), ELEM_TEX_COORD, mTexCoords.size() / 2);
+                } else {
+                    addIndex(parseInt(), ELEM_NORMAL, mNormals.size() / 3);
+                }
+                cnt++;
+            }
+            if (mIndicesPerVertex == 0) {
+                mIndicesPerVertex = cnt;
+            } else if (cnt != mIndicesPerVertex) {
+                throw new GlException("Inconsistent face vertex format in line " + mLine);
+            }
+        }
+        skipBlanks();
+        if (mPos < mEnd && !isLineEnd(mData[mPos])) {
+            throw new GlException("No support for more than 3 vertex indices per face");
+        }
+    }
+
+    /**
+     * Adds the specified OBJ element index to the index list. OBJ indices count from 1, negative
+     * indices are relative to the number of elements parsed so far.
+     */
+    private void addIndex(int objIdx, int elemType, int elemCnt) {
+        if (objIdx > 0) {
+            mIndices.add(objIdx - 1);
+        } else {
+            mRelativeIndices.add(mIndices.size() * 3 + elemType);
+            mIndices.add(elemCnt + objIdx);
+        }
+    }
+
+    /**
+     * Parses an int at the current read position.
+     */
+    private int parseInt() throws GlException {
+        boolean negative = false;
+        if (mPos < mEnd && mData[mPos] == '-') {
+            negative = true;
+            mPos++;
+        }
+        int start = mPos;
+        int value = 0;
+        while (mPos < mEnd) {
+            int d = mData[mPos] - '0';
+            if (d < 0 || d > 9) {
+                break;
+            }
+            value = value * 10 + d;
+            mPos++;
+        }
+        if (mPos == start) {
+            throw new GlException("Malformed index in line " + mLine);
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a float at the current read position. Plain decimal numbers with optional exponent
+     * are parsed directly, anything else (e.g. "nan") is passed to {@link Float#parseFloat(String)}.
+     */
+    private float parseFloat() throws GlException {
+        int start = mPos;
+        boolean negative = false;
+        if (mPos < mEnd) {
+            byte c = mData[mPos];
+            if (c == '-' || c == '+') {
+                negative = c == '-';
+                mPos++;
+            }
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exp10 = 0;
+        boolean hasDigits = false;
+
+        // integer part
+        while (mPos < mEnd) {
+            int d = mData[mPos] - '0';
+            if (d < 0 || d > 9) {
+                break;
+            }
+            if (digits < MAX_MANTISSA_DIGITS) {
+                mantissa = mantissa * 10 + d;
+                if (mantissa != 0) {
+                    digits++;
+                }
+            } else {
+                exp10++;
+            }
+            hasDigits = true;
+            mPos++;
+        }
+        // fraction part
+        if (mPos < mEnd && mData[mPos] == '.') {
+            mPos++;
+            while (mPos < mEnd) {
+                int d = mData[mPos] - '0';
+                if (d < 0 || d > 9) {
+                    break;
+                }
+                if (digits < MAX_MANTISSA_DIGITS) {
+                    mantissa = mantissa * 10 + d;
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                    exp10--;
+                }
+                hasDigits = true;
+                mPos++;
+            }
+        }
+        // exponent
+        if (hasDigits && mPos < mEnd && (mData[mPos] == 'e' || mData[mPos] == 'E')) {
+            mPos++;
+            boolean expNegative = false;
+            if (mPos < mEnd && (mData[mPos] == '-' || mData[mPos] == '+')) {
+                expNegative = mData[mPos] == '-';
+                mPos++;
+            }
+            int exp = 0;
+            int expStart = mPos;
+            while (mPos < mEnd) {
+                int d = mData[mPos] - '0';
+                if (d < 0 || d > 9) {
+                    break;
+                }
+                if (exp < 10000) {
+                    exp = exp * 10 + d;
+                }
+                mPos++;
+            }
+            if (mPos == expStart) {
+                hasDigits = false;
+            }
+            exp10 += expNegative ? -exp : exp;
+        }
+
+        if (!hasDigits || (mPos < mEnd && !isSeparator(mData[mPos]))) {
+            // not a plain decimal number, let the JDK handle it
+            return parseFloatSlow(start);
+        }
+
+        double value = mantissa;
+        if (exp10 < 0) {
+            value = exp10 >= -22 ? value / POW10[-exp10] : value / Math.pow(10, -exp10);
+        } else if (exp10 > 0) {
+            value = exp10 <= 22 ? value * POW10[exp10] : value * Math.pow(10, exp10);
+        }
+        return (float) (negative ? -value : value);
+    }
+
+    /**
+     * Parses the token starting at the specified position with {@link Float#parseFloat(String)}.
+     */
+    private float parseFloatSlow(int start) throws GlException {
+        mPos = start;
+        while (mPos < mEnd && !isSeparator(mData[mPos])) {
+            mPos++;
+        }
+        try {
+            return Float.parseFloat(new String(mData, start, mPos - start, "US-ASCII"));
+        } catch (Exception e) {
+            throw new GlException("Malformed number in line " + mLine, e);
+        }
+    }
+
+    /**
+     * Moves the read position to the first non-blank character.
+     */
+    private void skipBlanks() {
+        while (mPos < mEnd && isBlank(mData[mPos])) {
+            mPos++;
+        }
+    }
+
+    /**
+     * Moves the read position to the beginning of the next line.
+     */
+    private void skipLine() {
+        while (mPos < mEnd) {
+            if (mData[mPos++] == '\n') {
+                mLine++;
+                break;
+            }
+        }
+    }
+
+    private static boolean isBlank(byte c) {
+        return c == ' ' || c == '\t';
+    }
+
+    private static boolean isLineEnd(byte c) {
+        return c == '\n' || c == '\r';
+    }
+
+    private static boolean isSeparator(byte c) {
+        return isBlank(c) || isLineEnd(c);
+    }
+}
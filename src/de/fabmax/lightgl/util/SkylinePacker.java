@@ -0,0 +1,174 @@
+package de.fabmax.lightgl.util;
+
+import java.util.ArrayList;
+
+/**
+ * Packs rectangles into a fixed size bin using the skyline bottom-left heuristic. The skyline is
+ * the upper contour of all packed rectangles; a new rectangle is placed at the position where its
+ * top edge is lowest. Works best if rectangles are inserted sorted by decreasing height.
+ * 
+ * @author fabmax
+ * 
+ */
+public class SkylinePacker {
+
+    private final int mWidth;
+    private final int mHeight;
+
+    // skyline segments sorted by x, segments cover the whole bin width
+    private final ArrayList<Segment> mSkyline = new ArrayList<Segment>();
+    private int mUsedArea = 0;
+
+    /**
+     * Creates a new SkylinePacker for a bin of the specified size.
+     * 
+     * @param width
+     *            bin width
+     * @param height
+     *            bin height
+     */
+    public SkylinePacker(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mSkyline.add(new Segment(0, 0, width));
+    }
+
+    /**
+     * Returns the bin width.
+     * 
+     * @return the bin width
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * Returns the bin height.
+     * 
+     * @return the bin height
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Returns the fraction of the bin area that is covered by packed rectangles.
+     * 
+     * @return the fraction of the used area, between 0 and 1
+     */
+    public float getOccupancy() {
+        return (float) mUsedArea / (mWidth * mHeight);
+    }
+
+    /**
+     * Inserts a rectangle of the specified size.
+     * 
+     * @param width
+     *            rectangle width
+     * @param height
+     *            rectangle height
+     * @param result
+     *            array that receives the x and y position of the inserted rectangle
+     * @return true if the rectangle was inserted, false if it didn't fit into the bin
+     */
+    public boolean insert(int width, int height, int[] result) {
+        int bestIdx = -1;
+        int bestTop = Integer.MAX_VALUE;
+        int bestWidth = Integer.MAX_VALUE;
+        int bestY = 0;
+        for (int i = 0; i < mSkyline.size(); i++) {
+            int y = fit(i, width, height);
+            if (y >= 0) {
+                int top = y + height;
+                Segment seg = mSkyline.get(i);
+                if (top < bestTop || (top == bestTop && seg.mWidth < bestWidth)) {
+                    bestIdx = i;
+                    bestTop = top;
+                    bestWidth = seg.mWidth;
+                    bestY = y;
+                }
+            }
+        }
+        if (bestIdx < 0) {
+            return false;
+        }
+
+        int x = mSkyline.get(bestIdx).mX;
+        addSegment(bestIdx, x, bestY + height, width);
+        mUsedArea += width * height;
+        result[0] = x;
+        result[1] = bestY;
+        return true;
+    }
+
+    /**
+     * Returns the y coordinate at which a rectangle of the specified size fits if its left edge is
+     * aligned to the specified skyline segment, or -1 if it doesn't fit.
+     */
+    private int fit(int index, int width, int height) {
+        int x = mSkyline.get(index).mX;
+        if (x + width > mWidth) {
+            return -1;
+        }
+        int y = 0;
+        int widthLeft = width;
+        for (int i = index; widthLeft > 0; i++) {
+            Segment seg = mSkyline.get(i);
+            y = Math.max(y, seg.mY);
+            if (y + height > mHeight) {
+                return -1;
+            }
+            widthLeft -= seg.mWidth;
+        }
+        return y;
+    }
+
+    /**
+     * Inserts a new skyline segment at the specified index and shrinks or removes the following
+     * segments that are covered by it.
+     */
+    private void addSegment(int index, int x, int y, int width) {
+        mSkyline.add(index, new Segment(x, y, width));
+        int right = x + width;
+        for (int i = index + 1; i < mSkyline.size();) {
+            Segment seg = mSkyline.get(i);
+            if (seg.mX >= right) {
+                break;
+            }
+            int shrink = right - seg.mX;
+            if (shrink >= seg.mWidth) {
+                mSkyline.remove(i);
+            } else {
+                seg.mX += shrink;
+                seg.mWidth -= shrink;
+                break;
+            }
+        }
+        // merge neighboring segments of equal height
+        for (int i = 0; i < mSkyline.size() - 1;) {
+            Segment seg = mSkyline.get(i);
+            Segment next = mSkyline.get(i + 1);
+            if (seg.mY == next.mY) {
+                seg.mWidth += next.mWidth;
+                mSkyline.remove(i + 1);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * A horizontal segment of the skyline.
+     */
+    private static class Segment {
+        int mX;
+        int mY;
+        int mWidth;
+
+        Segment(int x, int y, int width) {
+            mX = x;
+            mY = y;
+            mWidth = width;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package de.fabmax.lightgl.util;
+
+/**
+ * Hash map from (position, texture coordinate, normal) index triples to vertex indices. Used to
+ * deduplicate OBJ face vertices. The map uses open addressing with linear probing and stores the
+ * full key triple, hence lookups and insertions run in amortized constant time and different
+ * triples never share a vertex.
+ * 
+ * @author fabmax
+ * 
+ */
+public class VertexIndexMap {
+
+    private static final float MAX_LOAD_FACTOR = 0.5f;
+
+    // keys are stored as 3 consecutive ints per slot, values are -1 for empty slots
+    private int[] mKeys;
+    private int[] mValues;
+    private int mMask;
+    private int mSize = 0;
+    private int mResizeThreshold;
+
+    /**
+     * Creates a VertexIndexMap with an initial capacity of 1024 entries.
+     */
+    public VertexIndexMap() {
+        this(1024);
+    }
+
+    /**
+     * Creates a VertexIndexMap with the specified initial capacity.
+     * 
+     * @param initialCapacity
+     *            number of entries the map can hold without resizing
+     */
+    public VertexIndexMap(int initialCapacity) {
+        int slots = 16;
+        while (slots * MAX_LOAD_FACTOR < initialCapacity) {
+            slots <<= 1;
+        }
+        allocate(slots);
+    }
+
+    /**
+     * Returns the vertex index stored for the specified index triple. If the triple is not yet in
+     * the map, the specified new index is stored and returned.
+     * 
+     * @param ip
+     *            vertex position index
+     * @param it
+     *            vertex texture coordinate index
+     * @param in
+     *            vertex normal index
+     * @param newIndex
+     *            vertex index to store if the triple is not yet in the map, must be >= 0
+     * @return the stored vertex index, equals newIndex if the triple was added
+     */
+    public int getOrPut(int ip, int it, int in, int newIndex) {
+        int slot = hash(ip, it, in) & mMask;
+        while (mValues[slot] >= 0) {
+            int k = slot * 3;
+            if (mKeys[k] == ip && mKeys[k + 1] == it && mKeys[k + 2] == in) {
+                return mValues[slot];
+            }
+            slot = (slot + 1) & mMask;
+        }
+        int k = slot * 3;
+        mKeys[k] = ip;
+        mKeys[k + 1] = it;
+        mKeys[k + 2] = in;
+        mValues[slot] = newIndex;
+        if (++mSize > mResizeThreshold) {
+            rehash(mValues.length * 2);
+        }
+        return newIndex;
+    }
+
+    /**
+     * Returns the number of entries in this map.
+     * 
+     * @return the number of entries
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Removes all entries from this map.
+     */
+    public void clear() {
+        for (int i = 0; i < mValues.length; i++) {
+            mValues[i] = -1;
+        }
+        mSize = 0;
+    }
+
+    /**
+     * Allocates the key and value arrays for the specified number of slots.
+     */
+    private void allocate(int slots) {
+        mKeys = new int[slots * 3];
+        mValues = new int[slots];
+        for (int i = 0; i < slots; i++) {
+            mValues[i] = -1;
+        }
+        mMask = slots - 1;
+        mResizeThreshold = (int) (slots * MAX_LOAD_FACTOR);
+    }
+
+    /**
+     * Moves all entries to new arrays with the specified number of slots.
+     */
+    private void rehash(int slots) {
+        int[] keys = mKeys;
+        int[] values = mValues;
+        allocate(slots);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] >= 0) {
+                int k = i * 3;
+                int slot = hash(keys[k], keys[k + 1], keys[k + 2]) & mMask;
+                while (mValues[slot] >= 0) {
+                    slot = (slot + 1) & mMask;
+                }
+                System.arraycopy(keys, k, mKeys, slot * 3, 3);
+                mValues[slot] = values[i];
+            }
+        }
+    }
+
+    /**
+     * Computes a well distributed hash of the index triple. Consecutive indices are common, so the
+     * bits are mixed thoroughly to avoid clustering with linear probing.
+     */
+    private static int hash(int ip, int it, int in) {
+        int h = ip * 0x9E3779B1;
+        h = (h ^ (h >>> 15) ^ it) * 0x85EBCA6B;
+        h = (h ^ (h >>> 13) ^ in) * 0xC2B2AE35;
+        return h ^ (h >>> 16);
+    }
+}